@@ -330,6 +330,9 @@ run_silent "${CXX}" -o ${OUTPUT_DIR}/build-runfiles -std=c++0x src/main/tools/bu
 log "Compiling process-wrapper..."
 run_silent "${CC}" -o ${OUTPUT_DIR}/process-wrapper -std=c99 src/main/tools/process-wrapper.c src/main/tools/process-tools.c -lm
 
+log "Compiling process-launcher..."
+run_silent "${CC}" -o ${OUTPUT_DIR}/process-launcher -std=c99 src/main/tools/process-launcher.c src/main/tools/process-tools.c -lm
+
 log "Compiling namespace-sandbox..."
 if [[ $PLATFORM == "linux" ]]; then
   run_silent "${CC}" -o ${OUTPUT_DIR}/namespace-sandbox -std=c99 src/main/tools/namespace-sandbox.c src/main/tools/process-tools.c -lm
@@ -341,7 +344,7 @@ cp src/main/tools/build_interface_so ${OUTPUT_DIR}/build_interface_so
 cp src/main/tools/jdk.* ${OUTPUT_DIR}
 
 log "Creating Bazel self-extracting archive..."
-TO_ZIP="libblaze.jar ${JNILIB} build-runfiles${EXE_EXT} process-wrapper${EXE_EXT} namespace-sandbox${EXE_EXT} build_interface_so ${MSYS_DLLS} jdk.BUILD"
+TO_ZIP="libblaze.jar ${JNILIB} build-runfiles${EXE_EXT} process-wrapper${EXE_EXT} process-launcher${EXE_EXT} namespace-sandbox${EXE_EXT} build_interface_so ${MSYS_DLLS} jdk.BUILD"
 
 (cd ${OUTPUT_DIR}/ ; cat client ${TO_ZIP} | ${MD5SUM} | awk '{ print $1; }' > install_base_key)
 (cd ${OUTPUT_DIR}/ ; echo "${JAVA_VERSION}" > java.version)
@@ -129,6 +129,15 @@ public abstract class AbstractJavaBuilder extends AbstractLibraryBuilder {
   @VisibleForTesting
   protected void runClassPostProcessing(JavaLibraryBuildRequest build)
       throws IOException {
+    if (build.getClassOutput() != null) {
+      for (AbstractPostProcessor postProcessor : build.getPostProcessors()) {
+        if (!postProcessor.supportsInMemoryClassOutput()) {
+          // The post processor reads the class files from the class directory.
+          build.getClassOutput().writeTo(new File(build.getClassDir()));
+          break;
+        }
+      }
+    }
     for (AbstractPostProcessor postProcessor : build.getPostProcessors()) {
       postProcessor.initialize(build);
       postProcessor.processRequest();
@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -52,6 +53,9 @@ public abstract class AbstractLibraryBuilder extends CommonJavaLibraryProcessor
       }
     }
     classDirectory.mkdirs();
+    if (build.getClassOutput() != null) {
+      build.getClassOutput().clear();
+    }
 
     setUpSourceJars(build);
   }
@@ -60,6 +64,8 @@ public abstract class AbstractLibraryBuilder extends CommonJavaLibraryProcessor
     JarCreator jar = new JarCreator(build.getOutputJar());
     jar.setNormalize(true);
     jar.setCompression(build.compressJar());
+    jar.setCompressionThreads(Runtime.getRuntime().availableProcessors());
+    jar.setInterfaceJar(build.getOutputInterfaceJar());
 
     // The easiest way to handle resource jars is to unpack them into the class directory, just
     // before we start zipping it up.
@@ -69,6 +75,11 @@ public abstract class AbstractLibraryBuilder extends CommonJavaLibraryProcessor
     }
 
     jar.addDirectory(build.getClassDir());
+    if (build.getClassOutput() != null) {
+      for (Map.Entry<String, byte[]> entry : build.getClassOutput().getEntries().entrySet()) {
+        jar.addEntry(entry.getKey(), entry.getValue());
+      }
+    }
 
     jar.addRootEntries(build.getRootResourceFiles());
     addResourceEntries(jar, build.getResourceFiles());
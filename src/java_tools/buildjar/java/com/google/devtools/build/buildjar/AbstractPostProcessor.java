@@ -15,6 +15,7 @@
 package com.google.devtools.build.buildjar;
 
 import com.google.common.base.Preconditions;
+import com.google.devtools.build.buildjar.javac.plugins.filemanager.InMemoryClassOutput;
 
 import java.io.File;
 import java.io.IOException;
@@ -77,6 +78,23 @@ public abstract class AbstractPostProcessor {
     return build.getClassDir();
   }
 
+  /**
+   * Returns the class files that are kept in memory, or null if javac writes them to
+   * {@link #getBuildClassDir}. Only used if {@link #supportsInMemoryClassOutput} returns true.
+   */
+  protected InMemoryClassOutput getBuildClassOutput() {
+    return build.getClassOutput();
+  }
+
+  /**
+   * Returns true if the processor handles the class files returned by
+   * {@link #getBuildClassOutput}. Otherwise they are written to the class directory before the
+   * processor runs.
+   */
+  protected boolean supportsInMemoryClassOutput() {
+    return false;
+  }
+
   /**
    * Main interface method of the post processor.
    */
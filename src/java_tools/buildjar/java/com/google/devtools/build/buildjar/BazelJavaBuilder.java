@@ -19,7 +19,9 @@ import com.google.devtools.build.buildjar.javac.JavacOptions;
 import com.google.devtools.build.buildjar.javac.plugins.BlazeJavaCompilerPlugin;
 import com.google.devtools.build.buildjar.javac.plugins.dependency.DependencyModule;
 import com.google.devtools.build.buildjar.javac.plugins.errorprone.ErrorPronePlugin;
+import com.google.devtools.build.buildjar.javac.plugins.filemanager.ClassFileCache;
 import com.google.devtools.build.buildjar.javac.plugins.filemanager.FileManagerInitializationPlugin;
+import com.google.devtools.build.buildjar.javac.plugins.filemanager.InMemoryClassOutput;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
 
@@ -29,6 +31,8 @@ import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 /**
  * The JavaBuilder main called by bazel.
  */
@@ -44,13 +48,15 @@ public abstract class BazelJavaBuilder {
       System.exit(runPersistentWorker());
     } else {
       // This is a single invocation of JavaBuilder that exits after it processed the request.
-      System.exit(processRequest(Arrays.asList(args)));
+      System.exit(processRequest(Arrays.asList(args), null));
     }
   }
 
   private static int runPersistentWorker() {
     PrintStream originalStdOut = System.out;
     PrintStream originalStdErr = System.err;
+    // The class files of the JDK and of the third party jars are the same for most requests.
+    ClassFileCache classFileCache = new ClassFileCache(ClassFileCache.DEFAULT_MAX_BYTES);
 
     while (true) {
       try {
@@ -69,7 +75,7 @@ public abstract class BazelJavaBuilder {
         System.setOut(ps);
         System.setErr(ps);
         try {
-          exitCode = processRequest(request.getArgumentsList());
+          exitCode = processRequest(request.getArgumentsList(), classFileCache);
         } finally {
           System.setOut(originalStdOut);
           System.setErr(originalStdErr);
@@ -95,9 +101,9 @@ public abstract class BazelJavaBuilder {
     return 0;
   }
 
-  private static int processRequest(List<String> args) {
+  private static int processRequest(List<String> args, @Nullable ClassFileCache classFileCache) {
     try {
-      JavaLibraryBuildRequest build = parse(args);
+      JavaLibraryBuildRequest build = parse(args, classFileCache);
       AbstractJavaBuilder builder = build.getDependencyModule().reduceClasspath()
           ? new ReducedClasspathJavaLibraryBuilder()
           : new SimpleJavaLibraryBuilder();
@@ -115,19 +121,23 @@ public abstract class BazelJavaBuilder {
   /**
    * Parses the list of arguments into a {@link JavaLibraryBuildRequest}. The returned
    * {@link JavaLibraryBuildRequest} object can be then used to configure the compilation itself.
+   * The compilation reads class files from jars through the given cache, if it isn't null.
    *
    * @throws IOException if the argument list contains a file (with the @ prefix) and reading that
    *         file failed
    * @throws InvalidCommandLineException on any command line error
    */
-  private static JavaLibraryBuildRequest parse(List<String> args) throws IOException,
-      InvalidCommandLineException {
+  private static JavaLibraryBuildRequest parse(List<String> args,
+      @Nullable ClassFileCache classFileCache) throws IOException, InvalidCommandLineException {
+    // Keep the class files in memory, they only go into the output jar.
+    InMemoryClassOutput classOutput = new InMemoryClassOutput();
     ImmutableList<BlazeJavaCompilerPlugin> plugins =
         ImmutableList.<BlazeJavaCompilerPlugin>of(
-            new FileManagerInitializationPlugin(),
+            new FileManagerInitializationPlugin(classOutput, classFileCache),
             new ErrorPronePlugin());
     JavaLibraryBuildRequest build =
         new JavaLibraryBuildRequest(args, plugins, new DependencyModule.Builder());
+    build.setClassOutput(classOutput);
     build.setJavacOpts(JavacOptions.normalizeOptions(build.getJavacOpts()));
     return build;
   }
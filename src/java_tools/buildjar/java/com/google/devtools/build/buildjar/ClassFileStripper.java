@@ -0,0 +1,903 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Strips a class file down to the parts that are needed to compile against it, following the same
+ * rules as ijar (see third_party/ijar/classfile.cc), so that an interface jar written by
+ * JavaBuilder has the same class files as one written by ijar from the class jar.
+ *
+ * <p>Method bodies, private fields and methods, class initializers and debugging information are
+ * removed, local and anonymous classes are reduced to opaque classes, and the constant pool is
+ * rebuilt with only the constants that are still referenced, in the order of their first use.
+ */
+final class ClassFileStripper {
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_INTEGER = 3;
+  private static final int CONSTANT_FLOAT = 4;
+  private static final int CONSTANT_LONG = 5;
+  private static final int CONSTANT_DOUBLE = 6;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_INTERFACEMETHODREF = 11;
+  private static final int CONSTANT_NAMEANDTYPE = 12;
+  private static final int CONSTANT_METHODHANDLE = 15;
+  private static final int CONSTANT_METHODTYPE = 16;
+  private static final int CONSTANT_INVOKEDYNAMIC = 18;
+
+  private static final int ACC_PRIVATE = 0x0002;
+
+  /**
+   * The attributes that are kept. All others are dropped, in particular Code, SourceFile, the
+   * debugging tables, Synthetic and BootstrapMethods.
+   */
+  private static final Set<String> KEPT_ATTRIBUTES = new HashSet<>(Arrays.asList(
+      "Exceptions", "Signature", "Deprecated", "EnclosingMethod", "InnerClasses",
+      "AnnotationDefault", "ConstantValue", "RuntimeVisibleAnnotations",
+      "RuntimeInvisibleAnnotations", "RuntimeVisibleParameterAnnotations",
+      "RuntimeInvisibleParameterAnnotations", "Scala", "ScalaSig", "ScalaInlineInfo",
+      "RuntimeVisibleTypeAnnotations", "RuntimeInvisibleTypeAnnotations"));
+
+  /** The characters that end an identifier in a signature, see JVM spec 4.7.9.1. */
+  private static final String SIGNATURE_NON_IDENTIFIER_CHARS = ".;[<>:";
+
+  /** A constant of the input class file. */
+  private final class Constant {
+    private final int tag;
+    // The position and length of the constant's data, after the tag.
+    private final int offset;
+    private final int length;
+    // The constants that this constant refers to, or 0.
+    private final int ref1;
+    private final int ref2;
+    // The index of this constant in the output constant pool, 0 if it isn't used.
+    private int slot = 0;
+
+    Constant(int tag, int offset, int length, int ref1, int ref2) {
+      this.tag = tag;
+      this.offset = offset;
+      this.length = length;
+      this.ref1 = ref1;
+      this.ref2 = ref2;
+    }
+
+    /**
+     * Returns the index of this constant in the output constant pool, adding it and the constants
+     * that it refers to if it isn't there yet.
+     */
+    int slot() throws IOException {
+      if (slot == 0) {
+        if (ref1 != 0) {
+          constant(ref1).slot();
+        }
+        if (ref2 != 0) {
+          constant(ref2).slot();
+        }
+        slot = outputPool.size();
+        outputPool.add(this);
+        if (tag == CONSTANT_LONG || tag == CONSTANT_DOUBLE) {
+          // The second slot of a long or double constant is unusable.
+          outputPool.add(null);
+        }
+      }
+      return slot;
+    }
+
+    boolean isKept() {
+      return slot != 0;
+    }
+
+    /**
+     * Returns the string of a UTF-8 constant, or of the name of a class constant.
+     */
+    String display() throws IOException {
+      if (tag == CONSTANT_CLASS) {
+        return constant(ref1).display();
+      }
+      if (tag != CONSTANT_UTF8) {
+        throw new IOException("Constant with tag " + tag + " is not a string");
+      }
+      // The length prefix is part of the modified UTF-8 encoding read by readUTF.
+      return new DataInputStream(new ByteArrayInputStream(in, offset - 2, length + 2)).readUTF();
+    }
+
+    void write(Output out) throws IOException {
+      out.u1(tag);
+      switch (tag) {
+        case CONSTANT_CLASS:
+        case CONSTANT_STRING:
+          out.u2(constant(ref1).slot());
+          break;
+        case CONSTANT_FIELDREF:
+        case CONSTANT_METHODREF:
+        case CONSTANT_INTERFACEMETHODREF:
+        case CONSTANT_NAMEANDTYPE:
+          out.u2(constant(ref1).slot());
+          out.u2(constant(ref2).slot());
+          break;
+        case CONSTANT_UTF8:
+          out.u2(length);
+          out.bytes(in, offset, length);
+          break;
+        default:
+          // Method handles, method types and invokedynamic constants can only be referenced from
+          // code, which is dropped; like ijar, they are copied as they are.
+          out.bytes(in, offset, length);
+          break;
+      }
+    }
+  }
+
+  /** An attribute of the input class file, kept in its encoded form. */
+  private static final class Attribute {
+    private final Constant name;
+    private final String nameString;
+    // The position and length of the attribute's data, after the length field.
+    private final int offset;
+    private final int length;
+
+    Attribute(Constant name, String nameString, int offset, int length) {
+      this.name = name;
+      this.nameString = nameString;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  /** A field or a method. */
+  private static final class Member {
+    private final int accessFlags;
+    private final Constant name;
+    private final Constant descriptor;
+    private final List<Attribute> attributes;
+
+    Member(int accessFlags, Constant name, Constant descriptor, List<Attribute> attributes) {
+      this.accessFlags = accessFlags;
+      this.name = name;
+      this.descriptor = descriptor;
+      this.attributes = attributes;
+    }
+  }
+
+  /** A growable byte buffer for writing big-endian class file data. */
+  private static final class Output {
+    private byte[] buf = new byte[1024];
+    private int pos = 0;
+
+    private void ensureCapacity(int n) {
+      if (pos + n > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+      }
+    }
+
+    void u1(int value) {
+      ensureCapacity(1);
+      buf[pos++] = (byte) value;
+    }
+
+    void u2(int value) {
+      ensureCapacity(2);
+      buf[pos++] = (byte) (value >>> 8);
+      buf[pos++] = (byte) value;
+    }
+
+    void u4(int value) {
+      ensureCapacity(4);
+      putU4(pos, value);
+      pos += 4;
+    }
+
+    void putU2(int position, int value) {
+      buf[position] = (byte) (value >>> 8);
+      buf[position + 1] = (byte) value;
+    }
+
+    void putU4(int position, int value) {
+      buf[position] = (byte) (value >>> 24);
+      buf[position + 1] = (byte) (value >>> 16);
+      buf[position + 2] = (byte) (value >>> 8);
+      buf[position + 3] = (byte) value;
+    }
+
+    void bytes(byte[] data, int offset, int length) {
+      ensureCapacity(length);
+      System.arraycopy(data, offset, buf, pos, length);
+      pos += length;
+    }
+
+    int position() {
+      return pos;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buf, pos);
+    }
+  }
+
+  private final byte[] in;
+  private int pos = 0;
+
+  // The input constant pool; index 0 and the second slots of longs and doubles are null.
+  private final List<Constant> inputPool = new ArrayList<>();
+  // The output constant pool, in the same layout.
+  private final List<Constant> outputPool = new ArrayList<>();
+  // The names of the classes that the stripped class refers to in its descriptors, signatures and
+  // annotations. Their InnerClasses entries are kept.
+  private final Set<String> usedClassNames = new HashSet<>();
+
+  private ClassFileStripper(byte[] in) {
+    this.in = in;
+  }
+
+  /**
+   * Returns the stripped version of the given class file. If the class file contains a constant
+   * that isn't known, it is returned unchanged.
+   *
+   * @throws IOException if the class file is malformed
+   */
+  static byte[] strip(byte[] classfile) throws IOException {
+    try {
+      return new ClassFileStripper(classfile).strip();
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IOException("Truncated class file", e);
+    }
+  }
+
+  private byte[] strip() throws IOException {
+    if (u4() != 0xCAFEBABE) {
+      throw new IOException("Bad magic number in class file");
+    }
+    int minorVersion = u2();
+    int majorVersion = u2();
+    if (!readConstantPool()) {
+      return in.clone();
+    }
+
+    int accessFlags = u2();
+    Constant thisClass = constant(u2());
+    int superClassIndex = u2();
+    Constant superClass = superClassIndex == 0 ? null : constant(superClassIndex);
+    List<Constant> interfaces = new ArrayList<>();
+    for (int count = u2(); count > 0; count--) {
+      interfaces.add(constant(u2()));
+    }
+    List<Member> fields = new ArrayList<>();
+    for (int count = u2(); count > 0; count--) {
+      Member field = readMember();
+      if ((field.accessFlags & ACC_PRIVATE) == 0) {
+        fields.add(field);
+      }
+    }
+    List<Member> methods = new ArrayList<>();
+    for (int count = u2(); count > 0; count--) {
+      Member method = readMember();
+      if ((method.accessFlags & ACC_PRIVATE) == 0
+          && !method.name.display().equals("<clinit>")) {
+        methods.add(method);
+      }
+    }
+    List<Attribute> attributes = readAttributes();
+
+    // An EnclosingMethod attribute marks a local or anonymous class. Nothing in it can be used
+    // from outside, so only the InnerClasses attribute, which the spec requires, is kept.
+    Attribute innerClasses = null;
+    boolean isLocal = false;
+    for (Attribute attribute : attributes) {
+      if (attribute.nameString.equals("InnerClasses")) {
+        if (innerClasses == null) {
+          innerClasses = attribute;
+        }
+      } else if (attribute.nameString.equals("EnclosingMethod")) {
+        isLocal = true;
+      }
+    }
+    if (isLocal) {
+      superClass = null;
+      interfaces.clear();
+      fields.clear();
+      methods.clear();
+      attributes.clear();
+      if (innerClasses != null) {
+        attributes.add(innerClasses);
+      }
+    }
+
+    extractClassNames(attributes);
+    for (List<Member> members : Arrays.asList(fields, methods)) {
+      for (Member member : members) {
+        new SignatureParser(member.descriptor.display()).extractClassNames();
+        extractClassNames(member.attributes);
+      }
+    }
+
+    // The body is written first, so that the output constant pool is complete when the header is
+    // written.
+    outputPool.add(null);
+    Output body = new Output();
+    body.u2(accessFlags);
+    body.u2(thisClass.slot());
+    body.u2(superClass == null ? 0 : superClass.slot());
+    body.u2(interfaces.size());
+    for (Constant iface : interfaces) {
+      body.u2(iface.slot());
+    }
+    writeMembers(body, fields);
+    writeMembers(body, methods);
+    // The InnerClasses attribute is written last, so that it knows which classes are referenced.
+    if (innerClasses != null) {
+      attributes.remove(innerClasses);
+      attributes.add(innerClasses);
+    }
+    writeAttributes(body, attributes, thisClass);
+
+    Output out = new Output();
+    out.u4(0xCAFEBABE);
+    out.u2(minorVersion);
+    out.u2(majorVersion);
+    out.u2(outputPool.size());
+    for (Constant constant : outputPool) {
+      if (constant != null) {
+        constant.write(out);
+      }
+    }
+    byte[] bodyBytes = body.toByteArray();
+    out.bytes(bodyBytes, 0, bodyBytes.length);
+    return out.toByteArray();
+  }
+
+  private int u1() {
+    return in[pos++] & 0xff;
+  }
+
+  private int u2() {
+    int value = ((in[pos] & 0xff) << 8) | (in[pos + 1] & 0xff);
+    pos += 2;
+    return value;
+  }
+
+  private int u4() {
+    return (u2() << 16) | u2();
+  }
+
+  private Constant constant(int index) throws IOException {
+    if (index < 0 || index >= inputPool.size()) {
+      throw new IOException("Illegal constant pool index: " + index);
+    }
+    return inputPool.get(index);
+  }
+
+  /**
+   * Reads the constant pool. Returns false if it contains a constant with an unknown tag.
+   */
+  private boolean readConstantPool() {
+    inputPool.add(null);
+    int count = u2();
+    for (int i = 1; i < count; i++) {
+      int tag = u1();
+      int offset = pos;
+      switch (tag) {
+        case CONSTANT_CLASS:
+        case CONSTANT_STRING:
+          inputPool.add(new Constant(tag, offset, 2, u2(), 0));
+          break;
+        case CONSTANT_FIELDREF:
+        case CONSTANT_METHODREF:
+        case CONSTANT_INTERFACEMETHODREF:
+        case CONSTANT_NAMEANDTYPE:
+          inputPool.add(new Constant(tag, offset, 4, u2(), u2()));
+          break;
+        case CONSTANT_UTF8:
+          int length = u2();
+          inputPool.add(new Constant(tag, pos, length, 0, 0));
+          pos += length;
+          break;
+        case CONSTANT_INTEGER:
+        case CONSTANT_FLOAT:
+          inputPool.add(new Constant(tag, offset, 4, 0, 0));
+          pos += 4;
+          break;
+        case CONSTANT_LONG:
+        case CONSTANT_DOUBLE:
+          inputPool.add(new Constant(tag, offset, 8, 0, 0));
+          pos += 8;
+          // Longs and doubles occupy two constant pool slots.
+          inputPool.add(null);
+          i++;
+          break;
+        case CONSTANT_METHODHANDLE:
+          inputPool.add(new Constant(tag, offset, 3, 0, 0));
+          pos += 3;
+          break;
+        case CONSTANT_METHODTYPE:
+          inputPool.add(new Constant(tag, offset, 2, 0, 0));
+          pos += 2;
+          break;
+        case CONSTANT_INVOKEDYNAMIC:
+          inputPool.add(new Constant(tag, offset, 4, 0, 0));
+          pos += 4;
+          break;
+        default:
+          return false;
+      }
+    }
+    return true;
+  }
+
+  private Member readMember() throws IOException {
+    int accessFlags = u2();
+    Constant name = constant(u2());
+    Constant descriptor = constant(u2());
+    return new Member(accessFlags, name, descriptor, readAttributes());
+  }
+
+  /**
+   * Reads a table of attributes and returns the ones that are kept.
+   */
+  private List<Attribute> readAttributes() throws IOException {
+    List<Attribute> attributes = new ArrayList<>();
+    for (int count = u2(); count > 0; count--) {
+      Constant name = constant(u2());
+      int length = u4();
+      String nameString = name.display();
+      // Unknown attributes are dropped as well; the JVM spec allows that, as long as the
+      // mandatory attributes are handled.
+      if (KEPT_ATTRIBUTES.contains(nameString)) {
+        attributes.add(new Attribute(name, nameString, pos, length));
+      }
+      pos += length;
+    }
+    return attributes;
+  }
+
+  private void writeMembers(Output out, List<Member> members) throws IOException {
+    out.u2(members.size());
+    for (Member member : members) {
+      out.u2(member.accessFlags);
+      out.u2(member.name.slot());
+      out.u2(member.descriptor.slot());
+      writeAttributes(out, member.attributes, null);
+    }
+  }
+
+  /**
+   * Writes a table of attributes. Attributes that turn out to be empty are left out of the table.
+   */
+  private void writeAttributes(Output out, List<Attribute> attributes, Constant thisClass)
+      throws IOException {
+    int countPosition = out.position();
+    out.u2(0);
+    int count = 0;
+    for (Attribute attribute : attributes) {
+      if (writeAttribute(out, attribute, thisClass)) {
+        count++;
+      }
+    }
+    out.putU2(countPosition, count);
+  }
+
+  /**
+   * Writes an attribute, rewriting the constant pool indices in it. Returns false if nothing was
+   * written.
+   */
+  private boolean writeAttribute(Output out, Attribute attribute, Constant thisClass)
+      throws IOException {
+    if (attribute.nameString.equals("InnerClasses")) {
+      return writeInnerClasses(out, attribute, thisClass);
+    }
+    out.u2(attribute.name.slot());
+    int lengthPosition = out.position();
+    out.u4(0);
+    pos = attribute.offset;
+    switch (attribute.nameString) {
+      case "Exceptions":
+        int count = u2();
+        out.u2(count);
+        for (int i = 0; i < count; i++) {
+          out.u2(constant(u2()).slot());
+        }
+        break;
+      case "Signature":
+      case "ConstantValue":
+        out.u2(constant(u2()).slot());
+        break;
+      case "Deprecated":
+        break;
+      case "EnclosingMethod":
+        out.u2(constant(u2()).slot());
+        int method = u2();
+        out.u2(method == 0 ? 0 : constant(method).slot());
+        break;
+      case "AnnotationDefault":
+        copyElementValue(out);
+        break;
+      case "RuntimeVisibleAnnotations":
+      case "RuntimeInvisibleAnnotations":
+        copyAnnotations(out);
+        break;
+      case "RuntimeVisibleParameterAnnotations":
+      case "RuntimeInvisibleParameterAnnotations":
+        int parameters = u1();
+        out.u1(parameters);
+        for (int i = 0; i < parameters; i++) {
+          copyAnnotations(out);
+        }
+        break;
+      case "RuntimeVisibleTypeAnnotations":
+      case "RuntimeInvisibleTypeAnnotations":
+        int annotations = u2();
+        out.u2(annotations);
+        for (int i = 0; i < annotations; i++) {
+          copyTypeAnnotation(out);
+        }
+        break;
+      default:
+        // The Scala attributes are opaque.
+        out.bytes(in, attribute.offset, attribute.length);
+        break;
+    }
+    out.putU4(lengthPosition, out.position() - lengthPosition - 4);
+    return true;
+  }
+
+  /**
+   * Writes the InnerClasses attribute, keeping the entries of the classes that the stripped class
+   * still refers to, and those of its own member classes.
+   */
+  private boolean writeInnerClasses(Output out, Attribute attribute, Constant thisClass)
+      throws IOException {
+    pos = attribute.offset;
+    int count = u2();
+    Constant[][] entries = new Constant[count][];
+    int[] flags = new int[count];
+    for (int i = 0; i < count; i++) {
+      entries[i] = new Constant[] {constant(u2()), constant(u2()), constant(u2())};
+      flags[i] = u2();
+    }
+
+    // Keeping an entry keeps the constants of its outer class and name, which can cause more
+    // entries to be kept, so iterate until a fixed point is reached.
+    Set<Integer> keptEntries = new TreeSet<>();
+    int keptCount;
+    do {
+      keptCount = keptEntries.size();
+      for (int i = 0; i < count; i++) {
+        Constant inner = entries[i][0];
+        Constant outer = entries[i][1];
+        Constant innerName = entries[i][2];
+        if ((inner != null && (inner.isKept() || usedClassNames.contains(inner.display())))
+            || outer == thisClass || outer == null || innerName == null) {
+          keptEntries.add(i);
+          if (outer != null) {
+            outer.slot();
+          }
+          if (innerName != null) {
+            innerName.slot();
+          }
+        }
+      }
+    } while (keptCount != keptEntries.size());
+
+    if (keptEntries.isEmpty()) {
+      return false;
+    }
+    out.u2(attribute.name.slot());
+    out.u4(2 + keptEntries.size() * 8);
+    out.u2(keptEntries.size());
+    for (int i : keptEntries) {
+      for (Constant constant : entries[i]) {
+        out.u2(constant == null ? 0 : constant.slot());
+      }
+      out.u2(flags[i]);
+    }
+    return true;
+  }
+
+  private void copyAnnotations(Output out) throws IOException {
+    int count = u2();
+    out.u2(count);
+    for (int i = 0; i < count; i++) {
+      copyAnnotation(out);
+    }
+  }
+
+  private void copyAnnotation(Output out) throws IOException {
+    out.u2(constant(u2()).slot());
+    int pairs = u2();
+    out.u2(pairs);
+    for (int i = 0; i < pairs; i++) {
+      out.u2(constant(u2()).slot());
+      copyElementValue(out);
+    }
+  }
+
+  private void copyElementValue(Output out) throws IOException {
+    int tag = u1();
+    out.u1(tag);
+    switch (tag) {
+      case 'B': case 'C': case 'D': case 'F': case 'I': case 'J': case 'S': case 'Z': case 's':
+      case 'c':
+        out.u2(constant(u2()).slot());
+        break;
+      case 'e':
+        out.u2(constant(u2()).slot());
+        out.u2(constant(u2()).slot());
+        break;
+      case '[':
+        int count = u2();
+        out.u2(count);
+        for (int i = 0; i < count; i++) {
+          copyElementValue(out);
+        }
+        break;
+      case '@':
+        copyAnnotation(out);
+        break;
+      default:
+        throw new IOException("Illegal element_value tag: " + tag);
+    }
+  }
+
+  private void copyTypeAnnotation(Output out) throws IOException {
+    int start = pos;
+    skipTypeAnnotationTarget();
+    // The target and the type path don't refer to the constant pool.
+    out.bytes(in, start, pos - start);
+    copyAnnotation(out);
+  }
+
+  /**
+   * Skips the target type, target info and type path of a type annotation.
+   */
+  private void skipTypeAnnotationTarget() throws IOException {
+    int targetType = u1();
+    // Only the targets that can appear outside of Code attributes, see JVM spec 4.7.20.1.
+    switch (targetType) {
+      case 0x00: // type parameter of a class
+      case 0x01: // type parameter of a method
+      case 0x16: // formal parameter of a method
+        pos += 1;
+        break;
+      case 0x10: // supertype of a class
+      case 0x11: // bound of a type parameter of a class
+      case 0x12: // bound of a type parameter of a method
+      case 0x17: // throws clause of a method
+        pos += 2;
+        break;
+      case 0x13: // type of a field
+      case 0x14: // return type of a method
+      case 0x15: // receiver type of a method
+        break;
+      default:
+        throw new IOException("Illegal type annotation target type: " + targetType);
+    }
+    int pathLength = u1();
+    pos += pathLength * 2;
+  }
+
+  /**
+   * Adds the names of the classes that occur in the signatures and annotations among the given
+   * attributes to {@link #usedClassNames}.
+   */
+  private void extractClassNames(List<Attribute> attributes) throws IOException {
+    for (Attribute attribute : attributes) {
+      pos = attribute.offset;
+      switch (attribute.nameString) {
+        case "Signature":
+          new SignatureParser(constant(u2()).display()).extractClassNames();
+          break;
+        case "AnnotationDefault":
+          extractClassNamesFromElementValue();
+          break;
+        case "RuntimeVisibleAnnotations":
+        case "RuntimeInvisibleAnnotations":
+          extractClassNamesFromAnnotations();
+          break;
+        case "RuntimeVisibleParameterAnnotations":
+        case "RuntimeInvisibleParameterAnnotations":
+          for (int parameters = u1(); parameters > 0; parameters--) {
+            extractClassNamesFromAnnotations();
+          }
+          break;
+        case "RuntimeVisibleTypeAnnotations":
+        case "RuntimeInvisibleTypeAnnotations":
+          for (int count = u2(); count > 0; count--) {
+            skipTypeAnnotationTarget();
+            extractClassNamesFromAnnotation();
+          }
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  private void extractClassNamesFromAnnotations() throws IOException {
+    for (int count = u2(); count > 0; count--) {
+      extractClassNamesFromAnnotation();
+    }
+  }
+
+  private void extractClassNamesFromAnnotation() throws IOException {
+    pos += 2;
+    for (int pairs = u2(); pairs > 0; pairs--) {
+      pos += 2;
+      extractClassNamesFromElementValue();
+    }
+  }
+
+  private void extractClassNamesFromElementValue() throws IOException {
+    int tag = u1();
+    switch (tag) {
+      case 'c':
+        new SignatureParser(constant(u2()).display()).extractClassNames();
+        break;
+      case 'e':
+        pos += 4;
+        break;
+      case '[':
+        for (int count = u2(); count > 0; count--) {
+          extractClassNamesFromElementValue();
+        }
+        break;
+      case '@':
+        extractClassNamesFromAnnotation();
+        break;
+      default:
+        pos += 2;
+        break;
+    }
+  }
+
+  /**
+   * A crude recursive descent parser for descriptors and signatures (see JVM spec 4.3 and
+   * 4.7.9.1) that adds the names of the classes in them to {@link #usedClassNames}. It is more
+   * liberal than the spec, but accepts all valid class files.
+   */
+  private final class SignatureParser {
+    private final String desc;
+    private int p = 0;
+
+    SignatureParser(String desc) {
+      this.desc = desc;
+    }
+
+    private char peek() {
+      return p < desc.length() ? desc.charAt(p) : 0;
+    }
+
+    private void expect(char expected) throws IOException {
+      if (peek() != expected) {
+        throw new IOException(
+            "Expected '" + expected + "' at " + p + " in signature '" + desc + "'");
+      }
+      p++;
+    }
+
+    void extractClassNames() throws IOException {
+      switch (peek()) {
+        case '<':
+          parseFormalTypeParameters();
+          extractClassNames();
+          break;
+        case 'L':
+          parseClassTypeSignature();
+          break;
+        case '[':
+          p++;
+          extractClassNames();
+          break;
+        case 'T':
+          p++;
+          parseIdentifier();
+          expect(';');
+          break;
+        case '(':
+          parseMethodDescriptor();
+          break;
+        case 'B': case 'C': case 'D': case 'F': case 'I': case 'J': case 'S': case 'Z': case 'V':
+          p++;
+          break;
+        default:
+          throw new IOException("Invalid signature '" + desc + "' at " + p);
+      }
+    }
+
+    private void parseClassTypeSignature() throws IOException {
+      expect('L');
+      parseSimpleClassTypeSignature();
+      while (peek() == '.') {
+        p++;
+        parseSimpleClassTypeSignature();
+      }
+      expect(';');
+    }
+
+    private void parseSimpleClassTypeSignature() throws IOException {
+      parseIdentifier();
+      parseTypeArgumentsOpt();
+    }
+
+    private void parseIdentifier() {
+      int next = p;
+      while (next < desc.length()
+          && SIGNATURE_NON_IDENTIFIER_CHARS.indexOf(desc.charAt(next)) < 0) {
+        next++;
+      }
+      usedClassNames.add(desc.substring(p, next));
+      p = next;
+    }
+
+    private void parseTypeArgumentsOpt() throws IOException {
+      if (peek() != '<') {
+        return;
+      }
+      p++;
+      while (peek() != '>') {
+        switch (peek()) {
+          case '*':
+            p++;
+            break;
+          case '+':
+          case '-':
+            p++;
+            extractClassNames();
+            break;
+          default:
+            extractClassNames();
+            break;
+        }
+      }
+      p++;
+    }
+
+    private void parseMethodDescriptor() throws IOException {
+      expect('(');
+      while (peek() != ')') {
+        extractClassNames();
+      }
+      expect(')');
+      extractClassNames();
+    }
+
+    private void parseFormalTypeParameters() throws IOException {
+      expect('<');
+      while (peek() != '>') {
+        parseIdentifier();
+        expect(':');
+        if (peek() != ':' && peek() != '>') {
+          extractClassNames();
+        }
+        while (peek() == ':') {
+          expect(':');
+          extractClassNames();
+        }
+      }
+      expect('>');
+    }
+  }
+}
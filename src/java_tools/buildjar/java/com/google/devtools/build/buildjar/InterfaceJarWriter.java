@@ -0,0 +1,76 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.devtools.build.zip.ZipFileEntry;
+import com.google.devtools.build.zip.ZipFileEntry.Compression;
+import com.google.devtools.build.zip.ZipUtil;
+import com.google.devtools.build.zip.ZipWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Writes an interface jar, the equivalent of the output of ijar for the class jar: the class files
+ * stripped by {@link ClassFileStripper}, stored uncompressed with the DOS epoch as timestamp, in
+ * the order in which they were added. Other entries are left out.
+ */
+final class InterfaceJarWriter implements Closeable {
+
+  private final ZipWriter out;
+  private int entryCount = 0;
+
+  InterfaceJarWriter(OutputStream out) {
+    this.out = new ZipWriter(out, UTF_8);
+  }
+
+  /** Returns whether the entry with the given name belongs into the interface jar. */
+  static boolean isClassEntry(String name) {
+    return name.endsWith(".class");
+  }
+
+  /** Adds the stripped version of the given class file. */
+  void addClass(String name, byte[] classfile) throws IOException {
+    writeEntry(name, ClassFileStripper.strip(classfile));
+  }
+
+  private void writeEntry(String name, byte[] content) throws IOException {
+    ZipFileEntry entry = new ZipFileEntry(name);
+    entry.setTime(ZipUtil.DOS_EPOCH);
+    entry.setMethod(Compression.STORED);
+    CRC32 crc = new CRC32();
+    crc.update(content);
+    entry.setCrc(crc.getValue());
+    entry.setSize(content.length);
+    entry.setCompressedSize(content.length);
+    out.putNextEntry(entry);
+    out.write(content);
+    out.closeEntry();
+    entryCount++;
+  }
+
+  @Override
+  public void close() throws IOException {
+    // Like ijar, add a dummy file, since javac doesn't like truly empty jars.
+    if (entryCount == 0) {
+      writeEntry("dummy", new byte[0]);
+    }
+    out.close();
+  }
+}
@@ -14,6 +14,8 @@
 
 package com.google.devtools.build.buildjar;
 
+import com.google.common.io.Files;
+
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -21,10 +23,10 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.jar.Attributes;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 
 /**
@@ -36,8 +38,13 @@ public class JarCreator extends JarHelper {
   // Map from Jar entry names to files. Use TreeMap so we can establish a canonical order for the
   // entries regardless in what order they get added.
   private final Map<String, String> jarEntries = new TreeMap<>();
+  // The contents of the entries that are added from memory, for example class files that javac
+  // wrote to an in-memory file manager. Their names are in jarEntries with a null file name; names
+  // with a null file name and no contents are the parent directories of these entries.
+  private final Map<String, byte[]> entryContents = new HashMap<>();
   private String manifestFile;
   private String mainClass;
+  private String interfaceJar;
 
   public JarCreator(String fileName) {
     super(fileName);
@@ -51,12 +58,45 @@ public class JarCreator extends JarHelper {
    * @return true iff a new entry was added
    */
   public boolean addEntry(String entryName, String fileName) {
+    entryName = normalizeEntryName(entryName);
+    boolean added = !jarEntries.containsKey(entryName);
+    jarEntries.put(entryName, fileName);
+    entryContents.remove(entryName);
+    return added;
+  }
+
+  /**
+   * Adds an entry with the given contents to the Jar file, normalizing the name. The parent
+   * directories of the entry are added as well, as if the entry was in a directory added with
+   * {@link #addDirectory}. The contents must not be modified until the Jar file has been written.
+   *
+   * @param entryName the name of the entry in the Jar file
+   * @param content the contents of the entry
+   * @return true iff a new entry was added
+   */
+  public boolean addEntry(String entryName, byte[] content) {
+    entryName = normalizeEntryName(entryName);
+    boolean added = !jarEntries.containsKey(entryName);
+    jarEntries.put(entryName, null);
+    entryContents.put(entryName, content);
+    for (int slash = entryName.lastIndexOf('/'); slash > 0;
+        slash = entryName.lastIndexOf('/', slash - 1)) {
+      String directory = entryName.substring(0, slash);
+      if (jarEntries.containsKey(directory)) {
+        break;
+      }
+      jarEntries.put(directory, null);
+    }
+    return added;
+  }
+
+  private static String normalizeEntryName(String entryName) {
     if (entryName.startsWith("/")) {
-      entryName = entryName.substring(1);
+      return entryName.substring(1);
     } else if (entryName.startsWith("./")) {
-      entryName = entryName.substring(2);
+      return entryName.substring(2);
     }
-    return jarEntries.put(entryName, fileName) == null;
+    return entryName;
   }
 
   /**
@@ -86,6 +126,7 @@ public class JarCreator extends JarHelper {
       for (File file : files) {
         String entryName = prefix != null ? prefix + "/" + file.getName() : file.getName();
         jarEntries.put(entryName, file.getAbsolutePath());
+        entryContents.remove(entryName);
         if (file.isDirectory()) {
           addDirectory(entryName, file);
         }
@@ -102,7 +143,9 @@ public class JarCreator extends JarHelper {
    */
   public void addRootEntries(Collection<String> entries) {
     for (String entry : entries) {
-      jarEntries.put(new File(entry).getName(), entry);
+      String entryName = new File(entry).getName();
+      jarEntries.put(entryName, entry);
+      entryContents.remove(entryName);
     }
   }
 
@@ -127,6 +170,17 @@ public class JarCreator extends JarHelper {
     this.manifestFile = manifestFile;
   }
 
+  /**
+   * Sets the filename of an interface jar to write along with the Jar file, with the class files of
+   * the Jar file stripped the same way as ijar does. A value of <code>null</code> (the default)
+   * omits the interface jar.
+   *
+   * @param interfaceJar the filename of the interface jar
+   */
+  public void setInterfaceJar(String interfaceJar) {
+    this.interfaceJar = interfaceJar;
+  }
+
   private byte[] manifestContent() throws IOException {
     Manifest manifest;
     if (manifestFile != null) {
@@ -156,17 +210,38 @@ public class JarCreator extends JarHelper {
    *         cannot be read.
    */
   public void execute() throws IOException {
-    out = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(jarFile)));
+    openJar(new BufferedOutputStream(new FileOutputStream(jarFile)));
+    InterfaceJarWriter interfaceOut = interfaceJar == null ? null
+        : new InterfaceJarWriter(new BufferedOutputStream(new FileOutputStream(interfaceJar)));
 
     // Create the manifest entry in the Jar file
     writeManifestEntry(manifestContent());
     try {
       for (Map.Entry<String, String> entry : jarEntries.entrySet()) {
-        copyEntry(entry.getKey(), new File(entry.getValue()));
+        String name = entry.getKey();
+        if (entry.getValue() != null) {
+          File file = new File(entry.getValue());
+          copyEntry(name, file);
+          if (interfaceOut != null && InterfaceJarWriter.isClassEntry(name) && file.isFile()) {
+            interfaceOut.addClass(name, Files.toByteArray(file));
+          }
+        } else if (entryContents.containsKey(name)) {
+          writeEntry(name, entryContents.get(name));
+          if (interfaceOut != null && InterfaceJarWriter.isClassEntry(name)) {
+            interfaceOut.addClass(name, entryContents.get(name));
+          }
+        } else {
+          writeEntry(name + "/", new byte[0]);
+        }
       }
     } finally {
-      out.closeEntry();
-      out.close();
+      try {
+        closeJar();
+      } finally {
+        if (interfaceOut != null) {
+          interfaceOut.close();
+        }
+      }
     }
   }
 
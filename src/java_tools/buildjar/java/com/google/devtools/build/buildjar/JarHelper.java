@@ -20,6 +20,7 @@ import com.google.common.io.Files;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.jar.JarEntry;
@@ -52,10 +53,13 @@ public class JarHelper {
   protected boolean normalize;
   protected int storageMethod = JarEntry.DEFLATED;
   protected boolean verbose = false;
+  protected int compressionThreads = 1;
 
   // The state needed to create the Jar
   protected final Set<String> names = new HashSet<>();
   protected JarOutputStream out;
+  // Used instead of out if the entries are compressed.
+  protected ParallelJarWriter parallelOut;
 
   public JarHelper(String filename) {
     jarFile = filename;
@@ -80,6 +84,20 @@ public class JarHelper {
     storageMethod = compression ? JarEntry.DEFLATED : JarEntry.STORED;
   }
 
+  /**
+   * Sets the number of threads for compressing the Jar file entries. With more than one thread,
+   * the entries are read and deflated in parallel; the Jar file is the same for any number of
+   * threads.
+   *
+   * @param threads the number of threads, 1 (the default) compresses the entries while writing
+   */
+  public void setCompressionThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("The number of compression threads must be positive.");
+    }
+    this.compressionThreads = threads;
+  }
+
   /**
    * Enables or disables verbose messages.
    *
@@ -119,6 +137,49 @@ public class JarHelper {
     return normalize ? normalizedTimestamp(filename) : System.currentTimeMillis();
   }
 
+  /**
+   * Starts writing the Jar file to the given stream. Compressed entries are written through a
+   * {@link ParallelJarWriter} for any number of threads, so that the Jar file doesn't depend on
+   * it.
+   */
+  protected void openJar(OutputStream stream) throws IOException {
+    if (storageMethod == JarEntry.DEFLATED) {
+      parallelOut = new ParallelJarWriter(stream, compressionThreads);
+    } else {
+      out = new JarOutputStream(stream);
+    }
+  }
+
+  /**
+   * Writes the remaining entries and closes the Jar file.
+   */
+  protected void closeJar() throws IOException {
+    if (parallelOut != null) {
+      try {
+        parallelOut.close();
+      } finally {
+        parallelOut = null;
+      }
+    } else {
+      out.closeEntry();
+      out.close();
+    }
+  }
+
+  /**
+   * Writes an entry with specific contents to the jar. Directory entries must
+   * include the trailing '/'.
+   */
+  protected void writeEntry(String name, byte[] content) throws IOException {
+    if (parallelOut != null) {
+      if (names.add(name)) {
+        parallelOut.writeEntry(name, newEntryTimeMillis(name), content);
+      }
+    } else {
+      writeEntry(out, name, content);
+    }
+  }
+
   /**
    * Writes an entry with specific contents to the jar. Directory entries must
    * include the trailing '/'.
@@ -154,8 +215,8 @@ public class JarHelper {
    * @throws IOException
    */
   protected void writeManifestEntry(byte[] content) throws IOException {
-    writeEntry(out, MANIFEST_DIR, new byte[]{});
-    writeEntry(out, MANIFEST_NAME, content);
+    writeEntry(MANIFEST_DIR, new byte[]{});
+    writeEntry(MANIFEST_NAME, content);
   }
 
   /**
@@ -176,10 +237,18 @@ public class JarHelper {
         if (verbose) {
           System.err.println("adding " + file);
         }
+        long newtime = normalize ? normalizedTimestamp(name) : file.lastModified();
+        if (parallelOut != null) {
+          if (isDirectory) {
+            parallelOut.writeEntry(name, newtime, new byte[0]);
+          } else {
+            parallelOut.copyEntry(name, newtime, file);
+          }
+          return;
+        }
         // Create a new entry
         long size = isDirectory ? 0 : file.length();
         JarEntry outEntry = new JarEntry(name);
-        long newtime = normalize ? normalizedTimestamp(name) : file.lastModified();
         outEntry.setTime(newtime);
         outEntry.setSize(size);
         if (size == 0L) {
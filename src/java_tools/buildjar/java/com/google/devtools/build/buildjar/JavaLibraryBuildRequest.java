@@ -17,6 +17,7 @@ package com.google.devtools.build.buildjar;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.buildjar.javac.plugins.BlazeJavaCompilerPlugin;
 import com.google.devtools.build.buildjar.javac.plugins.dependency.DependencyModule;
+import com.google.devtools.build.buildjar.javac.plugins.filemanager.InMemoryClassOutput;
 import com.google.devtools.build.buildjar.javac.plugins.processing.AnnotationProcessingModule;
 
 import java.io.IOException;
@@ -62,6 +63,12 @@ public final class JavaLibraryBuildRequest {
 
   private final String outputJar;
 
+  /**
+   * The path to an interface jar that is written along with the output jar, or null if ijar
+   * creates it.
+   */
+  private final String outputInterfaceJar;
+
   private final String classDir;
   private final String tempDir;
 
@@ -85,6 +92,12 @@ public final class JavaLibraryBuildRequest {
    */
   private final ImmutableList<BlazeJavaCompilerPlugin> plugins;
 
+  /**
+   * The class output kept in memory by the file manager plugin, or null if javac writes the class
+   * files to the class directory.
+   */
+  private InMemoryClassOutput classOutput;
+
   /**
    * Constructs a build from a list of command args. Sets the same JavacRunner
    * for both compilation and annotation processing.
@@ -177,6 +190,7 @@ public final class JavaLibraryBuildRequest {
       this.tempDir = "_tmp";
     }
     this.outputJar = optionsParser.getOutputJar();
+    this.outputInterfaceJar = optionsParser.getOutputInterfaceJar();
     ImmutableList.Builder<AbstractPostProcessor> postProcessors = ImmutableList.builder();
     for (Entry<String, List<String>> entry : optionsParser.getPostProcessors().entrySet()) {
       postProcessors.add(AbstractPostProcessor.create(entry.getKey(), entry.getValue()));
@@ -255,6 +269,10 @@ public final class JavaLibraryBuildRequest {
     return outputJar;
   }
 
+  public String getOutputInterfaceJar() {
+    return outputInterfaceJar;
+  }
+
   public String getClassDir() {
     return classDir;
   }
@@ -263,6 +281,21 @@ public final class JavaLibraryBuildRequest {
     return tempDir;
   }
 
+  /**
+   * Returns the class output kept in memory, or null if the class files are written to
+   * {@link #getClassDir}.
+   */
+  public InMemoryClassOutput getClassOutput() {
+    return classOutput;
+  }
+
+  /**
+   * Sets the class output that the file manager plugin given to the constructor keeps in memory.
+   */
+  public void setClassOutput(InMemoryClassOutput classOutput) {
+    this.classOutput = classOutput;
+  }
+
   public ImmutableList<AbstractPostProcessor> getPostProcessors() {
     return postProcessors;
   }
@@ -69,6 +69,7 @@ public final class OptionsParser {
   private final List<String> processorNames = new ArrayList<>();
 
   private String outputJar;
+  private String outputInterfaceJar;
 
   private String classDir;
   private String tempDir;
@@ -180,6 +181,9 @@ public final class OptionsParser {
         case "--output":
           outputJar = getArgument(argQueue, arg);
           break;
+        case "--output_ijar":
+          outputInterfaceJar = getArgument(argQueue, arg);
+          break;
         case "--classdir":
           classDir = getArgument(argQueue, arg);
           break;
@@ -394,6 +398,10 @@ public final class OptionsParser {
     return outputJar;
   }
 
+  public String getOutputInterfaceJar() {
+    return outputInterfaceJar;
+  }
+
   public String getClassDir() {
     return classDir;
   }
@@ -0,0 +1,115 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.io.Files;
+import com.google.devtools.build.zip.ParallelDeflater;
+import com.google.devtools.build.zip.ZipFileEntry;
+import com.google.devtools.build.zip.ZipFileEntry.Compression;
+import com.google.devtools.build.zip.ZipUtil;
+import com.google.devtools.build.zip.ZipWriter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+
+/**
+ * Writes the entries of a Jar file with deflated entries, reading and deflating them on a thread
+ * pool through a {@link ParallelDeflater}. The entries are written in the order in which they were
+ * added, and the same writer is used for any number of threads, so the Jar file is byte for byte
+ * the same regardless of the number of threads.
+ */
+final class ParallelJarWriter implements Closeable {
+
+  private final ZipWriter out;
+  private final ParallelDeflater deflater;
+
+  /**
+   * Creates a writer that compresses the entries on the given number of threads.
+   *
+   * @param out the stream to write the Jar file to
+   * @param threads the number of threads for reading and compressing entries; with 1, the entries
+   *     are compressed on the calling thread
+   */
+  ParallelJarWriter(OutputStream out, int threads) {
+    this.out = new ZipWriter(out, UTF_8);
+    this.deflater = new ParallelDeflater(this.out, threads);
+  }
+
+  /**
+   * Adds a deflated entry with the given contents. The contents must not be modified afterwards.
+   * Empty entries are stored.
+   */
+  void writeEntry(String name, long time, final byte[] content) throws IOException {
+    if (content.length == 0) {
+      writeEmptyEntry(name, time);
+      return;
+    }
+    deflater.writeDeflatedEntry(newEntry(name, time), new Callable<byte[]>() {
+      @Override
+      public byte[] call() {
+        return content;
+      }
+    }, content.length);
+  }
+
+  /** Adds a deflated entry with the contents of the given file. Empty files are stored. */
+  void copyEntry(String name, long time, final File file) throws IOException {
+    long size = file.length();
+    if (size == 0) {
+      writeEmptyEntry(name, time);
+      return;
+    }
+    deflater.writeDeflatedEntry(newEntry(name, time), new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws IOException {
+        return Files.toByteArray(file);
+      }
+    }, size);
+  }
+
+  private void writeEmptyEntry(String name, long time) throws IOException {
+    ZipFileEntry entry = newEntry(name, time);
+    entry.setMethod(Compression.STORED);
+    entry.setCrc(0);
+    entry.setSize(0);
+    entry.setCompressedSize(0);
+    deflater.writeEntry(entry, new byte[0]);
+  }
+
+  private static ZipFileEntry newEntry(String name, long time) {
+    ZipFileEntry entry = new ZipFileEntry(name);
+    // Like JarOutputStream, map times before the DOS epoch in the current time zone to the epoch.
+    entry.setTime(Math.max(time, ZipUtil.DOS_EPOCH));
+    return entry;
+  }
+
+  /**
+   * Writes the remaining entries and the central directory, and closes the underlying stream.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      deflater.writePendingEntries();
+      out.close();
+    } finally {
+      deflater.close();
+    }
+  }
+}
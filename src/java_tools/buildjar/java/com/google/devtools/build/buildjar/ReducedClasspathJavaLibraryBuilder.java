@@ -15,12 +15,19 @@
 package com.google.devtools.build.buildjar;
 
 import com.google.devtools.build.buildjar.javac.JavacRunner;
+import com.google.devtools.build.buildjar.javac.plugins.dependency.ClasspathIndex;
 
 import com.sun.tools.javac.main.Main.Result;
 
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -29,7 +36,9 @@ import java.util.regex.Pattern;
  * enabled via the --reduce_classpath flag, only when Blaze runs with --experimental_java_classpath.
  *
  * <p>A fall-back mechanism detects whether javac fails because the classpath is incorrectly
- * discarding required entries, and re-attempts to compile with the full classpath.
+ * discarding required entries, and re-attempts to compile with the full classpath. The fall-back
+ * is skipped if the {@link ClasspathIndex} shows that none of the discarded entries provides the
+ * missing packages and classes, for example because the sources have a typo.
  */
 public class ReducedClasspathJavaLibraryBuilder extends SimpleJavaLibraryBuilder {
 
@@ -61,7 +70,9 @@ public class ReducedClasspathJavaLibraryBuilder extends SimpleJavaLibraryBuilder
 
     // If javac errored out because of missing entries on the classpath, give it another try.
     // TODO(bazel-team): check performance impact of additional retries.
-    if (!result.isOK() && hasRecognizedError(javacOutput.toString())) {
+    if (!result.isOK() && hasRecognizedError(javacOutput.toString())
+        && mayBeFixedByFullClasspath(
+            javacOutput.toString(), build.getClassPath(), compressedClasspath)) {
       if (debug) {
         err.println("warning: [transitive] Target uses transitive classpath to compile.");
       }
@@ -81,10 +92,67 @@ public class ReducedClasspathJavaLibraryBuilder extends SimpleJavaLibraryBuilder
   private static final Pattern MISSING_PACKAGE =
       Pattern.compile("error: package ([\\p{javaJavaIdentifierPart}\\.]+) does not exist");
 
+  private static final Pattern CANNOT_FIND_SYMBOL = Pattern.compile("error: cannot find symbol");
+
+  private static final Pattern MISSING_CLASS =
+      Pattern.compile("symbol: +class ([\\p{javaJavaIdentifierPart}\\.]+)");
+
   private boolean hasRecognizedError(String javacOutput) {
     return javacOutput.contains("error: cannot access")
         || javacOutput.contains("error: cannot find symbol")
         || javacOutput.contains("com.sun.tools.javac.code.Symbol$CompletionFailure")
         || MISSING_PACKAGE.matcher(javacOutput).find();
   }
+
+  /**
+   * Returns whether the errors of a compilation with the reduced classpath may go away with the
+   * full classpath. That isn't the case if all errors are about missing packages and classes, and
+   * none of the classpath entries that were discarded provides one of them.
+   */
+  private boolean mayBeFixedByFullClasspath(
+      String javacOutput, String fullClasspath, String reducedClasspath) {
+    if (javacOutput.contains("error: cannot access")
+        || javacOutput.contains("com.sun.tools.javac.code.Symbol$CompletionFailure")) {
+      return true;
+    }
+    List<String> missingPackages = new ArrayList<>();
+    Matcher matcher = MISSING_PACKAGE.matcher(javacOutput);
+    while (matcher.find()) {
+      missingPackages.add(matcher.group(1));
+    }
+    // Symbols other than classes, such as the first part of a qualified name, may be the name of
+    // a missing package; only classes can be looked up.
+    List<String> missingClasses = new ArrayList<>();
+    matcher = MISSING_CLASS.matcher(javacOutput);
+    while (matcher.find()) {
+      String name = matcher.group(1);
+      missingClasses.add(name.substring(name.lastIndexOf('.') + 1));
+    }
+    int cannotFindSymbolCount = 0;
+    matcher = CANNOT_FIND_SYMBOL.matcher(javacOutput);
+    while (matcher.find()) {
+      cannotFindSymbolCount++;
+    }
+    if (cannotFindSymbolCount > missingClasses.size()) {
+      return true;
+    }
+
+    Set<String> reducedEntries = new HashSet<>(Arrays.asList(reducedClasspath.split(":")));
+    for (String entry : fullClasspath.split(":")) {
+      if (entry.isEmpty() || reducedEntries.contains(entry)) {
+        continue;
+      }
+      for (String missingPackage : missingPackages) {
+        if (ClasspathIndex.mayProvidePackage(entry, missingPackage)) {
+          return true;
+        }
+      }
+      for (String missingClass : missingClasses) {
+        if (ClasspathIndex.mayProvideClass(entry, missingClass)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
 }
@@ -131,6 +131,7 @@ public class SimpleJavaLibraryBuilder extends AbstractJavaBuilder {
     JarCreator jar = new JarCreator(build.getGeneratedSourcesOutputJar());
     jar.setNormalize(true);
     jar.setCompression(build.compressJar());
+    jar.setCompressionThreads(Runtime.getRuntime().availableProcessors());
     jar.addDirectory(build.getSourceGenDir());
     jar.execute();
   }
@@ -0,0 +1,169 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar.javac.plugins.dependency;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An index of the packages and classes provided by the jars on the classpath.
+ *
+ * <p>The index of a jar is kept for the lifetime of the process, so that a persistent worker reads
+ * the entries of a jar that recurs on the classpath of many compilations only once. It is read
+ * again if the size or the modification time of the jar changes. Each jar is indexed as sorted
+ * string arrays, which are much smaller than the zip file's own entry table.
+ */
+public final class ClasspathIndex {
+
+  /** The packages and class names of a jar. */
+  private static final class JarIndex {
+    private final long size;
+    private final long lastModified;
+    // Package names, with '.' as separator.
+    private final String[] packages;
+    // Canonical names of the classes, with '.' as separator also for nested classes.
+    private final String[] classNames;
+    // Simple names of the classes; nested classes are included under their own simple name.
+    private final String[] simpleNames;
+
+    JarIndex(long size, long lastModified, String[] packages, String[] classNames,
+        String[] simpleNames) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.packages = packages;
+      this.classNames = classNames;
+      this.simpleNames = simpleNames;
+    }
+  }
+
+  private static final ConcurrentMap<String, JarIndex> JARS = new ConcurrentHashMap<>();
+
+  private ClasspathIndex() {}
+
+  /**
+   * Returns whether the given classpath entry may provide the given package. Entries that can't
+   * be indexed are assumed to provide every package.
+   *
+   * <p>javac also reports a missing class as a missing package if it is used as the qualifier of
+   * a nested class, as in {@code a.b.Outer.Inner}, so an entry that provides a class with the
+   * given name counts as well.
+   *
+   * @param entry a jar or a directory, as it appears on the classpath
+   * @param packageName the name of the package, with '.' as separator
+   */
+  public static boolean mayProvidePackage(String entry, String packageName) {
+    File file = new File(entry);
+    if (file.isDirectory()) {
+      return directoryMayProvidePackage(file, packageName);
+    }
+    JarIndex index = getIndex(file);
+    return index == null
+        || Arrays.binarySearch(index.packages, packageName) >= 0
+        || Arrays.binarySearch(index.classNames, packageName) >= 0;
+  }
+
+  /**
+   * Returns whether the given class directory has the given package, or a top-level class that
+   * is, or encloses, a class with the given name.
+   */
+  private static boolean directoryMayProvidePackage(File dir, String packageName) {
+    for (String segment : packageName.split("\\.")) {
+      if (new File(dir, segment + ".class").isFile()) {
+        return true;
+      }
+      dir = new File(dir, segment);
+      if (!dir.isDirectory()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether the given classpath entry may provide a class with the given simple name, in
+   * any package. Entries that can't be indexed are assumed to provide every class.
+   *
+   * @param entry a jar or a directory, as it appears on the classpath
+   * @param simpleName the simple name of a top-level or nested class
+   */
+  public static boolean mayProvideClass(String entry, String simpleName) {
+    File file = new File(entry);
+    if (file.isDirectory()) {
+      return true;
+    }
+    JarIndex index = getIndex(file);
+    return index == null || Arrays.binarySearch(index.simpleNames, simpleName) >= 0;
+  }
+
+  /**
+   * Returns the index of the given jar, reading it if it isn't in the cache or the jar changed, or
+   * null if the jar can't be read.
+   */
+  private static JarIndex getIndex(File jar) {
+    String key = jar.getAbsolutePath();
+    long size = jar.length();
+    long lastModified = jar.lastModified();
+    JarIndex index = JARS.get(key);
+    if (index != null && index.size == size && index.lastModified == lastModified) {
+      return index;
+    }
+    try {
+      index = readIndex(jar, size, lastModified);
+    } catch (IOException e) {
+      JARS.remove(key);
+      return null;
+    }
+    JARS.put(key, index);
+    return index;
+  }
+
+  private static JarIndex readIndex(File jar, long size, long lastModified) throws IOException {
+    TreeSet<String> packages = new TreeSet<>();
+    TreeSet<String> classNames = new TreeSet<>();
+    TreeSet<String> simpleNames = new TreeSet<>();
+    try (ZipFile zip = new ZipFile(jar)) {
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        String name = entries.nextElement().getName();
+        if (!name.endsWith(".class")) {
+          continue;
+        }
+        int slash = name.lastIndexOf('/');
+        if (slash > 0) {
+          packages.add(name.substring(0, slash).replace('/', '.'));
+        }
+        classNames.add(name.substring(0, name.length() - ".class".length()).replace('/', '.')
+            .replace('$', '.'));
+        String binaryName = name.substring(slash + 1, name.length() - ".class".length());
+        // javac reports a missing nested class under its own simple name.
+        for (String part : binaryName.split("\\$")) {
+          if (!part.isEmpty()) {
+            simpleNames.add(part);
+          }
+        }
+      }
+    }
+    return new JarIndex(size, lastModified, packages.toArray(new String[packages.size()]),
+        classNames.toArray(new String[classNames.size()]),
+        simpleNames.toArray(new String[simpleNames.size()]));
+  }
+}
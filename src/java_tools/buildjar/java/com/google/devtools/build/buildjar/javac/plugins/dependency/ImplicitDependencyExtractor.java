@@ -15,6 +15,7 @@
 package com.google.devtools.build.buildjar.javac.plugins.dependency;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.buildjar.javac.plugins.filemanager.InMemoryFileManager;
 import com.google.devtools.build.lib.view.proto.Deps;
 
 import com.sun.nio.zipfs.ZipFileSystem;
@@ -221,14 +222,15 @@ public class ImplicitDependencyExtractor {
   }
 
   public static JavaFileObject unwrapFileObject(JavaFileObject file) {
-    if (!WRAPPED_FILE_OBJECT.isInstance(file)) {
-      return file;
-    }
-    try {
-      return (JavaFileObject) UNWRAP_FILE_FIELD.get(file);
-    } catch (ReflectiveOperationException e) {
-      throw new LinkageError(e.getMessage());
+    if (WRAPPED_FILE_OBJECT.isInstance(file)) {
+      try {
+        file = (JavaFileObject) UNWRAP_FILE_FIELD.get(file);
+      } catch (ReflectiveOperationException e) {
+        throw new LinkageError(e.getMessage());
+      }
     }
+    // Class files read through the worker's class file cache are wrapped by the file manager.
+    return InMemoryFileManager.unwrapFileObject(file);
   }
 
   public static JavaFileManager unwrapFileManager(JavaFileManager fileManager) {
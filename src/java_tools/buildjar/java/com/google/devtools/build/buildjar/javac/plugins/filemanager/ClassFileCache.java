@@ -0,0 +1,95 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar.javac.plugins.filemanager;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache of the content of class files that javac reads from jars, shared by the compilations of
+ * a persistent JavaBuilder worker. Without it, every compilation decompresses the same classes of
+ * the bootclasspath and of the third party jars again.
+ *
+ * <p>Only jars outside of the output tree are cached; the jars in the output tree are rebuilt
+ * between compilations. The entries are keyed by the size and modification time of their jar as
+ * well, so that a jar that changes anyway doesn't return stale content. The total size of the
+ * cached class files is limited; the least recently used ones are evicted first.
+ */
+public final class ClassFileCache {
+
+  /** The default limit of the total size of the cached class files. */
+  public static final long DEFAULT_MAX_BYTES = 128L << 20;
+
+  private final long maxBytes;
+  private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalBytes = 0;
+
+  public ClassFileCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /** Returns the cached content for the given key, or null if there is none. */
+  synchronized byte[] get(String key) {
+    return entries.get(key);
+  }
+
+  /** Adds the content for the given key, evicting the least recently used entries if needed. */
+  synchronized void put(String key, byte[] content) {
+    if (content.length > maxBytes) {
+      return;
+    }
+    byte[] previous = entries.put(key, content);
+    totalBytes += content.length - (previous == null ? 0 : previous.length);
+    Iterator<byte[]> it = entries.values().iterator();
+    while (totalBytes > maxBytes) {
+      totalBytes -= it.next().length;
+      it.remove();
+    }
+  }
+
+  /** Returns the number of cached class files. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** Returns the total size of the cached class files. */
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  /** Removes all entries. */
+  public synchronized void clear() {
+    entries.clear();
+    totalBytes = 0;
+  }
+
+  /**
+   * Returns the suffix that identifies the current version of the given jar in the keys of its
+   * entries, or null if the content of the jar must not be cached.
+   */
+  static String getJarStamp(String jar) {
+    for (String segment : jar.split("[/\\\\]")) {
+      if (segment.equals("bazel-out")) {
+        return null;
+      }
+    }
+    File file = new File(jar);
+    if (!file.isFile()) {
+      return null;
+    }
+    return "@" + file.length() + ":" + file.lastModified();
+  }
+}
@@ -19,13 +19,38 @@ import com.google.devtools.build.buildjar.javac.plugins.BlazeJavaCompilerPlugin;
 import com.sun.tools.javac.file.JavacFileManager;
 import com.sun.tools.javac.util.Context;
 
+import javax.annotation.Nullable;
+
 /**
- * Register a context factory to create JavacFileManagers.
+ * Register a context factory to create JavacFileManagers. If a {@link InMemoryClassOutput} is
+ * given, the file managers keep the class output in it instead of writing it to the class
+ * directory, and read class files from jars through the {@link ClassFileCache}, if there is one.
  */
 public class FileManagerInitializationPlugin extends BlazeJavaCompilerPlugin {
 
+  @Nullable private final InMemoryClassOutput classOutput;
+  @Nullable private final ClassFileCache classFileCache;
+
+  public FileManagerInitializationPlugin() {
+    this(null);
+  }
+
+  public FileManagerInitializationPlugin(@Nullable InMemoryClassOutput classOutput) {
+    this(classOutput, null);
+  }
+
+  public FileManagerInitializationPlugin(@Nullable InMemoryClassOutput classOutput,
+      @Nullable ClassFileCache classFileCache) {
+    this.classOutput = classOutput;
+    this.classFileCache = classFileCache;
+  }
+
   @Override
   public void initializeContext(Context context) {
-    JavacFileManager.preRegister(context);
+    if (classOutput != null) {
+      InMemoryFileManager.preRegister(context, classOutput, classFileCache);
+    } else {
+      JavacFileManager.preRegister(context);
+    }
   }
 }
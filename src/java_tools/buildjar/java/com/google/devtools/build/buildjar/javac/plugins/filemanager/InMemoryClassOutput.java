@@ -0,0 +1,70 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar.javac.plugins.filemanager;
+
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The class output of a compilation that is kept in memory: the class files and resources that
+ * javac and the annotation processors write to the class output location, by their relative path
+ * with '/' separators.
+ *
+ * <p>The entries can be added to the output jar directly, without writing them to the class
+ * directory and reading them back.
+ */
+public final class InMemoryClassOutput {
+
+  private final SortedMap<String, byte[]> entries = new ConcurrentSkipListMap<>();
+
+  /**
+   * Returns the entries by relative path, in sorted order. The map is live, post processors may
+   * replace or remove entries.
+   */
+  public SortedMap<String, byte[]> getEntries() {
+    return entries;
+  }
+
+  /** Returns the content of the entry with the given relative path, or null if there is none. */
+  public byte[] get(String path) {
+    return entries.get(path);
+  }
+
+  void put(String path, byte[] content) {
+    entries.put(path, content);
+  }
+
+  /** Removes all entries, for example before compiling again. */
+  public void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Writes all entries to the given directory and removes them, for consumers that need the class
+   * output on disk.
+   */
+  public void writeTo(File directory) throws IOException {
+    for (String path : entries.keySet()) {
+      File file = new File(directory, path);
+      Files.createParentDirs(file);
+      Files.write(entries.get(path), file);
+    }
+    entries.clear();
+  }
+}
@@ -0,0 +1,263 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar.javac.plugins.filemanager;
+
+import com.google.common.io.ByteStreams;
+
+import com.sun.tools.javac.file.JavacFileManager;
+import com.sun.tools.javac.util.Context;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileObject;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * A {@link JavacFileManager} that keeps the files written to the class output location in an
+ * {@link InMemoryClassOutput} instead of the class directory. All other locations are handled as
+ * usual.
+ *
+ * <p>If a {@link ClassFileCache} is given, the class files that are read from jars on the class path
+ * and the bootclasspath go through the cache.
+ */
+public class InMemoryFileManager extends JavacFileManager {
+
+  /**
+   * Registers a context factory that creates an {@link InMemoryFileManager} writing to the given
+   * class output, in place of {@link JavacFileManager#preRegister}.
+   */
+  public static void preRegister(Context context, InMemoryClassOutput classOutput) {
+    preRegister(context, classOutput, null);
+  }
+
+  /**
+   * Registers a context factory that creates an {@link InMemoryFileManager} writing to the given
+   * class output and reading class files through the given cache, which may be null.
+   */
+  public static void preRegister(Context context, final InMemoryClassOutput classOutput,
+      final ClassFileCache classFileCache) {
+    context.put(JavaFileManager.class, new Context.Factory<JavaFileManager>() {
+      @Override
+      public JavaFileManager make(Context c) {
+        return new InMemoryFileManager(c, true, null, classOutput, classFileCache);
+      }
+    });
+  }
+
+  /**
+   * Returns the file object that the given one reads through the class file cache, or the given
+   * one itself if it isn't cached.
+   */
+  public static JavaFileObject unwrapFileObject(JavaFileObject file) {
+    return file instanceof CachedClassFileObject
+        ? ((CachedClassFileObject) file).getDelegate()
+        : file;
+  }
+
+  private final InMemoryClassOutput classOutput;
+  private final ClassFileCache classFileCache;
+  // The stamps of the jars that were seen in this compilation, null for the ones not cached. Each
+  // jar is only checked once, it is not expected to change while javac reads it.
+  private final Map<String, String> jarStamps = new HashMap<>();
+
+  public InMemoryFileManager(Context context, boolean register, Charset charset,
+      InMemoryClassOutput classOutput) {
+    this(context, register, charset, classOutput, null);
+  }
+
+  public InMemoryFileManager(Context context, boolean register, Charset charset,
+      InMemoryClassOutput classOutput, ClassFileCache classFileCache) {
+    super(context, register, charset);
+    this.classOutput = classOutput;
+    this.classFileCache = classFileCache;
+  }
+
+  @Override
+  public Iterable<JavaFileObject> list(Location location, String packageName, Set<Kind> kinds,
+      boolean recurse) throws IOException {
+    Iterable<JavaFileObject> files = super.list(location, packageName, kinds, recurse);
+    if (classFileCache == null
+        || !kinds.contains(Kind.CLASS)
+        || (location != StandardLocation.CLASS_PATH
+            && location != StandardLocation.PLATFORM_CLASS_PATH)) {
+      return files;
+    }
+    List<JavaFileObject> result = new ArrayList<>();
+    for (JavaFileObject file : files) {
+      String key = file.getKind() == Kind.CLASS ? getCacheKey(file) : null;
+      result.add(key != null ? new CachedClassFileObject(file, key) : file);
+    }
+    return result;
+  }
+
+  @Override
+  public String inferBinaryName(Location location, JavaFileObject file) {
+    return super.inferBinaryName(location, unwrapFileObject(file));
+  }
+
+  @Override
+  public JavaFileObject getJavaFileForOutput(Location location, String className, Kind kind,
+      FileObject sibling) throws IOException {
+    if (location != StandardLocation.CLASS_OUTPUT) {
+      return super.getJavaFileForOutput(location, className, kind, sibling);
+    }
+    return new OutputFileObject(className.replace('.', '/') + kind.extension, kind);
+  }
+
+  @Override
+  public FileObject getFileForOutput(Location location, String packageName, String relativeName,
+      FileObject sibling) throws IOException {
+    if (location != StandardLocation.CLASS_OUTPUT) {
+      return super.getFileForOutput(location, packageName, relativeName, sibling);
+    }
+    return new OutputFileObject(resourcePath(packageName, relativeName), Kind.OTHER);
+  }
+
+  @Override
+  public FileObject getFileForInput(Location location, String packageName, String relativeName)
+      throws IOException {
+    if (location == StandardLocation.CLASS_OUTPUT) {
+      // Annotation processors may read back the resources they wrote in an earlier round.
+      String path = resourcePath(packageName, relativeName);
+      if (classOutput.get(path) != null) {
+        return new OutputFileObject(path, Kind.OTHER);
+      }
+    }
+    return super.getFileForInput(location, packageName, relativeName);
+  }
+
+  @Override
+  public boolean isSameFile(FileObject a, FileObject b) {
+    if (a instanceof OutputFileObject || b instanceof OutputFileObject) {
+      return a.toUri().equals(b.toUri());
+    }
+    if (a instanceof CachedClassFileObject) {
+      a = ((CachedClassFileObject) a).getDelegate();
+    }
+    if (b instanceof CachedClassFileObject) {
+      b = ((CachedClassFileObject) b).getDelegate();
+    }
+    return super.isSameFile(a, b);
+  }
+
+  /**
+   * Returns the key of the given class file in the class file cache, or null if it must not be
+   * cached. The names of the files in jars look like "path/to/lib.jar(com/foo/Bar.class)".
+   */
+  private String getCacheKey(JavaFileObject file) {
+    String name = file.getName();
+    int paren = name.indexOf('(');
+    if (paren <= 0 || !name.endsWith(")")) {
+      return null;
+    }
+    String jar = name.substring(0, paren);
+    String stamp;
+    if (jarStamps.containsKey(jar)) {
+      stamp = jarStamps.get(jar);
+    } else {
+      stamp = ClassFileCache.getJarStamp(jar);
+      jarStamps.put(jar, stamp);
+    }
+    return stamp != null ? name + stamp : null;
+  }
+
+  private static String resourcePath(String packageName, String relativeName) {
+    return packageName.isEmpty()
+        ? relativeName
+        : packageName.replace('.', '/') + "/" + relativeName;
+  }
+
+  /** A file in the class output; the content is stored when the output stream is closed. */
+  private final class OutputFileObject extends SimpleJavaFileObject {
+    private final String path;
+
+    OutputFileObject(String path, Kind kind) {
+      super(URI.create("mem:///" + path), kind);
+      this.path = path;
+    }
+
+    @Override
+    public OutputStream openOutputStream() {
+      return new ByteArrayOutputStream() {
+        @Override
+        public void close() {
+          classOutput.put(path, toByteArray());
+        }
+      };
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+      byte[] content = classOutput.get(path);
+      if (content == null) {
+        throw new FileNotFoundException(toUri().toString());
+      }
+      return new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+      byte[] content = classOutput.get(path);
+      if (content == null) {
+        throw new FileNotFoundException(toUri().toString());
+      }
+      return new String(content, StandardCharsets.UTF_8);
+    }
+  }
+
+  /** A class file from a jar, whose content is read through the class file cache. */
+  private final class CachedClassFileObject extends ForwardingJavaFileObject<JavaFileObject> {
+    private final String key;
+
+    CachedClassFileObject(JavaFileObject file, String key) {
+      super(file);
+      this.key = key;
+    }
+
+    JavaFileObject getDelegate() {
+      return fileObject;
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+      byte[] content = classFileCache.get(key);
+      if (content == null) {
+        try (InputStream in = fileObject.openInputStream()) {
+          content = ByteStreams.toByteArray(in);
+        }
+        classFileCache.put(key, content);
+      }
+      return new ByteArrayInputStream(content);
+    }
+  }
+}
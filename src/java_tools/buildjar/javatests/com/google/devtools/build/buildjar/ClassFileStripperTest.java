@@ -0,0 +1,176 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Tests for {@link ClassFileStripper} and the interface jar written by {@link JarCreator}.
+ */
+@RunWith(JUnit4.class)
+public class ClassFileStripperTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private File classDir;
+
+  @Before
+  public void setUp() throws Exception {
+    classDir = tmp.newFolder("classes");
+    File source = new File(tmp.getRoot(), "a/A.java");
+    source.getParentFile().mkdirs();
+    Files.write(Joiner.on('\n').join(
+        "package a;",
+        "import java.util.List;",
+        "public class A<T extends Number> {",
+        "  public static final int CONSTANT = 42;",
+        "  private static final Object privateField = new Object();",
+        "  protected List<T> values;",
+        "  /** @deprecated */",
+        "  @Deprecated public T first() throws java.io.IOException {",
+        "    return values.get(privateHelper());",
+        "  }",
+        "  private int privateHelper() {",
+        "    return new Runnable() { public void run() {} }.hashCode() * 0;",
+        "  }",
+        "  public static class Nested {",
+        "    public void nestedMethod() {}",
+        "  }",
+        "}"), source, UTF_8);
+    compile(classDir, null, source);
+  }
+
+  private void compile(File outputDir, File classpath, File... sources) {
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    List<String> args = new ArrayList<>();
+    args.add("-d");
+    args.add(outputDir.getPath());
+    if (classpath != null) {
+      args.add("-classpath");
+      args.add(classpath.getPath());
+    }
+    for (File source : sources) {
+      args.add(source.getPath());
+    }
+    assertThat(javac.run(null, null, null, args.toArray(new String[0]))).isEqualTo(0);
+  }
+
+  private File createJars(String name) throws IOException {
+    File interfaceJar = new File(tmp.getRoot(), name + "-ijar.jar");
+    JarCreator creator = new JarCreator(new File(tmp.getRoot(), name + ".jar").getPath());
+    creator.setNormalize(true);
+    creator.setCompression(true);
+    creator.setInterfaceJar(interfaceJar.getPath());
+    creator.addDirectory(classDir.getPath());
+    creator.execute();
+    return interfaceJar;
+  }
+
+  private static byte[] readEntry(ZipFile zip, String name) throws IOException {
+    try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+  @Test
+  public void testInterfaceJarHasStrippedClasses() throws Exception {
+    File interfaceJar = createJars("lib");
+    List<String> names = new ArrayList<>();
+    try (ZipFile zip = new ZipFile(interfaceJar)) {
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        assertThat(entry.getMethod()).isEqualTo(ZipEntry.STORED);
+        names.add(entry.getName());
+      }
+      assertThat(names).isEqualTo(ImmutableList.of("a/A$1.class", "a/A$Nested.class", "a/A.class"));
+
+      // The constant pool only has the strings that are still used, so the names of the removed
+      // members and attributes are gone.
+      String a = new String(readEntry(zip, "a/A.class"), ISO_8859_1);
+      assertThat(a).contains("first");
+      assertThat(a).contains("CONSTANT");
+      assertThat(a).contains("Deprecated");
+      assertThat(a).contains("java/io/IOException");
+      assertThat(a).doesNotContain("privateHelper");
+      assertThat(a).doesNotContain("privateField");
+      assertThat(a).doesNotContain("<clinit>");
+      assertThat(a).doesNotContain("Code");
+      assertThat(a).doesNotContain("LineNumberTable");
+      assertThat(a).doesNotContain("SourceFile");
+
+      // The anonymous class is reduced to an opaque class.
+      String anonymous = new String(readEntry(zip, "a/A$1.class"), ISO_8859_1);
+      assertThat(anonymous).doesNotContain("run");
+      assertThat(anonymous).doesNotContain("java/lang/Runnable");
+    }
+  }
+
+  @Test
+  public void testCanCompileAgainstInterfaceJar() throws Exception {
+    File interfaceJar = createJars("lib");
+    File source = new File(tmp.getRoot(), "b/B.java");
+    source.getParentFile().mkdirs();
+    Files.write(Joiner.on('\n').join(
+        "package b;",
+        "public class B extends a.A<Integer> {",
+        "  static final int VALUE = CONSTANT;",
+        "  Integer get() throws java.io.IOException { return first(); }",
+        "  void nested() { new a.A.Nested().nestedMethod(); }",
+        "}"), source, UTF_8);
+    compile(tmp.newFolder("client"), interfaceJar, source);
+  }
+
+  @Test
+  public void testStrippingIsIdempotent() throws Exception {
+    byte[] stripped = ClassFileStripper.strip(Files.toByteArray(new File(classDir, "a/A.class")));
+    assertThat(ClassFileStripper.strip(stripped)).isEqualTo(stripped);
+  }
+
+  @Test
+  public void testEmptyInterfaceJarHasDummyEntry() throws Exception {
+    classDir = tmp.newFolder("empty");
+    try (ZipFile zip = new ZipFile(createJars("empty"))) {
+      assertThat(zip.size()).isEqualTo(1);
+      assertThat(zip.getEntry("dummy")).isNotNull();
+    }
+  }
+}
@@ -0,0 +1,150 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Tests for {@link JarCreator}.
+ */
+@RunWith(JUnit4.class)
+public class JarCreatorTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private File classDir;
+
+  @Before
+  public void setUp() throws Exception {
+    classDir = tmp.newFolder("classes");
+    for (int i = 0; i < 200; i++) {
+      File file = new File(classDir, "pkg" + (i % 7) + "/C" + i + ".class");
+      file.getParentFile().mkdirs();
+      StringBuilder content = new StringBuilder();
+      for (int j = 0; j < i * 10; j++) {
+        content.append("class ").append(i).append(' ').append(j).append('\n');
+      }
+      Files.write(content.toString(), file, UTF_8);
+    }
+    Files.write("", new File(classDir, "pkg0/empty.txt"), UTF_8);
+  }
+
+  private File createJar(String name, int threads) throws IOException {
+    File jar = new File(tmp.getRoot(), name);
+    JarCreator creator = new JarCreator(jar.getPath());
+    creator.setNormalize(true);
+    creator.setCompression(true);
+    creator.setCompressionThreads(threads);
+    creator.addDirectory(classDir.getPath());
+    creator.addEntry("pkg3/InMemory.class", "in memory".getBytes(UTF_8));
+    creator.execute();
+    return jar;
+  }
+
+  /** Returns a description of the name, time, method, size and contents of each entry. */
+  private static List<String> describeEntries(File jar) throws IOException {
+    List<String> result = new ArrayList<>();
+    try (ZipFile zip = new ZipFile(jar)) {
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        try (InputStream in = zip.getInputStream(entry)) {
+          result.add(entry.getName() + " " + entry.getTime() + " " + entry.getMethod() + " "
+              + entry.getSize() + " " + new String(ByteStreams.toByteArray(in), UTF_8));
+        }
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testParallelCompressionWritesSameEntries() throws Exception {
+    File sequentialJar = createJar("sequential.jar", 1);
+    List<String> sequential = describeEntries(sequentialJar);
+    assertThat(describeEntries(createJar("parallel.jar", 4))).isEqualTo(sequential);
+    assertThat(sequential.get(0)).startsWith(JarHelper.MANIFEST_DIR + " ");
+    assertThat(sequential.get(1)).startsWith(JarHelper.MANIFEST_NAME + " ");
+
+    // The Jar file must not depend on the number of processors of the machine that built it.
+    byte[] expected = Files.toByteArray(sequentialJar);
+    for (int threads : new int[] {2, 3, 4, 8}) {
+      assertThat(Files.toByteArray(createJar("parallel" + threads + ".jar", threads)))
+          .isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void testNormalizedTimestamps() throws Exception {
+    try (ZipFile zip = new ZipFile(createJar("parallel.jar", 4))) {
+      assertThat(zip.getEntry("pkg1/C1.class").getTime())
+          .isEqualTo(zip.getEntry("pkg0/empty.txt").getTime() + 2000);
+      assertThat(zip.getEntry("pkg3/InMemory.class").getTime())
+          .isEqualTo(zip.getEntry("pkg1/C1.class").getTime());
+    }
+  }
+
+  @Test
+  public void testInMemoryEntriesMatchDirectory() throws Exception {
+    File directoryJar = new File(tmp.getRoot(), "directory.jar");
+    JarCreator creator = new JarCreator(directoryJar.getPath());
+    creator.setNormalize(true);
+    creator.setCompression(true);
+    creator.addDirectory(classDir.getPath());
+    creator.execute();
+
+    File inMemoryJar = new File(tmp.getRoot(), "inmemory.jar");
+    creator = new JarCreator(inMemoryJar.getPath());
+    creator.setNormalize(true);
+    creator.setCompression(true);
+    for (File file : Files.fileTreeTraverser().preOrderTraversal(classDir)) {
+      if (file.isFile()) {
+        String name = file.getPath().substring(classDir.getPath().length() + 1);
+        assertThat(creator.addEntry(name, Files.toByteArray(file))).isTrue();
+      }
+    }
+    creator.execute();
+
+    assertThat(describeEntries(inMemoryJar)).isEqualTo(describeEntries(directoryJar));
+  }
+
+  @Test
+  public void testInMemoryEntry() throws Exception {
+    File jar = createJar("parallel.jar", 4);
+    try (ZipFile zip = new ZipFile(jar);
+        InputStream in = zip.getInputStream(zip.getEntry("pkg3/InMemory.class"))) {
+      assertThat(new String(ByteStreams.toByteArray(in), UTF_8)).isEqualTo("in memory");
+    }
+  }
+}
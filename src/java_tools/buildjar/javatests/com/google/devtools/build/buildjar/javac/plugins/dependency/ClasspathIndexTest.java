@@ -0,0 +1,107 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar.javac.plugins.dependency;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests for {@link ClasspathIndex}.
+ */
+@RunWith(JUnit4.class)
+public class ClasspathIndexTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static void writeJar(File jar, String... entries) throws IOException {
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+      for (String entry : entries) {
+        out.putNextEntry(new ZipEntry(entry));
+        out.closeEntry();
+      }
+    }
+  }
+
+  @Test
+  public void testJar() throws Exception {
+    File jar = tmp.newFile("lib.jar");
+    writeJar(jar, "a/", "a/b/", "a/b/C.class", "a/b/C$Inner.class", "a/b/C$1.class",
+        "d/resource.txt", "Top.class");
+    String path = jar.getPath();
+    assertThat(ClasspathIndex.mayProvidePackage(path, "a.b")).isTrue();
+    assertThat(ClasspathIndex.mayProvidePackage(path, "a")).isFalse();
+    assertThat(ClasspathIndex.mayProvidePackage(path, "d")).isFalse();
+    assertThat(ClasspathIndex.mayProvideClass(path, "C")).isTrue();
+    assertThat(ClasspathIndex.mayProvideClass(path, "Inner")).isTrue();
+    assertThat(ClasspathIndex.mayProvideClass(path, "Top")).isTrue();
+    assertThat(ClasspathIndex.mayProvideClass(path, "D")).isFalse();
+  }
+
+  @Test
+  public void testClassUsedAsQualifierOfNestedClass() throws Exception {
+    // For "a.b.Outer.Inner i;" javac only reports that the package a.b.Outer does not exist.
+    File jar = tmp.newFile("lib.jar");
+    writeJar(jar, "a/b/Outer.class", "a/b/Outer$Inner.class", "a/b/Outer$Inner$Deep.class");
+    String path = jar.getPath();
+    assertThat(ClasspathIndex.mayProvidePackage(path, "a.b.Outer")).isTrue();
+    assertThat(ClasspathIndex.mayProvidePackage(path, "a.b.Outer.Inner")).isTrue();
+    assertThat(ClasspathIndex.mayProvidePackage(path, "a.b.Other")).isFalse();
+    assertThat(ClasspathIndex.mayProvidePackage(path, "a.Outer")).isFalse();
+
+    File dir = tmp.newFolder("classes");
+    new File(dir, "a/b").mkdirs();
+    assertThat(new File(dir, "a/b/Outer.class").createNewFile()).isTrue();
+    assertThat(ClasspathIndex.mayProvidePackage(dir.getPath(), "a.b.Outer")).isTrue();
+    assertThat(ClasspathIndex.mayProvidePackage(dir.getPath(), "a.b.Outer.Inner")).isTrue();
+    assertThat(ClasspathIndex.mayProvidePackage(dir.getPath(), "a.b.Other")).isFalse();
+  }
+
+  @Test
+  public void testChangedJarIsIndexedAgain() throws Exception {
+    File jar = tmp.newFile("lib.jar");
+    writeJar(jar, "a/A.class");
+    assertThat(ClasspathIndex.mayProvidePackage(jar.getPath(), "a")).isTrue();
+    assertThat(ClasspathIndex.mayProvidePackage(jar.getPath(), "b")).isFalse();
+
+    writeJar(jar, "b/LongerName.class");
+    jar.setLastModified(jar.lastModified() - 10000);
+    assertThat(ClasspathIndex.mayProvidePackage(jar.getPath(), "a")).isFalse();
+    assertThat(ClasspathIndex.mayProvidePackage(jar.getPath(), "b")).isTrue();
+  }
+
+  @Test
+  public void testDirectoryAndUnreadableEntries() throws Exception {
+    File dir = tmp.newFolder("classes");
+    new File(dir, "a/b").mkdirs();
+    assertThat(ClasspathIndex.mayProvidePackage(dir.getPath(), "a.b")).isTrue();
+    assertThat(ClasspathIndex.mayProvidePackage(dir.getPath(), "c")).isFalse();
+    assertThat(ClasspathIndex.mayProvideClass(dir.getPath(), "C")).isTrue();
+
+    String missing = new File(tmp.getRoot(), "missing.jar").getPath();
+    assertThat(ClasspathIndex.mayProvidePackage(missing, "a")).isTrue();
+    assertThat(ClasspathIndex.mayProvideClass(missing, "A")).isTrue();
+  }
+}
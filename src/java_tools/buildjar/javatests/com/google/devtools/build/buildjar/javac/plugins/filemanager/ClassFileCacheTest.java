@@ -0,0 +1,138 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar.javac.plugins.filemanager;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.sun.tools.javac.api.JavacTool;
+import com.sun.tools.javac.util.Context;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * Tests for {@link ClassFileCache}.
+ */
+@RunWith(JUnit4.class)
+public class ClassFileCacheTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static JavaFileObject source(String name, final String content) {
+    return new SimpleJavaFileObject(URI.create("string:///" + name), JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return content;
+      }
+    };
+  }
+
+  /** Compiles the given source and returns the class output, or null if compilation failed. */
+  private InMemoryClassOutput compile(ClassFileCache cache, String classpath, String name,
+      String content) throws IOException {
+    Context context = new Context();
+    InMemoryClassOutput classOutput = new InMemoryClassOutput();
+    InMemoryFileManager.preRegister(context, classOutput, cache);
+    JavaFileManager fileManager = context.get(JavaFileManager.class);
+    boolean ok = JavacTool.create().getTask(null, fileManager, null,
+        Arrays.asList("-d", tmp.getRoot().getPath(), "-cp", classpath), null,
+        Arrays.asList(source(name, content)))
+        .call();
+    fileManager.close();
+    return ok ? classOutput : null;
+  }
+
+  private File createJar(String name, Map<String, byte[]> entries) throws IOException {
+    File jar = new File(tmp.getRoot(), name);
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+        out.putNextEntry(new ZipEntry(entry.getKey()));
+        out.write(entry.getValue());
+      }
+    }
+    return jar;
+  }
+
+  @Test
+  public void testClassFilesFromJarsAreReused() throws Exception {
+    ClassFileCache cache = new ClassFileCache(ClassFileCache.DEFAULT_MAX_BYTES);
+    InMemoryClassOutput lib = compile(cache, "", "a/A.java",
+        "package a; public class A { public static int f() { return 1; } }");
+    File jar = createJar("lib.jar", lib.getEntries());
+
+    String client = "package b; class B { int g() { return a.A.f(); } }";
+    assertThat(compile(cache, jar.getPath(), "b/B.java", client)).isNotNull();
+    int size = cache.size();
+    assertThat(size).isGreaterThan(0);
+    assertThat(cache.getTotalBytes()).isGreaterThan(0L);
+
+    // The same classes are read from the cache by the next compilation.
+    assertThat(compile(cache, jar.getPath(), "b/B.java", client)).isNotNull();
+    assertThat(cache.size()).isEqualTo(size);
+
+    // A jar that changed is read again.
+    InMemoryClassOutput changed = compile(cache, "", "a/A.java",
+        "package a; public class A { public static int h() { return 1; } }");
+    createJar("lib.jar", changed.getEntries());
+    assertThat(jar.setLastModified(jar.lastModified() + 2000)).isTrue();
+    assertThat(compile(cache, jar.getPath(), "b/B.java", client)).isNull();
+    assertThat(compile(cache, jar.getPath(), "b/B.java",
+        "package b; class B { int g() { return a.A.h(); } }")).isNotNull();
+  }
+
+  @Test
+  public void testJarsInOutputTreeAreNotCached() throws Exception {
+    File jar = new File(tmp.newFolder("bazel-out"), "lib.jar");
+    assertThat(jar.createNewFile()).isTrue();
+    assertThat(ClassFileCache.getJarStamp(jar.getPath())).isNull();
+    assertThat(ClassFileCache.getJarStamp(new File(tmp.getRoot(), "missing.jar").getPath()))
+        .isNull();
+    assertThat(ClassFileCache.getJarStamp(tmp.newFile("lib.jar").getPath())).isNotNull();
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntriesAreEvicted() {
+    ClassFileCache cache = new ClassFileCache(10);
+    cache.put("a", new byte[4]);
+    cache.put("b", new byte[4]);
+    assertThat(cache.get("a")).isNotNull();
+    cache.put("c", new byte[4]);
+    assertThat(cache.get("b")).isNull();
+    assertThat(cache.get("a")).isNotNull();
+    assertThat(cache.get("c")).isNotNull();
+    assertThat(cache.getTotalBytes()).isEqualTo(8L);
+
+    // Entries larger than the cache are not kept at all.
+    cache.put("d", new byte[11]);
+    assertThat(cache.get("d")).isNull();
+    assertThat(cache.size()).isEqualTo(2);
+  }
+}
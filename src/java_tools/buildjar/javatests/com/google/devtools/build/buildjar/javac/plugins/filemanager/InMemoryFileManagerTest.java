@@ -0,0 +1,81 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar.javac.plugins.filemanager;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.io.Files;
+
+import com.sun.tools.javac.api.JavacTool;
+import com.sun.tools.javac.util.Context;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Arrays;
+
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * Tests for {@link InMemoryFileManager}.
+ */
+@RunWith(JUnit4.class)
+public class InMemoryFileManagerTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static JavaFileObject source(String name, final String content) {
+    return new SimpleJavaFileObject(URI.create("string:///" + name), JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return content;
+      }
+    };
+  }
+
+  @Test
+  public void testClassOutputIsKeptInMemory() throws Exception {
+    File classDir = tmp.newFolder("classes");
+    Context context = new Context();
+    InMemoryClassOutput classOutput = new InMemoryClassOutput();
+    InMemoryFileManager.preRegister(context, classOutput);
+    JavaFileManager fileManager = context.get(JavaFileManager.class);
+    assertThat(fileManager).isInstanceOf(InMemoryFileManager.class);
+
+    boolean ok = JavacTool.create().getTask(null, fileManager, null,
+        Arrays.asList("-d", classDir.getPath()), null,
+        Arrays.asList(source("a/A.java", "package a; public class A { class Inner {} }")))
+        .call();
+
+    assertThat(ok).isTrue();
+    assertThat(classOutput.getEntries().keySet()).containsExactly("a/A.class", "a/A$Inner.class");
+    assertThat(classDir.list()).isEmpty();
+
+    byte[] classFile = classOutput.get("a/A.class");
+    assertThat(Arrays.copyOf(classFile, 4))
+        .isEqualTo(new byte[] {(byte) 0xca, (byte) 0xfe, (byte) 0xba, (byte) 0xbe});
+
+    classOutput.writeTo(classDir);
+    assertThat(Files.toByteArray(new File(classDir, "a/A.class"))).isEqualTo(classFile);
+    assertThat(classOutput.getEntries()).isEmpty();
+  }
+}
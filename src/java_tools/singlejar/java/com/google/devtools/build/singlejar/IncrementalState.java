@@ -0,0 +1,162 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.singlejar;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The state that {@link SingleJar} keeps between two runs in incremental mode: a key for the
+ * options that affect the entries of the output jar, the digest of the output jar, and for every
+ * input jar its digest together with the names of the output entries that were copied from it.
+ *
+ * <p>An entry of the previous output can be reused if it is copied from the same input jar again
+ * and the jar has the same digest, as long as the options are the same.
+ */
+final class IncrementalState {
+
+  private static final int VERSION = 2;
+
+  private static final class JarState {
+    private final String digest;
+    private final Set<String> entries = new LinkedHashSet<>();
+
+    JarState(String digest) {
+      this.digest = digest;
+    }
+  }
+
+  private final String optionsKey;
+  private String outputDigest = "";
+  private final Map<String, JarState> jars = new LinkedHashMap<>();
+
+  IncrementalState(String optionsKey) {
+    this.optionsKey = optionsKey;
+  }
+
+  String getOptionsKey() {
+    return optionsKey;
+  }
+
+  String getOutputDigest() {
+    return outputDigest;
+  }
+
+  void setOutputDigest(String outputDigest) {
+    this.outputDigest = outputDigest;
+  }
+
+  /**
+   * Records that the given output entries were copied from the input jar with the given path and
+   * digest.
+   */
+  void addJar(String path, String digest, Collection<String> entries) {
+    JarState jar = jars.get(path);
+    if (jar == null || !jar.digest.equals(digest)) {
+      jar = new JarState(digest);
+      jars.put(path, jar);
+    }
+    jar.entries.addAll(entries);
+  }
+
+  /**
+   * Returns the names of the output entries that were copied from the input jar with the given
+   * path, or an empty set if the jar was not an input or its digest was different.
+   */
+  Set<String> getReusableEntries(String path, String digest) {
+    JarState jar = jars.get(path);
+    if (jar == null || !jar.digest.equals(digest)) {
+      return Collections.emptySet();
+    }
+    return Collections.unmodifiableSet(jar.entries);
+  }
+
+  /**
+   * Reads the state written by {@link #write}.
+   *
+   * @throws IOException if the state can't be read or was written by a different version
+   */
+  static IncrementalState read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    if (data.readInt() != VERSION) {
+      throw new IOException("Unsupported incremental state version");
+    }
+    IncrementalState state = new IncrementalState(data.readUTF());
+    state.setOutputDigest(data.readUTF());
+    int jarCount = data.readInt();
+    for (int i = 0; i < jarCount; i++) {
+      JarState jar = new JarState(data.readUTF());
+      state.jars.put(data.readUTF(), jar);
+      int entryCount = data.readInt();
+      for (int j = 0; j < entryCount; j++) {
+        jar.entries.add(data.readUTF());
+      }
+    }
+    return state;
+  }
+
+  /** Writes the state; the stream is not closed. */
+  void write(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(VERSION);
+    data.writeUTF(optionsKey);
+    data.writeUTF(outputDigest);
+    data.writeInt(jars.size());
+    for (Map.Entry<String, JarState> jar : jars.entrySet()) {
+      data.writeUTF(jar.getValue().digest);
+      data.writeUTF(jar.getKey());
+      data.writeInt(jar.getValue().entries.size());
+      for (String entry : jar.getValue().entries) {
+        data.writeUTF(entry);
+      }
+    }
+    data.flush();
+  }
+
+  /** Returns the hex encoded MD5 digest of the contents of the file. */
+  static String digest(File file) throws IOException {
+    MessageDigest md5;
+    try {
+      md5 = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    try (InputStream in = new FileInputStream(file)) {
+      byte[] buf = new byte[0x10000];
+      int r;
+      while ((r = in.read(buf)) != -1) {
+        md5.update(buf, 0, r);
+      }
+    }
+    StringBuilder result = new StringBuilder();
+    for (byte b : md5.digest()) {
+      result.append(String.format("%02x", b & 0xff));
+    }
+    return result.toString();
+  }
+}
@@ -16,18 +16,23 @@ package com.google.devtools.build.singlejar;
 
 import com.google.devtools.build.singlejar.DefaultJarEntryFilter.PathFilter;
 import com.google.devtools.build.singlejar.ZipCombiner.OutputMode;
+import com.google.devtools.build.zip.ZipReader;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -61,6 +66,8 @@ public class SingleJar {
 
   /** A filter for what jar entries to include */
   private PathFilter allowedPaths = DefaultJarEntryFilter.ANY_PATH;
+  /** The prefixes accepted by allowedPaths, or empty if it accepts any path. */
+  private List<String> pathPrefixes = Collections.emptyList();
 
   /** Extra manifest contents. */
   private String extraManifestContent;
@@ -77,6 +84,9 @@ public class SingleJar {
   private boolean normalize = false;
   private OutputMode outputMode = OutputMode.FORCE_STORED;
 
+  /** The number of threads for compressing entries. */
+  private int compressionThreads = 1;
+
   /** Whether to include build-data.properties file */
   protected boolean includeBuildData = true;
 
@@ -89,6 +99,16 @@ public class SingleJar {
   /** The (optional) native executable that will be prepended to this JAR. */
   private String launcherBin = null;
 
+  /**
+   * The (optional) file in which the state for incremental updates is kept between runs. It is read
+   * to find the entries of {@link #previousOutputJar} that can be reused, and overwritten with the
+   * state of the new output jar, which is to be passed as the previous output to the next run.
+   */
+  private String incrementalStateFile = null;
+
+  /** The (optional) output jar of the previous run, see {@link IncrementalState}. */
+  private String previousOutputJar = null;
+
   // Only visible for testing.
   protected SingleJar(SimpleFileSystem fileSystem) {
     this.fileSystem = fileSystem;
@@ -177,10 +197,23 @@ public class SingleJar {
     processCommandlineArgs(expandedArgs);
     InputStream buildInfo = createBuildData();
 
+    IncrementalState previousState = readIncrementalState();
+    IncrementalState newState =
+        incrementalStateFile != null ? new IncrementalState(getOptionsKey()) : null;
+    ZipReader previousOutput = null;
     ZipCombiner combiner = null;
     try {
+      if (previousState != null) {
+        try {
+          previousOutput = new ZipReader(fileSystem.getFile(previousOutputJar),
+              StandardCharsets.UTF_8, false, true);
+        } catch (IOException e) {
+          // The previous output is unusable; create the output from scratch.
+          previousState = null;
+        }
+      }
       combiner = new ZipCombiner(outputMode, createEntryFilter(normalize, allowedPaths),
-          fileSystem.getOutputStream(outputJar));
+          fileSystem.getOutputStream(outputJar), compressionThreads);
       if (launcherBin != null) {
         combiner.prependExecutable(fileSystem.getInputStream(launcherBin));
       }
@@ -225,13 +258,33 @@ public class SingleJar {
       // Copy the jars into the jar file.
       for (String inputJar : inputJars) {
         File jar = fileSystem.getFile(inputJar);
-        combiner.addZip(jar);
+        if (newState == null) {
+          combiner.addZip(jar);
+        } else {
+          // Reuse the entries that were copied from the same jar the last time.
+          String digest = IncrementalState.digest(jar);
+          Set<String> reusableEntries = previousState != null
+              ? previousState.getReusableEntries(inputJar, digest)
+              : Collections.<String>emptySet();
+          newState.addJar(inputJar, digest,
+              combiner.addZip(jar, previousOutput, reusableEntries));
+        }
       }
 
       // Close the output file. If something goes wrong here, delete the file.
       combiner.close();
       combiner = null;
+
+      if (newState != null) {
+        newState.setOutputDigest(IncrementalState.digest(fileSystem.getFile(outputJar)));
+        try (OutputStream out = fileSystem.getOutputStream(incrementalStateFile)) {
+          newState.write(out);
+        }
+      }
     } finally {
+      if (previousOutput != null) {
+        previousOutput.close();
+      }
       // This part is only executed if an exception occurred.
       if (combiner != null) {
         try {
@@ -248,6 +301,40 @@ public class SingleJar {
     return 0;
   }
 
+  /**
+   * Returns the state of the previous run if the output can be updated incrementally, or null if
+   * it has to be created from scratch.
+   */
+  private IncrementalState readIncrementalState() {
+    if (incrementalStateFile == null || previousOutputJar == null) {
+      return null;
+    }
+    try {
+      IncrementalState state;
+      try (InputStream in = fileSystem.getInputStream(incrementalStateFile)) {
+        state = IncrementalState.read(in);
+      }
+      // The state must describe the previous output, and the options must not have changed.
+      // Entries are copied from the previous output by their offsets, so a different jar, even
+      // of the same size, must not be used.
+      if (!state.getOptionsKey().equals(getOptionsKey())
+          || !state.getOutputDigest().equals(
+              IncrementalState.digest(fileSystem.getFile(previousOutputJar)))) {
+        return null;
+      }
+      return state;
+    } catch (IOException e) {
+      // No usable state, e.g. because this is the first run; create the output from scratch.
+      return null;
+    }
+  }
+
+  /** Returns a key for the options that affect how the entries of the input jars are copied. */
+  private String getOptionsKey() {
+    return outputMode + " " + normalize + " " + createEntryFilter(normalize, allowedPaths)
+        .getClass().getName() + " " + pathPrefixes;
+  }
+
   protected ZipEntryFilter createEntryFilter(boolean normalize, PathFilter allowedPaths) {
     return new DefaultJarEntryFilter(normalize, allowedPaths);
   }
@@ -291,6 +378,26 @@ public class SingleJar {
     throw new IOException(arg + ": missing argument");
   }
 
+  /**
+   * Returns a single positive integer argument for a command line option.
+   *
+   * @throws IOException if no more arguments are available or the argument is not a positive
+   *     integer
+   */
+  private static int getPositiveIntArgument(List<String> args, int i, String arg)
+      throws IOException {
+    String value = getArgument(args, i, arg);
+    try {
+      int result = Integer.parseInt(value);
+      if (result > 0) {
+        return result;
+      }
+    } catch (NumberFormatException e) {
+      // Reported below.
+    }
+    throw new IOException(arg + ": expected a positive integer, got '" + value + "'");
+  }
+
   /**
    * Processes the command line arguments.
    *
@@ -323,6 +430,9 @@ public class SingleJar {
         i++;
       } else if (arg.equals("--compression")) {
         outputMode = OutputMode.FORCE_DEFLATE;
+      } else if (arg.equals("--compression_threads")) {
+        compressionThreads = getPositiveIntArgument(args, i, arg);
+        i++;
       } else if (arg.equals("--dont_change_compression")) {
         outputMode = OutputMode.DONT_CARE;
       } else if (arg.equals("--normalize")) {
@@ -336,10 +446,19 @@ public class SingleJar {
       } else if (arg.equals("--java_launcher")) {
         launcherBin = getArgument(args, i, arg);
         i++;
+      } else if (arg.equals("--incremental_state")) {
+        incrementalStateFile = getArgument(args, i, arg);
+        i++;
+      } else if (arg.equals("--previous_output")) {
+        previousOutputJar = getArgument(args, i, arg);
+        i++;
       } else {
         throw new IOException("unknown option : '" + arg + "'");
       }
     }
+    if (previousOutputJar != null && previousOutputJar.equals(outputJar)) {
+      throw new IOException("--previous_output must not be the same file as --output");
+    }
     if (!manifestLines.isEmpty()) {
       setExtraManifestContent(joinWithNewlines(manifestLines));
     }
@@ -375,6 +494,7 @@ public class SingleJar {
           "Empty set of path prefixes; cowardly refusing to emit an empty jar file");
     }
     allowedPaths = new PrefixListPathFilter(prefixes);
+    pathPrefixes = prefixes;
   }
 
   public static void main(String[] args) {
@@ -20,6 +20,7 @@ import com.google.devtools.build.singlejar.ZipEntryFilter.CustomMergeStrategy;
 import com.google.devtools.build.singlejar.ZipEntryFilter.StrategyCallback;
 import com.google.devtools.build.zip.ExtraData;
 import com.google.devtools.build.zip.ExtraDataList;
+import com.google.devtools.build.zip.ParallelDeflater;
 import com.google.devtools.build.zip.ZipFileEntry;
 import com.google.devtools.build.zip.ZipFileEntry.Compression;
 import com.google.devtools.build.zip.ZipReader;
@@ -27,20 +28,23 @@ import com.google.devtools.build.zip.ZipUtil;
 import com.google.devtools.build.zip.ZipWriter;
 
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.CRC32;
-import java.util.zip.Deflater;
-import java.util.zip.DeflaterInputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
@@ -65,6 +69,14 @@ import javax.annotation.Nullable;
  * <p>This class performs only rudimentary data checking. If the input files
  * are damaged, the output will likely also be damaged.
  *
+ * <p>The input ZIP files are memory-mapped. Entries whose compression already
+ * agrees with the {@link OutputMode} are copied from the mapping without
+ * inflating or deflating them. If the combiner is created with
+ * more than one compression thread, the entries that have to be deflated are
+ * compressed in parallel; the entries are still written to the output in the
+ * order in which they were added, so the output does not depend on the number
+ * of threads.
+ *
  * <p>Also see:
  * <a href="http://www.pkware.com/documents/casestudies/APPNOTE.TXT">ZIP format</a>
  */
@@ -238,16 +250,17 @@ public class ZipCombiner implements AutoCloseable {
     }
   }
 
-  /** Returns a {@link Deflater} for performing ZIP compression. */
-  private static Deflater getDeflater() {
-    return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
-  }
-
   /** Returns a {@link Inflater} for performing ZIP decompression. */
   private static Inflater getInflater() {
     return new Inflater(true);
   }
 
+  /**
+   * Entries that can be copied as is are buffered only up to this size while earlier entries are
+   * pending. Larger entries are streamed after all pending entries have been written.
+   */
+  private static final long MAX_BUFFERED_ENTRY_SIZE = 1024 * 1024;
+
   /** Copies all data from the input stream to the output stream. */
   private static long copyStream(InputStream from, OutputStream to) throws IOException {
     byte[] buf = new byte[0x1000];
@@ -268,21 +281,43 @@ public class ZipCombiner implements AutoCloseable {
   private final Map<String, ZipFileEntry> entries;
   private final Map<String, EntryAction> actions;
 
+  // Writes the entries to out, after the ones that are still being deflated.
+  private final ParallelDeflater deflater;
+
   /**
    * Creates a {@link ZipCombiner} for combining ZIP files using the specified {@link OutputMode},
-   * {@link ZipEntryFilter}, and destination {@link OutputStream}.
+   * {@link ZipEntryFilter}, destination {@link OutputStream} and number of threads for compressing
+   * entries.
    *
    * @param mode the compression preference for the output ZIP file
    * @param entryFilter the filter to use when adding ZIP files to the combined output
    * @param out the {@link OutputStream} for writing the combined ZIP file
+   * @param compressionThreads the number of threads for compressing entries; if it is 1, all
+   *     entries are compressed on the calling thread
    */
-  public ZipCombiner(OutputMode mode, ZipEntryFilter entryFilter, OutputStream out) {
+  public ZipCombiner(OutputMode mode, ZipEntryFilter entryFilter, OutputStream out,
+      int compressionThreads) {
+    checkArgument(compressionThreads > 0, "The number of compression threads must be positive.");
     this.mode = mode;
     this.entryFilter = entryFilter;
     this.callback = new FilterCallback();
     this.out = new ZipWriter(new BufferedOutputStream(out), UTF_8);
     this.entries = new HashMap<>();
     this.actions = new HashMap<>();
+    this.deflater = new ParallelDeflater(this.out, compressionThreads);
+  }
+
+  /**
+   * Creates a {@link ZipCombiner} for combining ZIP files using the specified {@link OutputMode},
+   * {@link ZipEntryFilter}, and destination {@link OutputStream}. Compresses all entries on the
+   * calling thread.
+   *
+   * @param mode the compression preference for the output ZIP file
+   * @param entryFilter the filter to use when adding ZIP files to the combined output
+   * @param out the {@link OutputStream} for writing the combined ZIP file
+   */
+  public ZipCombiner(OutputMode mode, ZipEntryFilter entryFilter, OutputStream out) {
+    this(mode, entryFilter, out, 1);
   }
 
   /**
@@ -327,6 +362,7 @@ public class ZipCombiner implements AutoCloseable {
    * @throws IOException if there is an error writing the prefix file
    */
   public void prependExecutable(InputStream in) throws IOException {
+    deflater.writePendingEntries();
     out.startPrefixFile();
     copyStream(in, out);
     out.endPrefixFile();
@@ -364,9 +400,7 @@ public class ZipCombiner implements AutoCloseable {
     entry.setCompressedSize(0);
     entry.setTime(date != null ? date.getTime() : new Date().getTime());
     entry.setExtra(new ExtraDataList(extra));
-    out.putNextEntry(entry);
-    out.closeEntry();
-    entries.put(filename, entry);
+    writeEntry(entry, new byte[0]);
   }
 
   /**
@@ -428,7 +462,27 @@ public class ZipCombiner implements AutoCloseable {
    *     combined ZIP file
    */
   public void addZip(File zipFile) throws IOException {
-    try (ZipReader zip = new ZipReader(zipFile)) {
+    addZip(zipFile, null, Collections.<String>emptySet());
+  }
+
+  /**
+   * Adds the contents of a ZIP file to the combined ZIP file like {@link #addZip(File)}, but
+   * copies the entries whose output names are in {@code reusableEntries} from a previous output
+   * instead, if it contains them. The caller must make sure that the entries of the previous
+   * output were created from the same entries of the same ZIP file, and with the same
+   * {@link OutputMode} and {@link ZipEntryFilter}.
+   *
+   * @param zipFile the ZIP file to add to the combined ZIP file
+   * @param previousOutput a combined ZIP file created earlier, or null
+   * @param reusableEntries the names of the entries that may be copied from previousOutput
+   * @return the names of the entries that were copied or renamed from the ZIP file
+   * @throws IOException if there is an error reading the ZIP files or writing entries to the
+   *     combined ZIP file
+   */
+  List<String> addZip(File zipFile, @Nullable ZipReader previousOutput,
+      Set<String> reusableEntries) throws IOException {
+    List<String> copiedEntries = new ArrayList<>();
+    try (ZipReader zip = new ZipReader(zipFile, UTF_8, false, true)) {
       for (ZipFileEntry entry : zip.entries()) {
         String filename = entry.getName();
         EntryAction action = getAction(filename);
@@ -437,7 +491,17 @@ public class ZipCombiner implements AutoCloseable {
             break;
           case COPY:
           case RENAME:
-            writeEntry(zip, entry, action);
+            String outputName =
+                action.getType() == ActionType.RENAME ? action.getNewName() : filename;
+            ZipFileEntry previous = previousOutput != null && reusableEntries.contains(outputName)
+                ? previousOutput.getEntry(outputName)
+                : null;
+            if (previous != null) {
+              writeRawEntry(new ZipFileEntry(previous), previousOutput, previous);
+            } else {
+              writeEntry(zip, entry, action);
+            }
+            copiedEntries.add(outputName);
             break;
           case MERGE:
             entries.put(filename, null);
@@ -450,6 +514,7 @@ public class ZipCombiner implements AutoCloseable {
         }
       }
     }
+    return copiedEntries;
   }
 
   /** Returns the action to take for a file of the given filename. */
@@ -484,22 +549,16 @@ public class ZipCombiner implements AutoCloseable {
 
   /** Writes an entry with the given name, date and external file attributes from the buffer. */
   private void writeEntryFromBuffer(ZipFileEntry entry, byte[] uncompressed) throws IOException {
-    CRC32 crc = new CRC32();
-    crc.update(uncompressed);
-
-    entry.setCrc(crc.getValue());
-    entry.setSize(uncompressed.length);
     if (mode == OutputMode.FORCE_STORED) {
+      CRC32 crc = new CRC32();
+      crc.update(uncompressed);
+      entry.setCrc(crc.getValue());
+      entry.setSize(uncompressed.length);
       entry.setMethod(Compression.STORED);
       entry.setCompressedSize(uncompressed.length);
-      writeEntry(entry, new ByteArrayInputStream(uncompressed));
+      writeEntry(entry, uncompressed);
     } else {
-      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
-      copyStream(new DeflaterInputStream(new ByteArrayInputStream(uncompressed), getDeflater()),
-          compressed);
-      entry.setMethod(Compression.DEFLATED);
-      entry.setCompressedSize(compressed.size());
-      writeEntry(entry, new ByteArrayInputStream(compressed.toByteArray()));
+      writeDeflatedEntry(entry, uncompressed);
     }
   }
 
@@ -526,39 +585,86 @@ public class ZipCombiner implements AutoCloseable {
       outEntry.setTime(action.getDate().getTime());
     }
 
-    InputStream data;
     if (mode == OutputMode.FORCE_DEFLATE && entry.getMethod() != Compression.DEFLATED) {
-      // The output mode is deflate, but the entry compression is not. Create a deflater stream
-      // from the raw file data and deflate to a temporary byte array to determine the deflated
-      // size. Then use this byte array as the input stream for writing the entry.
-      ByteArrayOutputStream tmp = new ByteArrayOutputStream();
-      copyStream(new DeflaterInputStream(zip.getRawInputStream(entry), getDeflater()), tmp);
-      data = new ByteArrayInputStream(tmp.toByteArray());
-      outEntry.setMethod(Compression.DEFLATED);
-      outEntry.setCompressedSize(tmp.size());
+      // The output mode is deflate, but the entry compression is not. Read the raw file data and
+      // deflate it to determine the deflated size, possibly on another thread.
+      writeDeflatedEntry(outEntry, toByteArray(zip.getRawData(entry)));
     } else if (mode == OutputMode.FORCE_STORED && entry.getMethod() != Compression.STORED) {
       // The output mode is stored, but the entry compression is not; create an inflater stream
       // from the raw file data. 
-      data = new InflaterInputStream(zip.getRawInputStream(entry), getInflater());
       outEntry.setMethod(Compression.STORED);
       outEntry.setCompressedSize(entry.getSize());
+      writeEntry(outEntry,
+          new InflaterInputStream(zip.getRawInputStream(entry), getInflater()));
     } else {
       // Entry compression agrees with output mode; use the raw file data as is.
-      data = zip.getRawInputStream(entry);
+      writeRawEntry(outEntry, zip, entry);
     }
-    writeEntry(outEntry, data);
   }
 
   /**
-   * Writes the specified {@link ZipFileEntry} using the data from the given {@link InputStream}.
+   * Writes the specified {@link ZipFileEntry} using the raw file data of an entry of the given
+   * {@link ZipReader}.
+   */
+  private void writeRawEntry(ZipFileEntry outEntry, ZipReader zip, ZipFileEntry entry)
+      throws IOException {
+    if (deflater.hasPendingEntries() && entry.getCompressedSize() <= MAX_BUFFERED_ENTRY_SIZE) {
+      // Earlier entries are still being compressed; buffer the raw file data so that the next
+      // entries can be processed meanwhile.
+      writeEntry(outEntry, toByteArray(zip.getRawData(entry)));
+    } else {
+      deflater.writePendingEntries();
+      out.putNextEntry(outEntry);
+      out.write(zip.getRawData(entry));
+      out.closeEntry();
+      entries.put(outEntry.getName(), outEntry);
+    }
+  }
+
+  /** Returns the remaining bytes of the buffer. */
+  private static byte[] toByteArray(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Writes the specified {@link ZipFileEntry} using the data from the given {@link InputStream},
+   * after all pending entries.
    */
   private void writeEntry(ZipFileEntry entry, InputStream data) throws IOException {
+    deflater.writePendingEntries();
     out.putNextEntry(entry);
     copyStream(data, out);
     out.closeEntry();
     entries.put(entry.getName(), entry);
   }
 
+  /**
+   * Writes the specified {@link ZipFileEntry} using the given data, or queues it behind the
+   * pending entries.
+   */
+  private void writeEntry(ZipFileEntry entry, byte[] data) throws IOException {
+    deflater.writeEntry(entry, data);
+    entries.put(entry.getName(), entry);
+  }
+
+  /**
+   * Deflates the data and writes the specified {@link ZipFileEntry}. With more than one
+   * compression thread, the data is deflated on the pool and the entry is written when it is
+   * done. Sets the method, CRC and sizes of the entry.
+   */
+  private void writeDeflatedEntry(ZipFileEntry entry, final byte[] uncompressed)
+      throws IOException {
+    deflater.writeDeflatedEntry(entry, new Callable<byte[]>() {
+      @Override
+      public byte[] call() {
+        return uncompressed;
+      }
+    }, uncompressed.length);
+    entries.put(entry.getName(), entry);
+  }
+
   /**
    * Returns true if the combined ZIP file already contains a file of the specified file name.
    *
@@ -592,6 +698,7 @@ public class ZipCombiner implements AutoCloseable {
         writeEntryFromBuffer(e, uncompressed.toByteArray());
       }
     }
+    deflater.writePendingEntries();
     out.finish();
   }
 
@@ -601,8 +708,12 @@ public class ZipCombiner implements AutoCloseable {
    * @throws IOException if the output stream or the filter throws an IOException
    */
   @Override public void close() throws IOException {
-    finish();
-    out.close();
+    try {
+      finish();
+      out.close();
+    } finally {
+      deflater.close();
+    }
   }
 
   /** Ensures the truth of an expression involving one or more parameters to the calling method. */
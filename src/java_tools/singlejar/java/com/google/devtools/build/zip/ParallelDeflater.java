@@ -0,0 +1,220 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.zip;
+
+import com.google.devtools.build.zip.ZipFileEntry.Compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes entries to a {@link ZipWriter}, deflating them on a thread pool. The entries are written
+ * in the order in which they were added, and each is deflated the same way on every thread, so
+ * the output doesn't depend on the number of threads.
+ *
+ * <p>Entries that have to wait for their own compression or for that of an earlier entry are kept
+ * in memory. If they hold more than 64 MB, the writer waits for the oldest entries to be
+ * compressed and writes them.
+ */
+public final class ParallelDeflater implements Closeable {
+
+  private static final long MAX_PENDING_BYTES = 64L * 1024 * 1024;
+
+  /** An entry that was added but not written yet. */
+  private static final class PendingEntry {
+    private final ZipFileEntry entry;
+    private final Future<byte[]> data;
+    // The number of bytes held in memory until the entry is written.
+    private final long size;
+
+    PendingEntry(ZipFileEntry entry, Future<byte[]> data, long size) {
+      this.entry = entry;
+      this.data = data;
+      this.size = size;
+    }
+  }
+
+  private final ZipWriter out;
+  // The pool for compressing entries, or null if they are compressed on the calling thread.
+  private final ExecutorService pool;
+  // Entries waiting to be written, in the order in which they were added.
+  private final Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
+  private long pendingBytes = 0;
+
+  /**
+   * Creates a deflater that writes to the given {@link ZipWriter}.
+   *
+   * @param out the writer for the entries, which must not be written to directly while entries
+   *     are pending
+   * @param threads the number of threads for compressing entries; if it is 1, all entries are
+   *     compressed on the calling thread
+   */
+  public ParallelDeflater(ZipWriter out, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("The number of compression threads must be positive.");
+    }
+    this.out = out;
+    this.pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+  }
+
+  /**
+   * Deflates the given data with the default compression level, without a zlib wrapper.
+   *
+   * <p>Uses its own {@link Deflater}, so it may be called on any thread.
+   */
+  public static byte[] deflate(byte[] uncompressed) {
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      deflater.setInput(uncompressed);
+      deflater.finish();
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(uncompressed.length / 2 + 64);
+      byte[] buf = new byte[0x1000];
+      while (!deflater.finished()) {
+        compressed.write(buf, 0, deflater.deflate(buf));
+      }
+      return compressed.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /** Returns whether there are entries that were added, but not written yet. */
+  public boolean hasPendingEntries() {
+    return !pendingEntries.isEmpty();
+  }
+
+  /**
+   * Adds an entry with the given data, which is written as is. The entry is written right away
+   * unless entries are pending. The entry's method, CRC and sizes must already be set.
+   */
+  public void writeEntry(ZipFileEntry entry, final byte[] data) throws IOException {
+    if (pendingEntries.isEmpty()) {
+      out.putNextEntry(entry);
+      out.write(data);
+      out.closeEntry();
+    } else {
+      FutureTask<byte[]> future = new FutureTask<>(new Callable<byte[]>() {
+        @Override
+        public byte[] call() {
+          return data;
+        }
+      });
+      future.run();
+      addPendingEntry(new PendingEntry(entry, future, data.length));
+    }
+  }
+
+  /**
+   * Adds a deflated entry. The content is obtained and deflated on the pool; the method, CRC and
+   * sizes of the entry are set before it is written.
+   *
+   * @param entry the entry, which must not be modified until it has been written
+   * @param content returns the uncompressed content of the entry
+   * @param size the expected size of the content, for bounding the memory held by pending entries
+   */
+  public void writeDeflatedEntry(final ZipFileEntry entry, final Callable<byte[]> content,
+      long size) throws IOException {
+    entry.setMethod(Compression.DEFLATED);
+    Callable<byte[]> task = new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws Exception {
+        byte[] uncompressed = content.call();
+        CRC32 crc = new CRC32();
+        crc.update(uncompressed);
+        entry.setCrc(crc.getValue());
+        entry.setSize(uncompressed.length);
+        byte[] compressed = deflate(uncompressed);
+        entry.setCompressedSize(compressed.length);
+        return compressed;
+      }
+    };
+    if (pool == null) {
+      byte[] compressed;
+      try {
+        compressed = task.call();
+      } catch (IOException | RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IOException("Failed to compress " + entry.getName(), e);
+      }
+      writeEntry(entry, compressed);
+    } else {
+      addPendingEntry(new PendingEntry(entry, pool.submit(task), size));
+    }
+  }
+
+  /** Writes all pending entries, waiting for their compression to finish. */
+  public void writePendingEntries() throws IOException {
+    while (!pendingEntries.isEmpty()) {
+      writeFirstPendingEntry();
+    }
+  }
+
+  private void addPendingEntry(PendingEntry pending) throws IOException {
+    pendingEntries.add(pending);
+    pendingBytes += pending.size;
+    while (pendingBytes > MAX_PENDING_BYTES) {
+      writeFirstPendingEntry();
+    }
+  }
+
+  private void writeFirstPendingEntry() throws IOException {
+    PendingEntry pending = pendingEntries.poll();
+    pendingBytes -= pending.size;
+    byte[] data;
+    try {
+      data = pending.data.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while compressing " + pending.entry.getName());
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException("Failed to compress " + pending.entry.getName(), cause);
+    }
+    out.putNextEntry(pending.entry);
+    out.write(data);
+    out.closeEntry();
+  }
+
+  /**
+   * Stops the compression threads. Entries that are still pending are not written; call
+   * {@link #writePendingEntries} first. Doesn't close the {@link ZipWriter}.
+   */
+  @Override
+  public void close() {
+    if (pool != null) {
+      pool.shutdownNow();
+    }
+  }
+}
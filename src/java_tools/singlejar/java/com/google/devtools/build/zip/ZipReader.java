@@ -29,7 +29,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.zip.Inflater;
@@ -51,6 +54,11 @@ import java.util.zip.ZipFile;
  *
  * <p><em>NOTE:</em> The entries are read from the central directory. If the entry is not listed
  * there, it will not be returned from {@link #entries()} or {@link #getEntry(String)}.
+ *
+ * <p>A ZIP file can optionally be memory-mapped when it is opened. The central directory is then
+ * parsed directly from the mapped memory, and {@link #getRawData(ZipFileEntry)} returns slices of
+ * the mapping instead of reading the entry data into arrays. The mapping is released when it is
+ * garbage collected, not when the reader is closed.
  */
 public class ZipReader implements Closeable, AutoCloseable {
 
@@ -143,6 +151,41 @@ public class ZipReader implements Closeable, AutoCloseable {
     }
   }
 
+  /** An input stream for reading the remaining bytes of a {@link ByteBuffer}. */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override public int available() {
+      return buffer.remaining();
+    }
+
+    @Override public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, buffer.remaining());
+      buffer.get(b, off, len);
+      return len;
+    }
+
+    @Override public long skip(long n) {
+      n = Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + (int) n);
+      return n;
+    }
+  }
+
   /** An input stream for reading the raw file data of a ZIP file entry. */
   private class RawZipEntryInputStream extends InputStream {
     private InputStream stream;
@@ -232,6 +275,8 @@ public class ZipReader implements Closeable, AutoCloseable {
   private final File file;
   private final RandomAccessFile in;
   private final ZipFileData zipData;
+  // The mapped file contents, or null if the file is not memory-mapped.
+  private final MappedByteBuffer map;
 
   /**
    * Opens a zip file for raw acceess.
@@ -269,13 +314,37 @@ public class ZipReader implements Closeable, AutoCloseable {
    * @throws IOException if an I/O error has occurred
    */
   public ZipReader(File file, Charset charset, boolean strictEntries) throws IOException {
+    this(file, charset, strictEntries, false);
+  }
+
+  /**
+   * Opens a zip file for raw acceess.
+   *
+   * @param file the zip file
+   * @param charset the charset to use to decode the entry names and comments
+   * @param strictEntries force parsing to use the number of entries recorded in the end of
+   *     central directory as the correct value, not as an estimate
+   * @param memoryMapped whether to memory-map the file; files larger than 2GB are never mapped
+   * @throws ZipException if a ZIP format error has occurred
+   * @throws IOException if an I/O error has occurred
+   */
+  public ZipReader(File file, Charset charset, boolean strictEntries, boolean memoryMapped)
+      throws IOException {
     if (file == null || charset == null) {
       throw new NullPointerException();
     }
     this.file = file;
     this.in = new RandomAccessFile(file, "r");
     this.zipData = new ZipFileData(charset);
-    readCentralDirectory(strictEntries);
+    try {
+      this.map = memoryMapped && in.length() <= Integer.MAX_VALUE
+          ? in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length())
+          : null;
+      readCentralDirectory(strictEntries);
+    } catch (IOException | RuntimeException e) {
+      in.close();
+      throw e;
+    }
   }
 
   /**
@@ -349,6 +418,61 @@ public class ZipReader implements Closeable, AutoCloseable {
     return new RawZipEntryInputStream(entry);
   }
 
+  /**
+   * Returns the raw contents of the specified ZIP file entry as a {@link ByteBuffer}.
+   *
+   * <p><em>NOTE:</em> No inflating will take place; The buffer contains the exact byte content of
+   * the ZIP file entry on disk. If the file is memory-mapped, the buffer is a read-only slice of
+   * the mapping, which has no accessible array; otherwise, the data is read into a new array that
+   * backs the buffer.
+   *
+   * @param entry the ZIP file entry
+   * @return a buffer whose remaining bytes are the raw contents of the ZIP file entry
+   * @throws ZipException if a ZIP format error has occurred
+   * @throws IOException if an I/O error has occurred
+   */
+  public ByteBuffer getRawData(ZipFileEntry entry) throws IOException {
+    if (!zipData.getEntry(entry.getName()).equals(entry)) {
+      throw new ZipException(String.format(
+          "Zip file '%s' does not contain the requested entry '%s'.", file.getName(),
+          entry.getName()));
+    }
+    if (map == null) {
+      byte[] data = new byte[(int) entry.getCompressedSize()];
+      ZipUtil.readFully(getRawInputStream(entry), data);
+      return ByteBuffer.wrap(data);
+    }
+
+    long offset = entry.getLocalHeaderOffset();
+    byte[] fileHeader = new byte[LocalFileHeader.FIXED_DATA_SIZE];
+    if (offset < 0 || offset > map.limit() - fileHeader.length) {
+      throw new ZipException(String.format("The file '%s' is not a correctly formatted zip file: "
+          + "Expected a File Header at file offset %d, but was not present.",
+          file.getName(), offset));
+    }
+    ByteBuffer header = map.duplicate();
+    header.position((int) offset);
+    header.get(fileHeader);
+    if (!ZipUtil.arrayStartsWith(fileHeader,
+        ZipUtil.intToLittleEndian(LocalFileHeader.SIGNATURE))) {
+      throw new ZipException(String.format("The file '%s' is not a correctly formatted zip file: "
+          + "Expected a File Header at file offset %d, but was not present.",
+          file.getName(), offset));
+    }
+    long dataOffset = offset + LocalFileHeader.FIXED_DATA_SIZE
+        + ZipUtil.getUnsignedShort(fileHeader, LocalFileHeader.FILENAME_LENGTH_OFFSET)
+        + ZipUtil.getUnsignedShort(fileHeader, LocalFileHeader.EXTRA_FIELD_LENGTH_OFFSET);
+    if (dataOffset + entry.getCompressedSize() > map.limit()) {
+      throw new ZipException(String.format("The file '%s' is not a correctly formatted zip file: "
+          + "The data of entry '%s' extends beyond the end of the file.",
+          file.getName(), entry.getName()));
+    }
+    ByteBuffer data = map.asReadOnlyBuffer();
+    data.limit((int) (dataOffset + entry.getCompressedSize()));
+    data.position((int) dataOffset);
+    return data.slice();
+  }
+
   /**
    * Closes the ZIP file.
    *
@@ -507,6 +631,15 @@ public class ZipReader implements Closeable, AutoCloseable {
    * @throws IOException if an I/O error has occurred
    */
   protected InputStream getStreamAt(long fileOffset) throws IOException {
+    if (map != null) {
+      if (fileOffset < 0 || fileOffset > map.limit()) {
+        throw new ZipException(String.format("The file '%s' is not a correctly formatted zip file: "
+            + "Offset %d is outside of the file.", file.getName(), fileOffset));
+      }
+      ByteBuffer buffer = map.duplicate();
+      buffer.position((int) fileOffset);
+      return new ByteBufferInputStream(buffer);
+    }
     return new BufferedInputStream(Channels.newInputStream(in.getChannel().position(fileOffset)));
   }
 }
@@ -20,6 +20,7 @@ import com.google.devtools.build.zip.ZipUtil.LocalFileHeader;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.zip.ZipException;
 
@@ -141,6 +142,32 @@ public class ZipWriter extends OutputStream {
     bytesWritten += len;
   }
 
+  /**
+   * Writes the remaining bytes of the buffer, for example the raw data of an entry returned by
+   * {@link ZipReader#getRawData(ZipFileEntry)}. The position of the buffer is advanced to its
+   * limit.
+   *
+   * <p>The data of a buffer with an accessible array is written directly from the array. Any other
+   * buffer, such as a slice of a memory-mapped file, is copied to the underlying stream in chunks,
+   * through a temporary array.
+   *
+   * @throws ZipException if no entry or prefix file is being written
+   * @throws IOException if an I/O error occurred
+   */
+  public void write(ByteBuffer data) throws IOException {
+    if (data.hasArray()) {
+      write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+      data.position(data.limit());
+      return;
+    }
+    byte[] buf = new byte[Math.min(data.remaining(), 0x10000)];
+    while (data.hasRemaining()) {
+      int len = Math.min(buf.length, data.remaining());
+      data.get(buf, 0, len);
+      write(buf, 0, len);
+    }
+  }
+
   /**
    * Finishes writing the contents of the ZIP output stream without closing the underlying stream.
    * Use this method when applying multiple filters in succession to the same output stream.
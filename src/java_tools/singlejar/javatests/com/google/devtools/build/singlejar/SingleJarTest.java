@@ -23,12 +23,17 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.singlejar.FakeZipFile.ByteValidator;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -40,6 +45,7 @@ import java.util.jar.JarFile;
  */
 @RunWith(JUnit4.class)
 public class SingleJarTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
 
   public static final byte[] EXTRA_FOR_META_INF = new byte[] {(byte) 0xFE, (byte) 0xCA, 0x00, 0x00};
 
@@ -308,6 +314,23 @@ public class SingleJarTest {
     expectedResult.assertSame(mockFs.toByteArray());
   }
 
+  @Test
+  public void testSimpleUncompressedZipWithCompressionThreads() throws IOException {
+    MockSimpleFileSystem mockFs = new MockSimpleFileSystem("output.jar");
+    mockFs.addFile("test.jar", sampleUncompressedZip());
+    SingleJar singleJar = new SingleJar(mockFs);
+    singleJar.run(ImmutableList.of("--output", "output.jar", "--sources", "test.jar",
+        "--compression", "--compression_threads", "4"));
+    FakeZipFile expectedResult = new FakeZipFile()
+        .addEntry("META-INF/", EXTRA_FOR_META_INF, false)
+        .addEntry(JarFile.MANIFEST_NAME, new ManifestValidator(
+            "Manifest-Version: 1.0",
+            "Created-By: blaze-singlejar"), true)
+        .addEntry("build-data.properties", redactedBuildData("output.jar"), true)
+        .addEntry("hello.txt", "Hello World!", true);
+    expectedResult.assertSame(mockFs.toByteArray());
+  }
+
   // Integration test for option file expansion.
   @Test
   public void testOptionFile() throws IOException {
@@ -633,4 +656,89 @@ public class SingleJarTest {
             .addEntry("build-data.properties", redactedBuildData("output.jar", "SomeClass"));
     expectedResult.assertSame(mockFs.toByteArray());
   }
+
+  private String writeJar(String name, ZipFactory factory) throws IOException {
+    File jar = new File(tmp.getRoot(), name);
+    Files.write(jar.toPath(), factory.toByteArray());
+    return jar.getPath();
+  }
+
+  private byte[] runSingleJar(String output, List<String> jars, String... extraArgs)
+      throws IOException {
+    List<String> args = new ArrayList<>();
+    args.addAll(ImmutableList.of("--output", output, "--sources"));
+    args.addAll(jars);
+    args.addAll(ImmutableList.of("--compression", "--normalize", "--exclude_build_data"));
+    args.addAll(Arrays.asList(extraArgs));
+    new SingleJar(new JavaIoFileSystem()).run(args);
+    return Files.readAllBytes(new File(output).toPath());
+  }
+
+  @Test
+  public void testIncrementalUpdateMatchesFullBuild() throws IOException {
+    String jarA = writeJar("a.jar", new ZipFactory()
+        .addFile("a.txt", "Hello A!", false)
+        .addFile("META-INF/services/Service", "ImplA\n", false));
+    String jarB = writeJar("b.jar", new ZipFactory()
+        .addFile("b.txt", "Hello B!", false)
+        .addFile("META-INF/services/Service", "ImplB\n", false));
+    String jarC = writeJar("c.jar", new ZipFactory()
+        .addFile("a.txt", "A, from C", false)
+        .addFile("c.txt", "Hello C!", false)
+        .addFile("META-INF/services/Service", "ImplC\n", false));
+    List<String> jars = ImmutableList.of(jarA, jarB, jarC);
+    String output = new File(tmp.getRoot(), "output.jar").getPath();
+    String previousOutput = new File(tmp.getRoot(), "previous.jar").getPath();
+    String state = new File(tmp.getRoot(), "state").getPath();
+
+    // The first run has no previous output and creates the jar from scratch.
+    byte[] first = runSingleJar(output, jars,
+        "--incremental_state", state, "--previous_output", previousOutput);
+    assertThat(first).isEqualTo(runSingleJar(output, jars));
+    runSingleJar(output, jars, "--incremental_state", state);
+    Files.copy(new File(output).toPath(), new File(previousOutput).toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+
+    // Change b and let it shadow an entry of c that was copied before.
+    jarB = writeJar("b.jar", new ZipFactory()
+        .addFile("b.txt", "Hello again B!", false)
+        .addFile("c.txt", "C, from B", false)
+        .addFile("META-INF/services/Service", "ImplB2\n", false));
+    byte[] incremental = runSingleJar(output, jars,
+        "--incremental_state", state, "--previous_output", previousOutput);
+    assertThat(incremental).isEqualTo(runSingleJar(output, jars));
+  }
+
+  @Test
+  public void testIncrementalUpdateIgnoresDifferentPreviousOutputOfSameSize()
+      throws IOException {
+    String jarA = writeJar("a.jar", new ZipFactory().addFile("a.txt", "Hello A!", false));
+    List<String> jars = ImmutableList.of(jarA);
+    String output = new File(tmp.getRoot(), "output.jar").getPath();
+    String previousOutput = new File(tmp.getRoot(), "previous.jar").getPath();
+    String state = new File(tmp.getRoot(), "state").getPath();
+    byte[] expected = runSingleJar(output, jars, "--incremental_state", state);
+
+    // Replace the previous output with a different jar of the same size.
+    String otherJar = writeJar("other.jar", new ZipFactory().addFile("a.txt", "Hello a!", false));
+    byte[] other = runSingleJar(previousOutput, ImmutableList.of(otherJar));
+    assertThat(other.length).isEqualTo(expected.length);
+    assertThat(other).isNotEqualTo(expected);
+
+    byte[] incremental = runSingleJar(output, jars,
+        "--incremental_state", state, "--previous_output", previousOutput);
+    assertThat(incremental).isEqualTo(expected);
+  }
+
+  @Test
+  public void testPreviousOutputMustNotBeOutput() throws IOException {
+    SingleJar singleJar = new SingleJar(new MockSimpleFileSystem("output.jar"));
+    try {
+      singleJar.run(ImmutableList.of("--output", "output.jar", "--incremental_state", "state",
+          "--previous_output", "output.jar"));
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).contains("--previous_output");
+    }
+  }
 }
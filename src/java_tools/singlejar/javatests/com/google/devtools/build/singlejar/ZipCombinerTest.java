@@ -55,6 +55,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -805,4 +806,68 @@ public class ZipCombinerTest {
     assertNull(zipInput.getNextEntry());
     new ZipTester(out.toByteArray()).validate();
   }
+
+  private byte[] combineMixedZip(OutputMode mode, int compressionThreads) throws IOException {
+    ZipFactory factory = new ZipFactory();
+    for (int i = 0; i < 200; i++) {
+      StringBuilder content = new StringBuilder();
+      for (int j = 0; j < i * 50; j++) {
+        content.append("Hello ").append(j).append('\n');
+      }
+      factory.addFile("hello" + i + ".txt", content.toString(), i % 3 != 0);
+    }
+    File zip = writeInputStreamToFile(factory.toInputStream());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ZipCombiner zipCombiner =
+        new ZipCombiner(mode, new CopyEntryFilter(), out, compressionThreads)) {
+      zipCombiner.addDirectory("META-INF/", ZipCombiner.DOS_EPOCH);
+      zipCombiner.addFile("META-INF/MANIFEST.MF", ZipCombiner.DOS_EPOCH,
+          asStream("Manifest-Version: 1.0\n"));
+      zipCombiner.addZip(zip);
+      zipCombiner.addFile("last.txt", ZipCombiner.DOS_EPOCH, asStream("Last!"));
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testParallelCompressionIsDeterministic() throws IOException {
+    for (OutputMode mode : OutputMode.values()) {
+      byte[] sequential = combineMixedZip(mode, 1);
+      byte[] parallel = combineMixedZip(mode, 4);
+      assertTrue(mode.toString(), Arrays.equals(sequential, parallel));
+
+      ZipInputStream zipInput = new ZipInputStream(new ByteArrayInputStream(parallel));
+      assertEntry(zipInput, "META-INF/", "");
+      assertEntry(zipInput, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n");
+      for (int i = 0; i < 200; i++) {
+        assertEquals("hello" + i + ".txt", zipInput.getNextEntry().getName());
+      }
+      assertEntry(zipInput, "last.txt", "Last!");
+      assertNull(zipInput.getNextEntry());
+    }
+  }
+
+  @Test
+  public void testAddZipReusesEntriesOfPreviousOutput() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ZipCombiner zipCombiner = new ZipCombiner(OutputMode.FORCE_DEFLATE, out)) {
+      zipCombiner.addFile("hello.txt", ZipCombiner.DOS_EPOCH, asStream("Previous hello!"));
+      zipCombiner.addFile("hello2.txt", ZipCombiner.DOS_EPOCH, asStream("Previous hello 2!"));
+    }
+    File previousOutput = writeInputStreamToFile(new ByteArrayInputStream(out.toByteArray()));
+
+    out.reset();
+    List<String> copiedEntries;
+    try (ZipCombiner zipCombiner = new ZipCombiner(OutputMode.FORCE_DEFLATE, out);
+        ZipReader previous = new ZipReader(previousOutput)) {
+      copiedEntries = zipCombiner.addZip(sampleZipWithTwoEntries(), previous,
+          new HashSet<>(Arrays.asList("hello.txt")));
+    }
+    assertThat(copiedEntries).containsExactly("hello.txt", "hello2.txt").inOrder();
+    ZipInputStream zipInput = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+    // Only the entry that is marked as reusable is taken from the previous output.
+    assertEntry(zipInput, "hello.txt", "Previous hello!");
+    assertEntry(zipInput, "hello2.txt", "Hello World 2!");
+    assertNull(zipInput.getNextEntry());
+  }
 }
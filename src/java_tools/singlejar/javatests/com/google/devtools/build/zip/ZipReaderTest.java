@@ -37,6 +37,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
@@ -347,6 +348,77 @@ public class ZipReaderTest {
     }
   }
 
+  private void writeFooAndBar(byte[] fooData, byte[] barData) throws IOException {
+    CRC32 crc = new CRC32();
+    try (ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(test))) {
+      ZipEntry foo = new ZipEntry("foo");
+      foo.setMethod(ZipEntry.DEFLATED);
+      zout.putNextEntry(foo);
+      zout.write(fooData);
+      zout.closeEntry();
+
+      ZipEntry bar = new ZipEntry("bar");
+      bar.setMethod(ZipEntry.STORED);
+      bar.setSize(barData.length);
+      bar.setCompressedSize(barData.length);
+      crc.update(barData);
+      bar.setCrc(crc.getValue());
+      zout.putNextEntry(bar);
+      zout.write(barData);
+      zout.closeEntry();
+    }
+  }
+
+  private static byte[] toByteArray(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  @Test public void testRawData() throws IOException {
+    byte[] expectedFooData = "This is file foo. It contains a foo.".getBytes(UTF_8);
+    byte[] expectedBarData = "This is a different file bar.".getBytes(UTF_8);
+    writeFooAndBar(expectedFooData, expectedBarData);
+
+    for (boolean memoryMapped : new boolean[] {false, true}) {
+      try (ZipReader reader = new ZipReader(test, UTF_8, false, memoryMapped)) {
+        ZipFileEntry fooEntry = reader.getEntry("foo");
+        assertThat(toByteArray(reader.getRawData(fooEntry)))
+            .isEqualTo(ByteStreams.toByteArray(reader.getRawInputStream(fooEntry)));
+        assertThat(ByteStreams.toByteArray(reader.getInputStream(fooEntry)))
+            .isEqualTo(expectedFooData);
+
+        ZipFileEntry barEntry = reader.getEntry("bar");
+        ByteBuffer barData = reader.getRawData(barEntry);
+        // Only the mapping is read-only; a buffer that was read has an accessible array.
+        assertThat(barData.isReadOnly()).isEqualTo(memoryMapped);
+        assertThat(barData.hasArray()).isEqualTo(!memoryMapped);
+        assertThat(toByteArray(barData)).isEqualTo(expectedBarData);
+      }
+    }
+  }
+
+  @Test public void testMemoryMappedSimultaneousReads() throws IOException {
+    byte[] expectedFooData = "This is file foo. It contains a foo.".getBytes(UTF_8);
+    byte[] expectedBarData = "This is a different file bar.".getBytes(UTF_8);
+    writeFooAndBar(expectedFooData, expectedBarData);
+
+    try (ZipReader reader = new ZipReader(test, UTF_8, false, true)) {
+      assertThat(reader.size()).isEqualTo(2);
+      InputStream fooIn = reader.getInputStream(reader.getEntry("foo"));
+      InputStream barIn = reader.getInputStream(reader.getEntry("bar"));
+      byte[] fooData = new byte[expectedFooData.length];
+      byte[] barData = new byte[expectedBarData.length];
+      ZipUtil.readFully(fooIn, fooData, 0, 10);
+      ZipUtil.readFully(barIn, barData, 0, 10);
+      ZipUtil.readFully(fooIn, fooData, 10, fooData.length - 10);
+      ZipUtil.readFully(barIn, barData, 10, barData.length - 10);
+      assertThat(fooData).isEqualTo(expectedFooData);
+      assertThat(barData).isEqualTo(expectedBarData);
+      assertThat(fooIn.read()).isEqualTo(-1);
+    }
+  }
+
   @Test public void testSimultaneousReads() throws IOException {
     byte[] expectedFooData = "This is file foo. It contains a foo.".getBytes(UTF_8);
     byte[] expectedBarData = "This is a different file bar. It contains only a bar."
@@ -18,6 +18,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.fail;
 
+import com.google.common.io.ByteStreams;
 import com.google.common.primitives.Bytes;
 import com.google.devtools.build.zip.ZipFileEntry.Compression;
 
@@ -32,6 +33,8 @@ import org.junit.runners.JUnit4;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Calendar;
 import java.util.Random;
 import java.util.zip.CRC32;
@@ -129,6 +132,45 @@ public class ZipWriterTest {
     }
   }
 
+  @Test public void testByteBufferEntries() throws IOException {
+    // Larger than the chunks a buffer without an accessible array is copied through.
+    byte[] content = new byte[200000];
+    rand.nextBytes(content);
+    crc.update(content, 1, content.length - 1);
+    ByteBuffer heap = ByteBuffer.wrap(content);
+    heap.position(1);
+    ByteBuffer direct = ByteBuffer.allocateDirect(content.length);
+    direct.put(content).position(1);
+
+    try (ZipWriter writer = new ZipWriter(new FileOutputStream(test), UTF_8)) {
+      for (String name : new String[] { "heap", "direct" }) {
+        ZipFileEntry entry = new ZipFileEntry(name);
+        entry.setMethod(Compression.STORED);
+        entry.setSize(content.length - 1);
+        entry.setCompressedSize(content.length - 1);
+        entry.setCrc(crc.getValue());
+        entry.setTime(cal.getTimeInMillis());
+        writer.putNextEntry(entry);
+        writer.write(name.equals("heap") ? heap : direct);
+        writer.closeEntry();
+      }
+    }
+    assertThat(heap.hasRemaining()).isFalse();
+    assertThat(direct.hasRemaining()).isFalse();
+
+    byte[] expected = new byte[content.length - 1];
+    System.arraycopy(content, 1, expected, 0, expected.length);
+    try (ZipFile zipFile = new ZipFile(test)) {
+      for (String name : new String[] { "heap", "direct" }) {
+        ZipEntry entry = zipFile.getEntry(name);
+        assertThat(entry.getCrc()).isEqualTo(crc.getValue());
+        try (InputStream in = zipFile.getInputStream(entry)) {
+          assertThat(ByteStreams.toByteArray(in)).isEqualTo(expected);
+        }
+      }
+    }
+  }
+
   @Test public void testMultipleEntry() throws IOException {
     ZipWriter writer = new ZipWriter(new FileOutputStream(test), UTF_8);
     writer.setComment("file comment");
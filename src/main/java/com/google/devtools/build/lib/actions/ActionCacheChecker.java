@@ -26,13 +26,16 @@ import com.google.devtools.build.lib.actions.cache.MetadataHandler;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.EventKind;
+import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nullable;
 
@@ -55,6 +58,9 @@ public class ActionCacheChecker {
   private final ArtifactResolver artifactResolver;
   // True iff --verbose_explanations flag is set.
   private final boolean verboseExplanations;
+  // The digests of the (exec path, metadata) pairs of the artifacts validated in this build. Most
+  // inputs are shared by many actions, so this saves digesting them again for every action.
+  private final ConcurrentMap<Artifact, PairDigest> pairDigests = new ConcurrentHashMap<>();
 
   public ActionCacheChecker(ActionCache actionCache, ArtifactResolver artifactResolver,
       Predicate<? super Action> executionFilter, boolean verboseExplanations) {
@@ -106,11 +112,40 @@ public class ActionCacheChecker {
     Iterable<Artifact> artifacts = checkOutput
         ? Iterables.concat(action.getOutputs(), actionInputs)
         : actionInputs;
-    Map<String, Metadata> mdMap = new HashMap<>();
+    Digest.Builder digest = new Digest.Builder();
+    Set<Artifact> seen = new HashSet<>();
+    Fingerprint fp = null;
     for (Artifact artifact : artifacts) {
-      mdMap.put(artifact.getExecPathString(), metadataHandler.getMetadataMaybe(artifact));
+      if (!seen.add(artifact)) {
+        continue;
+      }
+      Metadata metadata = metadataHandler.getMetadataMaybe(artifact);
+      byte[] pairDigest = getCachedPairDigest(artifact, metadata);
+      if (pairDigest == null) {
+        if (fp == null) {
+          fp = new Fingerprint();
+        }
+        pairDigest = Digest.getPairDigest(fp, artifact.getExecPathString(), metadata);
+        if (metadata != null) {
+          pairDigests.put(artifact, new PairDigest(metadata, pairDigest));
+        }
+      }
+      digest.addPairDigest(pairDigest);
     }
-    return !Digest.fromMetadata(mdMap).equals(entry.getFileDigest());
+    return !digest.build().equals(entry.getFileDigest());
+  }
+
+  /**
+   * Returns the digest of the artifact and its metadata that was computed earlier in this build,
+   * or null if there is none or the metadata of the artifact has changed since.
+   */
+  @Nullable
+  private byte[] getCachedPairDigest(Artifact artifact, @Nullable Metadata metadata) {
+    if (metadata == null) {
+      return null;
+    }
+    PairDigest cached = pairDigests.get(artifact);
+    return cached != null && cached.metadata.equals(metadata) ? cached.digest : null;
   }
 
   private void reportCommand(EventHandler handler, Action action) {
@@ -353,6 +388,17 @@ public class ActionCacheChecker {
     reportRebuild(handler, action, "cache entry is corrupted");
   }
 
+  /** The digest of an artifact and its metadata, see {@link Digest#getPairDigest}. */
+  private static final class PairDigest {
+    private final Metadata metadata;
+    private final byte[] digest;
+
+    private PairDigest(Metadata metadata, byte[] digest) {
+      this.metadata = metadata;
+      this.digest = digest;
+    }
+  }
+
   /** Wrapper for all context needed by the ActionCacheChecker to handle a single action. */
   public static final class Token {
     private final String cacheKey;
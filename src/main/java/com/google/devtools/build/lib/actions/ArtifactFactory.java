@@ -53,26 +53,32 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
    * Map of package names to source root paths so that we can create source
    * artifact paths given execPaths in the symlink forest.
    */
-  private ImmutableMap<PackageIdentifier, Root> packageRoots;
+  private volatile ImmutableMap<PackageIdentifier, Root> packageRoots;
 
   /**
    * Reverse-ordered list of derived roots for use in looking up or (in rare cases) creating
    * derived artifacts from execPaths. The reverse order is only significant for overlapping roots
    * so that the longest is found first.
    */
-  private ImmutableCollection<Root> derivedRoots = ImmutableList.of();
+  private volatile ImmutableCollection<Root> derivedRoots = ImmutableList.of();
 
-  private ArtifactIdRegistry artifactIdRegistry = new ArtifactIdRegistry();
+  private volatile ArtifactIdRegistry artifactIdRegistry = new ArtifactIdRegistry();
 
+  /**
+   * Cache of the canonical source artifacts. The cache is read and written concurrently by the
+   * analysis threads without locking: a lookup is a single map read, and new entries are
+   * installed with compare-and-set operations, so that all threads agree on the canonical
+   * artifact of a path.
+   */
   private static class SourceArtifactCache {
 
-    private class Entry {
+    private static class Entry {
       private final Artifact artifact;
       private final int idOfBuild;
 
-      Entry(Artifact artifact) {
+      Entry(Artifact artifact, int idOfBuild) {
         this.artifact = artifact;
-        idOfBuild = buildId;
+        this.idOfBuild = idOfBuild;
       }
 
       Artifact getArtifact() {
@@ -87,11 +93,18 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
     /**
      * The main Path to source artifact cache. There will always be exactly one canonical
      * artifact for a given source path.
+     *
+     * <p>Replaced instead of cleared, which frees the memory of the old map and doesn't disturb
+     * readers that still use it.
      */
-    private final Map<PathFragment, Entry> pathToSourceArtifact = new HashMap<>();
+    private volatile ConcurrentMap<PathFragment, Entry> pathToSourceArtifact =
+        new ConcurrentHashMap<>();
 
-    /** Id of current build. Has to be increased every time before execution phase starts. */
-    private int buildId = 0;
+    /**
+     * Id of current build. Has to be increased every time before execution phase starts. Entries
+     * of earlier builds are not removed, but have to be validated before they are used again.
+     */
+    private volatile int buildId = 0;
 
     /** Returns artifact if it present in the cache, otherwise null. */
     Artifact getArtifact(PathFragment execPath) {
@@ -111,9 +124,17 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
       return null;
     }
 
-    void markEntryAsValid(PathFragment execPath) {
-      Artifact oldValue = Preconditions.checkNotNull(getArtifact(execPath));
-      pathToSourceArtifact.put(execPath, new Entry(oldValue));
+    /**
+     * Marks the entry for the artifact as created during this build, unless another thread
+     * replaced it in the meantime.
+     */
+    void markEntryAsValid(PathFragment execPath, Artifact artifact) {
+      ConcurrentMap<PathFragment, Entry> map = pathToSourceArtifact;
+      Entry oldEntry = map.get(execPath);
+      if (oldEntry != null && oldEntry.getArtifact() == artifact
+          && oldEntry.getIdOfBuild() != buildId) {
+        map.replace(execPath, oldEntry, new Entry(artifact, buildId));
+      }
     }
 
     void newBuild() {
@@ -121,15 +142,45 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
     }
 
     void clear() {
-      pathToSourceArtifact.clear();
-      buildId = 0;
+      pathToSourceArtifact = new ConcurrentHashMap<>();
     }
 
-    void putArtifact(PathFragment execPath, Artifact artifact) {
-      pathToSourceArtifact.put(execPath, new Entry(artifact));
+    /**
+     * Returns the cached artifact for the path if it matches the given root and owner. Otherwise
+     * installs {@code newArtifact} as the canonical artifact of the path and returns it. If
+     * several threads race to install artifacts for the same path, they all get the same one.
+     */
+    Artifact getOrPutArtifact(PathFragment execPath, Root root, ArtifactOwner owner,
+        ArtifactCreator newArtifact) {
+      ConcurrentMap<PathFragment, Entry> map = pathToSourceArtifact;
+      Entry newEntry = null;
+      while (true) {
+        Entry oldEntry = map.get(execPath);
+        if (oldEntry != null && Objects.equals(oldEntry.getArtifact().getArtifactOwner(), owner)
+            && root.equals(oldEntry.getArtifact().getRoot())) {
+          return oldEntry.getArtifact();
+        }
+        // There really should be a safety net that makes it impossible to create two Artifacts
+        // with the same exec path but a different Owner, but we also need to reuse Artifacts from
+        // previous builds.
+        if (newEntry == null) {
+          newEntry = new Entry(newArtifact.create(), buildId);
+        }
+        boolean installed = oldEntry == null
+            ? map.putIfAbsent(execPath, newEntry) == null
+            : map.replace(execPath, oldEntry, newEntry);
+        if (installed) {
+          return newEntry.getArtifact();
+        }
+      }
     }
   }
-  
+
+  /** Creates an artifact on demand, so that it is only created if it is not in the cache. */
+  private interface ArtifactCreator {
+    Artifact create();
+  }
+
   /**
    * Constructs a new artifact factory that will use a given execution root when
    * creating artifacts.
@@ -252,8 +303,8 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
    * setting the <code>root</code> and <code>execPath</code> to the
    * specified values.
    */
-  private synchronized Artifact getArtifact(Path path, Root root, PathFragment execPath,
-      ArtifactOwner owner, @Nullable SpecialArtifactType type) {
+  private Artifact getArtifact(final Path path, final Root root, final PathFragment execPath,
+      final ArtifactOwner owner, @Nullable final SpecialArtifactType type) {
     Preconditions.checkNotNull(root);
     Preconditions.checkNotNull(execPath);
 
@@ -261,16 +312,12 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
       return createArtifact(path, root, execPath, owner, type);
     }
 
-    Artifact artifact = sourceArtifactCache.getArtifact(execPath);
-    if (artifact == null || !Objects.equals(artifact.getArtifactOwner(), owner)
-        || !root.equals(artifact.getRoot())) {
-      // There really should be a safety net that makes it impossible to create two Artifacts
-      // with the same exec path but a different Owner, but we also need to reuse Artifacts from
-      // previous builds.
-      artifact = createArtifact(path, root, execPath, owner, type);
-      sourceArtifactCache.putArtifact(execPath, artifact);
-    }
-    return artifact;
+    return sourceArtifactCache.getOrPutArtifact(execPath, root, owner, new ArtifactCreator() {
+      @Override
+      public Artifact create() {
+        return createArtifact(path, root, execPath, owner, type);
+      }
+    });
   }
 
   private Artifact createArtifact(Path path, Root root, PathFragment execPath, ArtifactOwner owner,
@@ -289,7 +336,7 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
    * not null). That Artifact will have root determined by the package roots of this factory if it
    * lives in a subpackage distinct from that of baseExecPath, and {@code baseRoot} otherwise.
    */
-  public synchronized Artifact resolveSourceArtifactWithAncestor(
+  public Artifact resolveSourceArtifactWithAncestor(
       PathFragment relativePath, PathFragment baseExecPath, Root baseRoot) {
     Preconditions.checkState(
         (baseExecPath == null) == (baseRoot == null),
@@ -341,7 +388,7 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
   }
 
   @Override
-  public synchronized Map<PathFragment, Artifact> resolveSourceArtifacts(
+  public Map<PathFragment, Artifact> resolveSourceArtifacts(
       Iterable<PathFragment> execPaths, PackageRootResolver resolver)
           throws PackageRootResolutionException {
     Map<PathFragment, Artifact> result = new HashMap<>();
@@ -385,7 +432,7 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
     if (artifact != null && sourceRoot.equals(artifact.getRoot())) {
       // Source root of existing artifact hasn't changed so we should mark corresponding entry in
       // the cache as valid.
-      sourceArtifactCache.markEntryAsValid(execPath);
+      sourceArtifactCache.markEntryAsValid(execPath, artifact);
     } else {
       // Must be a new artifact or artifact in the cache is stale, so create a new one.
       artifact = getSourceArtifact(execPath, sourceRoot, ArtifactOwner.NULL_OWNER); 
@@ -401,7 +448,7 @@ public class ArtifactFactory implements ArtifactResolver, ArtifactSerializer, Ar
    * @return the root for the path or null if no root can be determined
    */
   @VisibleForTesting  // for our own unit tests only.
-  synchronized Root findDerivedRoot(Path path) {
+  Root findDerivedRoot(Path path) {
     for (Root prefix : derivedRoots) {
       if (path.startsWith(prefix.getPath())) {
         return prefix;
@@ -21,6 +21,8 @@ import com.google.common.base.Preconditions;
 import com.google.common.eventbus.EventBus;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
+import com.google.devtools.build.lib.profiler.Describable;
+import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.Pair;
 
@@ -227,6 +229,42 @@ public class ResourceManager {
     usedRam += resources.getMemoryMb();
     usedIo += resources.getIoUsage();
     usedLocalTestCount += resources.getLocalTestCount();
+    profileResourceUsage();
+  }
+
+  /**
+   * Records the current resource usage in the profile, so it can be shown next to the actions.
+   * Must be called with the lock held.
+   */
+  private void profileResourceUsage() {
+    Profiler profiler = Profiler.instance();
+    if (profiler.isActive() && profiler.isProfiling(ProfilerTask.RESOURCE_USAGE)) {
+      profiler.logEvent(ProfilerTask.RESOURCE_USAGE,
+          new ResourceUsage(usedRam, usedCpu, usedIo, usedLocalTestCount));
+    }
+  }
+
+  /**
+   * A snapshot of the used resources. The description is only built when the profiler saves the
+   * event, outside of the lock of the resource manager.
+   */
+  private static final class ResourceUsage implements Describable {
+    private final double ram;
+    private final double cpu;
+    private final double io;
+    private final int localTestCount;
+
+    ResourceUsage(double ram, double cpu, double io, int localTestCount) {
+      this.ram = ram;
+      this.cpu = cpu;
+      this.io = io;
+      this.localTestCount = localTestCount;
+    }
+
+    @Override
+    public String describe() {
+      return "ram=" + ram + " cpu=" + cpu + " io=" + io + " tests=" + localTestCount;
+    }
   }
 
   /**
@@ -318,6 +356,7 @@ public class ResourceManager {
     if (usedIo < epsilon) {
       usedIo = 0;
     }
+    profileResourceUsage();
     if (!requestList.isEmpty()) {
       processWaitingThreads();
       return true;
@@ -24,6 +24,8 @@ import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 /**
  * A value class for capturing and comparing MD5-based digests.
  *
@@ -93,6 +95,40 @@ public class Digest {
     return new Digest(result);
   }
 
+  /**
+   * Returns the digest of a single (path, metadata) pair. The digest of a set of pairs is the XOR
+   * of the digests of its pairs, see {@link Builder}.
+   *
+   * @param fp the fingerprint to use for the computation; it is reset afterwards.
+   * @param execPath the exec path of the file.
+   * @param md the metadata of the file, may be null.
+   */
+  public static byte[] getPairDigest(Fingerprint fp, String execPath, @Nullable Metadata md) {
+    return getDigest(fp, execPath, md);
+  }
+
+  /**
+   * Builds the digest of a set of (path, metadata) pairs from the digests of the individual pairs,
+   * so that callers can reuse the digests of pairs that occur in many sets. The result is equal to
+   * that of {@link #fromMetadata} for the same pairs.
+   */
+  public static final class Builder {
+    private final byte[] result = new byte[MD5_SIZE];
+
+    /**
+     * Adds a pair digest as returned by {@link #getPairDigest}. Each pair must only be added once.
+     */
+    public Builder addPairDigest(byte[] pairDigest) {
+      Preconditions.checkArgument(pairDigest.length == MD5_SIZE);
+      xorWith(result, pairDigest);
+      return this;
+    }
+
+    public Digest build() {
+      return new Digest(result);
+    }
+  }
+
   /**
    * @return this Digest as a Metadata with no mtime.
    */
@@ -23,6 +23,7 @@ import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.analysis.RuleConfiguredTarget.Mode;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetFolder;
 import com.google.devtools.build.lib.collect.nestedset.Order;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.events.Event;
@@ -31,6 +32,7 @@ import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.packages.Type;
 import com.google.devtools.build.lib.syntax.SkylarkCallable;
 import com.google.devtools.build.lib.syntax.SkylarkModule;
+import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
@@ -41,6 +43,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -115,6 +118,28 @@ public final class Runfiles {
     }
   }
 
+  /**
+   * Digests of nested sets of artifacts, shared between all runfiles objects. Artifacts are
+   * equal iff their paths are, so equal digests mean equal expansions of the sets.
+   */
+  private static final NestedSetFolder<Artifact, byte[]> ARTIFACT_SET_DIGESTS =
+      new NestedSetFolder<Artifact, byte[]>() {
+        @Override
+        protected byte[] combine(List<byte[]> subsetDigests, List<Artifact> directMembers) {
+          Fingerprint f = new Fingerprint();
+          f.addInt(subsetDigests.size());
+          for (byte[] subsetDigest : subsetDigests) {
+            f.addBytes(subsetDigest);
+          }
+          f.addInt(directMembers.size());
+          for (Artifact artifact : directMembers) {
+            f.addPath(artifact.getPath());
+            f.addPath(artifact.getRootRelativePath());
+          }
+          return f.digestAndReset();
+        }
+      };
+
   // It is important to declare this *after* the DUMMY_SYMLINK_EXPANDER to avoid NPEs
   public static final Runfiles EMPTY = new Builder().build();
 
@@ -263,10 +288,11 @@ public final class Runfiles {
   )
   public NestedSet<Artifact> getArtifacts() {
     NestedSetBuilder<Artifact> allArtifacts = NestedSetBuilder.stableOrder();
-    allArtifacts.addAll(unconditionalArtifacts.toCollection());
     for (PruningManifest manifest : getPruningManifests()) {
       allArtifacts.addTransitive(manifest.getCandidateRunfiles());
     }
+    // Added last, so that it is iterated after the candidates, like the direct members would be.
+    allArtifacts.addTransitive(unconditionalArtifacts);
     return allArtifacts.build();
   }
 
@@ -401,6 +427,41 @@ public final class Runfiles {
     return result;
   }
 
+  /**
+   * Adds everything that determines the runfiles mapping to the given fingerprint.
+   *
+   * <p>The sets of artifacts, which contain the transitive runfiles of all dependencies, are not
+   * expanded: their digests are computed from the digests of their subsets, which are shared
+   * between all runfiles objects built from them. The symlinks are iterated, because the same
+   * entry occurring twice in a set is not the same as two equal entries (see
+   * {@link SymlinkEntry}); symlink sets are usually small anyway.
+   */
+  public void addToFingerprint(Fingerprint f) {
+    f.addString(suffix);
+    addSymlinksToFingerprint(f, symlinks);
+    addSymlinksToFingerprint(f, rootSymlinks);
+    addArtifactsToFingerprint(f, unconditionalArtifacts);
+    for (PruningManifest manifest : pruningManifests) {
+      f.addPath(manifest.getManifestFile().getExecPath());
+      addArtifactsToFingerprint(f, manifest.getCandidateRunfiles());
+    }
+  }
+
+  private static void addSymlinksToFingerprint(Fingerprint f, NestedSet<SymlinkEntry> symlinks) {
+    for (SymlinkEntry symlink : symlinks) {
+      f.addPath(symlink.getPath());
+      f.addPath(symlink.getArtifact().getPath());
+    }
+    // Separates the symlinks from whatever follows them.
+    f.addInt(-1);
+  }
+
+  private static void addArtifactsToFingerprint(Fingerprint f, NestedSet<Artifact> artifacts) {
+    // The order determines how the set is expanded.
+    f.addInt(artifacts.getOrder().ordinal());
+    f.addBytes(ARTIFACT_SET_DIGESTS.fold(artifacts));
+  }
+
   /**
    * Returns the root symlinks.
    */
@@ -23,6 +23,10 @@ import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.actions.ResourceSet;
 import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Symlinks;
+
+import java.io.IOException;
 
 /**
  * Action responsible for the symlink tree creation.
@@ -32,6 +36,12 @@ public class SymlinkTreeAction extends AbstractAction {
 
   private static final String GUID = "63412bda-4026-4c8e-a3ad-7deb397728d4";
 
+  /**
+   * Name under which the manifest of an existing runfiles tree is kept while the action runs, so
+   * that the tree can be updated incrementally.
+   */
+  public static final String PREVIOUS_MANIFEST = "MANIFEST.previous";
+
   private final Artifact inputManifest;
   private final Artifact outputManifest;
   private final boolean filesetTree;
@@ -68,6 +78,15 @@ public class SymlinkTreeAction extends AbstractAction {
     return filesetTree;
   }
 
+  @Override
+  protected void deleteOutputs(Path execRoot) throws IOException {
+    Path manifest = outputManifest.getPath();
+    if (!filesetTree && manifest.isFile(Symlinks.NOFOLLOW)) {
+      manifest.renameTo(manifest.getParentDirectory().getRelative(PREVIOUS_MANIFEST));
+    }
+    super.deleteOutputs(execRoot);
+  }
+
   @Override
   public String getMnemonic() {
     return "SymlinkTree";
@@ -0,0 +1,71 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes a value for every nested set from the values of its subsets and its direct members,
+ * for example a digest of its contents.
+ *
+ * <p>The value of every set is memoized for as long as the set is alive. Nested sets share their
+ * subsets, so folding many sets that were built from the same subsets, e.g. the runfiles of
+ * thousands of tests with a common dependency closure, costs time proportional to the number of
+ * distinct subsets, not to the total number of elements in the flattened sets.
+ *
+ * <p>Note that the value depends on the structure of the set: two sets with the same elements
+ * but different subsets may have different values. Elements that occur in several subsets are
+ * included once for every occurrence.
+ *
+ * <p>Thread-safe, as long as {@link #combine} is.
+ *
+ * @param <E> the element type of the nested sets
+ * @param <T> the type of the values computed for the sets
+ */
+public abstract class NestedSetFolder<E, T> {
+
+  // Weak keys are compared by identity, which is exactly what we want for nested sets.
+  private final Cache<NestedSet<? extends E>, T> values =
+      CacheBuilder.newBuilder().weakKeys().build();
+
+  /**
+   * Computes the value of a set from the values of its subsets and its direct members, both in
+   * the order in which they were added to the set.
+   */
+  protected abstract T combine(List<T> subsetValues, List<E> directMembers);
+
+  /**
+   * Returns the value of the given set.
+   */
+  @SuppressWarnings("unchecked")
+  public T fold(NestedSet<? extends E> set) {
+    T value = values.getIfPresent(set);
+    if (value == null) {
+      NestedSet<? extends E>[] subsets = set.transitiveSets();
+      List<T> subsetValues = new ArrayList<>(subsets.length);
+      for (NestedSet<? extends E> subset : subsets) {
+        subsetValues.add(fold(subset));
+      }
+      value = combine(subsetValues, (List<E>) Arrays.asList(set.directMembers()));
+      // If another thread got here first, both computed the same value.
+      values.put(set, value);
+    }
+    return value;
+  }
+}
@@ -15,49 +15,77 @@ package com.google.devtools.build.lib.events;
 
 import com.google.common.collect.ImmutableList;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Stores error and warning events, and later replays them. Thread-safe.
+ *
+ * <p>Most handlers never see an event, so the event queue is only allocated for the first event.
+ * Only that allocation locks; events are added without locking.
  */
 public class StoredEventHandler implements EventHandler {
 
-  private final List<Event> events = new ArrayList<>();
-  private boolean hasErrors;
+  // Null until the first event is stored.
+  private volatile Queue<Event> events = null;
+  private volatile boolean hasErrors;
 
-  public synchronized ImmutableList<Event> getEvents() {
-    return ImmutableList.copyOf(events);
+  public ImmutableList<Event> getEvents() {
+    Queue<Event> events = this.events;
+    return events == null ? ImmutableList.<Event>of() : ImmutableList.copyOf(events);
   }
 
   /** Returns true if there are no stored events. */
-  public synchronized boolean isEmpty() {
-    return events.isEmpty();
+  public boolean isEmpty() {
+    Queue<Event> events = this.events;
+    return events == null || events.isEmpty();
   }
 
-
   @Override
-  public synchronized void handle(Event e) {
-    hasErrors |= e.getKind() == EventKind.ERROR;
-    events.add(e);
+  public void handle(Event e) {
+    if (e.getKind() == EventKind.ERROR) {
+      hasErrors = true;
+    }
+    getOrCreateEvents().add(e);
+  }
+
+  private Queue<Event> getOrCreateEvents() {
+    Queue<Event> result = events;
+    if (result == null) {
+      synchronized (this) {
+        result = events;
+        if (result == null) {
+          result = new ConcurrentLinkedQueue<>();
+          events = result;
+        }
+      }
+    }
+    return result;
   }
 
   /**
    * Replay all events stored in this object on the given eventHandler, in the same order.
    */
-  public synchronized void replayOn(EventHandler eventHandler) {
-    Event.replayEventsOn(eventHandler, events);
+  public void replayOn(EventHandler eventHandler) {
+    Queue<Event> events = this.events;
+    if (events != null) {
+      Event.replayEventsOn(eventHandler, events);
+    }
   }
 
   /**
    * Returns whether any of the events on this objects were errors.
    */
-  public synchronized boolean hasErrors() {
+  public boolean hasErrors() {
     return hasErrors;
   }
 
-  public synchronized void clear() {
-    events.clear();
+  /**
+   * Drops all stored events. Events that are stored concurrently with the call may or may not be
+   * dropped.
+   */
+  public void clear() {
+    events = null;
     hasErrors = false;
   }
 }
@@ -0,0 +1,141 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.analysis.SymlinkTreeAction;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Updates an existing runfiles tree in-process, by applying the difference between the manifest
+ * the tree was created from and the new manifest.
+ *
+ * <p>The build-runfiles tool scans the whole tree and recreates every entry that it doesn't find,
+ * which costs seconds for large trees even if only a single file changed. The copy of the input
+ * manifest that build-runfiles (and this class) leaves in the tree describes the current state of
+ * the tree, so only the entries that differ between the two manifests have to be touched. Before
+ * the action runs, {@link SymlinkTreeAction} moves that copy to
+ * {@link SymlinkTreeAction#PREVIOUS_MANIFEST} instead of deleting it.
+ *
+ * <p>The previous manifest is deleted before the tree is modified, and the new one is only written
+ * when the update is complete. If the update fails halfway, the next update finds no manifest and
+ * build-runfiles recreates the tree from scratch.
+ */
+final class RunfilesTreeUpdater {
+
+  private static final String MANIFEST = "MANIFEST";
+  private static final String TEMP_MANIFEST = "MANIFEST.tmp";
+
+  private RunfilesTreeUpdater() {}
+
+  /**
+   * Updates the runfiles tree at {@code runfilesDir} to match {@code inputManifest}.
+   *
+   * @return false if the tree can't be updated incrementally, because there is no complete tree
+   *     or one of the manifests can't be parsed; the tree is unchanged in that case
+   * @throws IOException if the tree couldn't be updated; the tree is left without a manifest
+   */
+  static boolean update(Path inputManifest, Path runfilesDir) throws IOException {
+    Path previousManifest = runfilesDir.getRelative(SymlinkTreeAction.PREVIOUS_MANIFEST);
+    if (!previousManifest.isFile(Symlinks.NOFOLLOW)) {
+      return false;
+    }
+    Map<String, String> oldEntries = readManifest(previousManifest);
+    Map<String, String> newEntries = readManifest(inputManifest);
+    if (oldEntries == null || newEntries == null) {
+      return false;
+    }
+
+    previousManifest.delete();
+    for (Map.Entry<String, String> entry : oldEntries.entrySet()) {
+      if (!entry.getValue().equals(newEntries.get(entry.getKey()))) {
+        Path path = runfilesDir.getRelative(entry.getKey());
+        path.delete();
+        deleteEmptyParents(path.getParentDirectory(), runfilesDir);
+      }
+    }
+    for (Map.Entry<String, String> entry : newEntries.entrySet()) {
+      if (!entry.getValue().equals(oldEntries.get(entry.getKey()))) {
+        Path path = runfilesDir.getRelative(entry.getKey());
+        FileSystemUtils.createDirectoryAndParents(path.getParentDirectory());
+        if (entry.getValue().isEmpty()) {
+          FileSystemUtils.createEmptyFile(path);
+          path.chmod(0555);
+        } else {
+          path.createSymbolicLink(new PathFragment(entry.getValue()));
+        }
+      }
+    }
+
+    Path tempManifest = runfilesDir.getRelative(TEMP_MANIFEST);
+    FileSystemUtils.copyFile(inputManifest, tempManifest);
+    tempManifest.renameTo(runfilesDir.getRelative(MANIFEST));
+    return true;
+  }
+
+  /**
+   * Deletes {@code dir} and its ancestors below {@code runfilesDir}, as long as they are empty.
+   */
+  private static void deleteEmptyParents(Path dir, Path runfilesDir) throws IOException {
+    while (!dir.equals(runfilesDir) && dir.isDirectory(Symlinks.NOFOLLOW)
+        && dir.getDirectoryEntries().isEmpty()) {
+      dir.delete();
+      dir = dir.getParentDirectory();
+    }
+  }
+
+  /**
+   * Reads a runfiles manifest into a map from the link paths to the symlink targets. Empty files
+   * are mapped to an empty target.
+   *
+   * @return the entries of the manifest, or null if it contains lines that build-runfiles would
+   *     reject
+   */
+  @VisibleForTesting
+  @Nullable
+  static Map<String, String> readManifest(Path manifest) throws IOException {
+    Map<String, String> entries = new HashMap<>();
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(manifest.getInputStream(), ISO_8859_1))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int space = line.indexOf(' ');
+        if (space <= 0 || line.indexOf(' ', space + 1) >= 0 || line.startsWith("/")) {
+          return null;
+        }
+        String target = line.substring(space + 1);
+        if (!target.isEmpty() && !target.startsWith("/")) {
+          return null;
+        }
+        if (entries.put(line.substring(0, space), target) != null) {
+          return null;
+        }
+      }
+    }
+    return entries;
+  }
+}
@@ -29,7 +29,10 @@ import com.google.devtools.build.lib.util.OsUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Helper class responsible for the symlink tree creation.
@@ -37,6 +40,8 @@ import java.util.List;
  */
 public final class SymlinkTreeHelper {
 
+  private static final Logger LOG = Logger.getLogger(SymlinkTreeHelper.class.getName());
+
   private static final String BUILD_RUNFILES = "build-runfiles" + OsUtils.executableExtension();
 
   /**
@@ -91,8 +96,9 @@ public final class SymlinkTreeHelper {
   }
 
   /**
-   * Creates symlink tree using appropriate method. At this time tree
-   * always created using build-runfiles helper application.
+   * Creates symlink tree using appropriate method. An existing runfiles tree
+   * is updated in-process by {@link RunfilesTreeUpdater}; otherwise the tree
+   * is created using build-runfiles helper application.
    *
    * Note: method may try to acquire resources - meaning that it would
    * block for undetermined period of time. If it is interrupted during
@@ -104,10 +110,13 @@ public final class SymlinkTreeHelper {
    */
   public void createSymlinks(AbstractAction action, ActionExecutionContext actionExecutionContext,
       BinTools binTools) throws ExecException, InterruptedException {
-    List<String> args = getSpawnArgumentList(
-        actionExecutionContext.getExecutor().getExecRoot(), binTools);
+    Path execRoot = actionExecutionContext.getExecutor().getExecRoot();
+    List<String> args = getSpawnArgumentList(execRoot, binTools);
     try {
       ResourceManager.instance().acquireResources(action, RESOURCE_SET);
+      if (!filesetTree && updateRunfilesTree(execRoot)) {
+        return;
+      }
       actionExecutionContext.getExecutor().getSpawnActionContext(action.getMnemonic()).exec(
           new BaseSpawn.Local(args, ImmutableMap.<String, String>of(), action),
           actionExecutionContext);
@@ -116,6 +125,21 @@ public final class SymlinkTreeHelper {
     }
   }
 
+  /**
+   * Tries to update an existing runfiles tree in-process. Returns false if
+   * build-runfiles has to (re)create the tree.
+   */
+  private boolean updateRunfilesTree(Path execRoot) {
+    try {
+      return RunfilesTreeUpdater.update(
+          execRoot.getRelative(inputManifest), execRoot.getRelative(symlinkTreeRoot));
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to update runfiles tree " + symlinkTreeRoot
+          + " incrementally, recreating it", e);
+      return false;
+    }
+  }
+
   /**
    * Returns the complete argument list build-runfiles has to be called with.
    */
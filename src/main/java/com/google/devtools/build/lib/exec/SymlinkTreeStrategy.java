@@ -15,6 +15,7 @@ package com.google.devtools.build.lib.exec;
 
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
 import com.google.devtools.build.lib.actions.ActionExecutionException;
+import com.google.devtools.build.lib.actions.EnvironmentalExecException;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.actions.Executor;
@@ -22,7 +23,9 @@ import com.google.devtools.build.lib.analysis.SymlinkTreeAction;
 import com.google.devtools.build.lib.analysis.SymlinkTreeActionContext;
 import com.google.devtools.build.lib.analysis.config.BinTools;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
+import com.google.devtools.build.lib.vfs.Path;
 
+import java.io.IOException;
 import java.util.logging.Logger;
 
 /**
@@ -52,6 +55,7 @@ public final class SymlinkTreeStrategy implements SymlinkTreeActionContext {
             action.getInputManifest().getExecPath(),
             action.getOutputManifest().getExecPath().getParentDirectory(), action.isFilesetTree());
         if (outputService != null && outputService.canCreateSymlinkTree()) {
+          deletePreviousManifest(action);
           outputService.createSymlinkTree(action.getInputManifest().getPath(),
               action.getOutputManifest().getPath(),
               action.isFilesetTree(), helper.getSymlinkTreeRoot());
@@ -64,4 +68,18 @@ public final class SymlinkTreeStrategy implements SymlinkTreeActionContext {
       }
     }
   }
+
+  /**
+   * Deletes the manifest that the action kept for an incremental update of the tree; the output
+   * service creates the whole tree itself.
+   */
+  private static void deletePreviousManifest(SymlinkTreeAction action) throws ExecException {
+    Path previousManifest = action.getOutputManifest().getPath().getParentDirectory()
+        .getRelative(SymlinkTreeAction.PREVIOUS_MANIFEST);
+    try {
+      previousManifest.delete();
+    } catch (IOException e) {
+      throw new EnvironmentalExecException("Failed to delete " + previousManifest, e);
+    }
+  }
 }
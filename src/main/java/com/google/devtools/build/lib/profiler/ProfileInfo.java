@@ -27,8 +27,6 @@ import com.google.common.collect.Sets;
 import com.google.devtools.build.lib.util.VarInt;
 import com.google.devtools.build.lib.vfs.Path;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
@@ -43,8 +41,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
 
 /**
  * Holds parsed profile file information and provides various ways of
@@ -363,10 +359,10 @@ public class ProfileInfo {
   // create fake ACTION tasks and assign them negative ids.
   private int fakeActionId = 0;
 
-  private ProfileInfo(String comment) {
+  private ProfileInfo(String comment, List<String> descriptionList) {
     this.comment = comment;
 
-    descriptionList = Lists.newArrayListWithExpectedSize(10000);
+    this.descriptionList = descriptionList;
     tasksByThread = Maps.newHashMap();
     parallelBuilderCompletionQueueTasks = Maps.newHashMap();
     allTasksById = Lists.newArrayListWithExpectedSize(50000);
@@ -848,94 +844,19 @@ public class ProfileInfo {
    */
   public static ProfileInfo loadProfile(Path profileFile)
       throws IOException {
-    // It is extremely important to wrap InflaterInputStream using
-    // BufferedInputStream because majority of reads would be done using
-    // readInt()/readLong() methods and InflaterInputStream is very inefficient
-    // in handling small read requests (performance difference with 1MB buffer
-    // used below is almost 10x).
-    DataInputStream in = new DataInputStream(
-        new BufferedInputStream(new InflaterInputStream(
-        profileFile.getInputStream(), new Inflater(false), 65536), 1024 * 1024));
-
-    if (in.readInt() != Profiler.MAGIC) {
-      in.close();
-      throw new UnsupportedEncodingException("Invalid profile datafile format");
-    }
-    if (in.readInt() != Profiler.VERSION) {
-      in.close();
-      throw new UnsupportedEncodingException("Incompatible profile datafile version");
-    }
-    String fileComment = in.readUTF();
-
-    // Read list of used record types
-    int typeCount = in.readInt();
-    boolean hasUnknownTypes = false;
-    Set<String> supportedTasks = new HashSet<>();
-    for (ProfilerTask task : ProfilerTask.values()) {
-      supportedTasks.add(task.toString());
-    }
-    List<ProfilerTask> typeList = new ArrayList<>();
-    for (int i = 0; i < typeCount; i++) {
-      String name = in.readUTF();
-      if (supportedTasks.contains(name)) {
-        typeList.add(ProfilerTask.valueOf(name));
-      } else {
-        hasUnknownTypes = true;
-        typeList.add(ProfilerTask.UNKNOWN);
-      }
-    }
-
-    ProfileInfo info = new ProfileInfo(fileComment);
-
-    // Read record until we encounter end marker (-1).
-    // TODO(bazel-team): Maybe this still should handle corrupted(truncated) files.
-    try {
-      int size;
-      while ((size = in.readInt()) != Profiler.EOF_MARKER) {
-        byte[] backingArray = new byte[size];
-        in.readFully(backingArray);
-        ByteBuffer buffer = ByteBuffer.wrap(backingArray);
-        long threadId = VarInt.getVarLong(buffer);
-        int id = VarInt.getVarInt(buffer);
-        int parentId = VarInt.getVarInt(buffer);
-        long startTime = VarInt.getVarLong(buffer);
-        long duration = VarInt.getVarLong(buffer);
-        int descIndex = VarInt.getVarInt(buffer) - 1;
-        if (descIndex == -1) {
-          String desc = in.readUTF();
-          descIndex = info.descriptionList.size();
-          info.descriptionList.add(desc);
+    try (ProfileReader reader = ProfileReader.open(profileFile)) {
+      ProfileInfo info = new ProfileInfo(reader.getComment(), reader.getDescriptions());
+      while (reader.nextChunk()) {
+        for (int i = 0; i < reader.getTaskCount(); i++) {
+          info.addTask(info.new Task(reader.getThreadId(i), reader.getId(i),
+              reader.getParentId(i), reader.getStartTime(i), reader.getDuration(i),
+              reader.getType(i), reader.getDescriptionIndex(i),
+              new CompactStatistics(reader.getStats(i))));
         }
-        ProfilerTask type = typeList.get(buffer.get());
-        byte[] stats = null;
-        if (buffer.hasRemaining()) {
-          // Copy aggregated stats.
-          int offset = buffer.position();
-          stats = Arrays.copyOfRange(backingArray, offset, size);
-          if (hasUnknownTypes) {
-            while (buffer.hasRemaining()) {
-              byte attrType = buffer.get();
-              if (typeList.get(attrType) == ProfilerTask.UNKNOWN) {
-                // We're dealing with unknown aggregated type - update stats array to
-                // use ProfilerTask.UNKNOWN.ordinal() value.
-                stats[buffer.position() - 1 - offset] = (byte) ProfilerTask.UNKNOWN.ordinal();
-              }
-              VarInt.getVarInt(buffer);
-              VarInt.getVarLong(buffer);
-            }
-          }
-        }
-        ProfileInfo.Task task =  info.new Task(threadId, id, parentId, startTime, duration, type,
-            descIndex, new CompactStatistics(stats));
-        info.addTask(task);
       }
-    } catch (IOException e) {
-      info.corruptedOrIncomplete = true;
-    } finally {
-      in.close();
+      info.corruptedOrIncomplete = reader.isCorruptedOrIncomplete();
+      return info;
     }
-
-    return info;
   }
 
   /**
@@ -0,0 +1,411 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler;
+
+import com.google.devtools.build.lib.profiler.ProfileInfo.AggregateAttr;
+import com.google.devtools.build.lib.profiler.ProfileInfo.CompactStatistics;
+import com.google.devtools.build.lib.util.VarInt;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Streaming reader for Blaze profile files (see {@link Profiler} for the file format).
+ *
+ * <p>The file is memory-mapped one chunk at a time. The task records of the current chunk are
+ * decoded into column arrays that are reused for the next chunk, so a profile can be scanned
+ * without materializing all of its records as {@link ProfileInfo.Task} objects:
+ *
+ * <pre>
+ *   try (ProfileReader reader = ProfileReader.open(profileFile)) {
+ *     while (reader.nextChunk()) {
+ *       for (int i = 0; i < reader.getTaskCount(); i++) {
+ *         ... reader.getType(i) ... reader.getDescription(i) ...
+ *       }
+ *     }
+ *   }
+ * </pre>
+ */
+public final class ProfileReader implements Closeable {
+  // The previous file format, in which the whole file is a deflate stream of task records.
+  private static final int VERSION_3 = 0x03;
+  // Number of task records of a version 3 file that are decoded together.
+  private static final int VERSION_3_CHUNK_SIZE = 4096;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long size;
+  private final String comment;
+  // Maps the type ids used in the file to the task types known to this binary.
+  private final ProfilerTask[] typeTable;
+  // Description strings read so far, by index.
+  private final List<String> descriptions = new ArrayList<>();
+  private final ByteBuffer chunkHeader = ByteBuffer.allocate(4);
+
+  private long position;
+  private boolean corruptedOrIncomplete = false;
+  // The decompressed stream of a version 3 file; null for the current version.
+  private DataInputStream version3In = null;
+  private boolean version3Done = false;
+
+  // Columns of the current chunk; only the first taskCount entries are valid.
+  private int taskCount = 0;
+  private long[] threadIds = new long[0];
+  private int[] ids = new int[0];
+  private int[] parentIds = new int[0];
+  private long[] startTimes = new long[0];
+  private long[] durations = new long[0];
+  private ProfilerTask[] types = new ProfilerTask[0];
+  private int[] descIndices = new int[0];
+  private byte[][] stats = new byte[0][];
+
+  private ProfileReader(RandomAccessFile file) throws IOException {
+    this.file = file;
+    this.channel = file.getChannel();
+    this.size = channel.size();
+
+    // Not buffered, so that the channel is positioned right after the header afterwards.
+    DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+    if (in.readInt() != Profiler.MAGIC) {
+      // Files of version 3 and older are compressed as a whole.
+      channel.position(0);
+      // It is extremely important to wrap InflaterInputStream using BufferedInputStream because
+      // majority of reads would be done using readInt()/readLong() methods and
+      // InflaterInputStream is very inefficient in handling small read requests (performance
+      // difference with 1MB buffer used below is almost 10x).
+      in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(
+          Channels.newInputStream(channel), new Inflater(false), 65536), 1024 * 1024));
+      try {
+        if (in.readInt() != Profiler.MAGIC) {
+          throw new UnsupportedEncodingException("Invalid profile datafile format");
+        }
+      } catch (ZipException e) {
+        throw new UnsupportedEncodingException("Invalid profile datafile format");
+      }
+      if (in.readInt() != VERSION_3) {
+        throw new UnsupportedEncodingException("Incompatible profile datafile version");
+      }
+      version3In = in;
+    } else if (in.readInt() != Profiler.VERSION) {
+      throw new UnsupportedEncodingException("Incompatible profile datafile version");
+    }
+    comment = in.readUTF();
+
+    // Read list of used record types
+    int typeCount = in.readInt();
+    typeTable = new ProfilerTask[typeCount];
+    for (int i = 0; i < typeCount; i++) {
+      typeTable[i] = toProfilerTask(in.readUTF());
+    }
+    position = channel.position();
+  }
+
+  /**
+   * Opens the given profile file and reads its header.
+   *
+   * @throws UnsupportedEncodingException if the file format is invalid
+   * @throws IOException if the file can't be read
+   */
+  public static ProfileReader open(Path profileFile) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(profileFile.getPathFile(), "r");
+    try {
+      return new ProfileReader(file);
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  private static ProfilerTask toProfilerTask(String name) {
+    for (ProfilerTask task : ProfilerTask.values()) {
+      if (task.toString().equals(name)) {
+        return task;
+      }
+    }
+    return ProfilerTask.UNKNOWN;
+  }
+
+  public String getComment() {
+    return comment;
+  }
+
+  /**
+   * Returns true if the chunks read so far revealed that the profile datafile was corrupted or
+   * incomplete.
+   */
+  public boolean isCorruptedOrIncomplete() {
+    return corruptedOrIncomplete;
+  }
+
+  /**
+   * Advances to the next chunk of task records.
+   *
+   * @return false if there are no more chunks, either because the end of the profile was reached
+   *     or because the rest of the file is corrupted
+   */
+  public boolean nextChunk() throws IOException {
+    taskCount = 0;
+    if (version3In != null) {
+      return nextVersion3Chunk();
+    }
+    chunkHeader.clear();
+    while (chunkHeader.hasRemaining()) {
+      if (channel.read(chunkHeader, position + chunkHeader.position()) < 0) {
+        corruptedOrIncomplete = true;
+        return false;
+      }
+    }
+    int chunkSize = chunkHeader.getInt(0);
+    if (chunkSize == Profiler.EOF_MARKER) {
+      return false;
+    }
+    if (chunkSize < 0 || position + 4 + chunkSize > size) {
+      corruptedOrIncomplete = true;
+      return false;
+    }
+    ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position + 4, chunkSize);
+    position += 4 + chunkSize;
+    try {
+      decodeChunk(chunk);
+      return true;
+    } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+      taskCount = 0;
+      corruptedOrIncomplete = true;
+      return false;
+    }
+  }
+
+  /**
+   * Decodes the next task records of a version 3 file. Each record is stored as its size followed
+   * by the record: thread id, id, parent id, start time, duration, description index + 1 (0 if
+   * the description string follows the record) and type, followed by the aggregated stats.
+   */
+  private boolean nextVersion3Chunk() throws IOException {
+    if (version3Done) {
+      return false;
+    }
+    ensureCapacity(VERSION_3_CHUNK_SIZE);
+    try {
+      while (taskCount < VERSION_3_CHUNK_SIZE) {
+        int size = version3In.readInt();
+        if (size == Profiler.EOF_MARKER) {
+          version3Done = true;
+          break;
+        }
+        byte[] record = new byte[size];
+        version3In.readFully(record);
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        int i = taskCount;
+        threadIds[i] = VarInt.getVarLong(buffer);
+        ids[i] = VarInt.getVarInt(buffer);
+        parentIds[i] = VarInt.getVarInt(buffer);
+        startTimes[i] = VarInt.getVarLong(buffer);
+        durations[i] = VarInt.getVarLong(buffer);
+        descIndices[i] = VarInt.getVarInt(buffer) - 1;
+        if (descIndices[i] == -1) {
+          descIndices[i] = descriptions.size();
+          descriptions.add(version3In.readUTF());
+        } else if (descIndices[i] < 0 || descIndices[i] >= descriptions.size()) {
+          throw new IndexOutOfBoundsException("Invalid description index " + descIndices[i]);
+        }
+        types[i] = typeTable[buffer.get() & 0xff];
+        if (buffer.hasRemaining()) {
+          stats[i] = Arrays.copyOfRange(record, buffer.position(), size);
+          remapStatTypes(stats[i]);
+        } else {
+          stats[i] = null;
+        }
+        taskCount++;
+      }
+    } catch (IOException | RuntimeException e) {
+      // Keep the records decoded so far; the next call returns false.
+      corruptedOrIncomplete = true;
+      version3Done = true;
+    }
+    return taskCount > 0;
+  }
+
+  private void decodeChunk(ByteBuffer chunk) {
+    int count = VarInt.getVarInt(chunk);
+    int newDescriptions = VarInt.getVarInt(chunk);
+    for (int i = 0; i < newDescriptions; i++) {
+      byte[] description = new byte[VarInt.getVarInt(chunk)];
+      chunk.get(description);
+      descriptions.add(new String(description, StandardCharsets.UTF_8));
+    }
+
+    ensureCapacity(count);
+    for (int i = 0; i < count; i++) {
+      threadIds[i] = VarInt.getVarLong(chunk);
+    }
+    for (int i = 0; i < count; i++) {
+      ids[i] = VarInt.getVarInt(chunk);
+    }
+    for (int i = 0; i < count; i++) {
+      parentIds[i] = VarInt.getVarInt(chunk);
+    }
+    for (int i = 0; i < count; i++) {
+      startTimes[i] = VarInt.getVarLong(chunk);
+    }
+    for (int i = 0; i < count; i++) {
+      durations[i] = VarInt.getVarLong(chunk);
+    }
+    for (int i = 0; i < count; i++) {
+      types[i] = typeTable[chunk.get() & 0xff];
+    }
+    for (int i = 0; i < count; i++) {
+      descIndices[i] = VarInt.getVarInt(chunk);
+      if (descIndices[i] < 0 || descIndices[i] >= descriptions.size()) {
+        throw new IndexOutOfBoundsException("Invalid description index " + descIndices[i]);
+      }
+    }
+    for (int i = 0; i < count; i++) {
+      int statsSize = VarInt.getVarInt(chunk);
+      if (statsSize == 0) {
+        stats[i] = null;
+      } else {
+        stats[i] = new byte[statsSize];
+        chunk.get(stats[i]);
+        remapStatTypes(stats[i]);
+      }
+    }
+    taskCount = count;
+  }
+
+  /**
+   * Replaces the type ids used in the file by the ordinal() values of the corresponding task types
+   * of this binary.
+   */
+  private void remapStatTypes(byte[] content) {
+    ByteBuffer source = ByteBuffer.wrap(content);
+    while (source.hasRemaining()) {
+      int offset = source.position();
+      content[offset] = (byte) typeTable[source.get() & 0xff].ordinal();
+      VarInt.getVarInt(source);
+      VarInt.getVarLong(source);
+    }
+  }
+
+  private void ensureCapacity(int count) {
+    if (threadIds.length >= count) {
+      return;
+    }
+    threadIds = new long[count];
+    ids = new int[count];
+    parentIds = new int[count];
+    startTimes = new long[count];
+    durations = new long[count];
+    types = new ProfilerTask[count];
+    descIndices = new int[count];
+    stats = new byte[count][];
+  }
+
+  /**
+   * Returns the number of task records in the current chunk.
+   */
+  public int getTaskCount() {
+    return taskCount;
+  }
+
+  public long getThreadId(int index) {
+    return threadIds[checkIndex(index)];
+  }
+
+  public int getId(int index) {
+    return ids[checkIndex(index)];
+  }
+
+  public int getParentId(int index) {
+    return parentIds[checkIndex(index)];
+  }
+
+  public long getStartTime(int index) {
+    return startTimes[checkIndex(index)];
+  }
+
+  public long getDuration(int index) {
+    return durations[checkIndex(index)];
+  }
+
+  public ProfilerTask getType(int index) {
+    return types[checkIndex(index)];
+  }
+
+  public String getDescription(int index) {
+    return descriptions.get(descIndices[checkIndex(index)]);
+  }
+
+  /**
+   * Returns the aggregated stats of a task, indexed by ProfilerTask ordinal() value. Absent
+   * statistics are stored as null.
+   */
+  public AggregateAttr[] getStatAttrArray(int index) {
+    return new CompactStatistics(stats[checkIndex(index)]).toArray();
+  }
+
+  public boolean hasStats(int index) {
+    return stats[checkIndex(index)] != null;
+  }
+
+  int getDescriptionIndex(int index) {
+    return descIndices[checkIndex(index)];
+  }
+
+  /**
+   * Returns the encoded aggregated stats of a task, or null if it has none.
+   */
+  byte[] getStats(int index) {
+    return stats[checkIndex(index)];
+  }
+
+  /**
+   * Returns the description strings read so far, indexed by description index. The list grows as
+   * more chunks are read.
+   */
+  List<String> getDescriptions() {
+    return descriptions;
+  }
+
+  private int checkIndex(int index) {
+    if (index < 0 || index >= taskCount) {
+      throw new IndexOutOfBoundsException(
+          "Task index " + index + " out of range, chunk has " + taskCount + " tasks");
+    }
+    return index;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (version3In != null) {
+      version3In.close();
+    }
+    file.close();
+  }
+}
@@ -15,6 +15,7 @@ package com.google.devtools.build.lib.profiler;
 
 import static com.google.devtools.build.lib.profiler.ProfilerTask.TASK_COUNT;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.util.Clock;
@@ -24,9 +25,12 @@ import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
@@ -35,8 +39,7 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Blaze internal profiler. Provides facility to report various Blaze tasks and
@@ -46,7 +49,9 @@ import java.util.zip.DeflaterOutputStream;
  * obtain reference.
  * <p>
  * Internally, profiler uses two data structures - ThreadLocal task stack to track
- * nested tasks and single ConcurrentLinkedQueue to gather all completed tasks.
+ * nested tasks and a ThreadLocal ring buffer to gather the completed tasks of
+ * each thread without contention. The buffers are drained by a single saving
+ * thread.
  * <p>
  * Also, due to the nature of the provided functionality (instrumentation of all
  * Blaze components), build.lib.profiler package will be used by almost every
@@ -62,10 +67,10 @@ import java.util.zip.DeflaterOutputStream;
  * would be more robust and stable solution.
  * <p>
  * <pre>
- * Profiler file consists of the deflated stream with following overall structure:
+ * Profiler file has the following overall structure:
  *   HEADER
  *   TASK_TYPE_TABLE
- *   TASK_RECORD...
+ *   CHUNK...
  *   EOF_MARKER
  *
  * HEADER:
@@ -78,24 +83,30 @@ import java.util.zip.DeflaterOutputStream;
  *   string... : type names. Each of the type names is assigned id according to
  *               their position in this table starting from 0.
  *
- * TASK_RECORD:
- *   int32 size: size of the encoded task record
- *   byte[size] encoded_task_record:
- *     varint64: thread id - as was returned by Thread.getId()
- *     varint32: task id - starting from 1.
- *     varint32: parent task id for subtasks or 0 for root tasks
- *     varint64: start time in ns, relative to the Profiler.start() invocation
- *     varint64: task duration in ns
- *     byte:     task type id (see TASK_TYPE_TABLE)
- *     varint32: description string index incremented by 1 (>0) or 0 this is
- *               a first occurrence of the description string
- *     AGGREGATED_STAT...: remainder of the field (if present) represents
- *                         aggregated stats for that task
- *   string: *optional* description string, will appear only if description
- *           string index above was 0. In that case this string will be
- *           assigned next sequential id so every unique description string
- *           will appear in the file only once - after that it will be
- *           referenced by id.
+ * CHUNK:
+ *   int32 size: size of the chunk contents below
+ *   varint32: number of task records n in this chunk
+ *   varint32: number of new description strings m
+ *   DESCRIPTION...: m description strings. Every unique description string
+ *                   appears in the file only once and is assigned the next
+ *                   sequential index, starting from 0 - after that it is
+ *                   referenced by index.
+ *   varint64 * n: thread ids - as were returned by Thread.getId()
+ *   varint32 * n: task ids - starting from 1.
+ *   varint32 * n: parent task ids for subtasks or 0 for root tasks
+ *   varint64 * n: start times in ns, relative to the Profiler.start() invocation
+ *   varint64 * n: task durations in ns
+ *   byte * n:     task type ids (see TASK_TYPE_TABLE)
+ *   varint32 * n: description string indices
+ *   AGGREGATED_STATS * n: aggregated stats for each task
+ *
+ * DESCRIPTION:
+ *   varint32: length of the string in bytes
+ *   byte...:  UTF-8 encoded string
+ *
+ * AGGREGATED_STATS:
+ *   varint32: size of the stats below in bytes, 0 if the task has none
+ *   AGGREGATE_STAT...
  *
  * AGGREGATE_STAT:
  *   byte:     stat type
@@ -103,10 +114,16 @@ import java.util.zip.DeflaterOutputStream;
  *   varint64: cumulative duration of subtask invocations in ns.
  *
  * EOF_MARKER:
- *   int64: -1 - please note that this corresponds to the thread id in the
- *               TASK_RECORD which is always > 0
+ *   int32: -1 - please note that this corresponds to the chunk size, which is
+ *               never negative
  * </pre>
  *
+ * <p>The records are stored column by column and the chunks are not compressed,
+ * so that {@link ProfileReader} can decode them straight from a memory mapping
+ * of the file, one chunk at a time. Files of version 3, which were deflated as a
+ * whole and stored every task as a separate record, can still be read by
+ * {@link ProfileReader}.
+ *
  * @see ProfilerTask enum for recognized task types.
  */
 //@ThreadSafe - commented out to avoid cyclic dependency with lib.util package
@@ -116,7 +133,7 @@ public final class Profiler {
   // File version number. Note that merely adding new record types in
   // the ProfilerTask does not require bumping version number as long as original
   // enum values are not renamed or deleted.
-  static final int VERSION = 0x03;
+  static final int VERSION = 0x04;
 
   // EOF marker. Must be < 0.
   static final int EOF_MARKER = -1;
@@ -125,6 +142,9 @@ public final class Profiler {
   // separate thread every SAVE_DELAY ms.
   private static final int SAVE_DELAY = 2000; // ms
 
+  // Maximum number of task records stored in a single chunk of the file.
+  private static final int MAX_CHUNK_SIZE = 16384;
+
   /**
    * The profiler (a static singleton instance). Inactive by default.
    */
@@ -275,6 +295,127 @@ public final class Profiler {
     }
   }
 
+  /**
+   * Lock-free buffer for the completed tasks of a single thread. Only the
+   * owning thread adds tasks, and only the saving thread (which holds the
+   * Profiler lock) removes them.
+   *
+   * <p>When the ring buffer is full, tasks go to an unbounded overflow queue,
+   * and so do all following tasks until the saving thread emptied the queue.
+   * So the tasks in the queue are always newer than the ones in the ring
+   * buffer, and the saving thread only takes them while the ring buffer is
+   * empty; the tasks of a thread are saved in the order in which they
+   * completed.
+   */
+  //@ThreadSafe - commented out to avoid cyclic dependency with lib.util.
+  private static final class TaskBuffer {
+    // Must be a power of two.
+    private static final int CAPACITY = 2048;
+
+    private final WeakReference<Thread> owner;
+    private final TaskData[] slots = new TaskData[CAPACITY];
+    // Number of tasks ever added; only written by the owning thread.
+    private final AtomicLong tail = new AtomicLong();
+    // Number of tasks ever removed; only written by the saving thread.
+    private final AtomicLong head = new AtomicLong();
+    private final Queue<TaskData> overflow = new ConcurrentLinkedQueue<>();
+
+    TaskBuffer(Thread owner) {
+      this.owner = new WeakReference<>(owner);
+    }
+
+    /**
+     * Adds a task to the buffer. Must only be called by the owning thread.
+     */
+    void add(TaskData data) {
+      long currentTail = tail.get();
+      if (!overflow.isEmpty() || currentTail - head.get() == CAPACITY) {
+        overflow.add(data);
+        return;
+      }
+      slots[(int) currentTail & (CAPACITY - 1)] = data;
+      // Publishes the slot to the saving thread.
+      tail.lazySet(currentTail + 1);
+    }
+
+    /**
+     * Moves all tasks from the buffer to the given list.
+     */
+    void drainTo(List<TaskData> sink) {
+      long currentHead = head.get();
+      long currentTail = tail.get();
+      for (; currentHead < currentTail; currentHead++) {
+        int index = (int) currentHead & (CAPACITY - 1);
+        sink.add(slots[index]);
+        slots[index] = null;
+      }
+      // Hands the slots back to the owning thread.
+      head.set(currentHead);
+      TaskData data;
+      while (tail.get() == currentHead && (data = overflow.poll()) != null) {
+        sink.add(data);
+      }
+    }
+
+    boolean isEmpty() {
+      return tail.get() == head.get() && overflow.isEmpty();
+    }
+
+    /**
+     * Returns true if the owning thread has terminated, so that no more tasks
+     * can be added.
+     */
+    boolean isOrphaned() {
+      Thread thread = owner.get();
+      return thread == null || !thread.isAlive();
+    }
+  }
+
+  /**
+   * Provides the task buffer of the current thread and keeps track of all
+   * buffers, so that they can be drained.
+   */
+  //@ThreadSafe - commented out to avoid cyclic dependency with lib.util.
+  private static final class TaskBuffers extends ThreadLocal<TaskBuffer> {
+    private final Queue<TaskBuffer> allBuffers = new ConcurrentLinkedQueue<>();
+
+    @Override
+    protected TaskBuffer initialValue() {
+      TaskBuffer buffer = new TaskBuffer(Thread.currentThread());
+      allBuffers.add(buffer);
+      return buffer;
+    }
+
+    void add(TaskData data) {
+      get().add(data);
+    }
+
+    int size() {
+      return allBuffers.size();
+    }
+
+    /**
+     * Moves all completed tasks to the given list. The tasks of each thread
+     * are in the order in which they completed, but the tasks of different
+     * threads are not interleaved by completion time. Forgets the buffers of
+     * threads that have terminated once they are drained. Must only be called
+     * by one thread at a time.
+     */
+    void drainTo(List<TaskData> sink) {
+      Iterator<TaskBuffer> it = allBuffers.iterator();
+      while (it.hasNext()) {
+        TaskBuffer buffer = it.next();
+        // Checked before draining, so that no task can be added after the
+        // last drain.
+        boolean orphaned = buffer.isOrphaned();
+        buffer.drainTo(sink);
+        if (orphaned && buffer.isEmpty()) {
+          it.remove();
+        }
+      }
+    }
+  }
+
   private static String toDescription(Object object) {
     return (object instanceof Describable)
         ? ((Describable) object).describe()
@@ -297,6 +438,13 @@ public final class Profiler {
       return (index != null) ? index : -1;
     }
 
+    /**
+     * Returns the index that the next call to getDescription() will assign.
+     */
+    int getNextIndex() {
+      return indexCounter;
+    }
+
     String getDescription(Object object) {
       String description = toDescription(object);
 
@@ -308,7 +456,7 @@ public final class Profiler {
             + System.identityHashCode(object) + " already had description index "
             + oldIndex + " while assigning index " + descMap.get(object));
       } else if (description.length() > 20000) {
-        // Note size 64k byte limitation in DataOutputStream#writeUTF().
+        // Keep the profile size in check.
         description = description.substring(0, 20000);
       }
       return description;
@@ -443,7 +591,7 @@ public final class Profiler {
   private AtomicInteger taskId = new AtomicInteger();
 
   private TaskStack taskStack;
-  private Queue<TaskData> taskQueue;
+  private TaskBuffers taskBuffers;
   private DataOutputStream out;
   private Timer timer;
   private IOException saveException;
@@ -496,7 +644,7 @@ public final class Profiler {
       throws IOException {
     Preconditions.checkState(!isActive(), "Profiler already active");
     taskStack = new TaskStack();
-    taskQueue = new ConcurrentLinkedQueue<>();
+    taskBuffers = new TaskBuffers();
     describer = new ObjectDescriber();
 
     this.profiledTaskKinds = profiledTaskKinds;
@@ -513,12 +661,7 @@ public final class Profiler {
     this.saveException = null;
     if (stream != null) {
       this.timer = new Timer("ProfilerTimer", true);
-      // Wrapping deflater stream in the buffered stream proved to reduce CPU consumption caused by
-      // the save() method. Values for buffer sizes were chosen by running small amount of tests
-      // and identifying point of diminishing returns - but I have not really tried to optimize
-      // them.
-      this.out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(
-          stream, new Deflater(Deflater.BEST_SPEED, false), 65536), 262144));
+      this.out = new DataOutputStream(new BufferedOutputStream(stream, 262144));
 
       this.out.writeInt(MAGIC); // magic
       this.out.writeInt(VERSION); // protocol_version
@@ -599,7 +742,17 @@ public final class Profiler {
   }
 
   /**
-   * Saves all gathered information from taskQueue queue to the file.
+   * Saves all completed tasks and returns the number of task buffers that are
+   * still kept, one per thread that logged tasks and may still log more.
+   */
+  @VisibleForTesting
+  synchronized int saveAndCountTaskBuffers() {
+    save();
+    return taskBuffers.size();
+  }
+
+  /**
+   * Saves all gathered information from the task buffers to the file.
    * Method is invoked internally by the Timer-based thread and at the end of
    * profiling session.
    */
@@ -608,43 +761,10 @@ public final class Profiler {
       return;
     }
     try {
-      // Allocate the sink once to avoid GC
-      ByteBuffer sink = ByteBuffer.allocate(1024);
-      while (!taskQueue.isEmpty()) {
-        sink.clear();
-        TaskData data = taskQueue.poll();
-
-        VarInt.putVarLong(data.threadId, sink);
-        VarInt.putVarInt(data.id, sink);
-        VarInt.putVarInt(data.parentId, sink);
-        VarInt.putVarLong(data.startTime - profileStartTime, sink);
-        VarInt.putVarLong(data.duration, sink);
-
-        // To save space (and improve performance), convert all description
-        // strings to the canonical object and use IdentityHashMap to assign
-        // unique numbers for each string.
-        int descIndex = describer.getDescriptionIndex(data.object);
-        VarInt.putVarInt(descIndex + 1, sink); // Add 1 to avoid encoding negative values.
-
-        // Save types using their ordinal() value
-        sink.put((byte) data.type.ordinal());
-
-        // Save aggregated data stats.
-        if (data.counts != null) {
-          for (int i = 0; i < TASK_COUNT; i++) {
-            if (data.counts[i] > 0) {
-              sink.put((byte) i); // aggregated type ordinal value
-              VarInt.putVarInt(data.counts[i], sink);
-              VarInt.putVarLong(data.durations[i], sink);
-            }
-          }
-        }
-
-        this.out.writeInt(sink.position());
-        this.out.write(sink.array(), 0, sink.position());
-        if (describer.isUnassigned(descIndex)) {
-          this.out.writeUTF(describer.getDescription(data.object));
-        }
+      List<TaskData> tasks = new ArrayList<>();
+      taskBuffers.drainTo(tasks);
+      for (int start = 0; start < tasks.size(); start += MAX_CHUNK_SIZE) {
+        writeChunk(tasks.subList(start, Math.min(start + MAX_CHUNK_SIZE, tasks.size())));
       }
       this.out.flush();
     } catch (IOException e) {
@@ -658,6 +778,86 @@ public final class Profiler {
     }
   }
 
+  /**
+   * Writes a single chunk with the given tasks, see the file format above.
+   */
+  private void writeChunk(List<TaskData> tasks) throws IOException {
+    int count = tasks.size();
+
+    // To save space (and improve performance), convert all description
+    // strings to the canonical object and use IdentityHashMap to assign
+    // unique numbers for each string.
+    int[] descIndices = new int[count];
+    List<byte[]> newDescriptions = new ArrayList<>();
+    int size = 2 * VarInt.MAX_VARINT_SIZE;
+    for (int i = 0; i < count; i++) {
+      TaskData data = tasks.get(i);
+      int descIndex = describer.getDescriptionIndex(data.object);
+      if (describer.isUnassigned(descIndex)) {
+        descIndex = describer.getNextIndex();
+        byte[] description =
+            describer.getDescription(data.object).getBytes(StandardCharsets.UTF_8);
+        newDescriptions.add(description);
+        size += VarInt.MAX_VARINT_SIZE + description.length;
+      }
+      descIndices[i] = descIndex;
+      size += 3 * VarInt.MAX_VARLONG_SIZE + 4 * VarInt.MAX_VARINT_SIZE + 1;
+      if (data.counts != null) {
+        size += TASK_COUNT * (1 + VarInt.MAX_VARINT_SIZE + VarInt.MAX_VARLONG_SIZE);
+      }
+    }
+
+    ByteBuffer sink = ByteBuffer.allocate(size);
+    VarInt.putVarInt(count, sink);
+    VarInt.putVarInt(newDescriptions.size(), sink);
+    for (byte[] description : newDescriptions) {
+      VarInt.putVarInt(description.length, sink);
+      sink.put(description);
+    }
+    for (TaskData data : tasks) {
+      VarInt.putVarLong(data.threadId, sink);
+    }
+    for (TaskData data : tasks) {
+      VarInt.putVarInt(data.id, sink);
+    }
+    for (TaskData data : tasks) {
+      VarInt.putVarInt(data.parentId, sink);
+    }
+    for (TaskData data : tasks) {
+      VarInt.putVarLong(data.startTime - profileStartTime, sink);
+    }
+    for (TaskData data : tasks) {
+      VarInt.putVarLong(data.duration, sink);
+    }
+    for (TaskData data : tasks) {
+      // Save types using their ordinal() value
+      sink.put((byte) data.type.ordinal());
+    }
+    for (int descIndex : descIndices) {
+      VarInt.putVarInt(descIndex, sink);
+    }
+    // Save aggregated data stats.
+    ByteBuffer stats = ByteBuffer.allocate(
+        TASK_COUNT * (1 + VarInt.MAX_VARINT_SIZE + VarInt.MAX_VARLONG_SIZE));
+    for (TaskData data : tasks) {
+      stats.clear();
+      if (data.counts != null) {
+        for (int i = 0; i < TASK_COUNT; i++) {
+          if (data.counts[i] > 0) {
+            stats.put((byte) i); // aggregated type ordinal value
+            VarInt.putVarInt(data.counts[i], stats);
+            VarInt.putVarLong(data.durations[i], stats);
+          }
+        }
+      }
+      VarInt.putVarInt(stats.position(), sink);
+      sink.put(stats.array(), 0, stats.position());
+    }
+
+    this.out.writeInt(sink.position());
+    this.out.write(sink.array(), 0, sink.position());
+  }
+
   private synchronized void clear() {
     profileStartTime = 0L;
     if (timer != null) {
@@ -665,7 +865,7 @@ public final class Profiler {
       timer = null;
     }
     taskStack = null;
-    taskQueue = null;
+    taskBuffers = null;
     describer = null;
 
     // Note that slowest task aggregator are not cleared here because clearing happens
@@ -706,7 +906,7 @@ public final class Profiler {
       TaskData data = taskStack.create(startTime, type, object);
       data.duration = duration;
       if (out != null) {
-        taskQueue.add(data);
+        taskBuffers.add(data);
       }
 
       SlowestTaskAggregator aggregator = slowestTasks[type.ordinal()];
@@ -830,7 +1030,7 @@ public final class Profiler {
       }
       boolean shouldRecordTask = wasTaskSlowEnoughToRecord(type, data.duration);
       if (out != null && (shouldRecordTask || data.counts != null)) {
-        taskQueue.add(data);
+        taskBuffers.add(data);
       }
 
       if (shouldRecordTask) {
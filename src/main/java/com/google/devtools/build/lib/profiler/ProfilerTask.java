@@ -85,6 +85,9 @@ public enum ProfilerTask {
   SKYLARK_PARSER("Skylark Parser"),
   SKYLARK_USER_FN("Skylark user function call", -1, 0xCC0033, 0),
   SKYLARK_BUILTIN_FN("Skylark builtin function call", -1, 0x990033, 0),
+  SANDBOX_SETUP("sandbox setup", 10000000, 0x996699, 0),
+  SANDBOX_CLEANUP("sandbox cleanup", 10000000, 0x669966, 0),
+  RESOURCE_USAGE("resource usage", -1, 0x336633, 0),
   UNKNOWN("Unknown event", -1, 0x339966, 0);
 
   // Size of the ProfilerTask value space.
@@ -0,0 +1,212 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler.chart;
+
+import com.google.devtools.build.lib.profiler.ProfileInfo.InfoListener;
+import com.google.devtools.build.lib.profiler.ProfileReader;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Converts a profile file into a JSON file in the trace event format understood by the Chrome
+ * trace viewer (chrome://tracing) and compatible tools.
+ *
+ * <p>Unlike {@link HtmlCreator}, the conversion streams the profile: the records are read chunk by
+ * chunk and written out immediately, so the memory use does not grow with the size of the
+ * profile. The profile is read twice; the first pass only collects the (few) critical path
+ * components, so that the actions on the critical path can be highlighted in their thread lanes.
+ *
+ * <p>Every thread of the profiled build gets its own lane. The critical path is shown in an extra
+ * lane at the top, and the resource usage samples recorded by the
+ * {@link com.google.devtools.build.lib.actions.ResourceManager} are shown as counters.
+ */
+public final class TraceEventCreator {
+
+  /** Pseudo thread id of the lane that shows the critical path; real thread ids are positive. */
+  private static final long CRITICAL_PATH_THREAD_ID = 0;
+
+  /** Process id used for all events, the profile only describes a single process. */
+  private static final int PID = 1;
+
+  private final JsonWriter json;
+  private final Set<String> criticalPathActions;
+  private final Set<Long> namedThreads = new HashSet<>();
+
+  private TraceEventCreator(JsonWriter json, Set<String> criticalPathActions) {
+    this.json = json;
+    this.criticalPathActions = criticalPathActions;
+  }
+
+  /**
+   * Writes the trace events for the given profile file to {@code traceFile}.
+   *
+   * @throws IOException if the profile can't be read or the trace file can't be written
+   */
+  public static void createTraceEvents(Path profileFile, Path traceFile, InfoListener listener)
+      throws IOException {
+    Set<String> criticalPathActions = getCriticalPathActions(profileFile);
+    try (ProfileReader reader = ProfileReader.open(profileFile);
+        JsonWriter json = new JsonWriter(new BufferedWriter(
+            new OutputStreamWriter(traceFile.getOutputStream(), StandardCharsets.UTF_8)))) {
+      new TraceEventCreator(json, criticalPathActions).write(reader);
+      if (reader.isCorruptedOrIncomplete()) {
+        listener.warn("Profile file is incomplete or corrupted - not all records were converted");
+      }
+    }
+  }
+
+  /**
+   * Returns the descriptions of the components of the critical path that was recorded in the
+   * profile, or an empty set if the profile doesn't contain a critical path.
+   */
+  private static Set<String> getCriticalPathActions(Path profileFile) throws IOException {
+    Set<String> actions = new HashSet<>();
+    try (ProfileReader reader = ProfileReader.open(profileFile)) {
+      while (reader.nextChunk()) {
+        for (int i = 0; i < reader.getTaskCount(); i++) {
+          if (reader.getType(i) == ProfilerTask.CRITICAL_PATH_COMPONENT) {
+            actions.add(reader.getDescription(i));
+          }
+        }
+      }
+    }
+    return actions;
+  }
+
+  private void write(ProfileReader reader) throws IOException {
+    json.beginObject();
+    json.name("otherData").beginObject();
+    json.name("comment").value(reader.getComment());
+    json.endObject();
+    json.name("displayTimeUnit").value("ms");
+
+    json.name("traceEvents").beginArray();
+    writeThreadName(CRITICAL_PATH_THREAD_ID, "Critical path");
+    writeThreadSortIndex(CRITICAL_PATH_THREAD_ID, -1);
+    while (reader.nextChunk()) {
+      for (int i = 0; i < reader.getTaskCount(); i++) {
+        writeTask(reader, i);
+      }
+    }
+    json.endArray();
+    json.endObject();
+  }
+
+  private void writeTask(ProfileReader reader, int index) throws IOException {
+    ProfilerTask type = reader.getType(index);
+    long threadId = reader.getThreadId(index);
+    String description = reader.getDescription(index);
+    if (type == ProfilerTask.RESOURCE_USAGE) {
+      writeCounter(reader.getStartTime(index), type, description);
+      return;
+    }
+    if (type == ProfilerTask.CRITICAL_PATH_COMPONENT) {
+      threadId = CRITICAL_PATH_THREAD_ID;
+    } else if (namedThreads.add(threadId)) {
+      writeThreadName(threadId, "Thread " + threadId);
+    }
+
+    json.beginObject();
+    json.name("name").value(description);
+    json.name("cat").value(type.description);
+    json.name("pid").value(PID);
+    json.name("tid").value(threadId);
+    json.name("ts").value(toMicros(reader.getStartTime(index)));
+    if (type == ProfilerTask.PHASE) {
+      // Phase markers apply to the whole build, so they are drawn across all lanes.
+      json.name("ph").value("i");
+      json.name("s").value("g");
+    } else if (reader.getDuration(index) == 0) {
+      json.name("ph").value("i");
+      json.name("s").value("t");
+    } else {
+      json.name("ph").value("X");
+      json.name("dur").value(toMicros(reader.getDuration(index)));
+    }
+    boolean critical = type == ProfilerTask.CRITICAL_PATH_COMPONENT
+        || (type == ProfilerTask.ACTION && criticalPathActions.contains(description));
+    if (critical) {
+      // One of the reserved color names of the trace viewer.
+      json.name("cname").value("terrible");
+    }
+    json.name("args").beginObject();
+    json.name("id").value(reader.getId(index));
+    json.name("parent").value(reader.getParentId(index));
+    if (critical) {
+      json.name("critical_path").value(true);
+    }
+    json.endObject();
+    json.endObject();
+  }
+
+  /**
+   * Writes a counter event. The description of a counter sample is a list of space separated
+   * "name=value" pairs; values that aren't numbers are skipped.
+   */
+  private void writeCounter(long startTime, ProfilerTask type, String description)
+      throws IOException {
+    json.beginObject();
+    json.name("name").value(type.description);
+    json.name("pid").value(PID);
+    json.name("ts").value(toMicros(startTime));
+    json.name("ph").value("C");
+    json.name("args").beginObject();
+    for (String sample : description.split(" ")) {
+      int separator = sample.indexOf('=');
+      if (separator <= 0) {
+        continue;
+      }
+      try {
+        double value = Double.parseDouble(sample.substring(separator + 1));
+        json.name(sample.substring(0, separator)).value(value);
+      } catch (NumberFormatException e) {
+        // Not a number, can't be shown as a counter.
+      }
+    }
+    json.endObject();
+    json.endObject();
+  }
+
+  private void writeThreadName(long threadId, String name) throws IOException {
+    json.beginObject();
+    json.name("name").value("thread_name");
+    json.name("ph").value("M");
+    json.name("pid").value(PID);
+    json.name("tid").value(threadId);
+    json.name("args").beginObject().name("name").value(name).endObject();
+    json.endObject();
+  }
+
+  private void writeThreadSortIndex(long threadId, int sortIndex) throws IOException {
+    json.beginObject();
+    json.name("name").value("thread_sort_index");
+    json.name("ph").value("M");
+    json.name("pid").value(PID);
+    json.name("tid").value(threadId);
+    json.name("args").beginObject().name("sort_index").value(sortIndex).endObject();
+    json.endObject();
+  }
+
+  private static double toMicros(long nanos) {
+    return nanos / 1000.0;
+  }
+}
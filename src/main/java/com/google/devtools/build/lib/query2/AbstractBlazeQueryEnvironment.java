@@ -30,6 +30,7 @@ import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
 import com.google.devtools.build.lib.pkgcache.TargetPatternEvaluator;
 import com.google.devtools.build.lib.pkgcache.TransitivePackageLoader;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
+import com.google.devtools.build.lib.query2.engine.Callback;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryException;
@@ -38,8 +39,10 @@ import com.google.devtools.build.lib.syntax.Label;
 import com.google.devtools.build.lib.util.BinaryPredicate;
 import com.google.devtools.build.skyframe.WalkableGraph.WalkableGraphFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -139,26 +142,62 @@ public abstract class AbstractBlazeQueryEnvironment<T> implements QueryEnvironme
       throws QueryException, InterruptedException {
     Set<T> resultNodes;
     try (AutoProfiler p = AutoProfiler.logged("evaluating query", LOG)) {
-      resolvedTargetPatterns.clear();
-
-      // In the --nokeep_going case, errors are reported in the order in which the patterns are
-      // specified; using a linked hash set here makes sure that the left-most error is reported.
-      Set<String> targetPatternSet = new LinkedHashSet<>();
-      expr.collectTargetPatterns(targetPatternSet);
+      preloadTargetPatterns(expr);
       try {
-        resolvedTargetPatterns.putAll(preloadOrThrow(expr, targetPatternSet));
-      } catch (TargetParsingException e) {
-        // Unfortunately, by evaluating the patterns in parallel, we lose some location information.
-        throw new QueryException(expr, e.getMessage());
+        resultNodes = expr.eval(this);
+      } catch (QueryException e) {
+        throw new QueryException(e, expr);
       }
+    }
+    checkErrors(expr);
+    return new QueryEvalResult<>(!eventHandler.hasErrors(), resultNodes);
+  }
 
+  /**
+   * Evaluate the specified query expression in this environment, and pass the resulting targets
+   * to the callback as they are computed, see
+   * {@link QueryExpression#eval(QueryEnvironment, Callback)}. Every target is passed to the
+   * callback only once.
+   *
+   * <p>Unlike with {@link #evaluateQuery(QueryExpression)}, parts of the result may already have
+   * been passed to the callback when a loading error is detected.
+   *
+   * @return false if errors occurred during evaluation; this can only be the case if
+   *   {@code --keep_going} was in effect
+   * @throws QueryException if the evaluation failed and {@code --nokeep_going} was in
+   *   effect
+   */
+  public boolean evaluateQuery(QueryExpression expr, Callback<T> callback)
+      throws QueryException, InterruptedException {
+    try (AutoProfiler p = AutoProfiler.logged("evaluating query", LOG)) {
+      preloadTargetPatterns(expr);
       try {
-        resultNodes = expr.eval(this);
+        expr.eval(this, new UniquifyingCallback<>(callback, createUniquifier()));
       } catch (QueryException e) {
         throw new QueryException(e, expr);
       }
     }
+    checkErrors(expr);
+    return !eventHandler.hasErrors();
+  }
+
+  private void preloadTargetPatterns(QueryExpression expr)
+      throws QueryException, InterruptedException {
+    resolvedTargetPatterns.clear();
+
+    // In the --nokeep_going case, errors are reported in the order in which the patterns are
+    // specified; using a linked hash set here makes sure that the left-most error is reported.
+    Set<String> targetPatternSet = new LinkedHashSet<>();
+    expr.collectTargetPatterns(targetPatternSet);
+    try {
+      resolvedTargetPatterns.putAll(preloadOrThrow(expr, targetPatternSet));
+    } catch (TargetParsingException e) {
+      // Unfortunately, by evaluating the patterns in parallel, we lose some location information.
+      throw new QueryException(expr, e.getMessage());
+    }
+  }
 
+  private void checkErrors(QueryExpression expr) throws QueryException {
     if (eventHandler.hasErrors()) {
       if (!keepGoing) {
         // This case represents loading-phase errors reported during evaluation
@@ -170,8 +209,59 @@ public abstract class AbstractBlazeQueryEnvironment<T> implements QueryEnvironme
             + "Results may be inaccurate"));
       }
     }
+  }
 
-    return new QueryEvalResult<>(!eventHandler.hasErrors(), resultNodes);
+  /**
+   * Remembers which nodes of a streamed result were passed on, see
+   * {@link #createUniquifier}.
+   */
+  protected interface Uniquifier<T> {
+    /** Returns true if the node was not seen before, and remembers it. */
+    boolean unique(T node);
+  }
+
+  /**
+   * Returns a {@link Uniquifier} for the result of one streamed evaluation. It lives until the
+   * evaluation is done, so it should keep as little as possible per node; in particular it should
+   * not keep the nodes themselves, which would keep their packages in memory.
+   */
+  protected abstract Uniquifier<T> createUniquifier();
+
+  /** A {@link Uniquifier} for targets that keeps only their labels. */
+  protected static final class LabelUniquifier implements Uniquifier<Target> {
+    private final Set<Label> seen = new HashSet<>();
+
+    @Override
+    public boolean unique(Target target) {
+      return seen.add(target.getLabel());
+    }
+  }
+
+  /**
+   * Passes on each node only the first time it is seen, so that the consumer of the result sees a
+   * set.
+   */
+  private static final class UniquifyingCallback<T> implements Callback<T> {
+    private final Callback<T> delegate;
+    private final Uniquifier<T> uniquifier;
+
+    private UniquifyingCallback(Callback<T> delegate, Uniquifier<T> uniquifier) {
+      this.delegate = delegate;
+      this.uniquifier = uniquifier;
+    }
+
+    @Override
+    public void process(Iterable<T> partialResult) throws QueryException, InterruptedException {
+      List<T> newNodes = new ArrayList<>();
+      for (T node : partialResult) {
+        if (uniquifier.unique(node)) {
+          newNodes.add(node);
+        }
+      }
+      if (!newNodes.isEmpty()) {
+        delegate.process(newNodes);
+      }
+    }
   }
 
   public QueryEvalResult<T> evaluateQuery(String query)
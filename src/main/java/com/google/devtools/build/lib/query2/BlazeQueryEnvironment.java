@@ -37,6 +37,7 @@ import com.google.devtools.build.lib.pkgcache.TargetPatternEvaluator;
 import com.google.devtools.build.lib.pkgcache.TargetProvider;
 import com.google.devtools.build.lib.pkgcache.TransitivePackageLoader;
 import com.google.devtools.build.lib.query2.engine.BlazeQueryEvalResult;
+import com.google.devtools.build.lib.query2.engine.Callback;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryException;
 import com.google.devtools.build.lib.query2.engine.QueryExpression;
@@ -109,6 +110,18 @@ public class BlazeQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
         graph);
   }
 
+  @Override
+  public boolean evaluateQuery(QueryExpression expr, Callback<Target> callback)
+      throws QueryException, InterruptedException {
+    eventHandler.resetErrors();
+    return super.evaluateQuery(expr, callback);
+  }
+
+  @Override
+  protected Uniquifier<Target> createUniquifier() {
+    return new LabelUniquifier();
+  }
+
   @Override
   public Set<Target> getTargetsMatchingPattern(QueryExpression caller,
       String pattern) throws QueryException {
@@ -19,7 +19,6 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -32,6 +31,7 @@ import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.cmdline.TargetParsingException;
 import com.google.devtools.build.lib.cmdline.TargetPattern;
 import com.google.devtools.build.lib.collect.CompactHashSet;
+import com.google.devtools.build.lib.concurrent.AbstractQueueVisitor;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.graph.Digraph;
@@ -45,6 +45,7 @@ import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
 import com.google.devtools.build.lib.pkgcache.TargetPatternEvaluator;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.query2.engine.AllRdepsFunction;
+import com.google.devtools.build.lib.query2.engine.Callback;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryException;
 import com.google.devtools.build.lib.query2.engine.QueryExpression;
@@ -68,16 +69,20 @@ import com.google.devtools.build.skyframe.SkyValue;
 import com.google.devtools.build.skyframe.WalkableGraph;
 import com.google.devtools.build.skyframe.WalkableGraph.WalkableGraphFactory;
 
-import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.Deque;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
@@ -100,17 +105,15 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
   private final List<String> universeScope;
   private final String parserPrefix;
   private final PathPackageLocator pkgPath;
+  private final Set<Setting> settings;
+  private final Predicate<Label> labelFilter;
+  // The universe of the graph index, as of the start of this query.
+  private TargetGraphIndex.Universe index;
 
   private static final Logger LOG = Logger.getLogger(SkyQueryEnvironment.class.getName());
 
-  private static final Function<Target, Label> TARGET_LABEL_FUNCTION =
-      new Function<Target, Label>() {
-    
-    @Override
-    public Label apply(Target target) {
-      return target.getLabel();
-    }
-  };
+  // Number of keys that are looked up in the graph together during a parallel traversal.
+  private static final int BATCH_SIZE = 1000;
 
   public SkyQueryEnvironment(boolean keepGoing, boolean strictScope, int loadingPhaseThreads,
       Predicate<Label> labelFilter,
@@ -128,6 +131,8 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
     this.pkgPath = pkgPath;
     this.universeScope = Preconditions.checkNotNull(universeScope);
     this.parserPrefix = parserPrefix;
+    this.settings = ImmutableSet.copyOf(settings);
+    this.labelFilter = labelFilter;
     Preconditions.checkState(!universeScope.isEmpty(),
         "No queries can be performed with an empty universe");
   }
@@ -158,6 +163,93 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
           universeScope, result.getError());
       universeTargetPatternKeys = ImmutableList.of();
     }
+
+    startTime = Profiler.nanoTimeMaybe();
+    index = TargetGraphIndex.getInstance(graphFactory, universeScope, settings, labelFilter)
+        .update(getUniverseRootKeys(), indexLoader);
+    duration = Profiler.nanoTimeMaybe() - startTime;
+    if (duration > 0) {
+      LOG.info("Spent " + (duration / 1000 / 1000) + " ms on updating the graph index");
+    }
+  }
+
+  private Collection<SkyKey> getUniverseRootKeys() throws InterruptedException {
+    GraphBackedRecursivePackageProvider provider =
+        new GraphBackedRecursivePackageProvider(graph, universeTargetPatternKeys);
+    Set<SkyKey> result = new HashSet<>();
+    for (TargetPatternKey patternKey : universeTargetPatternKeys) {
+      if (patternKey.isNegative()) {
+        continue;
+      }
+      // Preparing the universe evaluates the deps of the patterns, but not necessarily the
+      // patterns themselves, so they are resolved with the packages in the graph if needed.
+      SkyKey key = new SkyKey(SkyFunctions.TARGET_PATTERN, patternKey);
+      if (graph.exists(key)) {
+        TargetPatternValue value = (TargetPatternValue) graph.getValue(key);
+        if (value != null) {
+          for (Label label : value.getTargets().getTargets()) {
+            result.add(TransitiveTraversalValue.key(label));
+          }
+        }
+      } else {
+        RecursivePackageProviderBackedTargetPatternResolver resolver =
+            new RecursivePackageProviderBackedTargetPatternResolver(provider, eventHandler,
+                patternKey.getPolicy(), pkgPath);
+        try {
+          for (Target target : patternKey.getParsedPattern().eval(resolver).getTargets()) {
+            result.add(TARGET_TO_SKY_KEY.apply(target));
+          }
+        } catch (TargetParsingException e) {
+          // The error was already reported when the universe was prepared.
+        }
+      }
+    }
+    return result;
+  }
+
+  private final TargetGraphIndex.Loader indexLoader = new TargetGraphIndex.Loader() {
+    @Override
+    public Map<SkyKey, Collection<SkyKey>> getDeps(Collection<SkyKey> keys) {
+      Map<SkyKey, Target> targetsByKey = makeTargetsWithAssociations(keys);
+      Map<SkyKey, Collection<SkyKey>> result = new HashMap<>();
+      for (Map.Entry<SkyKey, Iterable<SkyKey>> entry
+          : graph.getDirectDeps(targetsByKey.keySet()).entrySet()) {
+        List<SkyKey> deps = new ArrayList<>();
+        addAllowedDeps(targetsByKey.get(entry.getKey()), entry.getValue(), deps);
+        result.put(entry.getKey(), deps);
+      }
+      return result;
+    }
+
+    @Override
+    public Map<PackageIdentifier, Package> getPackages(Collection<PackageIdentifier> packageIds) {
+      Map<SkyKey, PackageIdentifier> packageKeys = new HashMap<>();
+      for (PackageIdentifier packageId : packageIds) {
+        packageKeys.put(PackageValue.key(packageId), packageId);
+      }
+      Map<PackageIdentifier, Package> result = new HashMap<>();
+      for (Map.Entry<SkyKey, SkyValue> entry
+          : graph.getSuccessfulValues(packageKeys.keySet()).entrySet()) {
+        result.put(packageKeys.get(entry.getKey()),
+            ((PackageValue) entry.getValue()).getPackage());
+      }
+      return result;
+    }
+  };
+
+  /**
+   * Returns the targets of the given keys, in the order of the keys.
+   */
+  private List<Target> makeTargetsInOrder(List<SkyKey> keys) {
+    Map<SkyKey, Target> targets = makeTargetsWithAssociations(keys);
+    List<Target> result = new ArrayList<>(targets.size());
+    for (SkyKey key : keys) {
+      Target target = targets.get(key);
+      if (target != null) {
+        result.add(target);
+      }
+    }
+    return result;
   }
 
   @Override
@@ -171,32 +263,35 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
     return super.evaluateQuery(expr);
   }
 
-  private Map<Target, Collection<Target>> makeTargetsMap(Map<SkyKey, Iterable<SkyKey>> input) {
-    ImmutableMap.Builder<Target, Collection<Target>> result = ImmutableMap.builder();
-    
-    Map<SkyKey, Target> allTargets = makeTargetsWithAssociations(
-        Sets.newHashSet(Iterables.concat(input.values())));
+  @Override
+  public boolean evaluateQuery(QueryExpression expr, Callback<Target> callback)
+      throws QueryException, InterruptedException {
+    eventHandler.resetErrors();
+    init();
+    return super.evaluateQuery(expr, callback);
+  }
 
-    for (Map.Entry<SkyKey, Target> entry : makeTargetsWithAssociations(input.keySet()).entrySet()) {
-      Iterable<SkyKey> skyKeys = input.get(entry.getKey());
-      Set<Target> targets = CompactHashSet.createWithExpectedSize(Iterables.size(skyKeys));
-      for (SkyKey key : skyKeys) {
-        Target target = allTargets.get(key);
-        if (target != null) {
-          targets.add(target);
+  // The nodes of the universe are remembered by their ids in the index, the others by label.
+  @Override
+  protected Uniquifier<Target> createUniquifier() {
+    final TargetGraphIndex.Universe universe = index;
+    return new Uniquifier<Target>() {
+      private final BitSet seenIds = new BitSet();
+      private final LabelUniquifier others = new LabelUniquifier();
+
+      @Override
+      public boolean unique(Target target) {
+        int id = universe.getId(TARGET_TO_SKY_KEY.apply(target));
+        if (id < 0) {
+          return others.unique(target);
+        }
+        if (seenIds.get(id)) {
+          return false;
         }
+        seenIds.set(id);
+        return true;
       }
-      result.put(entry.getValue(), targets);
-    }
-    return result.build();
-  }
-
-  private Map<Target, Collection<Target>> getRawFwdDeps(Iterable<Target> targets) {
-    return makeTargetsMap(graph.getDirectDeps(makeKeys(targets)));
-  }
-
-  private Map<Target, Collection<Target>> getRawReverseDeps(Iterable<Target> targets) {
-    return makeTargetsMap(graph.getReverseDeps(makeKeys(targets)));
+    };
   }
 
   private Set<Label> getAllowedDeps(Rule rule) {
@@ -207,93 +302,163 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
     return allowedLabels;
   }
 
-  private Collection<Target> filterFwdDeps(Target target, Collection<Target> rawFwdDeps) {
-    if (!(target instanceof Rule)) {
-      return rawFwdDeps;
+  /**
+   * Returns the keys of the direct deps of the given targets that pass the dependency filter.
+   *
+   * <p>The filter only needs the labels of the deps, so the deps don't have to be converted to
+   * targets; callers only convert the keys that they actually visit or return.
+   */
+  private Set<SkyKey> getFwdDepKeys(Map<SkyKey, Target> targetsByKey) {
+    Set<SkyKey> result = new HashSet<>();
+    for (Map.Entry<SkyKey, Iterable<SkyKey>> entry
+        : graph.getDirectDeps(targetsByKey.keySet()).entrySet()) {
+      addAllowedDeps(targetsByKey.get(entry.getKey()), entry.getValue(), result);
+    }
+    return result;
+  }
+
+  private void addAllowedDeps(Target target, Iterable<SkyKey> deps, Collection<SkyKey> result) {
+    Set<Label> allowedLabels = target instanceof Rule ? getAllowedDeps((Rule) target) : null;
+    for (SkyKey dep : deps) {
+      Label label = SKYKEY_TO_LABEL.apply(dep);
+      if (label != null && (allowedLabels == null || allowedLabels.contains(label))) {
+        result.add(dep);
+      }
     }
-    final Set<Label> allowedLabels = getAllowedDeps((Rule) target);
-    return Collections2.filter(rawFwdDeps,
-        new Predicate<Target>() {
-          @Override
-          public boolean apply(Target target) {
-            return allowedLabels.contains(target.getLabel());
-          }
-        });
   }
 
   @Override
   public Collection<Target> getFwdDeps(Iterable<Target> targets) {
-    Set<Target> result = new HashSet<>();
-    for (Map.Entry<Target, Collection<Target>> entry : getRawFwdDeps(targets).entrySet()) {
-      result.addAll(filterFwdDeps(entry.getKey(), entry.getValue()));
+    BitSet ids = index.getIds(makeKeys(targets));
+    if (ids != null) {
+      return makeTargetsWithAssociations(index.getKeys(index.getFwdDeps(ids))).values();
     }
-    return result;
+    return makeTargetsWithAssociations(getFwdDepKeys(makeKeyMap(targets))).values();
   }
 
   @Override
   public Collection<Target> getReverseDeps(Iterable<Target> targets) {
-    Set<Target> result = CompactHashSet.create();
-    Map<Target, Collection<Target>> rawReverseDeps = getRawReverseDeps(targets);
-
-    CompactHashSet<Target> visited = CompactHashSet.create();
-
-    Set<Label> keys = CompactHashSet.create(Collections2.transform(rawReverseDeps.keySet(),
-        TARGET_LABEL_FUNCTION));
-    for (Collection<Target> parentCollection : rawReverseDeps.values()) {
-      for (Target parent : parentCollection) {
-        if (visited.add(parent)) {
-          if (parent instanceof Rule) {
-            for (Label label : getAllowedDeps((Rule) parent)) {
-              if (keys.contains(label)) {
-                result.add(parent);
-              }
-            }
-          } else {
-            result.add(parent);
-          }
-        }
+    BitSet ids = index.getIds(makeKeys(targets));
+    if (ids != null) {
+      return makeTargetsWithAssociations(index.getKeys(index.getReverseDeps(ids))).values();
+    }
+    Map<SkyKey, Target> targetsByKey = makeKeyMap(targets);
+    Set<Label> labels = new HashSet<>(targetsByKey.size());
+    for (Target target : targetsByKey.values()) {
+      labels.add(target.getLabel());
+    }
+    // Parents shared by several of the targets are converted only once.
+    Set<SkyKey> parentKeys = new HashSet<>();
+    for (Iterable<SkyKey> parents : graph.getReverseDeps(targetsByKey.keySet()).values()) {
+      Iterables.addAll(parentKeys, parents);
+    }
+
+    List<Target> result = new ArrayList<>();
+    for (Target parent : makeTargetsWithAssociations(parentKeys).values()) {
+      if (!(parent instanceof Rule)
+          || !Collections.disjoint(getAllowedDeps((Rule) parent), labels)) {
+        result.add(parent);
       }
     }
     return result;
   }
 
   @Override
-  public Set<Target> getTransitiveClosure(Set<Target> targets) {
-    Set<Target> visited = new HashSet<>();
-    Collection<Target> current = targets;
-    while (!current.isEmpty()) {
-      Collection<Target> toVisit = Collections2.filter(current,
-          Predicates.not(Predicates.in(visited)));
-      current = getFwdDeps(toVisit);
-      visited.addAll(toVisit);
+  public Set<Target> getTransitiveClosure(Set<Target> targets) throws InterruptedException {
+    BitSet ids = index.getIds(makeKeys(targets));
+    if (ids != null) {
+      return ImmutableSet.copyOf(
+          makeTargetsWithAssociations(index.getKeys(index.getTransitiveClosure(ids))).values());
     }
-    return ImmutableSet.copyOf(visited);
+    return new TransitiveClosureVisitor().visit(makeKeys(targets));
   }
 
-  // Implemented with a breadth-first search.
+  /**
+   * Visits the transitive closure of a set of keys in parallel.
+   *
+   * <p>The keys are processed in batches. For each batch, the targets and the direct deps are
+   * looked up in the graph with one call each, and new deps are claimed in a concurrent visited
+   * set and enqueued as new batches. Each key of the closure is converted to a target exactly once.
+   */
+  private class TransitiveClosureVisitor extends AbstractQueueVisitor {
+    private final Set<SkyKey> visited = Sets.newConcurrentHashSet();
+    private final Queue<Target> result = new ConcurrentLinkedQueue<>();
+
+    private TransitiveClosureVisitor() {
+      super(/*concurrent=*/true, loadingPhaseThreads, loadingPhaseThreads, 1L, TimeUnit.SECONDS,
+          /*failFastOnException=*/true, "skyquery-transitive-closure");
+    }
+
+    private Set<Target> visit(Iterable<SkyKey> keys) throws InterruptedException {
+      enqueueUnvisited(keys);
+      work(/*interruptWorkers=*/true);
+      return ImmutableSet.copyOf(result);
+    }
+
+    private void enqueueUnvisited(Iterable<SkyKey> keys) {
+      List<SkyKey> batch = new ArrayList<>();
+      for (SkyKey key : keys) {
+        if (visited.add(key)) {
+          batch.add(key);
+          if (batch.size() == BATCH_SIZE) {
+            enqueueBatch(batch);
+            batch = new ArrayList<>();
+          }
+        }
+      }
+      if (!batch.isEmpty()) {
+        enqueueBatch(batch);
+      }
+    }
+
+    private void enqueueBatch(final List<SkyKey> batch) {
+      enqueue(new Runnable() {
+        @Override
+        public void run() {
+          Map<SkyKey, Target> targetsByKey = makeTargetsWithAssociations(batch);
+          result.addAll(targetsByKey.values());
+          enqueueUnvisited(getFwdDepKeys(targetsByKey));
+        }
+      });
+    }
+  }
+
+  // Implemented with a breadth-first search that expands a whole level of the search with one
+  // lookup, so it finds a shortest path.
   @Override
   public Set<Target> getNodesOnPath(Target from, Target to) {
+    SkyKey fromKey = TARGET_TO_SKY_KEY.apply(from);
+    SkyKey toKey = TARGET_TO_SKY_KEY.apply(to);
+    if (index.getIds(ImmutableList.of(fromKey, toKey)) != null) {
+      List<SkyKey> path = index.getShortestPath(fromKey, toKey);
+      return path == null ? null : ImmutableSet.copyOf(makeTargetsInOrder(path));
+    }
     // Tree of nodes visited so far.
-    Map<Target, Target> nodeToParent = new HashMap<>();
-    // Contains all nodes left to visit in a (LIFO) stack.
-    Deque<Target> toVisit = new ArrayDeque<>();
-    toVisit.add(from);
-    nodeToParent.put(from, null);
-    while (!toVisit.isEmpty()) {
-      Target current = toVisit.removeFirst();
-      if (to.equals(current)) {
-        return ImmutableSet.copyOf(Digraph.getPathToTreeNode(nodeToParent, to));
-      }
-      for (Target dep : getFwdDeps(ImmutableList.of(current))) {
-        if (!nodeToParent.containsKey(dep)) {
-          nodeToParent.put(dep, current);
-          toVisit.addFirst(dep);
+    Map<SkyKey, SkyKey> nodeToParent = new HashMap<>();
+    nodeToParent.put(fromKey, null);
+    Map<SkyKey, Target> current = ImmutableMap.of(fromKey, from);
+    while (!current.isEmpty() && !nodeToParent.containsKey(toKey)) {
+      List<SkyKey> next = new ArrayList<>();
+      for (Map.Entry<SkyKey, Iterable<SkyKey>> entry
+          : graph.getDirectDeps(current.keySet()).entrySet()) {
+        List<SkyKey> deps = new ArrayList<>();
+        addAllowedDeps(current.get(entry.getKey()), entry.getValue(), deps);
+        for (SkyKey dep : deps) {
+          if (!nodeToParent.containsKey(dep)) {
+            nodeToParent.put(dep, entry.getKey());
+            next.add(dep);
+          }
         }
       }
+      current = makeTargetsWithAssociations(next);
+    }
+    if (!nodeToParent.containsKey(toKey)) {
+      // Note that the only current caller of this method checks first to see if there is a path
+      // before calling this method. It is not clear what the return value should be here.
+      return null;
     }
-    // Note that the only current caller of this method checks first to see if there is a path
-    // before calling this method. It is not clear what the return value should be here.
-    return null;
+    return ImmutableSet.copyOf(
+        makeTargetsInOrder(Digraph.getPathToTreeNode(nodeToParent, toKey)));
   }
 
   @Override
@@ -533,6 +698,14 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
     return Iterables.transform(targets, TARGET_TO_SKY_KEY);
   }
 
+  private static Map<SkyKey, Target> makeKeyMap(Iterable<Target> targets) {
+    Map<SkyKey, Target> result = new HashMap<>();
+    for (Target target : targets) {
+      result.put(TARGET_TO_SKY_KEY.apply(target), target);
+    }
+    return result;
+  }
+
   @Override
   public Target getOrCreate(Target target) {
     return target;
@@ -0,0 +1,510 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Setting;
+import com.google.devtools.build.lib.syntax.Label;
+import com.google.devtools.build.skyframe.SkyKey;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * A compact index of the dependency graph of a query universe, which is kept by the server across
+ * queries, see {@link SkyQueryEnvironment}.
+ *
+ * <p>Every node gets an int id, and the (filtered) edges between the nodes of the universe are
+ * stored as forward and reverse adjacency arrays in compressed sparse row format. Traversals then
+ * work on ids and {@link BitSet}s and don't touch the Skyframe graph; only the ids of the result
+ * are converted back to keys.
+ *
+ * <p>The deps of a node only depend on the contents of its package, so {@link #update} only loads
+ * the nodes of packages that changed since the previous update, or that weren't part of the
+ * universe before. The index holds the packages it was built from only weakly, and the index
+ * itself is only held softly by the server.
+ *
+ * <p>Each update that changes the universe renumbers the nodes, so that the universe has the ids
+ * 0 to n - 1, and drops the nodes that aren't reachable anymore; the ids only cover the current
+ * universe and the deps of its nodes that couldn't be loaded. Queries traverse the immutable
+ * {@link Universe} returned by the update, so a later update doesn't affect them.
+ */
+@ThreadSafe
+final class TargetGraphIndex {
+
+  /** Loads the nodes that aren't in the index yet from the Skyframe graph. */
+  interface Loader {
+    /**
+     * Returns the keys of the (filtered) direct deps of each of the given keys. Keys that don't
+     * denote a target that can be loaded are left out.
+     */
+    Map<SkyKey, Collection<SkyKey>> getDeps(Collection<SkyKey> keys);
+
+    /** Returns the current packages with the given ids; packages that can't be loaded are left out. */
+    Map<PackageIdentifier, Package> getPackages(Collection<PackageIdentifier> packageIds);
+  }
+
+  /**
+   * The nodes and edges of the universe after an update.
+   */
+  @Immutable
+  @ThreadSafe
+  static final class Universe {
+    private static final Universe EMPTY = new Universe(
+        ImmutableMap.<SkyKey, Integer>of(), new SkyKey[0], 0, new int[1], NO_DEPS, new int[1],
+        NO_DEPS);
+
+    // The ids of the nodes, and their keys by id. The nodes of the universe have the ids 0 to
+    // size - 1; the others are deps of universe nodes that couldn't be loaded.
+    private final ImmutableMap<SkyKey, Integer> ids;
+    private final SkyKey[] keys;
+    private final int size;
+    // The edges of node i are edges[offsets[i]] to edges[offsets[i + 1] - 1].
+    private final int[] fwdOffsets;
+    private final int[] fwdEdges;
+    private final int[] revOffsets;
+    private final int[] revEdges;
+
+    private Universe(ImmutableMap<SkyKey, Integer> ids, SkyKey[] keys, int size,
+        int[] fwdOffsets, int[] fwdEdges, int[] revOffsets, int[] revEdges) {
+      this.ids = ids;
+      this.keys = keys;
+      this.size = size;
+      this.fwdOffsets = fwdOffsets;
+      this.fwdEdges = fwdEdges;
+      this.revOffsets = revOffsets;
+      this.revEdges = revEdges;
+    }
+
+    /** Returns the number of nodes of the universe. */
+    int size() {
+      return size;
+    }
+
+    /** Returns the id of the given key, or -1 if it is not in the universe. */
+    int getId(SkyKey key) {
+      Integer id = ids.get(key);
+      return id == null || id >= size ? -1 : id;
+    }
+
+    /**
+     * Returns the ids of the given keys, or null if any of them is not in the universe.
+     */
+    @Nullable
+    BitSet getIds(Iterable<SkyKey> nodes) {
+      BitSet result = new BitSet();
+      for (SkyKey key : nodes) {
+        Integer id = ids.get(key);
+        if (id == null || id >= size) {
+          return null;
+        }
+        result.set(id);
+      }
+      return result;
+    }
+
+    List<SkyKey> getKeys(BitSet nodes) {
+      List<SkyKey> result = new ArrayList<>(nodes.cardinality());
+      for (int id = nodes.nextSetBit(0); id >= 0; id = nodes.nextSetBit(id + 1)) {
+        result.add(keys[id]);
+      }
+      return result;
+    }
+
+    BitSet getFwdDeps(BitSet nodes) {
+      return getNeighbors(nodes, fwdOffsets, fwdEdges);
+    }
+
+    BitSet getReverseDeps(BitSet nodes) {
+      return getNeighbors(nodes, revOffsets, revEdges);
+    }
+
+    private static BitSet getNeighbors(BitSet nodes, int[] offsets, int[] edges) {
+      BitSet result = new BitSet();
+      for (int id = nodes.nextSetBit(0); id >= 0; id = nodes.nextSetBit(id + 1)) {
+        for (int i = offsets[id]; i < offsets[id + 1]; i++) {
+          result.set(edges[i]);
+        }
+      }
+      return result;
+    }
+
+    BitSet getTransitiveClosure(BitSet nodes) {
+      BitSet visited = (BitSet) nodes.clone();
+      int[] stack = new int[size];
+      int stackSize = 0;
+      for (int id = nodes.nextSetBit(0); id >= 0; id = nodes.nextSetBit(id + 1)) {
+        stack[stackSize++] = id;
+      }
+      while (stackSize > 0) {
+        int id = stack[--stackSize];
+        for (int i = fwdOffsets[id]; i < fwdOffsets[id + 1]; i++) {
+          int dep = fwdEdges[i];
+          if (!visited.get(dep)) {
+            visited.set(dep);
+            stack[stackSize++] = dep;
+          }
+        }
+      }
+      return visited;
+    }
+
+    /**
+     * Returns the keys on a shortest path from {@code from} to {@code to}, or null if there is no
+     * path. Both keys must be in the universe.
+     */
+    @Nullable
+    List<SkyKey> getShortestPath(SkyKey from, SkyKey to) {
+      Integer fromId = ids.get(from);
+      Integer toId = ids.get(to);
+      Preconditions.checkArgument(fromId != null && fromId < size, from);
+      Preconditions.checkArgument(toId != null && toId < size, to);
+      int[] parent = new int[size];
+      BitSet visited = new BitSet(size);
+      visited.set(fromId);
+      int[] queue = new int[size];
+      int head = 0;
+      int tail = 0;
+      queue[tail++] = fromId;
+      while (head < tail && !visited.get(toId)) {
+        int id = queue[head++];
+        for (int i = fwdOffsets[id]; i < fwdOffsets[id + 1]; i++) {
+          int dep = fwdEdges[i];
+          if (!visited.get(dep)) {
+            visited.set(dep);
+            parent[dep] = id;
+            queue[tail++] = dep;
+          }
+        }
+      }
+      if (!visited.get(toId)) {
+        return null;
+      }
+      List<SkyKey> path = new ArrayList<>();
+      for (int id = toId; id != fromId; id = parent[id]) {
+        path.add(keys[id]);
+      }
+      path.add(from);
+      Collections.reverse(path);
+      return path;
+    }
+  }
+
+  private static final Logger LOG = Logger.getLogger(TargetGraphIndex.class.getName());
+
+  // Number of nodes that are loaded together.
+  private static final int BATCH_SIZE = 1000;
+
+  private static final int[] NO_DEPS = new int[0];
+
+  // The index that was used last, see getInstance().
+  private static SoftReference<TargetGraphIndex> instance = new SoftReference<>(null);
+
+  private final WeakReference<Object> graphOwner;
+  private final ImmutableList<String> universeScope;
+  private final Set<Setting> settings;
+  private final Predicate<Label> labelFilter;
+
+  // The universe after the last update. Its ids are the ids of the index; the nodes that were
+  // added since have the ids from universe.keys.length on, and are in newIds and newKeys.
+  private Universe universe = Universe.EMPTY;
+  private final Map<SkyKey, Integer> newIds = new HashMap<>();
+  private final List<SkyKey> newKeys = new ArrayList<>();
+  // The ids of the deps of each node, by id; null if the node has to be loaded (again).
+  private List<int[]> deps = new ArrayList<>();
+  // The packages the loaded nodes were taken from, and the ids of their nodes.
+  private final Map<PackageIdentifier, WeakReference<Package>> packages = new HashMap<>();
+  private final Map<PackageIdentifier, List<Integer>> idsByPackage = new HashMap<>();
+
+  private TargetGraphIndex(Object graphOwner, ImmutableList<String> universeScope,
+      Set<Setting> settings, Predicate<Label> labelFilter) {
+    this.graphOwner = new WeakReference<>(graphOwner);
+    this.universeScope = universeScope;
+    this.settings = settings;
+    this.labelFilter = labelFilter;
+  }
+
+  /**
+   * Returns the index for the given universe. The server keeps a single index; it is replaced when
+   * a query with a different universe, dependency settings, label filter or graph comes along.
+   *
+   * @param graphOwner the owner of the Skyframe graph the index is built from
+   */
+  static synchronized TargetGraphIndex getInstance(Object graphOwner, List<String> universeScope,
+      Set<Setting> settings, Predicate<Label> labelFilter) {
+    TargetGraphIndex index = instance.get();
+    if (index == null
+        || index.graphOwner.get() != graphOwner
+        || !index.universeScope.equals(universeScope)
+        || !index.settings.equals(settings)
+        || !index.labelFilter.equals(labelFilter)) {
+      index = new TargetGraphIndex(
+          graphOwner, ImmutableList.copyOf(universeScope), settings, labelFilter);
+      instance = new SoftReference<>(index);
+    }
+    return index;
+  }
+
+  /**
+   * Updates the index to the transitive closure of {@code roots} in the current graph, and returns
+   * the updated universe.
+   */
+  synchronized Universe update(Collection<SkyKey> roots, Loader loader) {
+    int invalidated = invalidateChangedPackages(loader);
+
+    int loaded = 0;
+    BitSet visited = new BitSet();
+    BitSet failed = new BitSet();
+    List<Integer> current = new ArrayList<>();
+    for (SkyKey root : roots) {
+      int id = getOrCreateId(root);
+      if (!visited.get(id)) {
+        visited.set(id);
+        current.add(id);
+      }
+    }
+    while (!current.isEmpty()) {
+      loaded += load(current, loader);
+      List<Integer> next = new ArrayList<>();
+      for (int id : current) {
+        int[] nodeDeps = deps.get(id);
+        if (nodeDeps == null) {
+          // Could not be loaded, so it's not part of the universe.
+          failed.set(id);
+          continue;
+        }
+        for (int dep : nodeDeps) {
+          if (!visited.get(dep)) {
+            visited.set(dep);
+            next.add(dep);
+          }
+        }
+      }
+      current = next;
+    }
+    visited.andNot(failed);
+    if (invalidated == 0 && loaded == 0 && visited.cardinality() == universe.size
+        && visited.nextClearBit(0) == universe.size) {
+      // Nothing changed since the last update.
+      return universe;
+    }
+    universe = compact(visited);
+    LOG.info("Query graph index has " + universe.size + " nodes and "
+        + universe.fwdEdges.length + " edges, loaded " + loaded + " nodes");
+    return universe;
+  }
+
+  /**
+   * Marks the nodes of the packages that changed since they were loaded for loading, and returns
+   * the number of packages that changed.
+   */
+  private int invalidateChangedPackages(Loader loader) {
+    Map<PackageIdentifier, Package> current = loader.getPackages(packages.keySet());
+    List<PackageIdentifier> changed = new ArrayList<>();
+    for (Map.Entry<PackageIdentifier, WeakReference<Package>> entry : packages.entrySet()) {
+      Package pkg = entry.getValue().get();
+      if (pkg == null || pkg != current.get(entry.getKey())) {
+        changed.add(entry.getKey());
+      }
+    }
+    for (PackageIdentifier packageId : changed) {
+      packages.remove(packageId);
+      for (int id : idsByPackage.remove(packageId)) {
+        deps.set(id, null);
+      }
+    }
+    return changed.size();
+  }
+
+  /**
+   * Loads the nodes among {@code nodes} that aren't loaded yet, and returns the number of nodes
+   * that could be loaded.
+   */
+  private int load(List<Integer> nodes, Loader loader) {
+    List<SkyKey> toLoad = new ArrayList<>();
+    for (int id : nodes) {
+      if (deps.get(id) == null) {
+        toLoad.add(getKey(id));
+      }
+    }
+    int loaded = 0;
+    for (int start = 0; start < toLoad.size(); start += BATCH_SIZE) {
+      List<SkyKey> batch = toLoad.subList(start, Math.min(start + BATCH_SIZE, toLoad.size()));
+      List<PackageIdentifier> newPackages = new ArrayList<>();
+      Map<SkyKey, Collection<SkyKey>> batchDeps = loader.getDeps(batch);
+      loaded += batchDeps.size();
+      for (Map.Entry<SkyKey, Collection<SkyKey>> entry : batchDeps.entrySet()) {
+        int id = getId(entry.getKey());
+        int[] nodeDeps = new int[entry.getValue().size()];
+        int i = 0;
+        for (SkyKey dep : entry.getValue()) {
+          nodeDeps[i++] = getOrCreateId(dep);
+        }
+        deps.set(id, nodeDeps);
+
+        PackageIdentifier packageId = ((Label) entry.getKey().argument()).getPackageIdentifier();
+        List<Integer> packageIds = idsByPackage.get(packageId);
+        if (packageIds == null) {
+          packageIds = new ArrayList<>();
+          idsByPackage.put(packageId, packageIds);
+          newPackages.add(packageId);
+        }
+        packageIds.add(id);
+      }
+      for (Map.Entry<PackageIdentifier, Package> entry
+          : loader.getPackages(newPackages).entrySet()) {
+        packages.put(entry.getKey(), new WeakReference<>(entry.getValue()));
+      }
+      for (PackageIdentifier packageId : newPackages) {
+        if (!packages.containsKey(packageId)) {
+          // The package disappeared after its nodes were loaded; load them again next time.
+          for (int id : idsByPackage.remove(packageId)) {
+            deps.set(id, null);
+          }
+        }
+      }
+    }
+    return loaded;
+  }
+
+  @Nullable
+  private Integer getId(SkyKey key) {
+    Integer id = universe.ids.get(key);
+    return id != null ? id : newIds.get(key);
+  }
+
+  private SkyKey getKey(int id) {
+    return id < universe.keys.length ? universe.keys[id] : newKeys.get(id - universe.keys.length);
+  }
+
+  private int getOrCreateId(SkyKey key) {
+    Integer id = getId(key);
+    if (id == null) {
+      id = deps.size();
+      newIds.put(key, id);
+      newKeys.add(key);
+      deps.add(null);
+    }
+    return id;
+  }
+
+  /**
+   * Renumbers the nodes, so that the nodes of the new universe have the ids 0 to n - 1, followed
+   * by the deps of these nodes that couldn't be loaded. All other nodes are dropped. Returns the
+   * new universe with its adjacency arrays.
+   */
+  private Universe compact(BitSet nodes) {
+    int[] newId = new int[deps.size()];
+    Arrays.fill(newId, -1);
+    List<Integer> oldIds = new ArrayList<>(nodes.cardinality());
+    for (int id = nodes.nextSetBit(0); id >= 0; id = nodes.nextSetBit(id + 1)) {
+      newId[id] = oldIds.size();
+      oldIds.add(id);
+    }
+    int size = oldIds.size();
+    for (int i = 0; i < size; i++) {
+      for (int dep : deps.get(oldIds.get(i))) {
+        if (newId[dep] < 0) {
+          newId[dep] = oldIds.size();
+          oldIds.add(dep);
+        }
+      }
+    }
+
+    SkyKey[] keys = new SkyKey[oldIds.size()];
+    ImmutableMap.Builder<SkyKey, Integer> ids = ImmutableMap.builder();
+    List<int[]> newDeps = new ArrayList<>(oldIds.size());
+    for (int i = 0; i < oldIds.size(); i++) {
+      keys[i] = getKey(oldIds.get(i));
+      ids.put(keys[i], i);
+      int[] nodeDeps = deps.get(oldIds.get(i));
+      if (nodeDeps != null) {
+        nodeDeps = nodeDeps.clone();
+        for (int j = 0; j < nodeDeps.length; j++) {
+          nodeDeps[j] = newId[nodeDeps[j]];
+        }
+      }
+      newDeps.add(nodeDeps);
+    }
+    Iterator<Map.Entry<PackageIdentifier, List<Integer>>> it = idsByPackage.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<PackageIdentifier, List<Integer>> entry = it.next();
+      List<Integer> packageIds = new ArrayList<>();
+      for (int id : entry.getValue()) {
+        if (newId[id] >= 0) {
+          packageIds.add(newId[id]);
+        }
+      }
+      if (packageIds.isEmpty()) {
+        packages.remove(entry.getKey());
+        it.remove();
+      } else {
+        entry.setValue(packageIds);
+      }
+    }
+    deps = newDeps;
+    newIds.clear();
+    newKeys.clear();
+
+    // Build the forward and reverse adjacency arrays.
+    int[] fwdOffsets = new int[size + 1];
+    int[] revOffsets = new int[size + 1];
+    for (int id = 0; id < size; id++) {
+      for (int dep : deps.get(id)) {
+        if (dep < size) {
+          fwdOffsets[id + 1]++;
+          revOffsets[dep + 1]++;
+        }
+      }
+    }
+    for (int id = 0; id < size; id++) {
+      fwdOffsets[id + 1] += fwdOffsets[id];
+      revOffsets[id + 1] += revOffsets[id];
+    }
+    int[] fwdEdges = new int[fwdOffsets[size]];
+    int[] revEdges = new int[revOffsets[size]];
+    int[] revFill = new int[size];
+    for (int id = 0; id < size; id++) {
+      int fwdFill = fwdOffsets[id];
+      for (int dep : deps.get(id)) {
+        if (dep < size) {
+          fwdEdges[fwdFill++] = dep;
+          revEdges[revOffsets[dep] + revFill[dep]++] = id;
+        }
+      }
+    }
+    return new Universe(
+        ids.build(), keys, size, fwdOffsets, fwdEdges, revOffsets, revEdges);
+  }
+}
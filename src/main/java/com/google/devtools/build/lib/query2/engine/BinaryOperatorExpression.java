@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.query2.engine;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -71,6 +72,70 @@ class BinaryOperatorExpression extends QueryExpression {
     return lhsValue;
   }
 
+  /**
+   * Unions pass the results of all operands on as they come. Intersections and differences have to
+   * evaluate all but the first operand completely; the result of the first operand is then
+   * filtered as it comes. The result and the reported error are the same as those of
+   * {@link #eval(QueryEnvironment)}.
+   */
+  @Override
+  public <T> void eval(QueryEnvironment<T> env, final Callback<T> callback)
+      throws QueryException, InterruptedException {
+    final boolean retain;
+    switch (operator) {
+      case UNION:
+      case PLUS:
+        for (QueryExpression operand : operands) {
+          operand.eval(env, callback);
+        }
+        return;
+      case INTERSECT:
+      case CARET:
+        retain = true;
+        break;
+      case EXCEPT:
+      case MINUS:
+        retain = false;
+        break;
+      default:
+        throw new IllegalStateException("operator=" + operator);
+    }
+
+    final List<Set<T>> rhsValues = new ArrayList<>();
+    for (int i = 1; i < operands.size(); i++) {
+      try {
+        rhsValues.add(operands.get(i).eval(env));
+      } catch (QueryException e) {
+        // Report the error of the first operand if it has one, just like eval(env), which
+        // evaluates the operands from left to right.
+        operands.get(0).eval(env);
+        throw e;
+      }
+    }
+    operands.get(0).eval(env, new Callback<T>() {
+      @Override
+      public void process(Iterable<T> partialResult)
+          throws QueryException, InterruptedException {
+        List<T> filtered = new ArrayList<>();
+        for (T node : partialResult) {
+          if (matchesAll(node)) {
+            filtered.add(node);
+          }
+        }
+        callback.process(filtered);
+      }
+
+      private boolean matchesAll(T node) {
+        for (Set<T> rhsValue : rhsValues) {
+          if (rhsValue.contains(node) != retain) {
+            return false;
+          }
+        }
+        return true;
+      }
+    });
+  }
+
   @Override
   public void collectTargetPatterns(Collection<String> literals) {
     for (QueryExpression subExpression : operands) {
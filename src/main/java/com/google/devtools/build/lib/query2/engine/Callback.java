@@ -0,0 +1,29 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+/**
+ * Receives the result of a query evaluation in batches, as they are computed. See
+ * {@link QueryExpression#eval(QueryEnvironment, Callback)}.
+ *
+ * @param <T> the node type of the elements
+ */
+public interface Callback<T> {
+
+  /**
+   * Processes a batch of the result. A node may be passed in more than one batch; callers that
+   * need a set have to remove duplicates themselves.
+   */
+  void process(Iterable<T> partialResult) throws QueryException, InterruptedException;
+}
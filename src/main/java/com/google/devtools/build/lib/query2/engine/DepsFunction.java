@@ -13,16 +13,15 @@
 // limitations under the License.
 package com.google.devtools.build.lib.query2.engine;
 
-import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Argument;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.ArgumentType;
-import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.StreamableQueryFunction;
+import com.google.devtools.build.lib.query2.engine.QueryUtil.AggregateAllCallback;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedHashSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -33,7 +32,7 @@ import java.util.Set;
  * <pre>expr ::= DEPS '(' expr ')'</pre>
  * <pre>       | DEPS '(' expr ',' WORD ')'</pre>
  */
-final class DepsFunction implements QueryFunction {
+final class DepsFunction implements StreamableQueryFunction {
   DepsFunction() {
   }
 
@@ -52,35 +51,47 @@ final class DepsFunction implements QueryFunction {
     return ImmutableList.of(ArgumentType.EXPRESSION, ArgumentType.INTEGER);
   }
 
-  /**
-   * Breadth-first search from the arguments.
-   */
   @Override
   public <T> Set<T> eval(QueryEnvironment<T> env, QueryExpression expression, List<Argument> args)
       throws QueryException, InterruptedException {
+    AggregateAllCallback<T> callback = new AggregateAllCallback<>();
+    eval(env, expression, args, callback);
+    return callback.getResult();
+  }
+
+  /**
+   * Breadth-first search from the arguments. The nodes of each level are passed to the callback as
+   * soon as the level is known.
+   */
+  @Override
+  public <T> void eval(QueryEnvironment<T> env, QueryExpression expression, List<Argument> args,
+      Callback<T> callback) throws QueryException, InterruptedException {
     Set<T> argumentValue = args.get(0).getExpression().eval(env);
     int depthBound = args.size() > 1 ? args.get(1).getInteger() : Integer.MAX_VALUE;
     env.buildTransitiveClosure(expression, argumentValue, depthBound);
 
-    Set<T> visited = new LinkedHashSet<>();
+    Set<T> visited = new HashSet<>();
     Collection<T> current = argumentValue;
 
     // We need to iterate depthBound + 1 times.
     for (int i = 0; i <= depthBound; i++) {
-      List<T> next = new ArrayList<>();
       // Filter already visited nodes: if we see a node in a later round, then we don't need to
       // visit it again, because the depth at which we see it at must be greater than or equal to
       // the last visit.
-      next.addAll(env.getFwdDeps(Iterables.filter(current,
-          Predicates.not(Predicates.in(visited)))));
-      visited.addAll(current);
-      if (next.isEmpty()) {
+      List<T> newNodes = new ArrayList<>();
+      for (T node : current) {
+        if (visited.add(node)) {
+          newNodes.add(node);
+        }
+      }
+      if (newNodes.isEmpty()) {
         // Exit when there are no more nodes to visit.
         break;
       }
-      current = next;
+      callback.process(newNodes);
+      if (i < depthBound) {
+        current = env.getFwdDeps(newNodes);
+      }
     }
-
-    return visited;
   }
 }
@@ -120,6 +120,19 @@ public interface QueryEnvironment<T> {
         throws QueryException, InterruptedException;
   }
 
+  /**
+   * A user-defined query function that can pass its result to a {@link Callback} in batches, see
+   * {@link QueryExpression#eval(QueryEnvironment, Callback)}.
+   */
+  interface StreamableQueryFunction extends QueryFunction {
+    /**
+     * Called when a user-defined function is to be evaluated and the result is to be passed to
+     * the callback. The arguments are the same as for {@link QueryFunction#eval}.
+     */
+    <T> void eval(QueryEnvironment<T> env, QueryExpression expression, List<Argument> args,
+        Callback<T> callback) throws QueryException, InterruptedException;
+  }
+
   /**
    * Exception type for the case where a target cannot be found. It's basically a wrapper for
    * whatever exception is internally thrown.
@@ -157,7 +170,7 @@ public interface QueryEnvironment<T> {
    * "targets".  Callers must ensure that {@link #buildTransitiveClosure}
    * has been called for the relevant subgraph.
    */
-  Set<T> getTransitiveClosure(Set<T> targets);
+  Set<T> getTransitiveClosure(Set<T> targets) throws InterruptedException;
 
   /**
    * Construct the dependency graph for a depth-bounded forward transitive closure
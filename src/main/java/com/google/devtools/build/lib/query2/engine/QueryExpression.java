@@ -70,6 +70,21 @@ public abstract class QueryExpression {
   public abstract <T> Set<T> eval(QueryEnvironment<T> env)
       throws QueryException, InterruptedException;
 
+  /**
+   * Evaluates this query in the specified environment, and passes the result to the callback in
+   * batches as it is computed, so that callers can process the first nodes before the whole
+   * result is known. A node may be passed more than once.
+   *
+   * <p>The default implementation evaluates the whole result with {@link #eval(QueryEnvironment)}
+   * and passes it as a single batch. Expressions that can produce their result piecewise override
+   * this method; those that need the whole value of a subexpression (for example the right hand
+   * side of {@code except}) still evaluate that subexpression completely.
+   */
+  public <T> void eval(QueryEnvironment<T> env, Callback<T> callback)
+      throws QueryException, InterruptedException {
+    callback.process(eval(env));
+  }
+
   /**
    * Collects all target patterns that are referenced anywhere within this query expression and adds
    * them to the given collection, which must be mutable.
@@ -0,0 +1,54 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Utility methods for query evaluation.
+ */
+public final class QueryUtil {
+  private QueryUtil() {}
+
+  /**
+   * A {@link Callback} that collects all batches into a set, in the order in which the nodes are
+   * first passed to it.
+   */
+  public static final class AggregateAllCallback<T> implements Callback<T> {
+    private final Set<T> result = new LinkedHashSet<>();
+
+    @Override
+    public void process(Iterable<T> partialResult) {
+      for (T node : partialResult) {
+        result.add(node);
+      }
+    }
+
+    public Set<T> getResult() {
+      return result;
+    }
+  }
+
+  /**
+   * Evaluates the expression through {@link QueryExpression#eval(QueryEnvironment, Callback)} and
+   * returns its whole result as a set.
+   */
+  public static <T> Set<T> evalAll(QueryEnvironment<T> env, QueryExpression expression)
+      throws QueryException, InterruptedException {
+    AggregateAllCallback<T> callback = new AggregateAllCallback<>();
+    expression.eval(env, callback);
+    return callback.getResult();
+  }
+}
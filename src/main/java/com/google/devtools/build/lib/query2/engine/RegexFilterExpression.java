@@ -15,9 +15,10 @@ package com.google.devtools.build.lib.query2.engine;
 
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Argument;
-import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.StreamableQueryFunction;
+import com.google.devtools.build.lib.query2.engine.QueryUtil.AggregateAllCallback;
 
-import java.util.LinkedHashSet;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -26,14 +27,23 @@ import java.util.regex.Pattern;
  * An abstract class that provides generic regex filter expression. Actual
  * expression are implemented by the subclasses.
  */
-abstract class RegexFilterExpression implements QueryFunction {
+abstract class RegexFilterExpression implements StreamableQueryFunction {
   protected RegexFilterExpression() {
   }
 
   @Override
   public <T> Set<T> eval(QueryEnvironment<T> env, QueryExpression expression, List<Argument> args)
       throws QueryException, InterruptedException {
-    Pattern compiledPattern;
+    AggregateAllCallback<T> callback = new AggregateAllCallback<>();
+    eval(env, expression, args, callback);
+    return callback.getResult();
+  }
+
+  @Override
+  public <T> void eval(final QueryEnvironment<T> env, QueryExpression expression,
+      final List<Argument> args, final Callback<T> callback)
+      throws QueryException, InterruptedException {
+    final Pattern compiledPattern;
     try {
       compiledPattern = Pattern.compile(getPattern(args));
     } catch (IllegalArgumentException e) {
@@ -42,17 +52,22 @@ abstract class RegexFilterExpression implements QueryFunction {
     }
 
     QueryExpression argument = args.get(args.size() - 1).getExpression();
-
-    Set<T> result = new LinkedHashSet<>();
-    for (T target : argument.eval(env)) {
-      for (String str : getFilterStrings(env, args, target)) {
-        if ((str != null) && compiledPattern.matcher(str).find()) {
-          result.add(target);
-          break;
+    argument.eval(env, new Callback<T>() {
+      @Override
+      public void process(Iterable<T> partialResult)
+          throws QueryException, InterruptedException {
+        List<T> result = new ArrayList<>();
+        for (T target : partialResult) {
+          for (String str : getFilterStrings(env, args, target)) {
+            if ((str != null) && compiledPattern.matcher(str).find()) {
+              result.add(target);
+              break;
+            }
+          }
         }
+        callback.process(result);
       }
-    }
-    return result;
+    });
   }
 
   /**
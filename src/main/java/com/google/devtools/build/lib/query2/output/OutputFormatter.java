@@ -106,7 +106,8 @@ public abstract class OutputFormatter implements Serializable {
         new LocationOutputFormatter(),
         new GraphOutputFormatter(),
         new XmlOutputFormatter(),
-        new ProtoOutputFormatter());
+        new ProtoOutputFormatter(),
+        new StreamedProtoOutputFormatter());
   }
 
   public static String formatterNames(Iterable<OutputFormatter> formatters) {
@@ -165,6 +166,35 @@ public abstract class OutputFormatter implements Serializable {
         AspectResolver aspectResolver) throws IOException, InterruptedException;
   }
 
+  /**
+   * Unordered output formatter that can print the query result while it is being computed.
+   *
+   * <p>The callback receives each target only once, but in no particular order, so formatters
+   * that have to sort or group the whole result can only print it in
+   * {@link OutputFormatterCallback#finishOutput}.
+   */
+  public interface StreamedFormatter extends UnorderedFormatter {
+    OutputFormatterCallback<Target> createStreamCallback(QueryOptions options, PrintStream out,
+        AspectResolver aspectResolver);
+  }
+
+  /**
+   * Returns a callback that prints each batch with
+   * {@link UnorderedFormatter#outputUnordered}. This is only correct for formatters whose output
+   * for a set of targets is the concatenation of their outputs for its parts.
+   */
+  static OutputFormatterCallback<Target> createBatchedCallback(
+      final UnorderedFormatter formatter, final QueryOptions options, final PrintStream out,
+      final AspectResolver aspectResolver) {
+    return new OutputFormatterCallback<Target>(out) {
+      @Override
+      protected void processOutput(Iterable<Target> partialResult)
+          throws IOException, InterruptedException {
+        formatter.outputUnordered(options, partialResult, out, aspectResolver);
+      }
+    };
+  }
+
   /**
    * Returns the user-visible name of the output formatter.
    */
@@ -196,7 +226,8 @@ public abstract class OutputFormatter implements Serializable {
    * An output formatter that prints the labels of the resulting target set in
    * topological order, optionally with the target's kind.
    */
-  private static class LabelOutputFormatter extends AbstractUnorderedFormatter {
+  private static class LabelOutputFormatter extends AbstractUnorderedFormatter
+      implements StreamedFormatter {
 
     private final boolean showKind;
 
@@ -220,6 +251,12 @@ public abstract class OutputFormatter implements Serializable {
         out.println(target.getLabel());
       }
     }
+
+    @Override
+    public OutputFormatterCallback<Target> createStreamCallback(QueryOptions options,
+        PrintStream out, AspectResolver aspectResolver) {
+      return createBatchedCallback(this, options, out, aspectResolver);
+    }
   }
 
   /**
@@ -236,7 +273,8 @@ public abstract class OutputFormatter implements Serializable {
    * An output formatter that prints the names of the packages of the target
    * set, in lexicographical order without duplicates.
    */
-  private static class PackageOutputFormatter extends AbstractUnorderedFormatter {
+  private static class PackageOutputFormatter extends AbstractUnorderedFormatter
+      implements StreamedFormatter {
     @Override
     public String getName() {
       return "package";
@@ -249,10 +287,38 @@ public abstract class OutputFormatter implements Serializable {
       for (Target target : result) {
         packageNames.add(target.getLabel().getPackageName());
       }
+      printPackageNames(packageNames, out);
+    }
+
+    private static void printPackageNames(Set<String> packageNames, PrintStream out) {
       for (String packageName : packageNames) {
         out.println(packageName);
       }
     }
+
+    /**
+     * The package names are sorted, so nothing can be printed before the whole result is known;
+     * only the (much smaller) set of package names is kept instead of the targets.
+     */
+    @Override
+    public OutputFormatterCallback<Target> createStreamCallback(QueryOptions options,
+        final PrintStream out, AspectResolver aspectResolver) {
+      return new OutputFormatterCallback<Target>(out) {
+        private final Set<String> packageNames = Sets.newTreeSet();
+
+        @Override
+        protected void processOutput(Iterable<Target> partialResult) {
+          for (Target target : partialResult) {
+            packageNames.add(target.getLabel().getPackageName());
+          }
+        }
+
+        @Override
+        protected void finishOutput() {
+          printPackageNames(packageNames, out);
+        }
+      };
+    }
   }
 
   /**
@@ -261,7 +327,8 @@ public abstract class OutputFormatter implements Serializable {
    * location of the generating rule is given; for input files, the location of
    * line 1 is given.
    */
-  private static class LocationOutputFormatter extends AbstractUnorderedFormatter {
+  private static class LocationOutputFormatter extends AbstractUnorderedFormatter
+      implements StreamedFormatter {
     @Override
     public String getName() {
       return "location";
@@ -275,6 +342,12 @@ public abstract class OutputFormatter implements Serializable {
         out.println(location.print()  + ": " + target.getTargetKind() + " " + target.getLabel());
       }
     }
+
+    @Override
+    public OutputFormatterCallback<Target> createStreamCallback(QueryOptions options,
+        PrintStream out, AspectResolver aspectResolver) {
+      return createBatchedCallback(this, options, out, aspectResolver);
+    }
   }
 
   /**
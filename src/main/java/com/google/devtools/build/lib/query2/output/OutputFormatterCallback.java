@@ -0,0 +1,115 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.output;
+
+import com.google.devtools.build.lib.query2.engine.Callback;
+import com.google.devtools.build.lib.query2.engine.QueryException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * A {@link Callback} that prints the batches of a query result as they arrive, see
+ * {@link OutputFormatter.StreamedFormatter}.
+ *
+ * <p>{@link Callback#process} can't throw an {@link IOException}, so an I/O error is remembered,
+ * no further output is written, and the error is thrown from {@link #close}. Since a
+ * {@link PrintStream} swallows its errors, the stream is checked after each batch.
+ */
+public abstract class OutputFormatterCallback<T> implements Callback<T> {
+
+  private final PrintStream out;
+  private IOException ioException;
+  private boolean empty = true;
+
+  /**
+   * @param out the stream that the output is printed to
+   */
+  protected OutputFormatterCallback(PrintStream out) {
+    this.out = out;
+  }
+
+  @Override
+  public final void process(Iterable<T> partialResult)
+      throws QueryException, InterruptedException {
+    if (ioException != null) {
+      return;
+    }
+    try {
+      for (T unused : partialResult) {
+        empty = false;
+        break;
+      }
+      processOutput(partialResult);
+      checkStream();
+    } catch (IOException e) {
+      ioException = e;
+    }
+  }
+
+  /**
+   * Flushes the stream, and throws if writing to it failed.
+   */
+  private void checkStream() throws IOException {
+    if (out.checkError()) {
+      throw new IOException("Failed to write the query output");
+    }
+  }
+
+  /**
+   * Prints a batch of the result.
+   */
+  protected abstract void processOutput(Iterable<T> partialResult)
+      throws IOException, InterruptedException;
+
+  /**
+   * Called after the last batch, to print output that depends on the whole result.
+   */
+  protected void finishOutput() throws IOException, InterruptedException {}
+
+  /**
+   * Called instead of {@link #finishOutput} if the evaluation of the query or the output failed, to
+   * release the resources held for the output.
+   */
+  protected void abortOutput() {}
+
+  /**
+   * Finishes the output after the last batch.
+   *
+   * @throws IOException if printing any of the batches failed
+   */
+  public void close() throws IOException, InterruptedException {
+    if (ioException != null) {
+      abortOutput();
+      throw ioException;
+    }
+    finishOutput();
+    checkStream();
+  }
+
+  /**
+   * Releases the resources of the callback without finishing the output. Must be called instead
+   * of {@link #close} if the evaluation of the query failed.
+   */
+  public void abort() {
+    abortOutput();
+  }
+
+  /**
+   * Returns true if no node was passed to the callback.
+   */
+  public boolean isEmpty() {
+    return empty;
+  }
+}
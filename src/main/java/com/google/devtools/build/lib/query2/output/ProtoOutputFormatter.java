@@ -20,6 +20,7 @@ import static com.google.devtools.build.lib.query2.proto.proto2api.Build.Target.
 import static com.google.devtools.build.lib.query2.proto.proto2api.Build.Target.Discriminator.SOURCE_FILE;
 
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.devtools.build.lib.graph.Digraph;
@@ -34,7 +35,7 @@ import com.google.devtools.build.lib.packages.Rule;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.query2.FakeSubincludeTarget;
 import com.google.devtools.build.lib.query2.output.AspectResolver.BuildFileDependencyMode;
-import com.google.devtools.build.lib.query2.output.OutputFormatter.UnorderedFormatter;
+import com.google.devtools.build.lib.query2.output.OutputFormatter.StreamedFormatter;
 import com.google.devtools.build.lib.query2.output.QueryOptions.OrderOutput;
 import com.google.devtools.build.lib.query2.proto.proto2api.Build;
 import com.google.devtools.build.lib.syntax.Environment;
@@ -54,20 +55,39 @@ import java.util.Set;
  * By taking the bytes and calling {@code mergeFrom()} on a
  * {@code Build.QueryResult} object the full result can be reconstructed.
  */
-public class ProtoOutputFormatter extends OutputFormatter implements UnorderedFormatter {
+public class ProtoOutputFormatter extends OutputFormatter implements StreamedFormatter {
 
   /**
    * A special attribute name for the rule implementation hash code.
    */
   public static final String RULE_IMPLEMENTATION_HASH_ATTR_NAME = "$rule_implementation_hash";
 
-  private BinaryPredicate<Rule, Attribute> dependencyFilter;
-  private boolean relativeLocations = false;
-  protected boolean includeDefaultValues = true;
-  protected AspectResolver aspectResolver;
+  /**
+   * The options of one query that affect the conversion of targets by
+   * {@link #toTargetProtoBuffer}. The formatters are shared by all queries, so the options are
+   * passed along with each call instead of being stored in the formatter.
+   */
+  protected static class ConversionOptions {
+    private final BinaryPredicate<Rule, Attribute> dependencyFilter;
+    private final boolean relativeLocations;
+    private final boolean includeDefaultValues;
+    private final AspectResolver aspectResolver;
+    // The names of the rule attributes to output, or null for all attributes.
+    private final Set<String> outputRuleAttributes;
+
+    protected ConversionOptions(QueryOptions options, AspectResolver aspectResolver) {
+      this.dependencyFilter = OutputFormatter.getDependencyFilter(options);
+      this.relativeLocations = options.relativeLocations;
+      this.includeDefaultValues = options.protoIncludeDefaultValues;
+      this.aspectResolver = aspectResolver;
+      this.outputRuleAttributes = options.protoOutputRuleAttributes.contains("all")
+          ? null
+          : ImmutableSet.copyOf(options.protoOutputRuleAttributes);
+    }
 
-  protected void setDependencyFilter(QueryOptions options) {
-    this.dependencyFilter = OutputFormatter.getDependencyFilter(options);
+    private boolean shouldOutputAttribute(String attributeName) {
+      return outputRuleAttributes == null || outputRuleAttributes.contains(attributeName);
+    }
   }
 
   @Override
@@ -78,19 +98,27 @@ public class ProtoOutputFormatter extends OutputFormatter implements UnorderedFo
   @Override
   public void outputUnordered(QueryOptions options, Iterable<Target> result, PrintStream out,
       AspectResolver aspectResolver) throws IOException, InterruptedException {
-    relativeLocations = options.relativeLocations;
-    this.aspectResolver = aspectResolver;
-    this.includeDefaultValues = options.protoIncludeDefaultValues;
-    setDependencyFilter(options);
+    ConversionOptions conversionOptions = new ConversionOptions(options, aspectResolver);
 
     Build.QueryResult.Builder queryResult = Build.QueryResult.newBuilder();
     for (Target target : result) {
-      addTarget(queryResult, target);
+      addTarget(queryResult, target, conversionOptions);
     }
 
     queryResult.build().writeTo(out);
   }
 
+  /**
+   * Each batch is written as a separate {@link Build.QueryResult} message. A protocol buffer parser
+   * merges concatenated messages by appending their repeated fields, so the output is read as a
+   * single message with all targets.
+   */
+  @Override
+  public OutputFormatterCallback<Target> createStreamCallback(QueryOptions options,
+      PrintStream out, AspectResolver aspectResolver) {
+    return createBatchedCallback(this, options, out, aspectResolver);
+  }
+
   private static Iterable<Target> getSortedLabels(Digraph<Target> result) {
     return Iterables.transform(
         result.getTopologicalOrder(new TargetOrdering()), EXTRACT_NODE_LABEL);
@@ -111,20 +139,21 @@ public class ProtoOutputFormatter extends OutputFormatter implements UnorderedFo
    * @param queryResult The query result that contains all rule, input and
    *   output targets.
    * @param target The query target being converted to a protocol buffer.
+   * @param options The options of the conversion.
    */
-  private void addTarget(Build.QueryResult.Builder queryResult, Target target)
-      throws InterruptedException {
-    queryResult.addTarget(toTargetProtoBuffer(target));
+  private void addTarget(Build.QueryResult.Builder queryResult, Target target,
+      ConversionOptions options) throws InterruptedException {
+    queryResult.addTarget(toTargetProtoBuffer(target, options));
   }
 
   /**
    * Converts a logical Target object into a Target protobuffer.
    */
-  protected Build.Target toTargetProtoBuffer(Target target)
+  protected Build.Target toTargetProtoBuffer(Target target, ConversionOptions options)
       throws InterruptedException {
     Build.Target.Builder targetPb = Build.Target.newBuilder();
 
-    String location = getLocation(target, relativeLocations);
+    String location = getLocation(target, options.relativeLocations);
     if (target instanceof Rule) {
       Rule rule = (Rule) target;
       Build.Rule.Builder rulePb = Build.Rule.newBuilder()
@@ -133,7 +162,8 @@ public class ProtoOutputFormatter extends OutputFormatter implements UnorderedFo
           .setLocation(location);
 
       for (Attribute attr : rule.getAttributes()) {
-        if (!includeDefaultValues && !rule.isAttributeValueExplicitlySpecified(attr)) {
+        if ((!options.includeDefaultValues && !rule.isAttributeValueExplicitlySpecified(attr))
+            || !options.shouldOutputAttribute(attr.getName())) {
           continue;
         }
         rulePb.addAttribute(PackageSerializer.getAttributeProto(attr,
@@ -142,7 +172,7 @@ public class ProtoOutputFormatter extends OutputFormatter implements UnorderedFo
       }
 
       Environment env = rule.getRuleClassObject().getRuleDefinitionEnvironment();
-      if (env != null) {
+      if (env != null && options.shouldOutputAttribute(RULE_IMPLEMENTATION_HASH_ATTR_NAME)) {
         // The RuleDefinitionEnvironment is always defined for Skylark rules and
         // always null for non Skylark rules.
         rulePb.addAttribute(
@@ -154,9 +184,12 @@ public class ProtoOutputFormatter extends OutputFormatter implements UnorderedFo
       }
 
       ImmutableMultimap<Attribute, Label> aspectsDependencies =
-          aspectResolver.computeAspectDependencies(target);
+          options.aspectResolver.computeAspectDependencies(target);
       // Add information about additional attributes from aspects.
       for (Entry<Attribute, Collection<Label>> entry : aspectsDependencies.asMap().entrySet()) {
+        if (!options.shouldOutputAttribute(entry.getKey().getName())) {
+          continue;
+        }
         rulePb.addAttribute(PackageSerializer.getAttributeProto(entry.getKey(),
             Lists.<Object>newArrayList(entry.getValue()),
             /*explicitlySpecified=*/ false));
@@ -170,7 +203,7 @@ public class ProtoOutputFormatter extends OutputFormatter implements UnorderedFo
       // this goes beyond what is available from the attributes above, since it
       // may also (depending on options) include implicit outputs,
       // host-configuration outputs, and default values.
-      for (Label label : rule.getLabels(dependencyFilter)) {
+      for (Label label : rule.getLabels(options.dependencyFilter)) {
         rulePb.addRuleInput(label.toString());
       }
       for (OutputFile outputFile : rule.getOutputFiles()) {
@@ -206,13 +239,13 @@ public class ProtoOutputFormatter extends OutputFormatter implements UnorderedFo
 
       if (inputFile.getName().equals("BUILD")) {
         Set<Label> subincludeLabels = new LinkedHashSet<>();
-        subincludeLabels.addAll(aspectResolver == null
+        subincludeLabels.addAll(options.aspectResolver == null
             ? inputFile.getPackage().getSubincludeLabels()
-            : aspectResolver.computeBuildFileDependencies(
+            : options.aspectResolver.computeBuildFileDependencies(
                 inputFile.getPackage(), BuildFileDependencyMode.SUBINCLUDE));
-        subincludeLabels.addAll(aspectResolver == null
+        subincludeLabels.addAll(options.aspectResolver == null
             ? inputFile.getPackage().getSkylarkFileDependencies()
-            : aspectResolver.computeBuildFileDependencies(
+            : options.aspectResolver.computeBuildFileDependencies(
                 inputFile.getPackage(), BuildFileDependencyMode.SKYLARK));
 
         for (Label skylarkFileDep : subincludeLabels) {
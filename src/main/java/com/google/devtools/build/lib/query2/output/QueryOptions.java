@@ -46,7 +46,7 @@ public class QueryOptions extends OptionsBase {
       category = "query",
       help = "The format in which the query results should be printed."
           + " Allowed values are: label, label_kind, minrank, maxrank, package, location, graph,"
-          + " xml, proto, record.")
+          + " xml, proto, streamed_proto, record.")
   public String outputFormat;
 
   @Option(
@@ -94,7 +94,10 @@ public class QueryOptions extends OptionsBase {
             + "fully ordered, depending on the output formatter (dependency-ordered for proto, "
             + "minrank, maxrank, and graph, fully ordered for all others). When output is fully "
             + "ordered, nodes that would otherwise be unordered by the output formatter are "
-            + "alphabetized before output."
+            + "alphabetized before output. Only with 'no' are the results of the label, "
+            + "label_kind, location, package, proto and streamed_proto outputs printed while the "
+            + "query is evaluated; otherwise the whole result is kept in memory until it is "
+            + "printed."
   )
   public OrderOutput orderOutput;
 
@@ -160,6 +163,15 @@ public class QueryOptions extends OptionsBase {
           + "This option is applicable to --output=proto")
   public boolean protoIncludeDefaultValues;
 
+  @Option(name = "proto:output_rule_attrs",
+      converter = Converters.CommaSeparatedOptionListConverter.class,
+      defaultValue = "all",
+      category = "query",
+      help = "Comma separated list of the rule attributes to include in the output. Defaults to "
+          + "all attributes; an empty value omits all attributes. This option is applicable to "
+          + "--output=proto and --output=streamed_proto.")
+  public List<String> protoOutputRuleAttributes;
+
   @Option(name = "xml:line_numbers",
       defaultValue = "true",
       category = "query",
@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.query2.output;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.query2.engine.BlazeQueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
+import com.google.devtools.build.lib.query2.output.OutputFormatter.StreamedFormatter;
 import com.google.devtools.build.lib.query2.output.OutputFormatter.UnorderedFormatter;
 import com.google.devtools.build.lib.query2.output.QueryOptions.OrderOutput;
 
@@ -31,6 +32,14 @@ public class QueryOutputUtils {
     return queryOptions.orderOutput != OrderOutput.NO || !(formatter instanceof UnorderedFormatter);
   }
 
+  /**
+   * Returns true if the result can be printed while the query is being evaluated, using
+   * {@link StreamedFormatter#createStreamCallback}.
+   */
+  public static boolean shouldStreamResults(QueryOptions queryOptions, OutputFormatter formatter) {
+    return !orderResults(queryOptions, formatter) && formatter instanceof StreamedFormatter;
+  }
+
   public static void output(QueryOptions queryOptions, QueryEvalResult<Target> result,
       OutputFormatter formatter, PrintStream outputStream, AspectResolver aspectResolver)
       throws IOException, InterruptedException {
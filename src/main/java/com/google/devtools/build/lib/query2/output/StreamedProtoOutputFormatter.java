@@ -0,0 +1,191 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.output;
+
+import com.google.common.base.Throwables;
+import com.google.devtools.build.lib.concurrent.ExecutorUtil;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * An output formatter that writes each target as a length-delimited {@link Build.Target} message,
+ * so that the output can be read one target at a time (for example with
+ * {@code Build.Target.parseDelimitedFrom()}) and written while the query is being evaluated.
+ *
+ * <p>The targets are converted and serialized in parallel, in chunks of {@link #CHUNK_SIZE}
+ * targets. The chunks are written in the order of the result, so the output is deterministic.
+ *
+ * <p>The formatter itself holds no state, since it is shared by all queries. The options and the
+ * thread pool of an output belong to its {@link ChunkWriter}, which lives for one call of
+ * {@link #outputUnordered}, or from {@link #createStreamCallback} until the callback is closed or
+ * aborted.
+ */
+public class StreamedProtoOutputFormatter extends ProtoOutputFormatter {
+
+  // Number of targets that are serialized by one task.
+  private static final int CHUNK_SIZE = 500;
+
+  @Override
+  public String getName() {
+    return "streamed_proto";
+  }
+
+  @Override
+  public void outputUnordered(QueryOptions options, Iterable<Target> result, PrintStream out,
+      AspectResolver aspectResolver) throws IOException, InterruptedException {
+    try (ChunkWriter writer =
+        new ChunkWriter(out, new ConversionOptions(options, aspectResolver))) {
+      writer.addAll(result);
+      writer.finish();
+    }
+  }
+
+  @Override
+  public OutputFormatterCallback<Target> createStreamCallback(QueryOptions options,
+      PrintStream out, AspectResolver aspectResolver) {
+    final ChunkWriter writer = new ChunkWriter(out, new ConversionOptions(options, aspectResolver));
+    return new OutputFormatterCallback<Target>(out) {
+
+      @Override
+      protected void processOutput(Iterable<Target> partialResult)
+          throws IOException, InterruptedException {
+        try {
+          writer.addAll(partialResult);
+          // Don't hold back the end of the batch until the next batch arrives.
+          writer.submitChunk();
+          writer.writeCompletedChunks();
+        } catch (IOException | InterruptedException | RuntimeException e) {
+          writer.close();
+          throw e;
+        }
+      }
+
+      @Override
+      protected void finishOutput() throws IOException, InterruptedException {
+        try {
+          writer.finish();
+        } finally {
+          writer.close();
+        }
+      }
+
+      @Override
+      protected void abortOutput() {
+        writer.close();
+      }
+    };
+  }
+
+  /**
+   * Serializes chunks of targets in a thread pool and writes the results in order. At most a few
+   * chunks per thread are kept in memory.
+   *
+   * <p>The pool is created with the writer and stopped by {@link #close}, which must be called
+   * once the output is finished or abandoned.
+   */
+  private class ChunkWriter implements AutoCloseable {
+    private final int threads = Runtime.getRuntime().availableProcessors();
+    private final ExecutorService executor =
+        ExecutorUtil.newSlackPool(threads, "streamed-proto-output");
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final OutputStream out;
+    private final ConversionOptions options;
+    private List<Target> chunk = new ArrayList<>(CHUNK_SIZE);
+
+    private ChunkWriter(OutputStream out, ConversionOptions options) {
+      this.out = out;
+      this.options = options;
+    }
+
+    void addAll(Iterable<Target> targets) throws IOException, InterruptedException {
+      for (Target target : targets) {
+        chunk.add(target);
+        if (chunk.size() == CHUNK_SIZE) {
+          submitChunk();
+        }
+      }
+    }
+
+    void submitChunk() throws IOException, InterruptedException {
+      if (chunk.isEmpty()) {
+        return;
+      }
+      final List<Target> targets = chunk;
+      chunk = new ArrayList<>(CHUNK_SIZE);
+      pending.add(executor.submit(new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws IOException, InterruptedException {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          for (Target target : targets) {
+            toTargetProtoBuffer(target, options).writeDelimitedTo(bytes);
+          }
+          return bytes.toByteArray();
+        }
+      }));
+      while (pending.size() > 2 * threads) {
+        writeFirstChunk();
+      }
+    }
+
+    /** Writes the chunks at the head of the queue that are already serialized. */
+    void writeCompletedChunks() throws IOException, InterruptedException {
+      while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+        writeFirstChunk();
+      }
+      out.flush();
+    }
+
+    void finish() throws IOException, InterruptedException {
+      submitChunk();
+      while (!pending.isEmpty()) {
+        writeFirstChunk();
+      }
+      out.flush();
+    }
+
+    private void writeFirstChunk() throws IOException, InterruptedException {
+      byte[] bytes;
+      try {
+        bytes = pending.removeFirst().get();
+      } catch (ExecutionException e) {
+        Throwables.propagateIfPossible(e.getCause(), IOException.class, InterruptedException.class);
+        throw new IllegalStateException(e.getCause());
+      }
+      out.write(bytes);
+    }
+
+    /** Cancels the chunks that are not written yet, and stops the pool. */
+    @Override
+    public void close() {
+      for (Future<byte[]> future : pending) {
+        future.cancel(true);
+      }
+      pending.clear();
+      executor.shutdownNow();
+    }
+  }
+}
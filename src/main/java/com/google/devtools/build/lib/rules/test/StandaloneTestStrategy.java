@@ -120,6 +120,9 @@ public class StandaloneTestStrategy extends TestStrategy {
       FileSystemUtils.createDirectoryAndParents(workingDirectory);
       fileOutErr = new FileOutErr(action.getTestLog().getPath(),
           action.resolve(actionExecutionContext.getExecutor().getExecRoot()).getTestStderr());
+      // Allows the spawn strategy to redirect the output of the test directly into the test log.
+      // This also deletes the log of a previous run, so it must happen before the log is streamed.
+      fileOutErr.prepareForRedirection();
 
       resources = action.getTestProperties()
           .getLocalResourceUsage(executionOptions.usingLocalTestJobs());
@@ -28,8 +28,10 @@ import com.google.devtools.build.lib.profiler.ProfileInfo.CriticalPathEntry;
 import com.google.devtools.build.lib.profiler.ProfileInfo.InfoListener;
 import com.google.devtools.build.lib.profiler.ProfilePhase;
 import com.google.devtools.build.lib.profiler.ProfilePhaseStatistics;
+import com.google.devtools.build.lib.profiler.ProfileReader;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.profiler.chart.HtmlCreator;
+import com.google.devtools.build.lib.profiler.chart.TraceEventCreator;
 import com.google.devtools.build.lib.runtime.BlazeCommand;
 import com.google.devtools.build.lib.runtime.BlazeRuntime;
 import com.google.devtools.build.lib.runtime.Command;
@@ -92,6 +94,14 @@ public final class ProfileCommand implements BlazeCommand {
             + "The name of the html file is the name of the profile file plus '.html'.")
     public boolean html;
 
+    @Option(name = "chrome_trace",
+        defaultValue = "false",
+        help = "If present, a JSON file in the trace event format of the Chrome trace viewer is "
+            + "created. The name of the file is the name of the profile file plus '.trace.json'. "
+            + "Unlike --html, this works for profiles of any size. The trace is created in "
+            + "addition to the other output.")
+    public boolean chromeTrace;
+
     @Option(name = "html_pixels_per_second",
         defaultValue = "50",
         help = "Defines the scale of the time axis of the task diagram. The unit is "
@@ -171,6 +181,19 @@ public final class ProfileCommand implements BlazeCommand {
       for (String name : options.getResidue()) {
         Path profileFile = runtime.getWorkingDirectory().getRelative(name);
         try {
+          if (opts.chromeTrace) {
+            // Streamed from the profile file, so this also works for profiles that don't fit
+            // into memory as a whole.
+            Path traceFile = profileFile.getParentDirectory().getChild(
+                profileFile.getBaseName() + ".trace.json");
+            env.getReporter().handle(Event.info("Creating trace events in " + traceFile));
+            TraceEventCreator.createTraceEvents(profileFile, traceFile, getInfoListener(env));
+          }
+          if (opts.dumpMode != null && opts.dumpMode.contains("unsorted")) {
+            // Unsorted dumps don't need the whole profile in memory.
+            dumpProfileUnsorted(env, profileFile, out, opts.dumpMode);
+            continue;
+          }
           ProfileInfo info = ProfileInfo.loadProfileVerbosely(
               profileFile, getInfoListener(env));
           if (opts.dumpMode != null) {
@@ -267,17 +290,11 @@ public final class ProfileCommand implements BlazeCommand {
 
   private void dumpProfile(
       CommandEnvironment env, ProfileInfo info, PrintStream out, String dumpMode) {
-    if (!dumpMode.contains("unsorted")) {
-      ProfileInfo.aggregateProfile(info, getInfoListener(env));
-    }
+    ProfileInfo.aggregateProfile(info, getInfoListener(env));
     if (dumpMode.contains("raw")) {
       for (ProfileInfo.Task task : info.allTasksById) {
         dumpRaw(task, out);
       }
-    } else if (dumpMode.contains("unsorted")) {
-      for (ProfileInfo.Task task : info.allTasksById) {
-        dumpTask(task, out, 0);
-      }
     } else {
       for (ProfileInfo.Task task : info.rootTasksById) {
         dumpTask(task, out, 0);
@@ -285,14 +302,62 @@ public final class ProfileCommand implements BlazeCommand {
     }
   }
 
+  /**
+   * Dumps the records of the profile in file order, streaming them from the file.
+   */
+  private void dumpProfileUnsorted(
+      CommandEnvironment env, Path profileFile, PrintStream out, String dumpMode)
+      throws IOException {
+    InfoListener listener = getInfoListener(env);
+    listener.info("Loading " + profileFile.getPathString());
+    try (ProfileReader reader = ProfileReader.open(profileFile)) {
+      listener.info(reader.getComment());
+      boolean raw = dumpMode.contains("raw");
+      while (reader.nextChunk()) {
+        for (int i = 0; i < reader.getTaskCount(); i++) {
+          ProfileInfo.AggregateAttr[] stats = reader.getStatAttrArray(i);
+          if (raw) {
+            dumpRaw(reader.getThreadId(i), reader.getId(i), reader.getParentId(i),
+                reader.getStartTime(i), reader.getDuration(i), stats, reader.getType(i),
+                reader.getDescription(i), out);
+          } else {
+            out.println(formatTask(reader.getThreadId(i), reader.getId(i),
+                reader.getParentId(i), reader.getStartTime(i), reader.getDuration(i),
+                reader.hasStats(i) ? stats : null, reader.getType(i),
+                reader.getDescription(i)));
+          }
+        }
+      }
+      if (reader.isCorruptedOrIncomplete()) {
+        listener.warn("Profile file is incomplete or corrupted - not all records were parsed");
+      }
+    }
+  }
+
   private void dumpTask(ProfileInfo.Task task, PrintStream out, int indent) {
+    String text = formatTask(task.threadId, task.id, task.parentId, task.startTime,
+        task.duration, task.hasStats() ? task.getStatAttrArray() : null, task.type,
+        task.getDescription());
+    out.println(StringUtil.indent(text, indent));
+    for (ProfileInfo.Task subtask : task.subtasks) {
+      dumpTask(subtask, out, indent + 1);
+    }
+  }
+
+  /**
+   * Formats a task record for the 'text' dump mode.
+   *
+   * @param stats the aggregated stats of the task, or null if it has none
+   */
+  private static String formatTask(long threadId, int id, int parentId, long startTime,
+      long duration, ProfileInfo.AggregateAttr[] stats, ProfilerTask taskType,
+      String description) {
     StringBuilder builder = new StringBuilder(String.format(
         "\n%s %s\nThread: %-6d  Id: %-6d  Parent: %d\nStart time: %-12s   Duration: %s",
-        task.type, task.getDescription(), task.threadId, task.id, task.parentId,
-        TimeUtilities.prettyTime(task.startTime), TimeUtilities.prettyTime(task.duration)));
-    if (task.hasStats()) {
+        taskType, description, threadId, id, parentId,
+        TimeUtilities.prettyTime(startTime), TimeUtilities.prettyTime(duration)));
+    if (stats != null) {
       builder.append("\n");
-      ProfileInfo.AggregateAttr[] stats = task.getStatAttrArray();
       for (ProfilerTask type : ProfilerTask.values()) {
         ProfileInfo.AggregateAttr attr = stats[type.ordinal()];
         if (attr != null) {
@@ -302,15 +367,18 @@ public final class ProfileCommand implements BlazeCommand {
         }
       }
     }
-    out.println(StringUtil.indent(builder.toString(), indent));
-    for (ProfileInfo.Task subtask : task.subtasks) {
-      dumpTask(subtask, out, indent + 1);
-    }
+    return builder.toString();
   }
 
   private void dumpRaw(ProfileInfo.Task task, PrintStream out) {
+    dumpRaw(task.threadId, task.id, task.parentId, task.startTime, task.duration,
+        task.getStatAttrArray(), task.type, task.getDescription(), out);
+  }
+
+  private static void dumpRaw(long threadId, int id, int parentId, long startTime,
+      long duration, ProfileInfo.AggregateAttr[] stats, ProfilerTask taskType,
+      String description, PrintStream out) {
     StringBuilder aggregateString = new StringBuilder();
-    ProfileInfo.AggregateAttr[] stats = task.getStatAttrArray();
     for (ProfilerTask type : ProfilerTask.values()) {
       ProfileInfo.AggregateAttr attr = stats[type.ordinal()];
       if (attr != null) {
@@ -319,10 +387,10 @@ public final class ProfileCommand implements BlazeCommand {
       }
     }
     out.println(
-        task.threadId + "|" + task.id + "|" + task.parentId + "|"
-        + task.startTime + "|" + task.duration + "|"
+        threadId + "|" + id + "|" + parentId + "|"
+        + startTime + "|" + duration + "|"
         + aggregateString.toString().trim() + "|"
-        + task.type + "|" + task.getDescription());
+        + taskType + "|" + description);
   }
 
   /**
@@ -26,7 +26,10 @@ import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Setting;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryException;
 import com.google.devtools.build.lib.query2.engine.QueryExpression;
+import com.google.devtools.build.lib.query2.output.AspectResolver;
 import com.google.devtools.build.lib.query2.output.OutputFormatter;
+import com.google.devtools.build.lib.query2.output.OutputFormatter.StreamedFormatter;
+import com.google.devtools.build.lib.query2.output.OutputFormatterCallback;
 import com.google.devtools.build.lib.query2.output.QueryOptions;
 import com.google.devtools.build.lib.query2.output.QueryOutputUtils;
 import com.google.devtools.build.lib.runtime.BlazeCommand;
@@ -124,6 +127,13 @@ public final class QueryCommand implements BlazeCommand {
       return ExitCode.COMMAND_LINE_ERROR;
     }
 
+    AspectResolver aspectResolver =
+        queryOptions.aspectDeps.createResolver(runtime.getPackageManager(), env.getReporter());
+    if (QueryOutputUtils.shouldStreamResults(queryOptions, formatter)) {
+      return evaluateAndStream(env, queryEnv, expr, (StreamedFormatter) formatter, queryOptions,
+          aspectResolver);
+    }
+
     // 2. Evaluate expression:
     QueryEvalResult<Target> result;
     try {
@@ -141,9 +151,7 @@ public final class QueryCommand implements BlazeCommand {
     // 3. Output results:
     PrintStream output = new PrintStream(env.getReporter().getOutErr().getOutputStream());
     try {
-      QueryOutputUtils.output(queryOptions, result, formatter, output,
-          queryOptions.aspectDeps.createResolver(
-              runtime.getPackageManager(), env.getReporter()));
+      QueryOutputUtils.output(queryOptions, result, formatter, output, aspectResolver);
     } catch (ClosedByInterruptException | InterruptedException e) {
       env.getReporter().handle(Event.error("query interrupted"));
       return ExitCode.INTERRUPTED;
@@ -160,6 +168,45 @@ public final class QueryCommand implements BlazeCommand {
     return result.getSuccess() ? ExitCode.SUCCESS : ExitCode.PARTIAL_ANALYSIS_FAILURE;
   }
 
+  /**
+   * Evaluates the query and prints the result while it is being computed, instead of waiting
+   * for the whole result set. Targets may already have been printed when an error is detected.
+   */
+  private static ExitCode evaluateAndStream(CommandEnvironment env,
+      AbstractBlazeQueryEnvironment<Target> queryEnv, QueryExpression expr,
+      StreamedFormatter formatter, QueryOptions queryOptions, AspectResolver aspectResolver) {
+    env.getReporter().switchToAnsiAllowingHandler();
+    PrintStream output = new PrintStream(env.getReporter().getOutErr().getOutputStream());
+    OutputFormatterCallback<Target> callback =
+        formatter.createStreamCallback(queryOptions, output, aspectResolver);
+    boolean success;
+    boolean closed = false;
+    try {
+      success = queryEnv.evaluateQuery(expr, callback);
+      closed = true;
+      callback.close();
+    } catch (QueryException e) {
+      // Keep consistent with reportBuildFileError()
+      env.getReporter().handle(Event.error(e.getMessage() == null ? e.toString() : e.getMessage()));
+      return ExitCode.ANALYSIS_FAILURE;
+    } catch (ClosedByInterruptException | InterruptedException e) {
+      env.getReporter().handle(Event.error("query interrupted"));
+      return ExitCode.INTERRUPTED;
+    } catch (IOException e) {
+      env.getReporter().handle(Event.error("I/O error: " + e.getMessage()));
+      return ExitCode.LOCAL_ENVIRONMENTAL_ERROR;
+    } finally {
+      if (!closed) {
+        callback.abort();
+      }
+      output.flush();
+    }
+    if (callback.isEmpty()) {
+      env.getReporter().handle(Event.info("Empty results"));
+    }
+    return success ? ExitCode.SUCCESS : ExitCode.PARTIAL_ANALYSIS_FAILURE;
+  }
+
   @VisibleForTesting // for com.google.devtools.deps.gquery.test.QueryResultTestUtil
   public static AbstractBlazeQueryEnvironment<Target> newQueryEnvironment(CommandEnvironment env,
       boolean keepGoing, boolean orderedResults, int loadingPhaseThreads,
@@ -32,8 +32,11 @@ import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.actions.UserExecException;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.analysis.config.RunUnder;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.rules.cpp.CppCompileAction;
 import com.google.devtools.build.lib.rules.test.TestRunnerAction;
+import com.google.devtools.build.lib.sandbox.SandboxPool.SandboxRoot;
 import com.google.devtools.build.lib.standalone.StandaloneSpawnStrategy;
 import com.google.devtools.build.lib.syntax.Label;
 import com.google.devtools.build.lib.unix.FilesystemUtils;
@@ -53,7 +56,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Strategy that uses sandboxing to execute a process.
@@ -68,9 +70,9 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
   private final Path execRoot;
   private final boolean verboseFailures;
   private final boolean sandboxDebug;
+  private final boolean reuseSandboxRoots;
   private final StandaloneSpawnStrategy standaloneStrategy;
-  private final UUID uuid = UUID.randomUUID();
-  private final AtomicInteger execCounter = new AtomicInteger();
+  private final SandboxPool sandboxPool;
 
   /**
    * A map that throws an exception when trying to replace a key (i.e. once a key gets a value,
@@ -110,14 +112,21 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
       BlazeDirectories blazeDirs,
       ExecutorService backgroundWorkers,
       boolean verboseFailures,
-      boolean sandboxDebug) {
+      boolean sandboxDebug,
+      boolean reuseSandboxRoots) {
     this.clientEnv = ImmutableMap.copyOf(clientEnv);
     this.blazeDirs = blazeDirs;
     this.execRoot = blazeDirs.getExecRoot();
     this.backgroundWorkers = backgroundWorkers;
     this.verboseFailures = verboseFailures;
     this.sandboxDebug = sandboxDebug;
+    this.reuseSandboxRoots = reuseSandboxRoots;
     this.standaloneStrategy = new StandaloneSpawnStrategy(blazeDirs.getExecRoot(), verboseFailures);
+    // Each sandbox root gets a unique name, as old ones may still be deleted in the background.
+    this.sandboxPool =
+        new SandboxPool(
+            execRoot.getRelative(Constants.PRODUCT_NAME + "-sandbox"),
+            UUID.randomUUID().toString());
   }
 
   /**
@@ -142,27 +151,26 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
 
     FileOutErr outErr = actionExecutionContext.getFileOutErr();
 
-    // The execId is a unique ID just for this invocation of "exec".
-    String execId = uuid + "-" + execCounter.getAndIncrement();
-
-    // Each invocation of "exec" gets its own sandbox.
-    Path sandboxPath =
-        execRoot.getRelative(Constants.PRODUCT_NAME + "-sandbox").getRelative(execId);
-
+    final SandboxRoot sandboxRoot;
     ImmutableMap<Path, Path> mounts;
+    Profiler.instance().startTask(ProfilerTask.SANDBOX_SETUP, spawn.getResourceOwner());
     try {
       // Gather all necessary mounts for the sandbox.
       mounts = getMounts(spawn, actionExecutionContext);
-      createTestTmpDir(spawn, sandboxPath);
+      sandboxRoot = acquireSandboxRoot(mounts);
+      createTestTmpDir(spawn, sandboxRoot.getPath());
     } catch (IllegalArgumentException | IOException e) {
       throw new UserExecException("Could not prepare mounts for sandbox execution", e);
+    } finally {
+      Profiler.instance().completeTask(ProfilerTask.SANDBOX_SETUP);
     }
 
     int timeout = getTimeout(spawn);
 
     try {
       final NamespaceSandboxRunner runner =
-          new NamespaceSandboxRunner(execRoot, sandboxPath, mounts, verboseFailures, sandboxDebug);
+          new NamespaceSandboxRunner(
+              execRoot, sandboxRoot.getPath(), mounts, verboseFailures, sandboxDebug);
       try {
         runner.run(
             spawn.getArguments(),
@@ -172,35 +180,84 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
             spawn.getOutputFiles(),
             timeout);
       } finally {
-        // Due to the Linux kernel behavior, if we try to remove the sandbox too quickly after the
-        // process has exited, we get "Device busy" errors because some of the mounts have not yet
-        // been undone. A second later it usually works. We will just clean the old sandboxes up
-        // using a background worker.
-        backgroundWorkers.execute(
-            new Runnable() {
-              @Override
-              public void run() {
-                try {
-                  while (!Thread.currentThread().isInterrupted()) {
-                    try {
-                      runner.cleanup();
-                      return;
-                    } catch (IOException e2) {
-                      // Sleep & retry.
-                      Thread.sleep(250);
-                    }
-                  }
-                } catch (InterruptedException e) {
-                  // Exit.
-                }
-              }
-            });
+        if (reuseSandboxRoots) {
+          // Whatever the spawn left behind is deleted when the sandbox root is acquired again.
+          sandboxPool.release(sandboxRoot);
+        } else {
+          deleteInBackground(sandboxRoot.getPath());
+        }
       }
     } catch (IOException e) {
       throw new UserExecException("I/O error during sandboxed execution", e);
     }
   }
 
+  /**
+   * Returns a sandbox root for a spawn with the given mounts. If sandbox roots are reused, an idle
+   * root with similar mounts is brought up-to-date incrementally; otherwise (or if that fails) a
+   * new sandbox root is used.
+   */
+  private SandboxRoot acquireSandboxRoot(ImmutableMap<Path, Path> mounts) throws IOException {
+    if (!reuseSandboxRoots) {
+      return sandboxPool.newRoot();
+    }
+    SandboxRoot root = sandboxPool.takeIdleRoot(mounts);
+    if (root != null) {
+      try {
+        root.prepare(mounts);
+        return root;
+      } catch (IOException e) {
+        // Probably some of the stale mount points are still busy; start over with a fresh root.
+        deleteInBackground(root.getPath());
+      }
+    }
+    root = sandboxPool.newRoot();
+    root.prepare(mounts);
+    return root;
+  }
+
+  /**
+   * Deletes the given sandbox root using a background worker.
+   *
+   * <p>Due to the Linux kernel behavior, if we try to remove the sandbox too quickly after the
+   * process has exited, we get "Device busy" errors because some of the mounts have not yet been
+   * undone. A second later it usually works. We will just clean the old sandboxes up using a
+   * background worker.
+   */
+  private void deleteInBackground(final Path sandboxPath) {
+    backgroundWorkers.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              while (!Thread.currentThread().isInterrupted()) {
+                long startTime = Profiler.nanoTimeMaybe();
+                try {
+                  NamespaceSandboxRunner.cleanup(sandboxPath);
+                  Profiler.instance().logSimpleTask(
+                      startTime, ProfilerTask.SANDBOX_CLEANUP, sandboxPath);
+                  return;
+                } catch (IOException e2) {
+                  // Sleep & retry.
+                  Thread.sleep(250);
+                }
+              }
+            } catch (InterruptedException e) {
+              // Exit.
+            }
+          }
+        });
+  }
+
+  /**
+   * Deletes all idle sandbox roots. Called at the end of the execution phase.
+   */
+  void shutdown() {
+    for (Path sandboxPath : sandboxPool.drain()) {
+      deleteInBackground(sandboxPath);
+    }
+  }
+
   private int getTimeout(Spawn spawn) throws UserExecException {
     String timeoutStr = spawn.getExecutionInfo().get("timeout");
     if (timeoutStr != null) {
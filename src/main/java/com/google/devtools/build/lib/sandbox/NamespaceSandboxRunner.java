@@ -196,7 +196,10 @@ public class NamespaceSandboxRunner {
     }
   }
 
-  public void cleanup() throws IOException {
+  /**
+   * Deletes the given sandbox directory and everything below it.
+   */
+  static void cleanup(Path sandboxPath) throws IOException {
     if (sandboxPath.exists()) {
       FilesystemUtils.rmTree(sandboxPath.getPathString());
     }
@@ -31,21 +31,26 @@ public class SandboxActionContextProvider extends ActionContextProvider {
 
   @SuppressWarnings("unchecked")
   private final ImmutableList<ActionContext> strategies;
+  private final LinuxSandboxedStrategy linuxSandboxedStrategy;
 
   public SandboxActionContextProvider(
       CommandEnvironment env, BuildRequest buildRequest, ExecutorService backgroundWorkers) {
     boolean verboseFailures = buildRequest.getOptions(ExecutionOptions.class).verboseFailures;
-    boolean sandboxDebug = buildRequest.getOptions(SandboxOptions.class).sandboxDebug;
+    SandboxOptions sandboxOptions = buildRequest.getOptions(SandboxOptions.class);
     Builder<ActionContext> strategies = ImmutableList.builder();
 
     if (OS.getCurrent() == OS.LINUX) {
-      strategies.add(
+      linuxSandboxedStrategy =
           new LinuxSandboxedStrategy(
               env.getClientEnv(),
               env.getDirectories(),
               backgroundWorkers,
               verboseFailures,
-              sandboxDebug));
+              sandboxOptions.sandboxDebug,
+              sandboxOptions.sandboxReuseRoots);
+      strategies.add(linuxSandboxedStrategy);
+    } else {
+      linuxSandboxedStrategy = null;
     }
 
     this.strategies = strategies.build();
@@ -56,4 +61,11 @@ public class SandboxActionContextProvider extends ActionContextProvider {
     return strategies;
   }
 
+  @Override
+  public void executionPhaseEnding() {
+    if (linuxSandboxedStrategy != null) {
+      linuxSandboxedStrategy.shutdown();
+    }
+  }
+
 }
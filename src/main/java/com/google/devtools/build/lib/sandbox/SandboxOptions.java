@@ -38,4 +38,14 @@ public class SandboxOptions extends OptionsBase {
             + "Bazel or Skylark rules with debugging failures due to missing input files, etc."
   )
   public boolean sandboxDebug;
+
+  @Option(
+    name = "experimental_sandbox_reuse_roots",
+    defaultValue = "false",
+    category = "strategy",
+    help =
+        "Reuse sandbox directories across actions. Mount points that are still needed by the next "
+            + "action are kept, so that only the difference in inputs has to be set up."
+  )
+  public boolean sandboxReuseRoots;
 }
@@ -0,0 +1,211 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of sandbox roots that can be reused across spawns.
+ *
+ * <p>The namespace sandbox creates an empty file or directory inside the sandbox root for every
+ * mount target before bind-mounting the source onto it. For actions with many inputs, creating
+ * and later deleting these mount points dominates the cost of sandboxed execution. A released
+ * sandbox root remembers the mounts it was last used with, so that the next spawn with a similar
+ * set of mounts only has to delete the mount points it no longer needs (plus anything the previous
+ * spawn left behind); the remaining mount points are reused as they are.
+ */
+final class SandboxPool {
+  /** How many idle sandbox roots are compared against the requested mounts on acquisition. */
+  private static final int MAX_CANDIDATES = 8;
+
+  /**
+   * The directories the namespace sandbox creates itself with mkdir(), which fails if they exist.
+   * They are deleted on every reuse, together with any mount points below them.
+   */
+  private static final ImmutableSet<PathFragment> SANDBOX_DIRECTORIES =
+      ImmutableSet.of(new PathFragment("dev"), new PathFragment("proc"), new PathFragment("tmp"));
+
+  /** A sandbox root directory together with the mounts it was last set up for. */
+  static final class SandboxRoot {
+    private final Path path;
+    private ImmutableMap<Path, Path> mounts = ImmutableMap.of();
+
+    private SandboxRoot(Path path) {
+      this.path = path;
+    }
+
+    Path getPath() {
+      return path;
+    }
+
+    /**
+     * Brings this sandbox root into the state expected for a spawn with the given mounts, deleting
+     * stale mount points and any files left behind by the previous spawn.
+     *
+     * <p>If this throws, the sandbox root is in an unknown state and must not be used anymore.
+     */
+    void prepare(ImmutableMap<Path, Path> newMounts) throws IOException {
+      deleteStaleEntries(path, mounts, newMounts);
+      mounts = newMounts;
+    }
+  }
+
+  private final Path sandboxBase;
+  private final String idPrefix;
+  private final AtomicInteger idCounter = new AtomicInteger();
+
+  // Guarded by "this". Most recently released roots are at the front.
+  private final Deque<SandboxRoot> idleRoots = new ArrayDeque<>();
+
+  SandboxPool(Path sandboxBase, String idPrefix) {
+    this.sandboxBase = sandboxBase;
+    this.idPrefix = idPrefix;
+  }
+
+  /**
+   * Returns a new sandbox root that has not been used before. The directory is not created.
+   */
+  SandboxRoot newRoot() {
+    return new SandboxRoot(sandboxBase.getRelative(idPrefix + "-" + idCounter.getAndIncrement()));
+  }
+
+  /**
+   * Removes the idle sandbox root that shares the most mounts with {@code mounts} from the pool and
+   * returns it, or returns null if there is no idle root. Only the most recently released roots are
+   * considered, to bound the cost of the comparison.
+   */
+  synchronized SandboxRoot takeIdleRoot(Map<Path, Path> mounts) {
+    SandboxRoot best = null;
+    int bestScore = -1;
+    int candidates = 0;
+    for (SandboxRoot root : idleRoots) {
+      if (candidates++ >= MAX_CANDIDATES) {
+        break;
+      }
+      int score = countCommonMounts(root.mounts, mounts);
+      if (score > bestScore) {
+        best = root;
+        bestScore = score;
+      }
+    }
+    if (best != null) {
+      idleRoots.remove(best);
+    }
+    return best;
+  }
+
+  /**
+   * Makes the given sandbox root available for reuse by a subsequent spawn.
+   */
+  synchronized void release(SandboxRoot root) {
+    idleRoots.addFirst(root);
+  }
+
+  /**
+   * Removes all idle sandbox roots from the pool and returns their paths, so that the caller can
+   * delete them.
+   */
+  synchronized ImmutableList<Path> drain() {
+    ImmutableList.Builder<Path> paths = ImmutableList.builder();
+    for (SandboxRoot root : idleRoots) {
+      paths.add(root.getPath());
+    }
+    idleRoots.clear();
+    return paths.build();
+  }
+
+  private static int countCommonMounts(Map<Path, Path> a, Map<Path, Path> b) {
+    if (a.size() > b.size()) {
+      return countCommonMounts(b, a);
+    }
+    int count = 0;
+    for (Entry<Path, Path> entry : a.entrySet()) {
+      if (entry.getValue().equals(b.get(entry.getKey()))) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Deletes everything below {@code sandboxPath} except the mount points that were already created
+   * for {@code oldMounts} and are still needed, with the same source, for {@code newMounts}. Mount
+   * points below the directories the sandbox creates itself are never kept.
+   */
+  @VisibleForTesting
+  static void deleteStaleEntries(
+      Path sandboxPath, ImmutableMap<Path, Path> oldMounts, ImmutableMap<Path, Path> newMounts)
+      throws IOException {
+    Set<PathFragment> keep = new HashSet<>();
+    Set<PathFragment> keepParents = new HashSet<>();
+    for (Entry<Path, Path> mount : newMounts.entrySet()) {
+      if (!mount.getValue().equals(oldMounts.get(mount.getKey()))) {
+        continue;
+      }
+      PathFragment target = mount.getKey().asFragment().relativeTo("/");
+      if (target.segmentCount() > 0
+          && SANDBOX_DIRECTORIES.contains(target.subFragment(0, 1))) {
+        continue;
+      }
+      keep.add(target);
+      PathFragment parent = target.getParentDirectory();
+      while (parent != null && keepParents.add(parent)) {
+        parent = parent.getParentDirectory();
+      }
+    }
+    if (!sandboxPath.exists()) {
+      return;
+    }
+    deleteUnneeded(sandboxPath, PathFragment.EMPTY_FRAGMENT, keep, keepParents);
+  }
+
+  private static void deleteUnneeded(
+      Path dir, PathFragment relativeDir, Set<PathFragment> keep, Set<PathFragment> keepParents)
+      throws IOException {
+    for (Dirent dirent : dir.readdir(Symlinks.NOFOLLOW)) {
+      PathFragment relative = relativeDir.getRelative(dirent.getName());
+      Path child = dir.getChild(dirent.getName());
+      if (keep.contains(relative)) {
+        // A reused mount point. Directories are empty outside the sandbox's mount namespace.
+        continue;
+      }
+      if (dirent.getType() == Dirent.Type.DIRECTORY) {
+        if (keepParents.contains(relative)) {
+          deleteUnneeded(child, relative, keep, keepParents);
+        } else {
+          FileSystemUtils.deleteTree(child);
+        }
+      } else {
+        child.delete();
+      }
+    }
+  }
+}
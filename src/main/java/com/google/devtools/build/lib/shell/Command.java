@@ -19,6 +19,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -410,6 +411,45 @@ public final class Command {
                      killSubprocessOnInterrupt, false).get();
   }
 
+  /**
+   * Like {@link #execute(byte[], KillableObserver, OutputStream, OutputStream,
+   * boolean)}, but the operating system redirects the stdout/stderr output of
+   * the process to the given files, so that no threads are needed to copy
+   * it. The output is appended to the files, which are created if needed;
+   * stdOut and stdErr may be the same file.
+   *
+   * @param stdOut the process will append its standard output to this file.
+   * @param stdErr the process will append its standard error to this file.
+   * @return {@link CommandResult} representing result of the execution. Note
+   *  that {@link CommandResult#getStdout()} and
+   *  {@link CommandResult#getStderr()} will yield {@link IllegalStateException}
+   *  in this case, as the output is written to <code>stdOut/stdErr</code>
+   *  instead.
+   * @throws ExecFailedException if {@link Runtime#exec(String[])} fails for any
+   *  reason, including if one of the files cannot be opened
+   * @throws AbnormalTerminationException if the process is interrupted (or
+   *  killed) before completion, or the process was terminated due to a signal.
+   * @throws BadExitStatusException if the process exits with a
+   *  non-zero status
+   * @throws NullPointerException if any argument is null.
+   */
+  public CommandResult execute(final byte[] stdinInput,
+                               final KillableObserver observer,
+                               final File stdOut,
+                               final File stdErr,
+                               final boolean killSubprocessOnInterrupt)
+    throws CommandException {
+    nullCheck(stdinInput, "stdinInput");
+    nullCheck(observer, "observer");
+    nullCheck(stdOut, "stdOut");
+    nullCheck(stdErr, "stdErr");
+    return doExecute(new ByteArrayInputSource(stdinInput),
+                     observer,
+                     Consumers.createRedirectedConsumers(),
+                     killSubprocessOnInterrupt, false,
+                     Redirect.appendTo(stdOut), Redirect.appendTo(stdErr)).get();
+  }
+
   /**
    * <p>Execute this command with given input to stdin; this stream is closed
    * when the process terminates, and exceptions raised when closing this
@@ -640,10 +680,23 @@ public final class Command {
       final boolean killSubprocessOnInterrupt,
       final boolean closeOutputStreams)
     throws CommandException {
+    return doExecute(stdinInput, observer, outErrConsumers,
+        killSubprocessOnInterrupt, closeOutputStreams,
+        Redirect.PIPE, Redirect.PIPE);
+  }
+
+  private FutureCommandResult doExecute(final InputSource stdinInput,
+      final KillableObserver observer,
+      final Consumers.OutErrConsumers outErrConsumers,
+      final boolean killSubprocessOnInterrupt,
+      final boolean closeOutputStreams,
+      final Redirect stdOutRedirect,
+      final Redirect stdErrRedirect)
+    throws CommandException {
 
     logCommand();
 
-    final Process process = startProcess();
+    final Process process = startProcess(stdOutRedirect, stdErrRedirect);
 
     outErrConsumers.logConsumptionStrategy();
 
@@ -681,10 +734,20 @@ public final class Command {
     };
   }
 
-  private Process startProcess()
+  private Process startProcess(Redirect stdOutRedirect, Redirect stdErrRedirect)
     throws ExecFailedException {
+    ProcessBuilder builder = processBuilder;
+    if (stdOutRedirect != Redirect.PIPE || stdErrRedirect != Redirect.PIPE) {
+      // This object is shared between threads, so redirect a copy.
+      builder = new ProcessBuilder(processBuilder.command())
+          .directory(processBuilder.directory())
+          .redirectOutput(stdOutRedirect)
+          .redirectError(stdErrRedirect);
+      builder.environment().clear();
+      builder.environment().putAll(processBuilder.environment());
+    }
     try {
-      return processBuilder.start();
+      return builder.start();
     } catch (IOException ioe) {
       throw new ExecFailedException(this, ioe);
     }
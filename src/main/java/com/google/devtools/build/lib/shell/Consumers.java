@@ -33,6 +33,8 @@ import java.util.logging.Logger;
  * discarding ({@link #createDiscardingConsumers()},
  * accumulating ({@link #createAccumulatingConsumers()},
  * and streaming ({@link #createStreamingConsumers(OutputStream, OutputStream)}).
+ * If the output of the process is redirected to files, there is nothing to
+ * consume ({@link #createRedirectedConsumers()}).
  */
 class Consumers {
 
@@ -60,6 +62,15 @@ class Consumers {
                                new StreamingConsumer(err));
   }
 
+  /**
+   * Returns consumers for a process whose output is redirected to files by
+   * the operating system. These don't need any threads.
+   */
+  static OutErrConsumers createRedirectedConsumers() {
+    return new OutErrConsumers(new RedirectedConsumer(),
+                               new RedirectedConsumer());
+  }
+
   static class OutErrConsumers {
 
     private final OutputConsumer out;
@@ -200,6 +211,34 @@ class Consumers {
     }
   }
 
+  /**
+   * This consumer does nothing, as the process writes its output to a file
+   * directly. The stream it is given is always empty.
+   */
+  private static class RedirectedConsumer implements OutputConsumer {
+    @Override
+    public ByteArrayOutputStream getAccumulatedOut() {
+      return CommandResult.NO_OUTPUT_COLLECTED;
+    }
+
+    @Override
+    public void logConsumptionStrategy() {
+      log.finer("Output will be redirected to files");
+    }
+
+    @Override
+    public void registerInput(InputStream in, boolean closeConsumer) {
+    }
+
+    @Override
+    public void cancel() {
+    }
+
+    @Override
+    public void waitForCompletion() {
+    }
+  }
+
   /**
    * A mixin that makes consumers active - this is where we kick of
    * multithreading ({@link #registerInput(InputStream, boolean)}), cancel actions
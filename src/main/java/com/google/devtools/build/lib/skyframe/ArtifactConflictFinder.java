@@ -0,0 +1,516 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.actions.Actions;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ArtifactPrefixConflictException;
+import com.google.devtools.build.lib.actions.MutableActionGraph.ActionConflictException;
+import com.google.devtools.build.lib.concurrent.ExecutorUtil;
+import com.google.devtools.build.lib.concurrent.Sharder;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadCompatible;
+import com.google.devtools.build.lib.concurrent.ThrowableRecordingRunnableWrapper;
+import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ConflictException;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.skyframe.SkyKey;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+
+import javax.annotation.Nullable;
+
+/**
+ * Finds conflicts between the output artifacts of the actions of a set of
+ * {@link ActionLookupValue}s, see {@link SkyframeActionExecutor#findAndStoreArtifactConflicts}.
+ *
+ * <p>The finder keeps an index of all output artifacts across calls: the generating actions of
+ * every artifact, and a trie of the exec paths of the artifacts for the prefix queries. Each call
+ * to {@link #update} is given the keys of the values that were added, changed or removed since the
+ * last call, and only looks at those, so an incremental build that reanalyzes a few targets
+ * doesn't have to look at the other targets at all.
+ *
+ * <p>If the index is empty, or the delta is large compared to it, the index is rebuilt from all
+ * values instead. A large rebuild registers the actions on several threads.
+ *
+ * <p>An action that failed to register because of an {@link ActionConflictException} is
+ * remembered together with the action it conflicts with, and is registered again when the latter
+ * is removed. For prefix conflicts, the index keeps the topmost prefix of every artifact that has
+ * one: if x << y << z (where x << y means "y starts with x"), then only (x,y) and (x,z) are
+ * conflicts, but not (y,z). So the result is the same as if all actions had been checked from
+ * scratch.
+ *
+ * <p>The index holds on to the values it was last updated with, so it has to be cleared whenever
+ * they are deleted from or cleared in the Skyframe graph.
+ */
+@ThreadCompatible
+final class ArtifactConflictFinder {
+
+  /**
+   * Minimum number of values for which a rebuild of the index registers the actions in parallel.
+   */
+  @VisibleForTesting
+  static final int MIN_VALUES_FOR_PARALLEL_REBUILD = 1000;
+
+  /**
+   * A node in the trie of exec paths, one per path segment. The children may be added
+   * concurrently, see {@link #getOrAddChild}; everything else is only modified by one thread.
+   */
+  private static final class PathNode {
+    private volatile ConcurrentMap<String, PathNode> children = null;
+    // The output artifacts with exactly this exec path; null if there are none.
+    private List<Artifact> artifacts = null;
+
+    boolean isEmpty() {
+      return artifacts == null && children == null;
+    }
+
+    PathNode getOrAddChild(String segment) {
+      ConcurrentMap<String, PathNode> map = children;
+      if (map == null) {
+        synchronized (this) {
+          if (children == null) {
+            children = new ConcurrentHashMap<>(2);
+          }
+          map = children;
+        }
+      }
+      PathNode child = map.get(segment);
+      if (child == null) {
+        PathNode newChild = new PathNode();
+        child = map.putIfAbsent(segment, newChild);
+        if (child == null) {
+          child = newChild;
+        }
+      }
+      return child;
+    }
+  }
+
+  // The values whose actions are in the index, by key.
+  private final Map<SkyKey, ActionLookupValue> indexedValues = new HashMap<>();
+  // The actions registered for each output artifact. The first one is the generating action of
+  // the artifact, the others are shared with it. The lists are never empty.
+  private final ConcurrentMap<Artifact, List<Action>> generatingActions =
+      new ConcurrentHashMap<>();
+  // Actions whose outputs are in the index; the others failed with an ActionConflictException.
+  private final Set<Action> registeredActions = Sets.newConcurrentHashSet();
+  private final PathNode root = new PathNode();
+
+  // The actions that failed with an ActionConflictException.
+  private final Map<Action, ConflictException> actionConflicts = new ConcurrentHashMap<>();
+  // Symmetric relation between the actions of the ActionConflictExceptions.
+  private final SetMultimap<Action, Action> conflictingActions = HashMultimap.create();
+  // Maps every artifact in the trie that has a prefix to the artifact of its topmost prefix.
+  private final Map<Artifact, Artifact> prefixConflicts = new HashMap<>();
+
+  /**
+   * Updates the index to contain exactly the actions of the given values.
+   *
+   * <p>If the update is interrupted, the index is cleared, so that the next update starts from
+   * scratch.
+   *
+   * @param changedKeys the keys of the values that were added, changed or removed since the last
+   *     update; keys of other values may be included, and are ignored if their value didn't change
+   * @param values all values by key. Unless the index is rebuilt, only the values of the changed
+   *     keys are looked up, so this is usually a live view of the graph.
+   */
+  void update(Collection<SkyKey> changedKeys, Map<SkyKey, ActionLookupValue> values)
+      throws InterruptedException {
+    try {
+      if (indexedValues.isEmpty() || changedKeys.size() > indexedValues.size() / 2) {
+        rebuild(values);
+      } else {
+        updateInternal(changedKeys, values);
+      }
+    } catch (InterruptedException e) {
+      clear();
+      throw e;
+    }
+  }
+
+  private void rebuild(Map<SkyKey, ActionLookupValue> values) throws InterruptedException {
+    clear();
+    indexedValues.putAll(values);
+    if (indexedValues.size() >= MIN_VALUES_FOR_PARALLEL_REBUILD) {
+      registerInParallel(indexedValues.values());
+      return;
+    }
+    Set<Action> actions = new LinkedHashSet<>();
+    for (ActionLookupValue value : indexedValues.values()) {
+      actions.addAll(value.getMapForConsistencyCheck().values());
+    }
+    registerInOrder(actions);
+  }
+
+  private void updateInternal(Collection<SkyKey> changedKeys,
+      Map<SkyKey, ActionLookupValue> values) throws InterruptedException {
+    Set<Action> removedActions = new HashSet<>();
+    // The map of a value lists each action once per output; the set removes the duplicates.
+    Set<Action> addedActions = new LinkedHashSet<>();
+    for (SkyKey key : changedKeys) {
+      ActionLookupValue oldValue = indexedValues.get(key);
+      ActionLookupValue newValue = values.get(key);
+      if (oldValue == newValue) {
+        continue;
+      }
+      if (oldValue != null) {
+        removedActions.addAll(oldValue.getMapForConsistencyCheck().values());
+        indexedValues.remove(key);
+      }
+      if (newValue != null) {
+        indexedValues.put(key, newValue);
+        addedActions.addAll(newValue.getMapForConsistencyCheck().values());
+      }
+    }
+
+    // Take out the removed actions, and with them all actions that are connected to them through
+    // action conflicts; the latter have to be checked again.
+    Deque<Action> worklist = new ArrayDeque<>(removedActions);
+    Set<Action> visited = new HashSet<>();
+    List<Action> actionsToCheck = new ArrayList<>();
+    while (!worklist.isEmpty()) {
+      Action action = worklist.poll();
+      if (!visited.add(action)) {
+        continue;
+      }
+      for (Action other : conflictingActions.removeAll(action)) {
+        conflictingActions.remove(other, action);
+        worklist.add(other);
+      }
+      actionConflicts.remove(action);
+      unregister(action);
+      if (!removedActions.contains(action) && !addedActions.contains(action)) {
+        actionsToCheck.add(action);
+      }
+    }
+    actionsToCheck.addAll(addedActions);
+    registerInOrder(actionsToCheck);
+  }
+
+  private void registerInOrder(Collection<Action> actions) throws InterruptedException {
+    int count = 0;
+    for (Action action : actions) {
+      if (++count % 1000 == 0 && Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      for (Artifact artifact : register(action)) {
+        addToTrie(artifact);
+      }
+    }
+  }
+
+  /**
+   * Registers the actions of the given values on several threads, into an empty index. Each
+   * action locks its output artifacts while it is registered, so the result is the same as if the
+   * actions had been registered one after the other, in some order. The prefix conflicts are
+   * computed afterwards, in a single pass over the trie.
+   */
+  private void registerInParallel(Collection<ActionLookupValue> values)
+      throws InterruptedException {
+    int numJobs = Runtime.getRuntime().availableProcessors();
+    Sharder<ActionLookupValue> shards = new Sharder<>(numJobs, values.size());
+    for (ActionLookupValue value : values) {
+      shards.add(value);
+    }
+    final Striped<Lock> locks = Striped.lock(numJobs * 64);
+    // An action may be in more than one value.
+    final Set<Action> seenActions = Sets.newConcurrentHashSet();
+
+    ThrowableRecordingRunnableWrapper wrapper =
+        new ThrowableRecordingRunnableWrapper("ArtifactConflictFinder#registerInParallel");
+    ExecutorService executor = Executors.newFixedThreadPool(numJobs,
+        new ThreadFactoryBuilder().setNameFormat("ArtifactConflictFinder %d").build());
+    for (final List<ActionLookupValue> shard : shards) {
+      executor.execute(wrapper.wrap(new Runnable() {
+        @Override
+        public void run() {
+          for (ActionLookupValue value : shard) {
+            for (Action action : ImmutableSet.copyOf(value.getMapForConsistencyCheck().values())) {
+              if (Thread.currentThread().isInterrupted()) {
+                return;
+              }
+              if (seenActions.add(action)) {
+                registerLocked(action, locks);
+              }
+            }
+          }
+        }
+      }));
+    }
+    boolean interrupted = ExecutorUtil.interruptibleShutdown(executor);
+    Throwables.propagateIfPossible(wrapper.getFirstThrownError());
+    if (interrupted) {
+      throw new InterruptedException();
+    }
+    setTopPrefixBelow(root, null);
+  }
+
+  private void registerLocked(Action action, Striped<Lock> locks) {
+    List<Lock> outputLocks = ImmutableList.copyOf(locks.bulkGet(action.getOutputs()));
+    List<Artifact> newArtifacts;
+    for (Lock lock : outputLocks) {
+      lock.lock();
+    }
+    try {
+      newArtifacts = register(action);
+    } finally {
+      for (Lock lock : outputLocks) {
+        lock.unlock();
+      }
+    }
+    for (Artifact artifact : newArtifacts) {
+      insertIntoTrie(artifact);
+    }
+  }
+
+  /**
+   * Returns the actions that have conflicts, together with one of their conflicts.
+   */
+  ImmutableMap<Action, ConflictException> getBadActions() {
+    Map<Action, ConflictException> badActions = new HashMap<>(actionConflicts);
+    for (Map.Entry<Artifact, Artifact> entry : prefixConflicts.entrySet()) {
+      Artifact prefixArtifact = entry.getValue();
+      Artifact artifact = entry.getKey();
+      Action prefixAction = generatingActions.get(prefixArtifact).get(0);
+      Action action = generatingActions.get(artifact).get(0);
+      if (prefixAction.shouldReportPathPrefixConflict(action)) {
+        ConflictException exception = new ConflictException(new ArtifactPrefixConflictException(
+            prefixArtifact.getExecPath(), artifact.getExecPath(),
+            prefixAction.getOwner().getLabel(), action.getOwner().getLabel()));
+        badActions.put(prefixAction, exception);
+        badActions.put(action, exception);
+      }
+    }
+    return ImmutableMap.copyOf(badActions);
+  }
+
+  /**
+   * Drops the index, so that the next update starts from scratch.
+   */
+  void clear() {
+    indexedValues.clear();
+    generatingActions.clear();
+    registeredActions.clear();
+    root.children = null;
+    root.artifacts = null;
+    actionConflicts.clear();
+    conflictingActions.clear();
+    prefixConflicts.clear();
+  }
+
+  /**
+   * Registers the action as a generating action of its outputs, unless it conflicts with the
+   * generating action of one of them. Returns the outputs that had no generating action before,
+   * which have to be added to the trie.
+   *
+   * <p>May be called concurrently for different actions if each caller holds locks that cover the
+   * outputs of its action.
+   */
+  private List<Artifact> register(Action action) {
+    List<Artifact> outputs = new ArrayList<>(action.getOutputs());
+    for (int i = 0; i < outputs.size(); i++) {
+      Artifact artifact = outputs.get(i);
+      List<Action> actions = generatingActions.get(artifact);
+      if (actions == null) {
+        actions = new ArrayList<>(1);
+        generatingActions.put(artifact, actions);
+      } else {
+        Action generatingAction = actions.get(0);
+        if (generatingAction != action && !Actions.canBeShared(action, generatingAction)) {
+          for (int j = 0; j < i; j++) {
+            removeGeneratingAction(outputs.get(j), action);
+          }
+          // Only the action that is registered second is in error, the same as for an action
+          // graph; its outputs aren't checked for prefix conflicts.
+          addActionConflict(action, generatingAction, new ConflictException(
+              new ActionConflictException(artifact, generatingAction, action)));
+          return ImmutableList.of();
+        }
+      }
+      actions.add(action);
+    }
+    registeredActions.add(action);
+
+    List<Artifact> newArtifacts = new ArrayList<>(outputs.size());
+    for (Artifact artifact : outputs) {
+      if (generatingActions.get(artifact).size() == 1) {
+        // Shared actions don't add new conflicts, only the first action that generates the
+        // artifact puts it into the trie.
+        newArtifacts.add(artifact);
+      }
+    }
+    return newArtifacts;
+  }
+
+  private void addActionConflict(Action action, Action generatingAction,
+      ConflictException exception) {
+    synchronized (conflictingActions) {
+      actionConflicts.put(action, exception);
+      conflictingActions.put(action, generatingAction);
+      conflictingActions.put(generatingAction, action);
+    }
+  }
+
+  /**
+   * Removes the action from the generating actions of the artifact. Returns true if that was the
+   * last one.
+   */
+  private boolean removeGeneratingAction(Artifact artifact, Action action) {
+    List<Action> actions = generatingActions.get(artifact);
+    if (actions == null || !actions.remove(action) || !actions.isEmpty()) {
+      return false;
+    }
+    generatingActions.remove(artifact);
+    return true;
+  }
+
+  private void unregister(Action action) {
+    if (!registeredActions.remove(action)) {
+      return;
+    }
+    for (Artifact artifact : action.getOutputs()) {
+      if (removeGeneratingAction(artifact, action)) {
+        removeFromTrie(artifact);
+      }
+    }
+  }
+
+  /**
+   * Adds the artifact to the trie without updating the prefix conflicts. May be called
+   * concurrently.
+   */
+  private void insertIntoTrie(Artifact artifact) {
+    PathNode node = root;
+    PathFragment path = artifact.getExecPath();
+    for (int i = 0; i < path.segmentCount(); i++) {
+      node = node.getOrAddChild(path.getSegment(i));
+    }
+    synchronized (node) {
+      if (node.artifacts == null) {
+        node.artifacts = new ArrayList<>(1);
+      }
+      node.artifacts.add(artifact);
+    }
+  }
+
+  /**
+   * Adds the artifact to the trie. If it has a prefix, it conflicts with the topmost one; if it
+   * doesn't, it becomes the topmost prefix of the artifacts below it.
+   */
+  private void addToTrie(Artifact artifact) {
+    PathNode node = root;
+    Artifact topPrefix = null;
+    PathFragment path = artifact.getExecPath();
+    for (int i = 0; i < path.segmentCount(); i++) {
+      if (topPrefix == null && node.artifacts != null) {
+        topPrefix = node.artifacts.get(0);
+      }
+      node = node.getOrAddChild(path.getSegment(i));
+    }
+    boolean hadArtifacts = node.artifacts != null;
+    if (!hadArtifacts) {
+      node.artifacts = new ArrayList<>(1);
+    }
+    node.artifacts.add(artifact);
+
+    if (topPrefix != null) {
+      prefixConflicts.put(artifact, topPrefix);
+    } else if (!hadArtifacts) {
+      setTopPrefixBelow(node, artifact);
+    }
+  }
+
+  private void removeFromTrie(Artifact artifact) {
+    PathFragment path = artifact.getExecPath();
+    PathNode[] nodes = new PathNode[path.segmentCount() + 1];
+    nodes[0] = root;
+    boolean hasPrefix = false;
+    for (int i = 0; i < path.segmentCount(); i++) {
+      hasPrefix |= nodes[i].artifacts != null;
+      nodes[i + 1] = nodes[i].children == null ? null : nodes[i].children.get(path.getSegment(i));
+      if (nodes[i + 1] == null) {
+        return;
+      }
+    }
+    PathNode node = nodes[path.segmentCount()];
+    if (node.artifacts == null || !node.artifacts.remove(artifact)) {
+      return;
+    }
+    if (node.artifacts.isEmpty()) {
+      node.artifacts = null;
+    }
+    prefixConflicts.remove(artifact);
+    if (!hasPrefix) {
+      // The artifact may have been the topmost prefix of the artifacts below it.
+      setTopPrefixBelow(node, node.artifacts == null ? null : node.artifacts.get(0));
+    }
+    // Prune the nodes that became empty.
+    for (int i = path.segmentCount(); i > 0 && nodes[i].isEmpty(); i--) {
+      nodes[i - 1].children.remove(path.getSegment(i - 1));
+      if (nodes[i - 1].children.isEmpty()) {
+        nodes[i - 1].children = null;
+      }
+    }
+  }
+
+  /**
+   * Records the topmost prefix of the artifacts below the given node, which is {@code topPrefix}
+   * if it isn't null, and otherwise the first artifact on the way down.
+   */
+  private void setTopPrefixBelow(PathNode node, @Nullable Artifact topPrefix) {
+    if (node.children == null) {
+      return;
+    }
+    for (PathNode child : node.children.values()) {
+      Artifact childTopPrefix = topPrefix;
+      if (child.artifacts != null) {
+        for (Artifact artifact : child.artifacts) {
+          if (topPrefix != null) {
+            prefixConflicts.put(artifact, topPrefix);
+          } else {
+            prefixConflicts.remove(artifact);
+          }
+        }
+        if (topPrefix == null) {
+          childTopPrefix = child.artifacts.get(0);
+        }
+      }
+      setTopPrefixBelow(child, childTopPrefix);
+    }
+  }
+}
@@ -478,6 +478,7 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
   private void discardAnalysisCache(Collection<ConfiguredTarget> topLevelTargets) {
     try (AutoProfiler p = AutoProfiler.logged("discarding analysis cache", LOG)) {
       lastAnalysisDiscarded = true;
+      clearArtifactConflictIndex();
       for (Map.Entry<SkyKey, SkyValue> entry : memoizingEvaluator.getValues().entrySet()) {
         if (!entry.getKey().functionName().equals(SkyFunctions.CONFIGURED_TARGET)) {
           continue;
@@ -501,6 +502,7 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
     if (skyframeBuildView != null) {
       skyframeBuildView.clearInvalidatedConfiguredTargets();
     }
+    clearArtifactConflictIndex();
     memoizingEvaluator.delete(
         // We delete any value that can hold an action -- all subclasses of ActionLookupValue -- as
         // well as ActionExecutionValues, since they do not depend on ActionLookupValues.
@@ -67,6 +67,7 @@ import com.google.devtools.build.skyframe.ErrorInfo;
 import com.google.devtools.build.skyframe.EvaluationProgressReceiver;
 import com.google.devtools.build.skyframe.EvaluationResult;
 import com.google.devtools.build.skyframe.SkyFunction.Environment;
+import com.google.devtools.build.skyframe.SkyFunctionName;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
@@ -85,6 +86,11 @@ import javax.annotation.Nullable;
  */
 public final class SkyframeBuildView {
 
+  // The functions whose values are ActionLookupValues.
+  private static final ImmutableSet<SkyFunctionName> ACTION_LOOKUP_FUNCTIONS = ImmutableSet.of(
+      SkyFunctions.CONFIGURED_TARGET, SkyFunctions.ASPECT, SkyFunctions.BUILD_INFO_COLLECTION,
+      SkyFunctions.BUILD_INFO, SkyFunctions.COVERAGE_REPORT);
+
   private final ConfiguredTargetFactory factory;
   private final ArtifactFactory artifactFactory;
   private final SkyframeExecutor skyframeExecutor;
@@ -106,6 +112,13 @@ public final class SkyframeBuildView {
   private Set<SkyKey> dirtiedConfiguredTargetKeys = Sets.newConcurrentHashSet();
   private volatile boolean anyConfiguredTargetDeleted = false;
 
+  // The keys of the action lookup values that were added, changed or removed since the last check
+  // for artifact conflicts, so that the check only has to look at those.
+  private Set<SkyKey> changedActionLookupKeys = Sets.newConcurrentHashSet();
+  // Action lookup keys that were dirtied, and neither evaluated nor deleted since. If such a key
+  // is re-validated after the check for artifact conflicts dropped its value, it counts as changed.
+  private final Set<SkyKey> dirtiedActionLookupKeys = Sets.newConcurrentHashSet();
+
   private final RuleClassProvider ruleClassProvider;
 
   // The host configuration containing all fragments used by this build's transitive closure.
@@ -517,6 +530,16 @@ public final class SkyframeBuildView {
     return someConfiguredTargetEvaluated;
   }
 
+  /**
+   * Returns the keys of the action lookup values that were added, changed or removed since the
+   * last call, for the check for artifact conflicts.
+   */
+  Set<SkyKey> getAndClearChangedActionLookupKeys() {
+    Set<SkyKey> keys = changedActionLookupKeys;
+    changedActionLookupKeys = Sets.newConcurrentHashSet();
+    return keys;
+  }
+
   /**
    * Called from SkyframeExecutor after the graph is checked for artifact conflicts so that
    * the next time {@link #isSomeConfiguredTargetEvaluated} is called, it will return true only if
@@ -539,6 +562,14 @@ public final class SkyframeBuildView {
   private class ConfiguredTargetValueInvalidationReceiver implements EvaluationProgressReceiver {
     @Override
     public void invalidated(SkyKey skyKey, InvalidationState state) {
+      if (ACTION_LOOKUP_FUNCTIONS.contains(skyKey.functionName())) {
+        changedActionLookupKeys.add(skyKey);
+        if (state == InvalidationState.DELETED) {
+          dirtiedActionLookupKeys.remove(skyKey);
+        } else {
+          dirtiedActionLookupKeys.add(skyKey);
+        }
+      }
       if (skyKey.functionName().equals(SkyFunctions.CONFIGURED_TARGET)) {
         if (state == InvalidationState.DELETED) {
           anyConfiguredTargetDeleted = true;
@@ -561,6 +592,10 @@ public final class SkyframeBuildView {
     @Override
     public void evaluated(SkyKey skyKey, Supplier<SkyValue> skyValueSupplier,
         EvaluationState state) {
+      if (ACTION_LOOKUP_FUNCTIONS.contains(skyKey.functionName())
+          && (dirtiedActionLookupKeys.remove(skyKey) || state == EvaluationState.BUILT)) {
+        changedActionLookupKeys.add(skyKey);
+      }
       if (skyKey.functionName().equals(SkyFunctions.CONFIGURED_TARGET)) {
         switch (state) {
           case BUILT:
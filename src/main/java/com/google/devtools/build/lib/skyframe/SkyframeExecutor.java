@@ -480,12 +480,21 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   public void resetEvaluator() {
     init();
     emittedEventState.clear();
+    skyframeActionExecutor.clearArtifactConflictIndex();
     if (skyframeBuildView != null) {
       skyframeBuildView.clearLegacyData();
     }
     reinjectConstantValuesLazily();
   }
 
+  /**
+   * Drops the index used to find artifact conflicts, which holds on to the action lookup values it
+   * has seen. Subclasses must call this when they delete those values or clear their data.
+   */
+  protected void clearArtifactConflictIndex() {
+    skyframeActionExecutor.clearArtifactConflictIndex();
+  }
+
   protected abstract Differencer evaluatorDiffer();
 
   protected abstract BuildDriver newBuildDriver();
@@ -959,11 +968,6 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     return configurationValue.getConfigurationCollection();
   }
 
-  private Iterable<ActionLookupValue> getActionLookupValues() {
-    // This filter keeps subclasses of ActionLookupValue.
-    return Iterables.filter(memoizingEvaluator.getDoneValues().values(), ActionLookupValue.class);
-  }
-
   @SuppressWarnings({"unchecked", "rawtypes"})
   Map<SkyKey, ActionLookupValue> getActionLookupValueMap() {
     return (Map) Maps.filterValues(memoizingEvaluator.getDoneValues(),
@@ -982,7 +986,8 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
       // This operation is somewhat expensive, so we only do it if the graph might have changed in
       // some way -- either we analyzed a new target or we invalidated an old one.
       try (AutoProfiler p = AutoProfiler.logged("discovering artifact conflicts", LOG)) {
-        skyframeActionExecutor.findAndStoreArtifactConflicts(getActionLookupValues());
+        skyframeActionExecutor.findAndStoreArtifactConflicts(
+            skyframeBuildView.getAndClearChangedActionLookupKeys(), getActionLookupValueMap());
         skyframeBuildView.resetEvaluatedConfiguredTargetFlag();
         // The invalidated configured targets flag will be reset later in the evaluate() call.
       }
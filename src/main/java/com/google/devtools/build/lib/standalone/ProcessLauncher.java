@@ -0,0 +1,165 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.standalone;
+
+import com.google.devtools.build.lib.shell.TerminationStatus;
+import com.google.devtools.build.lib.unix.LocalClientSocket;
+import com.google.devtools.build.lib.unix.LocalSocketAddress;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interface to the process-launcher helper binary, a long-lived child process that spawns
+ * processes on behalf of the server.
+ *
+ * <p>Forking the (large) server process for every spawn is expensive, and pumping the output of a
+ * spawn through the server takes two threads per spawn. The launcher is small, so forking it is
+ * cheap, and it redirects the output of the spawned processes directly into files. Every spawn
+ * uses its own connection to the launcher's unix domain socket; see process-launcher.c for the
+ * protocol.
+ */
+final class ProcessLauncher {
+  /** How long to block on the launcher before checking whether the thread was interrupted. */
+  private static final long POLL_INTERVAL_MILLIS = 200;
+
+  private final Process process;
+  private final Thread shutdownHook;
+  private final LocalSocketAddress address;
+
+  private ProcessLauncher(Process process, Thread shutdownHook, LocalSocketAddress address) {
+    this.process = process;
+    this.shutdownHook = shutdownHook;
+    this.address = address;
+  }
+
+  /**
+   * Starts the launcher and waits until it accepts connections on {@code socketPath}.
+   *
+   * @throws IOException if the launcher could not be started
+   */
+  static ProcessLauncher start(Path launcherBinary, Path socketPath, Path logFile)
+      throws IOException {
+    ProcessBuilder processBuilder =
+        new ProcessBuilder(launcherBinary.getPathString(), socketPath.getPathString())
+            .redirectError(Redirect.appendTo(logFile.getPathFile()));
+    final Process process = processBuilder.start();
+
+    // The launcher exits when its stdin is closed, so the stdin pipe is deliberately kept open
+    // for as long as the launcher is used.
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+    String line = reader.readLine();
+    if (!"ready".equals(line)) {
+      process.destroy();
+      throw new IOException("process-launcher failed to start, see " + logFile);
+    }
+
+    Thread shutdownHook = new Thread() {
+      @Override
+      public void run() {
+        process.destroy();
+      }
+    };
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+    return new ProcessLauncher(
+        process, shutdownHook, new LocalSocketAddress(socketPath.getPathFile()));
+  }
+
+  /**
+   * Runs the given command through the launcher and waits for it to finish. The output of the
+   * command is appended to {@code stdout} and {@code stderr}.
+   *
+   * <p>If the calling thread is interrupted, the process tree of the command is killed; the
+   * method then still waits for the launcher to report the termination and returns with the
+   * interrupt flag of the thread set.
+   *
+   * @param timeoutSeconds timeout after which the command is killed, or a value <= 0 for none
+   * @param killDelaySeconds how long to wait between SIGTERM and SIGKILL on timeout
+   * @throws IOException if the communication with the launcher failed
+   */
+  TerminationStatus run(List<String> args, Map<String, String> env, Path workingDirectory,
+      Path stdout, Path stderr, int timeoutSeconds, int killDelaySeconds) throws IOException {
+    ByteArrayOutputStream request = new ByteArrayOutputStream();
+    appendString(request, Integer.toString(timeoutSeconds));
+    appendString(request, Integer.toString(killDelaySeconds));
+    appendString(request, workingDirectory.getPathString());
+    appendString(request, stdout.getPathString());
+    appendString(request, stderr.getPathString());
+    appendString(request, Integer.toString(args.size()));
+    for (String arg : args) {
+      appendString(request, arg);
+    }
+    appendString(request, Integer.toString(env.size()));
+    for (Map.Entry<String, String> entry : env.entrySet()) {
+      appendString(request, entry.getKey() + "=" + entry.getValue());
+    }
+
+    LocalClientSocket socket = new LocalClientSocket(address);
+    try {
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeInt(request.size());
+      request.writeTo(out);
+      out.flush();
+
+      boolean interrupted = false;
+      while (!socket.waitForInput(POLL_INTERVAL_MILLIS)) {
+        if (!interrupted && Thread.interrupted()) {
+          // Anything the launcher receives from us from now on cancels the request.
+          interrupted = true;
+          out.write(0);
+          out.flush();
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+
+      return new TerminationStatus(new DataInputStream(socket.getInputStream()).readInt());
+    } finally {
+      socket.close();
+    }
+  }
+
+  private static void appendString(ByteArrayOutputStream out, String s) {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.write(bytes, 0, bytes.length);
+    out.write(0);
+  }
+
+  boolean isAlive() {
+    // Process.isAlive() is only available from Java 8 on.
+    try {
+      process.exitValue();
+      return false;
+    } catch (IllegalThreadStateException e) {
+      return true;
+    }
+  }
+
+  void destroy() {
+    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    process.destroy();
+  }
+}
@@ -64,7 +64,12 @@ public class StandaloneActionContextProvider extends ActionContextProvider {
   private final ImmutableList<ActionContext> strategies;
   private final BlazeRuntime runtime;
 
-  public StandaloneActionContextProvider(CommandEnvironment env, BuildRequest buildRequest) {
+  /**
+   * @param processLauncher the launcher to spawn local processes with, or null to spawn them
+   *     directly from the server
+   */
+  StandaloneActionContextProvider(
+      CommandEnvironment env, BuildRequest buildRequest, ProcessLauncher processLauncher) {
     boolean verboseFailures = buildRequest.getOptions(ExecutionOptions.class).verboseFailures;
 
     this.runtime = env.getRuntime();
@@ -79,7 +84,7 @@ public class StandaloneActionContextProvider extends ActionContextProvider {
     // could potentially be used and a spawnActionContext doesn't specify which one it wants, the
     // last one from strategies list will be used
     strategiesBuilder.add(
-        new StandaloneSpawnStrategy(runtime.getExecRoot(), verboseFailures),
+        new StandaloneSpawnStrategy(runtime.getExecRoot(), verboseFailures, processLauncher),
         new DummyIncludeScanningContext(),
         new LocalLinkStrategy(),
         testStrategy,
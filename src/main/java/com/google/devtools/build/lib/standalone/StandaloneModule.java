@@ -18,9 +18,16 @@ import com.google.common.eventbus.Subscribe;
 import com.google.devtools.build.lib.actions.ActionContextProvider;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildStartingEvent;
+import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.runtime.BlazeModule;
 import com.google.devtools.build.lib.runtime.Command;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.util.OS;
+import com.google.devtools.build.lib.util.OsUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.common.options.OptionsBase;
+
+import java.io.IOException;
 
 /**
  * StandaloneModule provides pluggable functionality for blaze.
@@ -29,10 +36,53 @@ public class StandaloneModule extends BlazeModule {
   private CommandEnvironment env;
   private BuildRequest buildRequest;
 
+  // Outlives individual commands, so that the launcher is only started once per server.
+  private ProcessLauncher processLauncher;
+
+  @Override
+  public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
+    return command.builds()
+        ? ImmutableList.<Class<? extends OptionsBase>>of(StandaloneOptions.class)
+        : ImmutableList.<Class<? extends OptionsBase>>of();
+  }
+
   @Override
   public Iterable<ActionContextProvider> getActionContextProviders() {
+    ProcessLauncher launcher =
+        buildRequest.getOptions(StandaloneOptions.class).localProcessLauncher
+            ? getProcessLauncher()
+            : null;
     return ImmutableList.<ActionContextProvider>of(
-        new StandaloneActionContextProvider(env, buildRequest));
+        new StandaloneActionContextProvider(env, buildRequest, launcher));
+  }
+
+  /**
+   * Returns the process launcher, starting it if it is not running. Returns null if the launcher is
+   * not supported or could not be started, in which case processes are spawned by the server.
+   */
+  private ProcessLauncher getProcessLauncher() {
+    if (OS.getCurrent() == OS.WINDOWS) {
+      return null;
+    }
+    if (processLauncher != null && !processLauncher.isAlive()) {
+      processLauncher.destroy();
+      processLauncher = null;
+    }
+    if (processLauncher == null) {
+      Path outputBase = env.getRuntime().getOutputBase();
+      Path launcherBinary = env.getDirectories().getEmbeddedBinariesRoot()
+          .getRelative("process-launcher" + OsUtils.executableExtension());
+      Path logFile = outputBase.getRelative("process-launcher.log");
+      try {
+        processLauncher = ProcessLauncher.start(
+            launcherBinary, outputBase.getRelative("process-launcher.socket"), logFile);
+      } catch (IOException e) {
+        env.getReporter().handle(Event.warn(
+            "Could not start the process launcher, spawning processes directly: "
+                + e.getMessage()));
+      }
+    }
+    return processLauncher;
   }
 
   @Override
@@ -51,4 +101,12 @@ public class StandaloneModule extends BlazeModule {
   public void buildStarting(BuildStartingEvent event) {
     buildRequest = event.getRequest();
   }
+
+  @Override
+  public void blazeShutdown() {
+    if (processLauncher != null) {
+      processLauncher.destroy();
+      processLauncher = null;
+    }
+  }
 }
@@ -0,0 +1,32 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.standalone;
+
+import com.google.devtools.common.options.Option;
+import com.google.devtools.common.options.OptionsBase;
+
+/**
+ * Options related to local execution with the standalone strategy.
+ */
+public class StandaloneOptions extends OptionsBase {
+  @Option(
+    name = "experimental_local_process_launcher",
+    defaultValue = "false",
+    category = "strategy",
+    help =
+        "If enabled, local spawns are started by a long-lived helper process instead of being "
+            + "forked from the server, and their output is written directly to files."
+  )
+  public boolean localProcessLauncher;
+}
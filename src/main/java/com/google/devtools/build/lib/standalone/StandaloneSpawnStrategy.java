@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.standalone;
 
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.EnvironmentalExecException;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.actions.Executor;
@@ -29,9 +30,12 @@ import com.google.devtools.build.lib.util.CommandFailureUtils;
 import com.google.devtools.build.lib.util.OS;
 import com.google.devtools.build.lib.util.OsUtils;
 import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.UnixFileSystem;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -42,11 +46,21 @@ import java.util.List;
 public class StandaloneSpawnStrategy implements SpawnActionContext {
   private final boolean verboseFailures;
   private final Path processWrapper;
+  private final ProcessLauncher processLauncher;
 
   public StandaloneSpawnStrategy(Path execRoot, boolean verboseFailures) {
+    this(execRoot, verboseFailures, null);
+  }
+
+  /**
+   * @param processLauncher the launcher to spawn processes with, or null to spawn them directly
+   */
+  StandaloneSpawnStrategy(Path execRoot, boolean verboseFailures,
+      ProcessLauncher processLauncher) {
     this.verboseFailures = verboseFailures;
     this.processWrapper = execRoot.getRelative(
         "_bin/process-wrapper" + OsUtils.executableExtension());
+    this.processLauncher = processLauncher;
   }
 
   /**
@@ -73,6 +87,16 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
       }
     }
 
+    FileOutErr outErr = actionExecutionContext.getFileOutErr();
+    if (processLauncher != null && prepareForRedirection(outErr)) {
+      execWithLauncher(spawn, executor.getExecRoot(), outErr, timeout);
+      return;
+    }
+
+    // Without the launcher, let Command write the output directly into the files instead of
+    // passing it through the Java heap, if possible.
+    boolean redirectOutput = processLauncher == null && prepareForRedirection(outErr);
+
     // We must wrap the subprocess with process-wrapper to kill the process tree.
     // All actions therefore depend on the process-wrapper file. Since it's embedded,
     // we don't bother with declaring it as an input.
@@ -85,9 +109,6 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
       args.add(processWrapper.getPathString());
       args.add(Integer.toString(timeout));
       args.add("5"); /* kill delay: give some time to print stacktraces and whatnot. */
-
-      // TODO(bazel-team): use process-wrapper redirection so we don't have to
-      // pass test logs through the Java heap.
       args.add("-"); /* stdout. */
       args.add("-"); /* stderr. */
     }
@@ -96,14 +117,22 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
     String cwd = executor.getExecRoot().getPathString();
     Command cmd = new Command(args.toArray(new String[]{}), spawn.getEnvironment(), new File(cwd));
 
-    FileOutErr outErr = actionExecutionContext.getFileOutErr();
     try {
-      cmd.execute(
-          /* stdin */ new byte[]{},
-          Command.NO_OBSERVER,
-          outErr.getOutputStream(),
-          outErr.getErrorStream(),
-          /*killSubprocessOnInterrupt*/ true);
+      if (redirectOutput) {
+        cmd.execute(
+            /* stdin */ new byte[]{},
+            Command.NO_OBSERVER,
+            outErr.getOutputFile().getPathFile(),
+            outErr.getErrorFile().getPathFile(),
+            /*killSubprocessOnInterrupt*/ true);
+      } else {
+        cmd.execute(
+            /* stdin */ new byte[]{},
+            Command.NO_OBSERVER,
+            outErr.getOutputStream(),
+            outErr.getErrorStream(),
+            /*killSubprocessOnInterrupt*/ true);
+      }
     } catch (AbnormalTerminationException e) {
       TerminationStatus status = e.getResult().getTerminationStatus();
       boolean timedOut = !status.exited() && (status.getTerminatingSignal() == 14 /* SIGALRM */);
@@ -118,6 +147,56 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
     }
   }
 
+  /**
+   * Prepares the output files of {@code outErr} to be written by the subprocess itself.
+   *
+   * @return false if the subprocess can't write to the files, because {@code outErr} is not backed
+   *     by files on the native file system (e.g. in-memory files in tests)
+   */
+  private static boolean prepareForRedirection(FileOutErr outErr) throws ExecException {
+    if (!isNativeFile(outErr.getOutputFile()) || !isNativeFile(outErr.getErrorFile())) {
+      return false;
+    }
+    try {
+      return outErr.prepareForRedirection();
+    } catch (IOException e) {
+      throw new EnvironmentalExecException("could not prepare the output files of the spawn", e);
+    }
+  }
+
+  private static boolean isNativeFile(Path file) {
+    return file != null
+        && (file.getFileSystem() instanceof UnixFileSystem
+            || file.getFileSystem() instanceof JavaIoFileSystem);
+  }
+
+  /**
+   * Executes the given {@code spawn} through the process launcher, which takes care of killing
+   * the process tree just like process-wrapper does, and writes the output directly to the files
+   * of {@code outErr}.
+   */
+  private void execWithLauncher(Spawn spawn, Path execRoot, FileOutErr outErr, int timeout)
+      throws ExecException {
+    String cwd = execRoot.getPathString();
+    TerminationStatus status;
+    try {
+      status = processLauncher.run(spawn.getArguments(), spawn.getEnvironment(), execRoot,
+          outErr.getOutputFile(), outErr.getErrorFile(), timeout,
+          5 /* kill delay: give some time to print stacktraces and whatnot. */);
+    } catch (IOException e) {
+      String message = CommandFailureUtils.describeCommandFailure(
+          verboseFailures, spawn.getArguments(), spawn.getEnvironment(), cwd);
+      throw new UserExecException(message, e);
+    }
+    if (!status.success()) {
+      boolean timedOut = !status.exited() && (status.getTerminatingSignal() == 14 /* SIGALRM */);
+      String message =
+          CommandFailureUtils.describeCommandFailure(
+              verboseFailures, spawn.getArguments(), spawn.getEnvironment(), cwd);
+      throw new UserExecException(String.format("%s: %s", message, status), timedOut);
+    }
+  }
+
   @Override
   public String strategyLocality(String mnemonic, boolean remotable) {
     return "standalone";
@@ -142,6 +142,19 @@ public class FileOutErr extends OutErr {
     return getFileErrorStream().getRecordedOutput();
   }
 
+  /**
+   * Prepares the files backing this OutErr to be written to directly by a subprocess (e.g. via
+   * file redirection), instead of having its output pumped through the streams of this object.
+   * Output recorded so far is kept, and output written to the streams afterwards is appended.
+   *
+   * @return false if this OutErr is not backed by files, in which case all output has to go
+   *     through its streams
+   */
+  public boolean prepareForRedirection() throws IOException {
+    return getFileOutputStream().prepareForRedirection()
+        && getFileErrorStream().prepareForRedirection();
+  }
+
   /**
    * Closes and deletes the error stream.
    */
@@ -219,6 +232,13 @@ public class FileOutErr extends OutErr {
      * Closes and delets the output.
      */
     abstract void clear() throws IOException;
+
+    /**
+     * Makes the file writable by other processes, see {@link FileOutErr#prepareForRedirection}.
+     *
+     * @return false if there is no file backing this stream.
+     */
+    abstract boolean prepareForRedirection() throws IOException;
   }
 
   /**
@@ -259,6 +279,11 @@ public class FileOutErr extends OutErr {
     public void clear() {
     }
 
+    @Override
+    boolean prepareForRedirection() {
+      return false;
+    }
+
 
     @Override
     public void write(byte[] b, int off, int len) {
@@ -295,6 +320,8 @@ public class FileOutErr extends OutErr {
     private final Path outputFile;
     private OutputStream outputStream;
     private String error;
+    // Whether other processes may have written to the file, so that it must not be truncated.
+    private boolean append;
 
     protected FileRecordingOutputStream(Path outputFile) {
       this.outputFile = outputFile;
@@ -313,7 +340,7 @@ public class FileOutErr extends OutErr {
     private OutputStream getOutputStream() throws IOException {
       // you should hold the lock before you invoke this method
       if (outputStream == null) {
-        outputStream = outputFile.getOutputStream();
+        outputStream = outputFile.getOutputStream(append);
       }
       return outputStream;
     }
@@ -329,6 +356,19 @@ public class FileOutErr extends OutErr {
       outputFile.delete();
     }
 
+    @Override
+    synchronized boolean prepareForRedirection() throws IOException {
+      if (hasOutputStream()) {
+        close();
+        outputStream = null;
+      } else if (!append) {
+        // Nothing was recorded yet, so get rid of stale output from earlier runs.
+        outputFile.delete();
+      }
+      append = true;
+      return true;
+    }
+
     /**
      * Called whenever the FileRecordingOutputStream finds an error.
      */
@@ -0,0 +1,376 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+// process-launcher is a long-lived helper that spawns processes on behalf of
+// the Blaze server, so that the (large) server process does not have to fork
+// for every action and does not need threads to pump the output of the
+// spawned processes.
+//
+// Usage: process-launcher <socket-path>
+//
+// It listens on the given unix domain socket and prints "ready" to stdout
+// once it accepts connections. It exits when its stdin is closed, i.e. when
+// the server goes away.
+//
+// Every connection runs exactly one process. The client sends a request,
+// which is a 4-byte big-endian length followed by that many bytes of
+// NUL-terminated strings:
+//
+//   <timeout-secs> <kill-delay-secs> <working-dir> <stdout-path>
+//   <stderr-path> <argc> <argv>... <envc> <env>...
+//
+// The process is run like process-wrapper would run it: in its own process
+// group, with stdout and stderr appended to the given files, and with the
+// whole process group being killed on timeout. If the client sends anything
+// or closes the connection before the process finished, the process group is
+// killed. Finally, the launcher responds with a 4-byte big-endian result,
+// which is the exit code if the process exited normally and 128 + the signal
+// number if it was killed by a signal (SIGALRM on timeout), just like
+// java.lang.Process#waitFor.
+
+#define _GNU_SOURCE
+
+#include <arpa/inet.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <poll.h>
+#include <signal.h>
+#include <stdbool.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/socket.h>
+#include <sys/stat.h>
+#include <sys/types.h>
+#include <sys/un.h>
+#include <sys/wait.h>
+#include <unistd.h>
+
+#include "process-tools.h"
+
+extern char **environ;
+
+// Upper bound for the size of a request, to catch garbage early.
+#define MAX_REQUEST_SIZE (64 * 1024 * 1024)
+
+struct Request {
+  double timeout_secs;
+  double kill_delay_secs;
+  const char *working_dir;
+  const char *stdout_path;
+  const char *stderr_path;
+  char **args;
+  char **env;
+};
+
+// Write end of the pipe that signal handlers use to wake up the poll loop.
+static int global_signal_pipe = -1;
+
+static void Usage(char *const *argv) {
+  fprintf(stderr, "Usage: %s <socket-path>\n", argv[0]);
+  exit(EXIT_FAILURE);
+}
+
+static void SetCloseOnExec(int fd) {
+  CHECK_CALL(fcntl(fd, F_SETFD, FD_CLOEXEC));
+}
+
+// Reads exactly "size" bytes. Returns false on EOF or error.
+static bool ReadFully(int fd, void *buffer, size_t size) {
+  char *p = buffer;
+  while (size > 0) {
+    ssize_t r = read(fd, p, size);
+    if (r == -1 && errno == EINTR) {
+      continue;
+    }
+    if (r <= 0) {
+      return false;
+    }
+    p += r;
+    size -= r;
+  }
+  return true;
+}
+
+static void WriteFully(int fd, const void *buffer, size_t size) {
+  const char *p = buffer;
+  while (size > 0) {
+    ssize_t r = write(fd, p, size);
+    if (r == -1 && errno == EINTR) {
+      continue;
+    }
+    if (r == -1) {
+      // The client is gone, there's nobody to tell about the result anymore.
+      return;
+    }
+    p += r;
+    size -= r;
+  }
+}
+
+// Returns the next NUL-terminated string from the request buffer, or dies if
+// the buffer is exhausted.
+static char *NextString(char **cursor, char *end) {
+  char *s = *cursor;
+  char *nul = s < end ? memchr(s, '\0', end - s) : NULL;
+  if (nul == NULL) {
+    DIE("malformed request\n");
+  }
+  *cursor = nul + 1;
+  return s;
+}
+
+// Returns a NULL-terminated array of "count" strings from the request buffer,
+// where the count itself is the next string.
+static char **NextStringArray(char **cursor, char *end) {
+  int count = atoi(NextString(cursor, end));
+  if (count < 0) {
+    DIE("malformed request\n");
+  }
+  char **array = malloc((count + 1) * sizeof(char *));
+  CHECK_NOT_NULL(array);
+  for (int i = 0; i < count; i++) {
+    array[i] = NextString(cursor, end);
+  }
+  array[count] = NULL;
+  return array;
+}
+
+static void ReadRequest(int conn, struct Request *request) {
+  uint32_t size;
+  if (!ReadFully(conn, &size, sizeof(size))) {
+    DIE("could not read request size\n");
+  }
+  size = ntohl(size);
+  if (size > MAX_REQUEST_SIZE) {
+    DIE("request too large: %u bytes\n", size);
+  }
+
+  char *buffer = malloc(size);
+  CHECK_NOT_NULL(buffer);
+  if (!ReadFully(conn, buffer, size)) {
+    DIE("could not read request\n");
+  }
+
+  char *cursor = buffer;
+  char *end = buffer + size;
+  request->timeout_secs = strtod(NextString(&cursor, end), NULL);
+  request->kill_delay_secs = strtod(NextString(&cursor, end), NULL);
+  request->working_dir = NextString(&cursor, end);
+  request->stdout_path = NextString(&cursor, end);
+  request->stderr_path = NextString(&cursor, end);
+  request->args = NextStringArray(&cursor, end);
+  request->env = NextStringArray(&cursor, end);
+  if (request->args[0] == NULL) {
+    DIE("no command given\n");
+  }
+}
+
+// Unlike RedirectStdout/RedirectStderr, this never truncates the target, as
+// the client may already have recorded output in it.
+static void AppendTo(const char *path, int fd) {
+  int fd_out;
+  CHECK_CALL(fd_out = open(path, O_WRONLY | O_CREAT | O_APPEND, 0666));
+  CHECK_CALL(dup2(fd_out, fd));
+  CHECK_CALL(close(fd_out));
+}
+
+static void OnSignal(int sig) {
+  char c = (char)sig;
+  // Nothing sensible can be done if this fails.
+  (void)write(global_signal_pipe, &c, 1);
+}
+
+// Runs the requested process and waits for it to finish. Returns the result
+// to report to the client.
+static int32_t RunRequest(int conn, const struct Request *request) {
+  int signal_pipe[2];
+  CHECK_CALL(pipe(signal_pipe));
+  SetCloseOnExec(signal_pipe[0]);
+  SetCloseOnExec(signal_pipe[1]);
+  global_signal_pipe = signal_pipe[1];
+  HandleSignal(SIGCHLD, OnSignal);
+  HandleSignal(SIGALRM, OnSignal);
+
+  pid_t child_pid;
+  CHECK_CALL(child_pid = fork());
+  if (child_pid == 0) {
+    // In child.
+    CHECK_CALL(setsid());
+    ClearSignalMask();
+
+    // Force umask to include read and execute for everyone, to make
+    // output permissions predictable.
+    umask(022);
+
+    // Don't let the process read the launcher's stdin, which belongs to the
+    // server.
+    int dev_null;
+    CHECK_CALL(dev_null = open("/dev/null", O_RDONLY));
+    CHECK_CALL(dup2(dev_null, STDIN_FILENO));
+    CHECK_CALL(close(dev_null));
+
+    CHECK_CALL(chdir(request->working_dir));
+    AppendTo(request->stdout_path, STDOUT_FILENO);
+    AppendTo(request->stderr_path, STDERR_FILENO);
+
+    // Like process-wrapper, look up the command using the PATH of the new
+    // environment. Does not return unless something went wrong.
+    environ = request->env;
+    CHECK_CALL(execvp(request->args[0], request->args));
+  }
+
+  SetTimeout(request->timeout_secs);
+
+  bool timed_out = false;
+  int status = 0;
+  struct pollfd fds[2] = {
+      {.fd = signal_pipe[0], .events = POLLIN},
+      {.fd = conn, .events = POLLIN},
+  };
+  for (;;) {
+    if (poll(fds, 2, -1) == -1) {
+      if (errno == EINTR) {
+        continue;
+      }
+      DIE("poll failed: %s\n", strerror(errno));
+    }
+
+    if (fds[1].revents != 0) {
+      // The client cancelled the request (or went away). Kill the process
+      // quickly and stop listening to the client.
+      KillEverything(child_pid, false, request->kill_delay_secs);
+      fds[1].fd = -1;
+    }
+
+    if (fds[0].revents != 0) {
+      char sig;
+      if (read(signal_pipe[0], &sig, 1) != 1) {
+        continue;
+      }
+      if (sig == SIGALRM) {
+        // Give the process a bit of time to die gracefully on timeout.
+        timed_out = true;
+        KillEverything(child_pid, true, request->kill_delay_secs);
+      } else if (sig == SIGCHLD) {
+        pid_t pid;
+        do {
+          pid = waitpid(child_pid, &status, WNOHANG);
+        } while (pid == -1 && errno == EINTR);
+        if (pid == child_pid) {
+          break;
+        }
+      }
+    }
+  }
+
+  // The child is done for, but may have grandchildren that we still have to
+  // kill.
+  kill(-child_pid, SIGKILL);
+
+  if (timed_out) {
+    return 128 + SIGALRM;
+  } else if (WIFEXITED(status)) {
+    return WEXITSTATUS(status);
+  } else {
+    return 128 + WTERMSIG(status);
+  }
+}
+
+static void HandleConnection(int conn) {
+  struct Request request;
+  memset(&request, 0, sizeof(request));
+  ReadRequest(conn, &request);
+
+  uint32_t result = htonl((uint32_t)RunRequest(conn, &request));
+  WriteFully(conn, &result, sizeof(result));
+  close(conn);
+}
+
+static int Listen(const char *socket_path) {
+  struct sockaddr_un addr;
+  memset(&addr, 0, sizeof(addr));
+  addr.sun_family = AF_UNIX;
+  if (strlen(socket_path) >= sizeof(addr.sun_path)) {
+    DIE("socket path too long: %s\n", socket_path);
+  }
+  strcpy(addr.sun_path, socket_path);
+
+  int server;
+  CHECK_CALL(server = socket(AF_UNIX, SOCK_STREAM, 0));
+  SetCloseOnExec(server);
+  unlink(socket_path);
+  CHECK_CALL(bind(server, (struct sockaddr *)&addr, sizeof(addr)));
+  CHECK_CALL(listen(server, SOMAXCONN));
+  return server;
+}
+
+int main(int argc, char *argv[]) {
+  if (argc != 2) {
+    Usage(argv);
+  }
+
+  SwitchToEuid();
+  SwitchToEgid();
+
+  // Let the kernel reap the connection handlers.
+  struct sigaction sa = {.sa_handler = SIG_IGN, .sa_flags = SA_NOCLDWAIT};
+  CHECK_CALL(sigemptyset(&sa.sa_mask));
+  CHECK_CALL(sigaction(SIGCHLD, &sa, NULL));
+
+  int server = Listen(argv[1]);
+  printf("ready\n");
+  fflush(stdout);
+
+  struct pollfd fds[2] = {
+      {.fd = server, .events = POLLIN},
+      {.fd = STDIN_FILENO, .events = POLLIN},
+  };
+  for (;;) {
+    if (poll(fds, 2, -1) == -1) {
+      if (errno == EINTR) {
+        continue;
+      }
+      DIE("poll failed: %s\n", strerror(errno));
+    }
+
+    if (fds[1].revents != 0) {
+      // The server went away.
+      unlink(argv[1]);
+      return 0;
+    }
+
+    if (fds[0].revents != 0) {
+      int conn = accept(server, NULL, NULL);
+      if (conn == -1) {
+        if (errno != EINTR && errno != ECONNABORTED) {
+          perror("accept");
+        }
+        continue;
+      }
+      SetCloseOnExec(conn);
+
+      pid_t pid = fork();
+      if (pid == 0) {
+        close(server);
+        HandleConnection(conn);
+        return 0;
+      } else if (pid == -1) {
+        perror("fork");
+      }
+      close(conn);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.android;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests for {@link FileDeDuplicator}.
+ */
+@RunWith(JUnit4.class)
+public class FileDeDuplicatorTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testDuplicatedFilesAreSkipped() throws Exception {
+    Path root = tmp.getRoot().toPath();
+    Path working = Files.createDirectories(root.resolve("working"));
+    Path out = Files.createDirectories(root.resolve("out"));
+    Path first = Files.createDirectories(working.resolve("first/res/values"));
+    Path second = Files.createDirectories(working.resolve("second/res/values"));
+    Files.write(first.resolve("strings.xml"), "<resources/>".getBytes(UTF_8));
+    Files.write(second.resolve("strings.xml"), "<resources/>".getBytes(UTF_8));
+
+    ImmutableList<Path> roots = new FileDeDuplicator(Hashing.murmur3_128(), out, working)
+        .modify(ImmutableList.of(first.getParent(), second.getParent()));
+
+    assertThat(roots).containsExactly(
+        out.resolve("first/res"), out.resolve("second/res")).inOrder();
+    assertThat(Files.exists(out.resolve("first/res/values/strings.xml"))).isTrue();
+    assertThat(Files.exists(out.resolve("second/res/values/strings.xml"))).isFalse();
+  }
+
+  @Test
+  public void testSymlinkedInputIsResolved() throws Exception {
+    Path root = tmp.getRoot().toPath();
+    Path working = Files.createDirectories(root.resolve("working"));
+    Path out = Files.createDirectories(root.resolve("out"));
+    Path file = Files.write(root.resolve("strings.xml"), "<resources/>".getBytes(UTF_8));
+    Path res = Files.createDirectories(working.resolve("res/values"));
+    // A relative symlink, which would dangle if it was linked into the output.
+    Files.createSymbolicLink(res.resolve("strings.xml"), res.relativize(file));
+
+    new FileDeDuplicator(Hashing.murmur3_128(), out, working, true)
+        .modify(ImmutableList.of(res.getParent()));
+
+    Path deduplicated = out.resolve("res/values/strings.xml");
+    assertThat(Files.isSymbolicLink(deduplicated)).isFalse();
+    assertThat(new String(Files.readAllBytes(deduplicated), UTF_8)).isEqualTo("<resources/>");
+  }
+
+  @Test
+  public void testFilesAreCopiedByDefault() throws Exception {
+    Path root = tmp.getRoot().toPath();
+    Path working = Files.createDirectories(root.resolve("working"));
+    Path out = Files.createDirectories(root.resolve("out"));
+    Path values = Files.createDirectories(working.resolve("res/values"));
+    Path file = Files.write(values.resolve("strings.xml"), "<resources/>".getBytes(UTF_8));
+
+    new FileDeDuplicator(Hashing.murmur3_128(), out, working)
+        .modify(ImmutableList.of(values.getParent()));
+
+    // Writing to the deduplicated file must not change the input.
+    Path deduplicated = out.resolve("res/values/strings.xml");
+    assertThat(Files.isSameFile(deduplicated, file)).isFalse();
+    Files.write(deduplicated, "<resources></resources>".getBytes(UTF_8));
+    assertThat(new String(Files.readAllBytes(file), UTF_8)).isEqualTo("<resources/>");
+  }
+
+  @Test
+  public void testFilesAreLinkedIfRequested() throws Exception {
+    Path root = tmp.getRoot().toPath();
+    Path working = Files.createDirectories(root.resolve("working"));
+    Path out = Files.createDirectories(root.resolve("out"));
+    Path values = Files.createDirectories(working.resolve("res/values"));
+    Path file = Files.write(values.resolve("strings.xml"), "<resources/>".getBytes(UTF_8));
+
+    new FileDeDuplicator(Hashing.murmur3_128(), out, working, true)
+        .modify(ImmutableList.of(values.getParent()));
+
+    assertThat(Files.isSameFile(out.resolve("res/values/strings.xml"), file)).isTrue();
+  }
+}
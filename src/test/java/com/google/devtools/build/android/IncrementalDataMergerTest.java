@@ -0,0 +1,198 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.android;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+
+import com.android.ide.common.res2.AssetSet;
+import com.android.ide.common.res2.ResourceSet;
+import com.android.utils.StdLogger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link IncrementalDataMerger}.
+ */
+@RunWith(JUnit4.class)
+public class IncrementalDataMergerTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path cacheDir;
+  private Path manifest;
+  private List<Path> resourceDirs;
+  private Path assetDir;
+
+  @Before
+  public void setUp() throws Exception {
+    Path root = tmp.getRoot().toPath();
+    cacheDir = root.resolve("cache");
+    manifest = write(root.resolve("AndroidManifest.xml"), "<manifest/>");
+    resourceDirs = new ArrayList<>();
+    resourceDirs.add(Files.createDirectories(root.resolve("lib/res")));
+    resourceDirs.add(Files.createDirectories(root.resolve("app/res")));
+    assetDir = Files.createDirectories(root.resolve("app/assets"));
+
+    write(resourceDirs.get(0).resolve("values/strings.xml"), strings("lib_name", "Lib"));
+    write(resourceDirs.get(1).resolve("values/strings.xml"), strings("app_name", "App"));
+    write(resourceDirs.get(1).resolve("layout/main.xml"), "<LinearLayout/>");
+    write(assetDir.resolve("data.txt"), "data");
+  }
+
+  private static Path write(Path file, String content) throws IOException {
+    Files.createDirectories(file.getParent());
+    return Files.write(file, content.getBytes(UTF_8));
+  }
+
+  private static String strings(String name, String value) {
+    return "<resources><string name=\"" + name + "\">" + value + "</string></resources>";
+  }
+
+  private MergedAndroidData merge() throws Exception {
+    List<ResourceSet> resourceSets = new ArrayList<>();
+    for (Path dir : resourceDirs) {
+      ResourceSet set = new ResourceSet(dir.toString());
+      set.addSource(dir.toFile());
+      resourceSets.add(set);
+    }
+    AssetSet assetSet = new AssetSet(assetDir.toString());
+    assetSet.addSource(assetDir.toFile());
+    return new IncrementalDataMerger(
+        cacheDir, Hashing.murmur3_128(), new StdLogger(StdLogger.Level.ERROR))
+        .merge(resourceSets, ImmutableList.of(assetSet), manifest, null);
+  }
+
+  private static String mergedValues(MergedAndroidData data) throws IOException {
+    return new String(Files.readAllBytes(
+        data.getResourceDirFile().toPath().resolve("values/values.xml")), UTF_8);
+  }
+
+  private static boolean hasResource(MergedAndroidData data, String path) {
+    return Files.exists(data.getResourceDirFile().toPath().resolve(path));
+  }
+
+  @Test
+  public void testInitialMerge() throws Exception {
+    MergedAndroidData data = merge();
+    assertThat(mergedValues(data)).contains("lib_name");
+    assertThat(mergedValues(data)).contains("app_name");
+    assertThat(hasResource(data, "layout/main.xml")).isTrue();
+    assertThat(Files.exists(data.getAssetDirFile().toPath().resolve("data.txt"))).isTrue();
+  }
+
+  @Test
+  public void testAddedFile() throws Exception {
+    merge();
+    write(resourceDirs.get(0).resolve("layout/lib.xml"), "<FrameLayout/>");
+    write(resourceDirs.get(0).resolve("values/colors.xml"),
+        "<resources><color name=\"lib_color\">#fff</color></resources>");
+    write(assetDir.resolve("more.txt"), "more");
+
+    MergedAndroidData data = merge();
+    assertThat(hasResource(data, "layout/lib.xml")).isTrue();
+    assertThat(hasResource(data, "layout/main.xml")).isTrue();
+    assertThat(mergedValues(data)).contains("lib_color");
+    assertThat(mergedValues(data)).contains("app_name");
+    assertThat(Files.exists(data.getAssetDirFile().toPath().resolve("more.txt"))).isTrue();
+  }
+
+  @Test
+  public void testChangedFile() throws Exception {
+    merge();
+    write(resourceDirs.get(0).resolve("values/strings.xml"), strings("lib_title", "Lib"));
+    write(resourceDirs.get(1).resolve("layout/main.xml"), "<FrameLayout/>");
+
+    MergedAndroidData data = merge();
+    assertThat(mergedValues(data)).contains("lib_title");
+    assertThat(mergedValues(data)).doesNotContain("lib_name");
+    assertThat(mergedValues(data)).contains("app_name");
+    assertThat(new String(Files.readAllBytes(
+        data.getResourceDirFile().toPath().resolve("layout/main.xml")), UTF_8))
+        .contains("FrameLayout");
+  }
+
+  @Test
+  public void testRemovedFile() throws Exception {
+    merge();
+    Files.delete(resourceDirs.get(1).resolve("layout/main.xml"));
+    Files.delete(resourceDirs.get(0).resolve("values/strings.xml"));
+    Files.delete(assetDir.resolve("data.txt"));
+
+    MergedAndroidData data = merge();
+    assertThat(hasResource(data, "layout/main.xml")).isFalse();
+    assertThat(mergedValues(data)).doesNotContain("lib_name");
+    assertThat(mergedValues(data)).contains("app_name");
+    assertThat(Files.exists(data.getAssetDirFile().toPath().resolve("data.txt"))).isFalse();
+  }
+
+  @Test
+  public void testCorruptDigests() throws Exception {
+    merge();
+    write(cacheDir.resolve("digests"), "not a digest\nD nothex /nowhere\n");
+    write(resourceDirs.get(0).resolve("values/strings.xml"), strings("lib_title", "Lib"));
+
+    MergedAndroidData data = merge();
+    assertThat(mergedValues(data)).contains("lib_title");
+    assertThat(mergedValues(data)).doesNotContain("lib_name");
+    assertThat(mergedValues(data)).contains("app_name");
+  }
+
+  @Test
+  public void testCorruptMergerState() throws Exception {
+    merge();
+    IncrementalDataMerger.deleteRecursively(cacheDir.resolve("resource_merger"));
+    write(cacheDir.resolve("resource_merger/merger.xml"), "<merger");
+    write(resourceDirs.get(0).resolve("values/strings.xml"), strings("lib_title", "Lib"));
+
+    MergedAndroidData data = merge();
+    assertThat(mergedValues(data)).contains("lib_title");
+    assertThat(mergedValues(data)).doesNotContain("lib_name");
+    assertThat(mergedValues(data)).contains("app_name");
+  }
+
+  @Test
+  public void testCacheOfOtherResourceSets() throws Exception {
+    merge();
+    // A new dependency doesn't match the sets in the cache.
+    Path otherDir = Files.createDirectories(tmp.getRoot().toPath().resolve("other/res"));
+    write(otherDir.resolve("values/strings.xml"), strings("other_name", "Other"));
+    resourceDirs.add(0, otherDir);
+
+    MergedAndroidData data = merge();
+    assertThat(mergedValues(data)).contains("other_name");
+    assertThat(mergedValues(data)).contains("lib_name");
+    assertThat(mergedValues(data)).contains("app_name");
+
+    // And neither does the removal of a dependency.
+    resourceDirs.remove(1);
+    data = merge();
+    assertThat(mergedValues(data)).contains("other_name");
+    assertThat(mergedValues(data)).doesNotContain("lib_name");
+    assertThat(mergedValues(data)).contains("app_name");
+  }
+}
@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.android.ziputils;
 
+import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
@@ -21,9 +22,12 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 
 /**
  * Unit tests for {@link BufferedFile}.
@@ -188,6 +192,30 @@ public class BufferedFileTest {
     assertCase("Realloc supersize", instance, cacheOff, maxAlloc + 5, maxAlloc + 5, maxAlloc + 5);
   }
 
+  @Test
+  public void testGetBufferMemoryMapped() throws Exception {
+    int fileSize = 64;
+    File tmpFile = File.createTempFile("bytes64", null);
+    tmpFile.deleteOnExit();
+    Files.write(tmpFile.toPath(), fileData(fileSize));
+    try (FileInputStream in = new FileInputStream(tmpFile)) {
+      int regionOff = 5;
+      int regionSize = 50;
+      int maxAlloc = 20;
+      BufferedFile instance =
+          new BufferedFile(in.getChannel(), regionOff, regionSize, maxAlloc, true);
+      assertThat(instance.isMemoryMapped()).isTrue();
+      // Any range in the region is available without reallocation, in any order.
+      assertCase("Mapped after", instance, regionOff + 30, maxAlloc, maxAlloc, regionSize);
+      assertCase("Mapped before", instance, regionOff, maxAlloc, maxAlloc, regionSize);
+      assertCase("Mapped supersize", instance, regionOff, regionSize, regionSize, regionSize);
+      assertCase("Mapped beyond limit", instance, regionOff + 45, maxAlloc, 5, regionSize);
+      assertThat(instance.getBuffer(regionOff, maxAlloc).isReadOnly()).isTrue();
+      assertException("buffer lower bound",
+          instance, regionOff - 1, regionSize, IllegalArgumentException.class);
+    }
+  }
+
   void assertException(String msg, FileChannel file, long off, long len, int maxAlloc,
       Class<?> expect) {
     try {
@@ -0,0 +1,121 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.android.ziputils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures the throughput of {@link SplitZip}, copying a large number of classes to several
+ * shards, as done by {@link DexMapper} for multidex apps. Compares sequential copying from a
+ * buffered input with concurrent copying from a memory mapped input.
+ *
+ * <p>This is not part of the test suite; run it manually with
+ * {@code bazel run //src/test/java:splitzip_benchmark}.
+ */
+public class SplitZipBenchmark {
+  private static final int CLASS_COUNT = 20000;
+  private static final int CLASS_SIZE = 2048;
+  private static final int SHARD_COUNT = 4;
+
+  private final File tmp;
+
+  private SplitZipBenchmark(File tmp) {
+    this.tmp = tmp;
+  }
+
+  public static void main(String[] args) throws IOException {
+    File tmp = Files.createTempDirectory("splitzip").toFile();
+    try {
+      new SplitZipBenchmark(tmp).run();
+    } finally {
+      for (File file : tmp.listFiles()) {
+        file.delete();
+      }
+      tmp.delete();
+    }
+  }
+
+  private void run() throws IOException {
+    File input = new File(tmp, "classes.jar");
+    createInput(input);
+
+    long buffered = split(input, "buffered", false);
+    long mapped = split(input, "mapped", true);
+    System.out.printf("SplitZip, %d classes, %.1f MB to %d shards:%n",
+        CLASS_COUNT, input.length() / 1e6, SHARD_COUNT);
+    System.out.printf("  buffered, sequential: %.1f MB/s%n", throughput(input, buffered));
+    System.out.printf("  memory mapped, concurrent: %.1f MB/s%n", throughput(input, mapped));
+
+    for (int i = 0; i < SHARD_COUNT; i++) {
+      if (!Arrays.equals(Files.readAllBytes(output("mapped", i).toPath()),
+          Files.readAllBytes(output("buffered", i).toPath()))) {
+        throw new IllegalStateException("Shard " + i + " differs between the two runs");
+      }
+    }
+  }
+
+  private void createInput(File input) throws IOException {
+    Random random = new Random(42);
+    byte[] data = new byte[CLASS_SIZE];
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(input))) {
+      zip.setMethod(ZipOutputStream.STORED);
+      for (int i = 0; i < CLASS_COUNT; i++) {
+        random.nextBytes(data);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ZipEntry entry = new ZipEntry("pkg" + (i % 100) + "/Class" + i + ".class");
+        entry.setSize(data.length);
+        entry.setCrc(crc.getValue());
+        zip.putNextEntry(entry);
+        zip.write(data);
+        zip.closeEntry();
+      }
+    }
+  }
+
+  /**
+   * Splits the input to {@link #SHARD_COUNT} shards, and returns the elapsed time in nanoseconds.
+   */
+  private long split(File input, String name, boolean memoryMapped) throws IOException {
+    try (FileInputStream in = new FileInputStream(input)) {
+      SplitZip splitZip = new SplitZip()
+          .useDefaultEntryDate()
+          .setCopyThreads(memoryMapped ? SHARD_COUNT : 1)
+          .addInput(new ZipIn(in.getChannel(), input.getPath(), memoryMapped));
+      for (int i = 0; i < SHARD_COUNT; i++) {
+        splitZip.addOutput(output(name, i).getPath());
+      }
+      long start = System.nanoTime();
+      splitZip.run().close();
+      return System.nanoTime() - start;
+    }
+  }
+
+  private File output(String name, int shard) {
+    return new File(tmp, name + "-shard" + shard + ".jar");
+  }
+
+  private static double throughput(File input, long nanos) {
+    return input.length() / 1e6 / (nanos / 1e9);
+  }
+}
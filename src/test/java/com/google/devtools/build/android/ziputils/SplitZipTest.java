@@ -14,25 +14,36 @@
 package com.google.devtools.build.android.ziputils;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Unit tests for {@link SplitZip}.
  */
 @RunWith(JUnit4.class)
 public class SplitZipTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
   private FakeFileSystem fileSystem;
 
   @Before
@@ -433,4 +444,65 @@ public class SplitZipTest {
     instance.setVerbose(false);
     assertThat(instance.isVerbose()).isFalse();
   }
+
+  @Test
+  public void testConcurrentCopyMatchesSequentialCopy() throws IOException {
+    // Memory mapping requires real files.
+    File input1 = tmp.newFile("input1.jar");
+    File input2 = tmp.newFile("input2.jar");
+    try (ZipOutputStream zip1 = new ZipOutputStream(new FileOutputStream(input1));
+        ZipOutputStream zip2 = new ZipOutputStream(new FileOutputStream(input2))) {
+      for (int i = 0; i < 100; i++) {
+        ZipOutputStream zip = i % 2 == 0 ? zip1 : zip2;
+        zip.putNextEntry(new ZipEntry("pkg" + (i % 7) + "/Class" + i + ".class"));
+        zip.write(("class " + i).getBytes(UTF_8));
+        zip.closeEntry();
+      }
+      zip1.putNextEntry(new ZipEntry("res/strings.xml"));
+      zip1.write("strings".getBytes(UTF_8));
+      zip1.closeEntry();
+      // Duplicate, only the entry of the first input is copied.
+      zip2.putNextEntry(new ZipEntry("pkg0/Class0.class"));
+      zip2.write("duplicate".getBytes(UTF_8));
+      zip2.closeEntry();
+    }
+
+    // Sequential copy from buffered inputs.
+    try (FileInputStream in1 = new FileInputStream(input1);
+        FileInputStream in2 = new FileInputStream(input2)) {
+      SplitZip splitZip = new SplitZip()
+          .useDefaultEntryDate()
+          .setCopyThreads(1)
+          .addInput(new ZipIn(in1.getChannel(), input1.getPath(), false))
+          .addInput(new ZipIn(in2.getChannel(), input2.getPath(), false));
+      for (int i = 0; i < 3; i++) {
+        splitZip.addOutput(new File(tmp.getRoot(), "buffered-shard" + i + ".jar").getPath());
+      }
+      splitZip.run().close();
+    }
+    // Sequential and concurrent copies from memory mapped inputs.
+    for (int threads : new int[] {1, 3}) {
+      SplitZip splitZip = new SplitZip()
+          .useDefaultEntryDate()
+          .setCopyThreads(threads)
+          .addInput(input1.getPath())
+          .addInput(input2.getPath());
+      for (int i = 0; i < 3; i++) {
+        splitZip.addOutput(new File(tmp.getRoot(), threads + "-shard" + i + ".jar").getPath());
+      }
+      splitZip.run().close();
+    }
+
+    for (int i = 0; i < 3; i++) {
+      byte[] buffered =
+          Files.readAllBytes(new File(tmp.getRoot(), "buffered-shard" + i + ".jar").toPath());
+      byte[] sequential =
+          Files.readAllBytes(new File(tmp.getRoot(), "1-shard" + i + ".jar").toPath());
+      byte[] concurrent =
+          Files.readAllBytes(new File(tmp.getRoot(), "3-shard" + i + ".jar").toPath());
+      assertThat(buffered.length).isGreaterThan(0);
+      assertThat(sequential).isEqualTo(buffered);
+      assertThat(concurrent).isEqualTo(buffered);
+    }
+  }
 }
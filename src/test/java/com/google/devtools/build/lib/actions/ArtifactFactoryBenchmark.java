@@ -0,0 +1,132 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures the throughput of {@link ArtifactFactory#getSourceArtifact} with a single thread and
+ * with many concurrent threads, as done by the analysis phase. Compares the concurrent source
+ * artifact cache with lookups that are serialized on the factory lock, as all lookups were before
+ * the cache became concurrent.
+ *
+ * <p>The serialized lookups are emulated by calling into the current factory while holding its
+ * monitor, so both runs share the same cache implementation and only differ in locking.
+ *
+ * <p>This is not part of the test suite; run it manually with
+ * {@code bazel run //src/test/java:artifact_factory_benchmark}.
+ */
+public class ArtifactFactoryBenchmark {
+  private static final int PATH_COUNT = 20000;
+  private static final int LOOKUP_COUNT = 4000000;
+  private static final int MANY_THREADS = Math.max(32, Runtime.getRuntime().availableProcessors());
+
+  private final ArtifactFactory factory;
+  private final Root root;
+  private final PathFragment[] paths = new PathFragment[PATH_COUNT];
+  private final Artifact[] artifacts = new Artifact[PATH_COUNT];
+
+  private ArtifactFactoryBenchmark() {
+    Path execRoot = new InMemoryFileSystem().getPath("/exec");
+    factory = new ArtifactFactory(execRoot);
+    root = Root.asSourceRoot(execRoot);
+    for (int i = 0; i < PATH_COUNT; i++) {
+      paths[i] = new PathFragment("pkg" + (i % 200) + "/sub" + (i % 7) + "/File" + i + ".java");
+      artifacts[i] = factory.getSourceArtifact(paths[i], root);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    new ArtifactFactoryBenchmark().run();
+  }
+
+  private void run() throws Exception {
+    // Warm up both code paths before measuring.
+    lookup(MANY_THREADS, false);
+    lookup(MANY_THREADS, true);
+
+    System.out.printf("ArtifactFactory.getSourceArtifact, %d paths, %d lookups:%n",
+        PATH_COUNT, LOOKUP_COUNT);
+    for (int threads : new int[] {1, MANY_THREADS}) {
+      System.out.printf("  %d thread(s), serialized: %.1f M lookups/s%n",
+          threads, throughput(lookup(threads, true)));
+      System.out.printf("  %d thread(s), concurrent: %.1f M lookups/s%n",
+          threads, throughput(lookup(threads, false)));
+    }
+  }
+
+  /**
+   * Runs {@link #LOOKUP_COUNT} lookups spread over the given number of threads, and returns the
+   * elapsed time in nanoseconds.
+   */
+  private long lookup(int threads, final boolean serialized) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final CountDownLatch start = new CountDownLatch(1);
+      final int lookupsPerThread = LOOKUP_COUNT / threads;
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        final int offset = t * (PATH_COUNT / threads);
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws InterruptedException {
+            start.await();
+            for (int i = 0; i < lookupsPerThread; i++) {
+              int index = (offset + i) % PATH_COUNT;
+              Artifact artifact;
+              if (serialized) {
+                synchronized (factory) {
+                  artifact = factory.getSourceArtifact(paths[index], root);
+                }
+              } else {
+                artifact = factory.getSourceArtifact(paths[index], root);
+              }
+              if (artifact != artifacts[index]) {
+                throw new IllegalStateException("Not the canonical artifact: " + paths[index]);
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      long startTime = System.nanoTime();
+      start.countDown();
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+      return System.nanoTime() - startTime;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static double throughput(long nanos) {
+    return LOOKUP_COUNT / 1e6 / (nanos / 1e9);
+  }
+}
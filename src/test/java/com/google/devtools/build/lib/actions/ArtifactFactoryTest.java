@@ -40,6 +40,8 @@ import org.junit.runners.JUnit4;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Tests {@link ArtifactFactory}. Also see {@link ArtifactTest} for a test
@@ -160,6 +162,59 @@ public class ArtifactFactoryTest {
     assertNotSame(fooArtifact, artifactFactory.getSourceArtifact(fooRelative, clientRoot));
   }
 
+  @Test
+  public void testConcurrentAccessYieldsSameArtifacts() throws Exception {
+    final int threadCount = 32;
+    final int pathCount = 200;
+    final CyclicBarrier barrier = new CyclicBarrier(threadCount);
+    final Artifact[][] artifacts = new Artifact[threadCount][2 * pathCount];
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread[] threads = new Thread[threadCount];
+    for (int t = 0; t < threadCount; t++) {
+      final int thread = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            barrier.await();
+            for (int i = 0; i < pathCount; i++) {
+              // Half of the threads resolve the paths, the others create them directly, and they
+              // go through the paths in different orders.
+              int index = (i + thread * 7) % pathCount;
+              PathFragment fooSource = fooPath.getRelative("source" + index);
+              PathFragment barSource = barPath.getRelative("source" + index);
+              if (thread % 2 == 0) {
+                artifacts[thread][index] = artifactFactory.resolveSourceArtifact(fooSource);
+                artifacts[thread][pathCount + index] =
+                    artifactFactory.resolveSourceArtifact(barSource);
+              } else {
+                artifacts[thread][index] =
+                    artifactFactory.getSourceArtifact(fooSource, clientRoot);
+                artifacts[thread][pathCount + index] =
+                    artifactFactory.getSourceArtifact(barSource, clientRoRoot);
+              }
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(failure.get());
+    for (int i = 0; i < 2 * pathCount; i++) {
+      Artifact canonical = artifacts[0][i];
+      assertSame(i < pathCount ? clientRoot : clientRoRoot, canonical.getRoot());
+      for (int t = 1; t < threadCount; t++) {
+        assertSame(canonical, artifacts[t][i]);
+      }
+      assertSame(canonical, artifactFactory.resolveSourceArtifact(canonical.getExecPath()));
+    }
+  }
+
   @Test
   public void testFindDerivedRoot() throws Exception {
     assertSame(outRoot,
@@ -0,0 +1,48 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.util.Fingerprint;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class DigestTest {
+
+  @Test
+  public void testBuilderMatchesFromMetadata() throws Exception {
+    Map<String, Metadata> mdMap = new LinkedHashMap<>();
+    mdMap.put("a/b", new Metadata(1));
+    mdMap.put("a/c", new Metadata(new byte[] {1, 2, 3}));
+    mdMap.put("a/d", null);
+
+    Fingerprint fp = new Fingerprint();
+    Digest.Builder builder = new Digest.Builder();
+    // The order of the pairs doesn't matter.
+    builder.addPairDigest(Digest.getPairDigest(fp, "a/d", null));
+    builder.addPairDigest(Digest.getPairDigest(fp, "a/b", new Metadata(1)));
+    builder.addPairDigest(Digest.getPairDigest(fp, "a/c", new Metadata(new byte[] {1, 2, 3})));
+    assertThat(builder.build()).isEqualTo(Digest.fromMetadata(mdMap));
+
+    mdMap.put("a/b", new Metadata(2));
+    assertThat(builder.build()).isNotEqualTo(Digest.fromMetadata(mdMap));
+  }
+}
@@ -15,12 +15,16 @@ package com.google.devtools.build.lib.analysis;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.Root;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.events.EventKind;
 import com.google.devtools.build.lib.testutil.FoundationTestCase;
+import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
 import java.util.HashMap;
@@ -109,4 +113,46 @@ public class RunfilesTest extends FoundationTestCase {
         Maps.immutableEntry(pathBC, artifactBC));
     assertNoEvents();
   }
+
+  private static String fingerprint(Runfiles runfiles) {
+    Fingerprint f = new Fingerprint();
+    runfiles.addToFingerprint(f);
+    return f.hexDigestAndReset();
+  }
+
+  public void testFingerprintOfSharedArtifacts() throws Exception {
+    Root root = Root.asSourceRoot(scratch.resolve("/workspace"));
+    NestedSet<Artifact> shared = NestedSetBuilder.<Artifact>compileOrder()
+        .add(new Artifact(new PathFragment("a"), root))
+        .add(new Artifact(new PathFragment("b"), root))
+        .build();
+    Runfiles first = new Runfiles.Builder("ws").addTransitiveArtifacts(shared).build();
+    Runfiles second = new Runfiles.Builder("ws").addTransitiveArtifacts(shared).build();
+    Runfiles withMore = new Runfiles.Builder("ws")
+        .addTransitiveArtifacts(shared)
+        .addArtifact(new Artifact(new PathFragment("c"), root))
+        .build();
+    Runfiles withOtherSuffix = new Runfiles.Builder("other").addTransitiveArtifacts(shared).build();
+
+    assertEquals(fingerprint(first), fingerprint(second));
+    assertFalse(fingerprint(first).equals(fingerprint(withMore)));
+    assertFalse(fingerprint(first).equals(fingerprint(withOtherSuffix)));
+  }
+
+  public void testFingerprintOfSymlinks() throws Exception {
+    Root root = Root.asSourceRoot(scratch.resolve("/workspace"));
+    PathFragment link = new PathFragment("link");
+    Runfiles first = new Runfiles.Builder("ws")
+        .addSymlink(link, new Artifact(new PathFragment("a"), root))
+        .build();
+    Runfiles second = new Runfiles.Builder("ws")
+        .addSymlink(link, new Artifact(new PathFragment("b"), root))
+        .build();
+    Runfiles asRootSymlink = new Runfiles.Builder("ws")
+        .addRootSymlinks(ImmutableMap.of(link, new Artifact(new PathFragment("a"), root)))
+        .build();
+
+    assertFalse(fingerprint(first).equals(fingerprint(second)));
+    assertFalse(fingerprint(first).equals(fingerprint(asRootSymlink)));
+  }
 }
@@ -0,0 +1,72 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+
+/**
+ * Tests for {@link NestedSetFolder}.
+ */
+@RunWith(JUnit4.class)
+public class NestedSetFolderTest {
+
+  /** Concatenates the members in structural order and counts the calls to combine. */
+  private static class ConcatFolder extends NestedSetFolder<String, String> {
+    int combineCount = 0;
+
+    @Override
+    protected String combine(List<String> subsetValues, List<String> directMembers) {
+      combineCount++;
+      StringBuilder result = new StringBuilder("(");
+      for (String value : subsetValues) {
+        result.append(value);
+      }
+      for (String member : directMembers) {
+        result.append(member);
+      }
+      return result.append(")").toString();
+    }
+  }
+
+  @Test
+  public void foldsStructure() {
+    ConcatFolder folder = new ConcatFolder();
+    NestedSet<String> inner = NestedSetBuilder.<String>stableOrder().add("a").add("b").build();
+    NestedSet<String> outer = NestedSetBuilder.<String>stableOrder()
+        .add("c").addTransitive(inner).build();
+    assertThat(folder.fold(outer)).isEqualTo("((ab)c)");
+  }
+
+  @Test
+  public void sharedSubsetsAreFoldedOnce() {
+    ConcatFolder folder = new ConcatFolder();
+    NestedSet<String> shared = NestedSetBuilder.<String>stableOrder().add("a").add("b").build();
+    NestedSet<String> first = NestedSetBuilder.<String>stableOrder()
+        .add("c").addTransitive(shared).build();
+    NestedSet<String> second = NestedSetBuilder.<String>stableOrder()
+        .add("d").addTransitive(shared).build();
+
+    assertThat(folder.fold(first)).isEqualTo("((ab)c)");
+    assertThat(folder.fold(second)).isEqualTo("((ab)d)");
+    assertThat(folder.combineCount).isEqualTo(3);
+    assertThat(folder.fold(first)).isEqualTo("((ab)c)");
+    assertThat(folder.combineCount).isEqualTo(3);
+  }
+}
@@ -23,6 +23,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Tests the {@link Reporter} class.
  */
@@ -99,4 +103,113 @@ public class ReporterTest extends EventTestTemplate {
     assertThat(out.toString()).isEmpty();
   }
 
+  @Test
+  public void concurrentEventsAreDeliveredOneAtATime() throws Exception {
+    final int threadCount = 8;
+    final int eventsPerThread = 10000;
+    final AtomicBoolean inHandler = new AtomicBoolean();
+    final AtomicBoolean overlapped = new AtomicBoolean();
+    EventCollector collector = new EventCollector(EventKind.ALL_EVENTS);
+    reporter.addHandler(new EventHandler() {
+      @Override
+      public void handle(Event event) {
+        if (!inHandler.compareAndSet(false, true)) {
+          overlapped.set(true);
+        }
+        inHandler.set(false);
+      }
+    });
+    reporter.addHandler(collector);
+    Thread[] threads = new Thread[threadCount];
+    for (int t = 0; t < threadCount; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < eventsPerThread; i++) {
+            reporter.handle(Event.warn("warning"));
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(overlapped.get()).isFalse();
+    assertEquals(threadCount * eventsPerThread, collector.count());
+  }
+
+  @Test
+  public void noEventsAreDeliveredAfterRemoveHandler() throws Exception {
+    final AtomicBoolean removed = new AtomicBoolean();
+    final AtomicBoolean deliveredAfterRemoval = new AtomicBoolean();
+    final CountDownLatch delivered = new CountDownLatch(1);
+    EventHandler handler = new EventHandler() {
+      @Override
+      public void handle(Event event) {
+        if (removed.get()) {
+          deliveredAfterRemoval.set(true);
+        }
+        delivered.countDown();
+      }
+    };
+    reporter.addHandler(handler);
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          while (!removed.get()) {
+            reporter.handle(Event.warn("warning"));
+          }
+          // At least one event from every thread after the removal.
+          reporter.handle(Event.warn("warning"));
+        }
+      };
+      threads[t].start();
+    }
+    delivered.await();
+    reporter.removeHandler(handler);
+    removed.set(true);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(deliveredAfterRemoval.get()).isFalse();
+  }
+
+  @Test
+  public void handlerExceptionsReachTheReportingThread() throws Exception {
+    final int threadCount = 8;
+    final int eventsPerThread = 1000;
+    final AtomicInteger caught = new AtomicInteger();
+    reporter.addHandler(new EventHandler() {
+      @Override
+      public void handle(Event event) {
+        throw new IllegalStateException(event.getMessage());
+      }
+    });
+    Thread[] threads = new Thread[threadCount];
+    for (int t = 0; t < threadCount; t++) {
+      final String message = "thread " + t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < eventsPerThread; i++) {
+            try {
+              reporter.handle(Event.warn(message));
+            } catch (IllegalStateException e) {
+              if (e.getMessage().equals(message)) {
+                caught.incrementAndGet();
+              }
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(threadCount * eventsPerThread, caught.get());
+  }
 }
@@ -69,4 +69,17 @@ public class StoredErrorEventHandlerTest {
     eventHandler.replayOn(sink);
     assertEquals(events, sink.getEvents());
   }
+
+  @Test
+  public void clear() {
+    StoredEventHandler eventHandler = new StoredEventHandler();
+    eventHandler.handle(Event.error("error"));
+    eventHandler.clear();
+    assertTrue(eventHandler.isEmpty());
+    assertFalse(eventHandler.hasErrors());
+    assertEquals(ImmutableList.of(), eventHandler.getEvents());
+
+    eventHandler.handle(Event.warn("warning"));
+    assertEquals(ImmutableList.of(Event.warn("warning")), eventHandler.getEvents());
+  }
 }
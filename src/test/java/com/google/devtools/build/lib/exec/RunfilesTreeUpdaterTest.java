@@ -0,0 +1,116 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.analysis.SymlinkTreeAction;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link RunfilesTreeUpdater}.
+ */
+@RunWith(JUnit4.class)
+public class RunfilesTreeUpdaterTest {
+
+  private Scratch scratch = new Scratch();
+  private Path runfilesDir;
+
+  @Before
+  public void setUp() throws Exception {
+    runfilesDir = scratch.dir("/exec/foo.runfiles");
+  }
+
+  /** Sets up the tree as build-runfiles would have created it from the given manifest lines. */
+  private void createTree(String... lines) throws Exception {
+    for (String line : lines) {
+      int space = line.indexOf(' ');
+      Path path = runfilesDir.getRelative(line.substring(0, space));
+      FileSystemUtils.createDirectoryAndParents(path.getParentDirectory());
+      if (space == line.length() - 1) {
+        FileSystemUtils.createEmptyFile(path);
+      } else {
+        path.createSymbolicLink(new PathFragment(line.substring(space + 1)));
+      }
+    }
+    scratch.file(runfilesDir.getRelative(SymlinkTreeAction.PREVIOUS_MANIFEST).getPathString(),
+        lines);
+  }
+
+  @Test
+  public void testWithoutPreviousManifest() throws Exception {
+    Path input = scratch.file("/exec/foo.runfiles_manifest", "ws/a /src/a");
+    assertFalse(RunfilesTreeUpdater.update(input, runfilesDir));
+    assertFalse(runfilesDir.getRelative("ws/a").exists(Symlinks.NOFOLLOW));
+  }
+
+  @Test
+  public void testUpdate() throws Exception {
+    createTree("ws/a /src/a", "ws/b /src/b", "ws/dir/c /src/c", "ws/empty ");
+    Path input = scratch.file("/exec/foo.runfiles_manifest",
+        "ws/a /src/a", "ws/b /src/new_b", "ws/d/e /src/e", "ws/empty ");
+
+    assertTrue(RunfilesTreeUpdater.update(input, runfilesDir));
+
+    assertEquals(new PathFragment("/src/a"), runfilesDir.getRelative("ws/a").readSymbolicLink());
+    assertEquals(new PathFragment("/src/new_b"),
+        runfilesDir.getRelative("ws/b").readSymbolicLink());
+    assertEquals(new PathFragment("/src/e"), runfilesDir.getRelative("ws/d/e").readSymbolicLink());
+    assertTrue(runfilesDir.getRelative("ws/empty").isFile(Symlinks.NOFOLLOW));
+    // The directory of the removed entry is gone as well.
+    assertFalse(runfilesDir.getRelative("ws/dir").exists(Symlinks.NOFOLLOW));
+    assertFalse(runfilesDir.getRelative(SymlinkTreeAction.PREVIOUS_MANIFEST).exists());
+    assertEquals(FileSystemUtils.readContent(input, UTF_8),
+        FileSystemUtils.readContent(runfilesDir.getRelative("MANIFEST"), UTF_8));
+  }
+
+  @Test
+  public void testFileReplacedByDirectory() throws Exception {
+    createTree("ws/a /src/a");
+    Path input = scratch.file("/exec/foo.runfiles_manifest", "ws/a/b /src/b");
+
+    assertTrue(RunfilesTreeUpdater.update(input, runfilesDir));
+
+    assertTrue(runfilesDir.getRelative("ws/a").isDirectory(Symlinks.NOFOLLOW));
+    assertEquals(new PathFragment("/src/b"), runfilesDir.getRelative("ws/a/b").readSymbolicLink());
+  }
+
+  @Test
+  public void testReadManifest() throws Exception {
+    Path manifest = scratch.file("/manifest", "ws/a /src/a", "ws/empty ");
+    assertThat(RunfilesTreeUpdater.readManifest(manifest))
+        .isEqualTo(ImmutableMap.of("ws/a", "/src/a", "ws/empty", ""));
+  }
+
+  @Test
+  public void testReadManifestRejectsRelativeTargets() throws Exception {
+    Path manifest = scratch.file("/manifest", "ws/a src/a");
+    assertNull(RunfilesTreeUpdater.readManifest(manifest));
+  }
+}
@@ -0,0 +1,254 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.Ordering;
+import com.google.devtools.build.lib.profiler.Profiler.ProfiledTaskKinds;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.VarInt;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Tests for {@link Profiler} and the profile readers.
+ */
+@RunWith(JUnit4.class)
+public class ProfilerTest {
+  private Path profileFile;
+
+  @Before
+  public void setUp() throws Exception {
+    profileFile = new JavaIoFileSystem().getPath(TestUtils.makeTempDir().getPath())
+        .getRelative("profile");
+  }
+
+  private void startProfiler(OutputStream out) throws Exception {
+    Profiler.instance().start(ProfiledTaskKinds.ALL, out, "test comment", true,
+        BlazeClock.instance(), BlazeClock.nanoTime());
+  }
+
+  @Test
+  public void testNestedTasksRoundTrip() throws Exception {
+    try (OutputStream out = profileFile.getOutputStream()) {
+      startProfiler(out);
+      Profiler profiler = Profiler.instance();
+      profiler.startTask(ProfilerTask.ACTION, "action");
+      profiler.logSimpleTask(BlazeClock.nanoTime(), ProfilerTask.VFS_STAT, "stat 1");
+      profiler.logSimpleTask(BlazeClock.nanoTime(), ProfilerTask.VFS_STAT, "stat 2");
+      profiler.completeTask(ProfilerTask.ACTION);
+      profiler.stop();
+    }
+
+    ProfileInfo info = ProfileInfo.loadProfile(profileFile);
+    assertThat(info.isCorruptedOrIncomplete()).isFalse();
+    assertThat(info.comment).isEqualTo("test comment");
+    info.calculateStats();
+
+    ProfileInfo.Task action = info.rootTasksById.get(0);
+    assertThat(action.type).isEqualTo(ProfilerTask.ACTION);
+    assertThat(action.getDescription()).isEqualTo("action");
+    assertThat(action.subtasks).hasLength(2);
+    assertThat(action.subtasks[1].getDescription()).isEqualTo("stat 2");
+    assertThat(action.getStatAttrArray()[ProfilerTask.VFS_STAT.ordinal()].count).isEqualTo(2);
+  }
+
+  @Test
+  public void testManyTasksFromManyThreads() throws Exception {
+    final int threadCount = 4;
+    // More than fit into a single chunk or into the buffer of a thread.
+    final int tasksPerThread = 20000;
+    try (OutputStream out = profileFile.getOutputStream()) {
+      startProfiler(out);
+      Thread[] threads = new Thread[threadCount];
+      for (int t = 0; t < threadCount; t++) {
+        final String description = "thread " + t;
+        threads[t] = new Thread() {
+          @Override
+          public void run() {
+            for (int i = 0; i < tasksPerThread; i++) {
+              Profiler.instance().logSimpleTask(
+                  BlazeClock.nanoTime(), ProfilerTask.VFS_STAT, description);
+            }
+          }
+        };
+        threads[t].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      Profiler.instance().stop();
+    }
+
+    Set<Integer> ids = new HashSet<>();
+    Set<String> descriptions = new HashSet<>();
+    try (ProfileReader reader = ProfileReader.open(profileFile)) {
+      while (reader.nextChunk()) {
+        for (int i = 0; i < reader.getTaskCount(); i++) {
+          if (reader.getType(i) == ProfilerTask.VFS_STAT) {
+            assertThat(ids.add(reader.getId(i))).isTrue();
+            descriptions.add(reader.getDescription(i));
+          }
+        }
+      }
+      assertThat(reader.isCorruptedOrIncomplete()).isFalse();
+    }
+    assertThat(ids).hasSize(threadCount * tasksPerThread);
+    assertThat(descriptions).containsExactly("thread 0", "thread 1", "thread 2", "thread 3");
+  }
+
+  @Test
+  public void testTasksOfThreadKeepOrderAfterBufferOverflow() throws Exception {
+    // More than fit into the buffer of a thread between two saves.
+    int taskCount = 10000;
+    try (OutputStream out = profileFile.getOutputStream()) {
+      startProfiler(out);
+      for (int i = 0; i < taskCount; i++) {
+        Profiler.instance().logSimpleTask(BlazeClock.nanoTime(), ProfilerTask.VFS_STAT, "stat");
+      }
+      Profiler.instance().stop();
+    }
+
+    List<Integer> ids = new ArrayList<>();
+    try (ProfileReader reader = ProfileReader.open(profileFile)) {
+      while (reader.nextChunk()) {
+        for (int i = 0; i < reader.getTaskCount(); i++) {
+          if (reader.getType(i) == ProfilerTask.VFS_STAT) {
+            ids.add(reader.getId(i));
+          }
+        }
+      }
+    }
+    assertThat(ids).hasSize(taskCount);
+    // Task ids are assigned in the order in which the tasks were logged.
+    assertThat(Ordering.natural().isStrictlyOrdered(ids)).isTrue();
+  }
+
+  @Test
+  public void testBuffersOfTerminatedThreadsAreDropped() throws Exception {
+    try (OutputStream out = profileFile.getOutputStream()) {
+      startProfiler(out);
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          Profiler.instance().logSimpleTask(
+              BlazeClock.nanoTime(), ProfilerTask.VFS_STAT, "other thread");
+        }
+      };
+      thread.start();
+      thread.join();
+      Profiler.instance().logSimpleTask(
+          BlazeClock.nanoTime(), ProfilerTask.VFS_STAT, "this thread");
+      assertThat(Profiler.instance().saveAndCountTaskBuffers()).isEqualTo(1);
+      Profiler.instance().stop();
+    }
+
+    ProfileInfo info = ProfileInfo.loadProfile(profileFile);
+    Set<String> descriptions = new HashSet<>();
+    for (ProfileInfo.Task task : info.allTasksById) {
+      descriptions.add(task.getDescription());
+    }
+    assertThat(descriptions).containsAllOf("other thread", "this thread");
+  }
+
+  @Test
+  public void testReadsVersion3Profile() throws Exception {
+    try (DataOutputStream out = new DataOutputStream(
+        new DeflaterOutputStream(profileFile.getOutputStream()))) {
+      out.writeInt(Profiler.MAGIC);
+      out.writeInt(3);
+      out.writeUTF("old comment");
+      out.writeInt(2);
+      out.writeUTF(ProfilerTask.ACTION.toString());
+      out.writeUTF(ProfilerTask.VFS_STAT.toString());
+      // The action, with the aggregated stats of two file stats.
+      writeVersion3Task(out, 1, 0, 10, 100, 0, 0, new byte[] {1, 2, 50}, "action");
+      writeVersion3Task(out, 2, 1, 20, 30, 0, 1, new byte[0], "stat");
+      writeVersion3Task(out, 3, 1, 60, 20, 2, 1, new byte[0], null);
+      out.writeInt(Profiler.EOF_MARKER);
+    }
+
+    ProfileInfo info = ProfileInfo.loadProfile(profileFile);
+    assertThat(info.isCorruptedOrIncomplete()).isFalse();
+    assertThat(info.comment).isEqualTo("old comment");
+    info.calculateStats();
+
+    ProfileInfo.Task action = info.rootTasksById.get(0);
+    assertThat(action.type).isEqualTo(ProfilerTask.ACTION);
+    assertThat(action.getDescription()).isEqualTo("action");
+    assertThat(action.duration).isEqualTo(100);
+    assertThat(action.subtasks).hasLength(2);
+    assertThat(action.subtasks[0].getDescription()).isEqualTo("stat");
+    assertThat(action.subtasks[1].getDescription()).isEqualTo("stat");
+    assertThat(action.subtasks[1].startTime).isEqualTo(60);
+    assertThat(action.getStatAttrArray()[ProfilerTask.VFS_STAT.ordinal()].count).isEqualTo(2);
+  }
+
+  /**
+   * Writes a task record in the format of version 3 profiles. descIndex is the
+   * index of the description plus one, or 0 if newDescription follows the record.
+   */
+  private static void writeVersion3Task(DataOutputStream out, int id, int parentId,
+      long startTime, long duration, int descIndex, int type, byte[] stats,
+      String newDescription) throws IOException {
+    ByteBuffer record = ByteBuffer.allocate(100);
+    VarInt.putVarLong(1, record);
+    VarInt.putVarInt(id, record);
+    VarInt.putVarInt(parentId, record);
+    VarInt.putVarLong(startTime, record);
+    VarInt.putVarLong(duration, record);
+    VarInt.putVarInt(descIndex, record);
+    record.put((byte) type);
+    record.put(stats);
+    out.writeInt(record.position());
+    out.write(record.array(), 0, record.position());
+    if (newDescription != null) {
+      out.writeUTF(newDescription);
+    }
+  }
+
+  @Test
+  public void testTruncatedProfile() throws Exception {
+    try (OutputStream out = profileFile.getOutputStream()) {
+      startProfiler(out);
+      Profiler.instance().logEvent(ProfilerTask.INFO, "event");
+      Profiler.instance().stop();
+    }
+    byte[] content = FileSystemUtils.readContent(profileFile);
+    FileSystemUtils.writeContent(profileFile, Arrays.copyOf(content, content.length - 6));
+
+    ProfileInfo info = ProfileInfo.loadProfile(profileFile);
+    assertThat(info.isCorruptedOrIncomplete()).isTrue();
+    assertThat(info.comment).isEqualTo("test comment");
+  }
+}
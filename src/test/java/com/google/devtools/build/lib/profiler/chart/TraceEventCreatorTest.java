@@ -0,0 +1,120 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler.chart;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.profiler.ProfileInfo.InfoListener;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.Profiler.ProfiledTaskKinds;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link TraceEventCreator}.
+ */
+@RunWith(JUnit4.class)
+public class TraceEventCreatorTest {
+
+  private static final InfoListener NOOP_LISTENER = new InfoListener() {
+    @Override
+    public void info(String text) {}
+
+    @Override
+    public void warn(String text) {}
+  };
+
+  private List<JsonObject> getEvents(JsonObject trace, String phase) {
+    List<JsonObject> events = new ArrayList<>();
+    for (JsonElement element : trace.getAsJsonArray("traceEvents")) {
+      JsonObject event = element.getAsJsonObject();
+      if (event.get("ph").getAsString().equals(phase)) {
+        events.add(event);
+      }
+    }
+    return events;
+  }
+
+  @Test
+  public void testTraceEvents() throws Exception {
+    Path dir = new JavaIoFileSystem().getPath(TestUtils.makeTempDir().getPath());
+    Path profileFile = dir.getRelative("profile");
+    Object action = "some action";
+    try (OutputStream out = profileFile.getOutputStream()) {
+      Profiler profiler = Profiler.instance();
+      profiler.start(ProfiledTaskKinds.ALL, out, "test comment", true,
+          BlazeClock.instance(), BlazeClock.nanoTime());
+      long start = BlazeClock.nanoTime();
+      profiler.logSimpleTaskDuration(start, 5000, ProfilerTask.ACTION, action);
+      profiler.logSimpleTaskDuration(start, 3000, ProfilerTask.ACTION, "other action");
+      profiler.logEvent(ProfilerTask.RESOURCE_USAGE, "ram=250.0 cpu=1.5 tests=x");
+      profiler.logSimpleTaskDuration(start, 5000, ProfilerTask.CRITICAL_PATH_COMPONENT, action);
+      profiler.stop();
+    }
+
+    Path traceFile = dir.getRelative("profile.trace.json");
+    TraceEventCreator.createTraceEvents(profileFile, traceFile, NOOP_LISTENER);
+    JsonObject trace = new JsonParser().parse(
+        new String(FileSystemUtils.readContent(traceFile), StandardCharsets.UTF_8))
+        .getAsJsonObject();
+
+    assertThat(trace.getAsJsonObject("otherData").get("comment").getAsString())
+        .isEqualTo("test comment");
+
+    List<JsonObject> tasks = getEvents(trace, "X");
+    assertThat(tasks).hasSize(3);
+    JsonObject criticalAction = tasks.get(0);
+    assertThat(criticalAction.get("name").getAsString()).isEqualTo("some action");
+    assertThat(criticalAction.get("dur").getAsDouble()).isEqualTo(5.0);
+    assertThat(criticalAction.getAsJsonObject("args").get("critical_path").getAsBoolean())
+        .isTrue();
+    assertThat(tasks.get(1).getAsJsonObject("args").has("critical_path")).isFalse();
+    JsonObject component = tasks.get(2);
+    assertThat(component.get("tid").getAsLong()).isEqualTo(0L);
+    assertThat(component.get("cat").getAsString())
+        .isEqualTo(ProfilerTask.CRITICAL_PATH_COMPONENT.description);
+
+    List<JsonObject> counters = getEvents(trace, "C");
+    assertThat(counters).hasSize(1);
+    JsonObject values = counters.get(0).getAsJsonObject("args");
+    assertThat(values.get("ram").getAsDouble()).isEqualTo(250.0);
+    assertThat(values.get("cpu").getAsDouble()).isEqualTo(1.5);
+    assertThat(values.has("tests")).isFalse();
+
+    List<String> threadNames = new ArrayList<>();
+    for (JsonObject metadata : getEvents(trace, "M")) {
+      if (metadata.get("name").getAsString().equals("thread_name")) {
+        threadNames.add(metadata.getAsJsonObject("args").get("name").getAsString());
+      }
+    }
+    assertThat(threadNames).containsExactly(
+        "Critical path", "Thread " + Thread.currentThread().getId());
+  }
+}
@@ -0,0 +1,262 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.packages.util.PackageLoadingTestCase;
+import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
+import com.google.devtools.build.lib.query2.engine.Callback;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Setting;
+import com.google.devtools.build.lib.query2.engine.QueryExpression;
+import com.google.devtools.build.lib.skyframe.TransitiveTraversalValue;
+import com.google.devtools.build.lib.syntax.Label;
+import com.google.devtools.build.skyframe.EvaluationResult;
+import com.google.devtools.build.skyframe.SkyKey;
+import com.google.devtools.build.skyframe.SkyValue;
+import com.google.devtools.build.skyframe.WalkableGraph;
+import com.google.devtools.build.skyframe.WalkableGraph.WalkableGraphFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Tests for {@link SkyQueryEnvironment}.
+ *
+ * <p>The universe of the "outside the universe" tests does not contain the queried targets. They
+ * are found in the Skyframe graph, which still holds the nodes of an earlier, larger universe.
+ */
+public class SkyQueryEnvironmentTest extends PackageLoadingTestCase {
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    // top -> mid1 -> leaf, and the longer path top -> mid2 -> mid3 -> leaf.
+    scratch.file("a/BUILD",
+        "testing_dummy_rule(name = 'top', srcs = [':mid1', ':mid2'])",
+        "testing_dummy_rule(name = 'mid1', srcs = [':leaf'])",
+        "testing_dummy_rule(name = 'mid2', srcs = [':mid3'])",
+        "testing_dummy_rule(name = 'mid3', srcs = [':leaf'])",
+        "testing_dummy_rule(name = 'leaf')",
+        "testing_dummy_rule(name = 'other')");
+  }
+
+  private SkyQueryEnvironment makeEnvironment(WalkableGraphFactory graphFactory,
+      String... universeScope) {
+    return new SkyQueryEnvironment(/*keepGoing=*/false, /*strictScope=*/false,
+        /*loadingPhaseThreads=*/4, Predicates.<Label>alwaysTrue(), reporter,
+        ImmutableSet.<Setting>of(), ImmutableList.<QueryFunction>of(), /*parserPrefix=*/"",
+        graphFactory, ImmutableList.copyOf(universeScope), new PathPackageLocator(rootDirectory));
+  }
+
+  private SkyQueryEnvironment makeEnvironment(String... universeScope) {
+    return makeEnvironment(getSkyframeExecutor(), universeScope);
+  }
+
+  /**
+   * Returns an environment whose universe does not contain the queried targets. The whole package
+   * is loaded into the graph first with a query in a larger universe.
+   */
+  private SkyQueryEnvironment makeEnvironmentOutsideUniverse(WalkableGraphFactory graphFactory)
+      throws Exception {
+    makeEnvironment("//a/...").evaluateQuery("//a:top");
+    return makeEnvironment(graphFactory, "//a:other");
+  }
+
+  private static List<String> evaluate(SkyQueryEnvironment env, String query) throws Exception {
+    List<String> result = new ArrayList<>();
+    for (Target target : env.evaluateQuery(query).getResultSet()) {
+      result.add(target.getLabel().toString());
+    }
+    return result;
+  }
+
+  private static void assertDeps(SkyQueryEnvironment env) throws Exception {
+    assertThat(evaluate(env, "deps(//a:top)")).containsExactly(
+        "//a:top", "//a:mid1", "//a:mid2", "//a:mid3", "//a:leaf");
+    assertThat(evaluate(env, "deps(//a:top, 1)")).containsExactly(
+        "//a:top", "//a:mid1", "//a:mid2");
+    assertThat(evaluate(env, "deps(//a:leaf)")).containsExactly("//a:leaf");
+  }
+
+  private static void assertAllPaths(SkyQueryEnvironment env) throws Exception {
+    assertThat(evaluate(env, "allpaths(//a:top, //a:leaf)")).containsExactly(
+        "//a:top", "//a:mid1", "//a:mid2", "//a:mid3", "//a:leaf");
+    assertThat(evaluate(env, "allpaths(//a:mid2, //a:leaf)")).containsExactly(
+        "//a:mid2", "//a:mid3", "//a:leaf");
+    assertThat(evaluate(env, "allpaths(//a:leaf, //a:top)")).isEmpty();
+  }
+
+  private static void assertSomePath(SkyQueryEnvironment env) throws Exception {
+    assertThat(evaluate(env, "somepath(//a:top, //a:leaf)")).containsExactly(
+        "//a:top", "//a:mid1", "//a:leaf");
+    assertThat(evaluate(env, "somepath(//a:mid2, //a:leaf)")).containsExactly(
+        "//a:mid2", "//a:mid3", "//a:leaf");
+    assertThat(evaluate(env, "somepath(//a:leaf, //a:top)")).isEmpty();
+  }
+
+  public void testDeps() throws Exception {
+    assertDeps(makeEnvironment("//a/..."));
+  }
+
+  public void testDepsOutsideUniverse() throws Exception {
+    assertDeps(makeEnvironmentOutsideUniverse(getSkyframeExecutor()));
+  }
+
+  public void testAllPaths() throws Exception {
+    assertAllPaths(makeEnvironment("//a/..."));
+  }
+
+  public void testAllPathsOutsideUniverse() throws Exception {
+    assertAllPaths(makeEnvironmentOutsideUniverse(getSkyframeExecutor()));
+  }
+
+  public void testSomePath() throws Exception {
+    assertSomePath(makeEnvironment("//a/..."));
+  }
+
+  public void testSomePathOutsideUniverse() throws Exception {
+    assertSomePath(makeEnvironmentOutsideUniverse(getSkyframeExecutor()));
+  }
+
+  private static List<String> evaluateStreamed(SkyQueryEnvironment env, String query)
+      throws Exception {
+    final List<String> result = new ArrayList<>();
+    env.evaluateQuery(QueryExpression.parse(query, env), new Callback<Target>() {
+      @Override
+      public void process(Iterable<Target> partialResult) {
+        for (Target target : partialResult) {
+          result.add(target.getLabel().toString());
+        }
+      }
+    });
+    return result;
+  }
+
+  public void testStreamedResultIsUnique() throws Exception {
+    assertThat(evaluateStreamed(makeEnvironment("//a/..."), "deps(//a:top) + deps(//a:mid2)"))
+        .containsExactly("//a:top", "//a:mid1", "//a:mid2", "//a:mid3", "//a:leaf");
+  }
+
+  public void testStreamedResultIsUniqueOutsideUniverse() throws Exception {
+    assertThat(evaluateStreamed(makeEnvironmentOutsideUniverse(getSkyframeExecutor()),
+            "deps(//a:top) + deps(//a:mid2) + //a:other"))
+        .containsExactly("//a:top", "//a:mid1", "//a:mid2", "//a:mid3", "//a:leaf", "//a:other");
+  }
+
+  public void testTransitiveClosureIsInterrupted() throws Exception {
+    InterruptingGraphFactory graphFactory = new InterruptingGraphFactory(
+        TransitiveTraversalValue.key(Label.parseAbsolute("//a:top")));
+    SkyQueryEnvironment env = makeEnvironmentOutsideUniverse(graphFactory);
+    try {
+      env.evaluateQuery("allpaths(//a:top, //a:leaf)");
+      fail("Expected InterruptedException");
+    } catch (InterruptedException e) {
+      // Expected.
+    }
+    assertFalse(Thread.interrupted());
+    // The visitor interrupts its workers when it is interrupted.
+    assertTrue(graphFactory.workerInterrupted.await(1, TimeUnit.MINUTES));
+  }
+
+  /**
+   * Wraps the Skyframe graph so that looking up the deps of a key interrupts the thread that
+   * created the factory, and then blocks until the looking up thread is interrupted itself.
+   */
+  private final class InterruptingGraphFactory implements WalkableGraphFactory {
+    private final SkyKey interruptingKey;
+    private final Thread mainThread = Thread.currentThread();
+    private final CountDownLatch workerInterrupted = new CountDownLatch(1);
+
+    private InterruptingGraphFactory(SkyKey interruptingKey) {
+      this.interruptingKey = interruptingKey;
+    }
+
+    @Override
+    public EvaluationResult<SkyValue> prepareAndGet(Collection<String> roots, int numThreads,
+        EventHandler eventHandler) throws InterruptedException {
+      EvaluationResult<SkyValue> result =
+          getSkyframeExecutor().prepareAndGet(roots, numThreads, eventHandler);
+      return EvaluationResult.<SkyValue>builder()
+          .mergeFrom(result)
+          .setWalkableGraph(new InterruptingGraph(result.getWalkableGraph()))
+          .build();
+    }
+
+    private final class InterruptingGraph implements WalkableGraph {
+      private final WalkableGraph delegate;
+
+      private InterruptingGraph(WalkableGraph delegate) {
+        this.delegate = delegate;
+      }
+
+      @Override
+      public boolean exists(SkyKey key) {
+        return delegate.exists(key);
+      }
+
+      @Nullable
+      @Override
+      public SkyValue getValue(SkyKey key) {
+        return delegate.getValue(key);
+      }
+
+      @Override
+      public Map<SkyKey, SkyValue> getSuccessfulValues(Iterable<SkyKey> keys) {
+        return delegate.getSuccessfulValues(keys);
+      }
+
+      @Override
+      public Map<SkyKey, Exception> getMissingAndExceptions(Iterable<SkyKey> keys) {
+        return delegate.getMissingAndExceptions(keys);
+      }
+
+      @Nullable
+      @Override
+      public Exception getException(SkyKey key) {
+        return delegate.getException(key);
+      }
+
+      @Override
+      public Map<SkyKey, Iterable<SkyKey>> getDirectDeps(Iterable<SkyKey> keys) {
+        if (ImmutableSet.copyOf(keys).contains(interruptingKey)) {
+          mainThread.interrupt();
+          try {
+            new CountDownLatch(1).await(1, TimeUnit.MINUTES);
+          } catch (InterruptedException e) {
+            workerInterrupted.countDown();
+          }
+        }
+        return delegate.getDirectDeps(keys);
+      }
+
+      @Override
+      public Map<SkyKey, Iterable<SkyKey>> getReverseDeps(Iterable<SkyKey> keys) {
+        return delegate.getReverseDeps(keys);
+      }
+    }
+  }
+}
@@ -0,0 +1,263 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Setting;
+import com.google.devtools.build.lib.skyframe.TransitiveTraversalValue;
+import com.google.devtools.build.lib.syntax.Label;
+import com.google.devtools.build.skyframe.SkyKey;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests for {@link TargetGraphIndex}.
+ */
+@RunWith(JUnit4.class)
+public class TargetGraphIndexTest {
+
+  /** A loader for a graph of labels, which records the keys it loads. */
+  private static final class FakeLoader implements TargetGraphIndex.Loader {
+    private final SetMultimap<SkyKey, SkyKey> edges = LinkedHashMultimap.create();
+    private final Set<SkyKey> targets = new HashSet<>();
+    private final Map<PackageIdentifier, Package> packages = new HashMap<>();
+    private final List<SkyKey> loaded = new ArrayList<>();
+
+    @Override
+    public Map<SkyKey, Collection<SkyKey>> getDeps(Collection<SkyKey> keys) {
+      Map<SkyKey, Collection<SkyKey>> result = new HashMap<>();
+      for (SkyKey key : keys) {
+        if (targets.contains(key)) {
+          loaded.add(key);
+          result.put(key, edges.get(key));
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public Map<PackageIdentifier, Package> getPackages(Collection<PackageIdentifier> packageIds) {
+      Map<PackageIdentifier, Package> result = new HashMap<>();
+      for (PackageIdentifier packageId : packageIds) {
+        if (packages.containsKey(packageId)) {
+          result.put(packageId, packages.get(packageId));
+        }
+      }
+      return result;
+    }
+
+    void addTarget(String label, String... deps) {
+      SkyKey key = key(label);
+      targets.add(key);
+      for (String dep : deps) {
+        edges.put(key, key(dep));
+      }
+      PackageIdentifier packageId = ((Label) key.argument()).getPackageIdentifier();
+      if (!packages.containsKey(packageId)) {
+        packages.put(packageId, newPackage(packageId));
+      }
+    }
+
+    void removeTarget(String label) {
+      targets.remove(key(label));
+      edges.removeAll(key(label));
+    }
+
+    /** Simulates a change of the BUILD file of the given package. */
+    void changePackage(String name) {
+      PackageIdentifier packageId = PackageIdentifier.createInDefaultRepo(name);
+      packages.put(packageId, newPackage(packageId));
+    }
+  }
+
+  private static Package newPackage(PackageIdentifier packageId) {
+    return new Package(packageId, "workspace") {};
+  }
+
+  private static SkyKey key(String label) {
+    return TransitiveTraversalValue.key(Label.parseAbsoluteUnchecked(label));
+  }
+
+  private static List<SkyKey> keys(String... labels) {
+    List<SkyKey> result = new ArrayList<>();
+    for (String label : labels) {
+      result.add(key(label));
+    }
+    return result;
+  }
+
+  private final FakeLoader loader = new FakeLoader();
+  private TargetGraphIndex index;
+
+  @Before
+  public void setUp() throws Exception {
+    index = TargetGraphIndex.getInstance(this, ImmutableList.of("//..."),
+        ImmutableSet.<Setting>of(), Predicates.<Label>alwaysTrue());
+    // A diamond a -> {b, c} -> d, with a longer way from b to d over e.
+    loader.addTarget("//a:a", "//b:b", "//c:c");
+    loader.addTarget("//b:b", "//b:e", "//d:d");
+    loader.addTarget("//b:e", "//d:d");
+    loader.addTarget("//c:c", "//d:d");
+    loader.addTarget("//d:d");
+  }
+
+  private TargetGraphIndex.Universe update() {
+    return index.update(keys("//a:a"), loader);
+  }
+
+  private static Set<SkyKey> keySet(TargetGraphIndex.Universe universe, BitSet ids) {
+    return ImmutableSet.copyOf(universe.getKeys(ids));
+  }
+
+  @Test
+  public void testDeps() throws Exception {
+    TargetGraphIndex.Universe universe = update();
+    assertThat(universe.size()).isEqualTo(5);
+
+    BitSet ids = universe.getIds(keys("//b:b"));
+    assertThat(keySet(universe, universe.getFwdDeps(ids)))
+        .containsExactlyElementsIn(keys("//b:e", "//d:d"));
+    ids = universe.getIds(keys("//d:d"));
+    assertThat(keySet(universe, universe.getReverseDeps(ids)))
+        .containsExactlyElementsIn(keys("//b:b", "//b:e", "//c:c"));
+    ids = universe.getIds(keys("//a:a", "//d:d"));
+    assertThat(keySet(universe, universe.getFwdDeps(ids)))
+        .containsExactlyElementsIn(keys("//b:b", "//c:c"));
+    assertThat(universe.getIds(keys("//a:a", "//x:x"))).isNull();
+  }
+
+  @Test
+  public void testTransitiveClosure() throws Exception {
+    TargetGraphIndex.Universe universe = update();
+    assertThat(keySet(universe, universe.getTransitiveClosure(universe.getIds(keys("//b:b")))))
+        .containsExactlyElementsIn(keys("//b:b", "//b:e", "//d:d"));
+    assertThat(keySet(universe, universe.getTransitiveClosure(universe.getIds(keys("//a:a")))))
+        .containsExactlyElementsIn(keys("//a:a", "//b:b", "//b:e", "//c:c", "//d:d"));
+  }
+
+  @Test
+  public void testShortestPath() throws Exception {
+    TargetGraphIndex.Universe universe = update();
+    assertThat(universe.getShortestPath(key("//a:a"), key("//d:d")))
+        .containsExactlyElementsIn(keys("//a:a", "//b:b", "//d:d")).inOrder();
+    assertThat(universe.getShortestPath(key("//b:e"), key("//d:d")))
+        .containsExactlyElementsIn(keys("//b:e", "//d:d")).inOrder();
+    assertThat(universe.getShortestPath(key("//d:d"), key("//d:d")))
+        .containsExactlyElementsIn(keys("//d:d"));
+    assertThat(universe.getShortestPath(key("//d:d"), key("//a:a"))).isNull();
+    assertThat(universe.getShortestPath(key("//c:c"), key("//b:e"))).isNull();
+  }
+
+  @Test
+  public void testUnchangedUniverse() throws Exception {
+    TargetGraphIndex.Universe universe = update();
+    loader.loaded.clear();
+    assertThat(update()).isSameAs(universe);
+    assertThat(loader.loaded).isEmpty();
+  }
+
+  @Test
+  public void testChangedPackageIsLoadedAgain() throws Exception {
+    update();
+    loader.loaded.clear();
+    // b:b doesn't depend on d:d directly anymore.
+    loader.removeTarget("//b:b");
+    loader.addTarget("//b:b", "//b:e");
+    loader.changePackage("b");
+
+    TargetGraphIndex.Universe universe = update();
+    assertThat(loader.loaded).containsExactlyElementsIn(keys("//b:b", "//b:e"));
+    assertThat(universe.getShortestPath(key("//a:a"), key("//d:d")))
+        .containsExactlyElementsIn(keys("//a:a", "//c:c", "//d:d")).inOrder();
+    assertThat(keySet(universe, universe.getReverseDeps(universe.getIds(keys("//d:d")))))
+        .containsExactlyElementsIn(keys("//b:e", "//c:c"));
+  }
+
+  @Test
+  public void testRemovedNodes() throws Exception {
+    update();
+    // a:a doesn't depend on c:c anymore, and b:e is gone.
+    loader.removeTarget("//a:a");
+    loader.addTarget("//a:a", "//b:b");
+    loader.changePackage("a");
+    loader.removeTarget("//b:e");
+    loader.changePackage("b");
+
+    TargetGraphIndex.Universe universe = update();
+    assertThat(universe.size()).isEqualTo(3);
+    assertThat(universe.getIds(keys("//c:c"))).isNull();
+    assertThat(universe.getIds(keys("//b:e"))).isNull();
+    assertThat(keySet(universe, universe.getTransitiveClosure(universe.getIds(keys("//a:a")))))
+        .containsExactlyElementsIn(keys("//a:a", "//b:b", "//d:d"));
+    assertThat(keySet(universe, universe.getReverseDeps(universe.getIds(keys("//d:d")))))
+        .containsExactlyElementsIn(keys("//b:b"));
+
+    // Once b:e comes back, it is part of the universe again.
+    loader.addTarget("//b:e", "//d:d");
+    loader.changePackage("b");
+    universe = update();
+    assertThat(universe.size()).isEqualTo(4);
+    assertThat(universe.getShortestPath(key("//b:b"), key("//b:e")))
+        .containsExactlyElementsIn(keys("//b:b", "//b:e")).inOrder();
+  }
+
+  @Test
+  public void testNodeThatCannotBeLoaded() throws Exception {
+    loader.addTarget("//c:c", "//d:d", "//x:missing");
+    loader.changePackage("c");
+    TargetGraphIndex.Universe universe = update();
+    assertThat(universe.size()).isEqualTo(5);
+    assertThat(universe.getIds(keys("//x:missing"))).isNull();
+    assertThat(update()).isSameAs(universe);
+
+    loader.addTarget("//x:missing");
+    universe = update();
+    assertThat(universe.size()).isEqualTo(6);
+    assertThat(universe.getShortestPath(key("//a:a"), key("//x:missing")))
+        .containsExactlyElementsIn(keys("//a:a", "//c:c", "//x:missing")).inOrder();
+  }
+
+  @Test
+  public void testOldUniverseIsNotAffectedByUpdate() throws Exception {
+    TargetGraphIndex.Universe universe = update();
+    BitSet ids = universe.getIds(keys("//a:a"));
+    loader.removeTarget("//a:a");
+    loader.addTarget("//a:a", "//c:c");
+    loader.changePackage("a");
+    update();
+
+    assertThat(keySet(universe, universe.getTransitiveClosure(ids)))
+        .containsExactlyElementsIn(keys("//a:a", "//b:b", "//b:e", "//c:c", "//d:d"));
+  }
+}
@@ -0,0 +1,185 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Tests that {@link BinaryOperatorExpression} gives the same results and errors whether it is
+ * evaluated as a whole or streamed to a callback, which evaluates the operands in another order.
+ */
+@RunWith(JUnit4.class)
+public class BinaryOperatorExpressionTest {
+
+  private final QueryEnvironment<String> env = new FakeQueryEnvironment(ImmutableMap.of(
+      "a", ImmutableSet.of("//a:1", "//a:2", "//a:3", "//a:4"),
+      "b", ImmutableSet.of("//a:2", "//a:3", "//b:1"),
+      "c", ImmutableSet.of("//a:3", "//c:1")));
+
+  private void assertSameResult(String query, String... expected) throws Exception {
+    QueryExpression expr = QueryExpression.parse(query, env);
+    assertThat(expr.eval(env)).containsExactlyElementsIn(ImmutableList.copyOf(expected)).inOrder();
+    assertThat(QueryUtil.evalAll(env, expr))
+        .containsExactlyElementsIn(ImmutableList.copyOf(expected)).inOrder();
+  }
+
+  private void assertSameError(String query, String expectedMessage) throws Exception {
+    QueryExpression expr = QueryExpression.parse(query, env);
+    try {
+      expr.eval(env);
+      fail();
+    } catch (QueryException e) {
+      assertThat(e.getMessage()).isEqualTo(expectedMessage);
+    }
+    try {
+      QueryUtil.evalAll(env, expr);
+      fail();
+    } catch (QueryException e) {
+      assertThat(e.getMessage()).isEqualTo(expectedMessage);
+    }
+  }
+
+  @Test
+  public void testIntersect() throws Exception {
+    assertSameResult("a intersect b", "//a:2", "//a:3");
+    assertSameResult("a ^ b ^ c", "//a:3");
+    assertSameResult("b ^ a", "//a:2", "//a:3");
+    assertSameResult("(c + b) ^ a", "//a:3", "//a:2");
+  }
+
+  @Test
+  public void testExcept() throws Exception {
+    assertSameResult("a except b", "//a:1", "//a:4");
+    assertSameResult("a - b - c", "//a:1", "//a:4");
+    assertSameResult("a - c", "//a:1", "//a:2", "//a:4");
+    assertSameResult("(b + c) - a", "//b:1", "//c:1");
+  }
+
+  @Test
+  public void testUnion() throws Exception {
+    assertSameResult("c + a", "//a:3", "//c:1", "//a:1", "//a:2", "//a:4");
+  }
+
+  @Test
+  public void testErrorOfFirstOperandIsReported() throws Exception {
+    assertSameError("bad1 - bad2", "no such target: bad1");
+    assertSameError("bad1 ^ b ^ bad3", "no such target: bad1");
+    assertSameError("a - b - bad3", "no such target: bad3");
+    assertSameError("a ^ bad2 ^ bad3", "no such target: bad2");
+    assertSameError("(a + bad1) - bad2", "no such target: bad1");
+  }
+
+  /**
+   * Resolves target patterns from a fixed map, and fails for all others.
+   */
+  private static class FakeQueryEnvironment implements QueryEnvironment<String> {
+    private final Map<String, ImmutableSet<String>> patterns;
+    private final Map<String, Set<String>> variables = new HashMap<>();
+
+    private FakeQueryEnvironment(Map<String, ImmutableSet<String>> patterns) {
+      this.patterns = patterns;
+    }
+
+    @Override
+    public Set<String> getTargetsMatchingPattern(QueryExpression owner, String pattern)
+        throws QueryException {
+      if (!patterns.containsKey(pattern)) {
+        throw new QueryException(owner, "no such target: " + pattern);
+      }
+      return new LinkedHashSet<>(patterns.get(pattern));
+    }
+
+    @Override
+    public String getOrCreate(String target) {
+      return target;
+    }
+
+    @Override
+    public Collection<String> getFwdDeps(Iterable<String> targets) {
+      return ImmutableList.of();
+    }
+
+    @Override
+    public Collection<String> getReverseDeps(Iterable<String> targets) {
+      return ImmutableList.of();
+    }
+
+    @Override
+    public Set<String> getTransitiveClosure(Set<String> targets) {
+      return targets;
+    }
+
+    @Override
+    public void buildTransitiveClosure(QueryExpression caller, Set<String> targetNodes,
+        int maxDepth) {}
+
+    @Override
+    public Set<String> getNodesOnPath(String from, String to) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<String> getVariable(String name) {
+      return variables.get(name);
+    }
+
+    @Override
+    public Set<String> setVariable(String name, Set<String> value) {
+      return variables.put(name, value);
+    }
+
+    @Override
+    public void reportBuildFileError(QueryExpression expression, String msg)
+        throws QueryException {
+      throw new QueryException(expression, msg);
+    }
+
+    @Override
+    public Set<String> getBuildFiles(QueryExpression caller, Set<String> nodes) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TargetAccessor<String> getAccessor() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isSettingEnabled(@Nonnull Setting setting) {
+      return false;
+    }
+
+    @Override
+    public Iterable<QueryFunction> getFunctions() {
+      return DEFAULT_QUERY_FUNCTIONS;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.output;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link OutputFormatterCallback}.
+ */
+@RunWith(JUnit4.class)
+public class OutputFormatterCallbackTest {
+
+  /** Fails all writes once {@link #broken} is set. */
+  private static class BreakableOutputStream extends OutputStream {
+    private boolean broken = false;
+    private final List<Integer> written = new ArrayList<>();
+
+    @Override
+    public void write(int b) throws IOException {
+      if (broken) {
+        throw new IOException("broken pipe");
+      }
+      written.add(b);
+    }
+  }
+
+  private final BreakableOutputStream stream = new BreakableOutputStream();
+  private final List<String> printed = new ArrayList<>();
+  private boolean aborted = false;
+
+  private OutputFormatterCallback<String> createCallback() {
+    final PrintStream out = new PrintStream(stream);
+    return new OutputFormatterCallback<String>(out) {
+      @Override
+      protected void processOutput(Iterable<String> partialResult) {
+        for (String node : partialResult) {
+          printed.add(node);
+          out.println(node);
+        }
+      }
+
+      @Override
+      protected void finishOutput() {
+        out.println("end");
+      }
+
+      @Override
+      protected void abortOutput() {
+        aborted = true;
+      }
+    };
+  }
+
+  @Test
+  public void testWriteErrorIsThrownFromClose() throws Exception {
+    OutputFormatterCallback<String> callback = createCallback();
+    callback.process(ImmutableList.of("a"));
+    stream.broken = true;
+    callback.process(ImmutableList.of("b"));
+    // No output after the error.
+    callback.process(ImmutableList.of("c"));
+    assertThat(printed).containsExactly("a", "b").inOrder();
+
+    try {
+      callback.close();
+      fail();
+    } catch (IOException expected) {
+    }
+    assertThat(aborted).isTrue();
+  }
+
+  @Test
+  public void testWriteErrorAtTheEnd() throws Exception {
+    OutputFormatterCallback<String> callback = createCallback();
+    callback.process(ImmutableList.of("a"));
+    stream.broken = true;
+    try {
+      callback.close();
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void testOutputIsFlushedAfterEachBatch() throws Exception {
+    OutputFormatterCallback<String> callback = createCallback();
+    callback.process(ImmutableList.of("a"));
+    assertThat(stream.written).isNotEmpty();
+    callback.close();
+    assertThat(aborted).isFalse();
+  }
+}
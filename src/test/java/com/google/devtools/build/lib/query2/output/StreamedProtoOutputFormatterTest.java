@@ -0,0 +1,191 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.output;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.events.util.EventCollectionApparatus;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.packages.util.PackageFactoryApparatus;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.common.options.Options;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests for {@link StreamedProtoOutputFormatter}.
+ */
+@RunWith(JUnit4.class)
+public class StreamedProtoOutputFormatterTest {
+  private Scratch scratch = new Scratch("/workspace");
+  private EventCollectionApparatus events = new EventCollectionApparatus();
+  private PackageFactoryApparatus packages = new PackageFactoryApparatus(events, scratch);
+
+  private QueryOptions options;
+  private List<Target> targets;
+
+  @Before
+  public void setUp() throws Exception {
+    options = Options.getDefaults(QueryOptions.class);
+    List<String> lines = new ArrayList<>();
+    // More targets than are serialized in one chunk.
+    for (int i = 0; i < 700; i++) {
+      lines.add("testing_dummy_rule(name = 'rule" + i + "', srcs = ['src" + i + ".txt'],"
+          + " outs = ['out" + i + ".txt'], dummystrings = ['" + i + "'])");
+    }
+    Package pkg = packages.createPackage("pkg", scratch.file("pkg/BUILD",
+        lines.toArray(new String[lines.size()])));
+    targets = ImmutableList.copyOf(pkg.getTargets());
+  }
+
+  private Build.QueryResult protoOutput() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new ProtoOutputFormatter().outputUnordered(
+        options, targets, new PrintStream(bytes), new NullAspectResolver());
+    return Build.QueryResult.parseFrom(bytes.toByteArray());
+  }
+
+  /**
+   * Reads the length-delimited targets of the streamed output into a single query result.
+   */
+  private static Build.QueryResult parseStreamedOutput(byte[] output) throws Exception {
+    Build.QueryResult.Builder result = Build.QueryResult.newBuilder();
+    InputStream in = new ByteArrayInputStream(output);
+    Build.Target target;
+    while ((target = Build.Target.parseDelimitedFrom(in)) != null) {
+      result.addTarget(target);
+    }
+    return result.build();
+  }
+
+  private Build.QueryResult streamedOutput() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new StreamedProtoOutputFormatter().outputUnordered(
+        options, targets, new PrintStream(bytes), new NullAspectResolver());
+    return parseStreamedOutput(bytes.toByteArray());
+  }
+
+  @Test
+  public void testOutputMatchesProtoOutput() throws Exception {
+    Build.QueryResult expected = protoOutput();
+    assertThat(expected.getTargetCount()).isEqualTo(targets.size());
+    assertThat(streamedOutput()).isEqualTo(expected);
+  }
+
+  @Test
+  public void testStreamCallbackMatchesProtoOutput() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    OutputFormatterCallback<Target> callback = new StreamedProtoOutputFormatter()
+        .createStreamCallback(options, new PrintStream(bytes), new NullAspectResolver());
+    for (List<Target> batch : Iterables.partition(targets, 300)) {
+      callback.process(batch);
+    }
+    callback.close();
+
+    assertThat(parseStreamedOutput(bytes.toByteArray())).isEqualTo(protoOutput());
+  }
+
+  @Test
+  public void testOutputRuleAttributes() throws Exception {
+    options.protoOutputRuleAttributes = ImmutableList.of("srcs", "dummystrings");
+    Build.QueryResult result = streamedOutput();
+    assertThat(result).isEqualTo(protoOutput());
+
+    int rules = 0;
+    for (Build.Target target : result.getTargetList()) {
+      if (target.hasRule()) {
+        rules++;
+        Set<String> attributes = new HashSet<>();
+        for (Build.Attribute attribute : target.getRule().getAttributeList()) {
+          attributes.add(attribute.getName());
+        }
+        assertThat(attributes).containsExactly("srcs", "dummystrings");
+      }
+    }
+    assertThat(rules).isEqualTo(700);
+  }
+
+  @Test
+  public void testConcurrentOutputsKeepTheirOptions() throws Exception {
+    // The formatters are shared, so a second query must not change the options of the first.
+    StreamedProtoOutputFormatter formatter = new StreamedProtoOutputFormatter();
+    QueryOptions filtered = Options.getDefaults(QueryOptions.class);
+    filtered.protoOutputRuleAttributes = ImmutableList.of("srcs");
+    ByteArrayOutputStream filteredBytes = new ByteArrayOutputStream();
+    OutputFormatterCallback<Target> filteredCallback = formatter.createStreamCallback(
+        filtered, new PrintStream(filteredBytes), new NullAspectResolver());
+    ByteArrayOutputStream allBytes = new ByteArrayOutputStream();
+    OutputFormatterCallback<Target> allCallback = formatter.createStreamCallback(
+        options, new PrintStream(allBytes), new NullAspectResolver());
+
+    filteredCallback.process(targets);
+    allCallback.process(targets);
+    filteredCallback.close();
+    allCallback.close();
+
+    assertThat(parseStreamedOutput(allBytes.toByteArray())).isEqualTo(protoOutput());
+    for (Build.Target target : parseStreamedOutput(filteredBytes.toByteArray()).getTargetList()) {
+      if (target.hasRule()) {
+        assertThat(target.getRule().getAttributeCount()).isEqualTo(1);
+        assertThat(target.getRule().getAttribute(0).getName()).isEqualTo("srcs");
+      }
+    }
+  }
+
+  @Test
+  public void testNoRuleAttributes() throws Exception {
+    options.protoOutputRuleAttributes = ImmutableList.of();
+    for (Build.Target target : streamedOutput().getTargetList()) {
+      if (target.hasRule()) {
+        assertThat(target.getRule().getAttributeList()).isEmpty();
+        // The inputs and outputs of the rule are still printed.
+        assertThat(target.getRule().getRuleInputList()).isNotEmpty();
+      }
+    }
+  }
+
+  @Test
+  public void testAbortAfterPartialOutput() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    OutputFormatterCallback<Target> callback = new StreamedProtoOutputFormatter()
+        .createStreamCallback(options, new PrintStream(bytes), new NullAspectResolver());
+    callback.process(targets.subList(0, 100));
+    callback.abort();
+    // Only complete targets have been written.
+    assertThat(parseStreamedOutput(bytes.toByteArray()).getTargetCount()).isAtMost(100);
+    // The serializing threads are stopped right away, not only once they are idle for a while.
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith("streamed-proto-output")) {
+        thread.join(1000);
+        assertThat(thread.isAlive()).isFalse();
+      }
+    }
+  }
+}
@@ -104,6 +104,7 @@ public class LinuxSandboxedStrategyTestCase {
                     blazeDirs,
                     MoreExecutors.newDirectExecutorService(),
                     true,
+                    false,
                     false)),
             ImmutableList.<ActionContextProvider>of());
   }
@@ -0,0 +1,140 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.sandbox.SandboxPool.SandboxRoot;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Tests for {@link SandboxPool}.
+ */
+@RunWith(JUnit4.class)
+public class SandboxPoolTest {
+  private FileSystem fileSystem;
+  private Path sandboxBase;
+  private SandboxPool pool;
+
+  @Before
+  public void setUp() throws Exception {
+    fileSystem = new InMemoryFileSystem();
+    sandboxBase = fileSystem.getPath("/execroot/sandbox");
+    FileSystemUtils.createDirectoryAndParents(sandboxBase);
+    pool = new SandboxPool(sandboxBase, "test");
+  }
+
+  private Path path(String path) {
+    return fileSystem.getPath(path);
+  }
+
+  /** Simulates what the namespace sandbox does for the mount points outside of its namespace. */
+  private void createMountPoints(Path sandboxPath, ImmutableMap<Path, Path> mounts)
+      throws IOException {
+    for (Path target : mounts.keySet()) {
+      Path mountPoint = sandboxPath.getRelative(target.asFragment().relativeTo("/"));
+      FileSystemUtils.createDirectoryAndParents(mountPoint.getParentDirectory());
+      FileSystemUtils.createEmptyFile(mountPoint);
+    }
+  }
+
+  @Test
+  public void testNewRootsAreDistinct() {
+    assertThat(pool.newRoot().getPath()).isNotEqualTo(pool.newRoot().getPath());
+    assertThat(pool.takeIdleRoot(ImmutableMap.<Path, Path>of())).isNull();
+  }
+
+  @Test
+  public void testPrepareKeepsSharedMountPointsAndDeletesTheRest() throws Exception {
+    ImmutableMap<Path, Path> oldMounts =
+        ImmutableMap.of(
+            path("/execroot/a/shared"), path("/execroot/a/shared"),
+            path("/execroot/b/stale"), path("/execroot/b/stale"),
+            path("/execroot/c/moved"), path("/somewhere/else"));
+    ImmutableMap<Path, Path> newMounts =
+        ImmutableMap.of(
+            path("/execroot/a/shared"), path("/execroot/a/shared"),
+            path("/execroot/c/moved"), path("/execroot/c/moved"));
+
+    SandboxRoot root = pool.newRoot();
+    root.prepare(oldMounts);
+    Path sandboxPath = root.getPath();
+    createMountPoints(sandboxPath, oldMounts);
+    FileSystemUtils.createEmptyFile(sandboxPath.getRelative("execroot/a/leftover"));
+    FileSystemUtils.createDirectoryAndParents(sandboxPath.getRelative("tmp/dir"));
+
+    root.prepare(newMounts);
+
+    assertThat(sandboxPath.getRelative("execroot/a/shared").exists()).isTrue();
+    assertThat(sandboxPath.getRelative("execroot/a/leftover").exists()).isFalse();
+    assertThat(sandboxPath.getRelative("execroot/b").exists()).isFalse();
+    assertThat(sandboxPath.getRelative("execroot/c/moved").exists()).isFalse();
+    assertThat(sandboxPath.getRelative("tmp").exists()).isFalse();
+  }
+
+  @Test
+  public void testPrepareDeletesMountPointsInSandboxDirectories() throws Exception {
+    ImmutableMap<Path, Path> mounts =
+        ImmutableMap.of(
+            path("/tmp/input"), path("/tmp/input"),
+            path("/execroot/a/shared"), path("/execroot/a/shared"));
+
+    // Two spawns with the same mounts, one after the other, in the same sandbox root.
+    SandboxRoot root = pool.newRoot();
+    root.prepare(mounts);
+    Path sandboxPath = root.getPath();
+    FileSystemUtils.createDirectoryAndParents(sandboxPath.getRelative("dev"));
+    FileSystemUtils.createDirectoryAndParents(sandboxPath.getRelative("proc"));
+    createMountPoints(sandboxPath, mounts);
+    pool.release(root);
+
+    assertThat(pool.takeIdleRoot(mounts)).isSameAs(root);
+    root.prepare(mounts);
+
+    // The sandbox creates these with mkdir(), which would fail with EEXIST.
+    assertThat(sandboxPath.getRelative("dev").exists()).isFalse();
+    assertThat(sandboxPath.getRelative("proc").exists()).isFalse();
+    assertThat(sandboxPath.getRelative("tmp").exists()).isFalse();
+    assertThat(sandboxPath.getRelative("execroot/a/shared").exists()).isTrue();
+  }
+
+  @Test
+  public void testTakeIdleRootPrefersMostSimilarMounts() throws Exception {
+    ImmutableMap<Path, Path> mountsA = ImmutableMap.of(path("/a"), path("/a"));
+    ImmutableMap<Path, Path> mountsB =
+        ImmutableMap.of(path("/b"), path("/b"), path("/c"), path("/c"));
+
+    SandboxRoot rootA = pool.newRoot();
+    rootA.prepare(mountsA);
+    SandboxRoot rootB = pool.newRoot();
+    rootB.prepare(mountsB);
+    pool.release(rootB);
+    pool.release(rootA);
+
+    assertThat(pool.takeIdleRoot(ImmutableMap.of(path("/c"), path("/c")))).isSameAs(rootB);
+    assertThat(pool.drain()).containsExactly(rootA.getPath());
+    assertThat(pool.takeIdleRoot(mountsA)).isNull();
+  }
+}
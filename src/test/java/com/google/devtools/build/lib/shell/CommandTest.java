@@ -15,13 +15,16 @@ package com.google.devtools.build.lib.shell;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.devtools.build.lib.shell.TestUtil.assertArrayEquals;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.common.io.Files;
 import com.google.devtools.build.lib.testutil.BlazeTestUtils;
 import com.google.devtools.build.lib.testutil.TestConstants;
+import com.google.devtools.build.lib.testutil.TestUtils;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -560,6 +563,20 @@ public class CommandTest {
     }
   }
 
+  @Test
+  public void testOutputRedirectedToFiles() throws Exception {
+    File dir = TestUtils.makeTempDir();
+    File out = new File(dir, "out");
+    File err = new File(dir, "err");
+    Files.write("before\n", out, UTF_8);
+    Command command = new Command(new String[] {"/bin/sh", "-c", "echo foo; echo bar >&2"});
+    CommandResult result =
+        command.execute(Command.NO_INPUT, Command.NO_OBSERVER, out, err, false);
+    assertTrue(result.getTerminationStatus().success());
+    assertEquals("before\nfoo\n", Files.toString(out, UTF_8));
+    assertEquals("bar\n", Files.toString(err, UTF_8));
+  }
+
   @Test
   public void testOutputStreamThrowsExceptionAndCommandFails()
   throws Exception {
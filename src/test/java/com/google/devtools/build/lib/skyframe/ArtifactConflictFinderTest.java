@@ -0,0 +1,332 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ArtifactPrefixConflictException;
+import com.google.devtools.build.lib.actions.MutableActionGraph.ActionConflictException;
+import com.google.devtools.build.lib.actions.Root;
+import com.google.devtools.build.lib.actions.util.TestAction;
+import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ConflictException;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.build.skyframe.SkyFunctionName;
+import com.google.devtools.build.skyframe.SkyKey;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests for {@link ArtifactConflictFinder}.
+ */
+@RunWith(JUnit4.class)
+public class ArtifactConflictFinderTest {
+  private static final SkyFunctionName TEST_FUNCTION = SkyFunctionName.create("TEST");
+
+  private Path execRoot;
+  private Root root;
+  private final ArtifactConflictFinder finder = new ArtifactConflictFinder();
+  private final Map<SkyKey, ActionLookupValue> values = new HashMap<>();
+  private final Set<SkyKey> changedKeys = new HashSet<>();
+
+  @Before
+  public void setUp() throws Exception {
+    execRoot = new InMemoryFileSystem(BlazeClock.instance()).getPath("/exec");
+    root = Root.asDerivedRoot(execRoot, execRoot.getRelative("out"));
+  }
+
+  private Action action(String input, String... outputs) {
+    ImmutableSet.Builder<Artifact> artifacts = ImmutableSet.builder();
+    for (String output : outputs) {
+      artifacts.add(new Artifact(execRoot.getRelative("out/" + output), root));
+    }
+    return new TestAction(TestAction.NO_EFFECT,
+        ImmutableSet.of(new Artifact(execRoot.getRelative("out/" + input), root)),
+        artifacts.build());
+  }
+
+  private void putValue(String key, Action action) {
+    values.put(new SkyKey(TEST_FUNCTION, key), new ActionLookupValue(action));
+    changedKeys.add(new SkyKey(TEST_FUNCTION, key));
+  }
+
+  private void removeValue(String key) {
+    values.remove(new SkyKey(TEST_FUNCTION, key));
+    changedKeys.add(new SkyKey(TEST_FUNCTION, key));
+  }
+
+  private void update() throws Exception {
+    finder.update(changedKeys, values);
+    changedKeys.clear();
+  }
+
+  private static void assertPrefixConflict(ConflictException e) throws Exception {
+    try {
+      e.rethrowTyped();
+      fail();
+    } catch (ArtifactPrefixConflictException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testPrefixConflict() throws Exception {
+    Action prefix = action("in", "dir");
+    Action nested = action("in", "dir/sub/file");
+    putValue("a", prefix);
+    putValue("b", nested);
+    putValue("c", action("in", "dir2/file"));
+    update();
+
+    assertThat(finder.getBadActions().keySet()).containsExactly(prefix, nested);
+    assertPrefixConflict(finder.getBadActions().get(prefix));
+    assertPrefixConflict(finder.getBadActions().get(nested));
+
+    removeValue("b");
+    update();
+    assertThat(finder.getBadActions()).isEmpty();
+  }
+
+  @Test
+  public void testOnlyTopmostPrefixConflicts() throws Exception {
+    Action x = action("in", "x");
+    Action y = action("in", "x/y");
+    Action z = action("in", "x/y/z");
+    putValue("x", x);
+    putValue("y", y);
+    putValue("z", z);
+    update();
+
+    // If x << y << z, then only (x,y) and (x,z) are conflicts, but not (y,z).
+    assertThat(finder.getBadActions().keySet()).containsExactly(x, y, z);
+    assertPrefixConflict(finder.getBadActions().get(x));
+    assertThat(finder.getBadActions().get(y).getMessage()).contains("'out/x/y'");
+    assertThat(finder.getBadActions().get(z).getMessage()).contains("'out/x/y/z'");
+    assertThat(finder.getBadActions().get(y).getMessage()).contains("'out/x'");
+    assertThat(finder.getBadActions().get(z).getMessage()).contains("'out/x'");
+
+    // Once x is gone, y is the topmost prefix of z.
+    removeValue("x");
+    update();
+    assertThat(finder.getBadActions().keySet()).containsExactly(y, z);
+
+    // And when x comes back, y and z conflict with x again.
+    putValue("x", x);
+    update();
+    assertThat(finder.getBadActions().keySet()).containsExactly(x, y, z);
+    assertThat(finder.getBadActions().get(z).getMessage()).doesNotContain("'out/x/y'");
+  }
+
+  @Test
+  public void testTopmostPrefixAddedLast() throws Exception {
+    Action y = action("in", "x/y");
+    Action z = action("in", "x/y/z");
+    Action w = action("in", "x/w");
+    putValue("y", y);
+    putValue("z", z);
+    putValue("w", w);
+    update();
+    assertThat(finder.getBadActions().keySet()).containsExactly(y, z);
+
+    Action x = action("in", "x");
+    putValue("x", x);
+    update();
+    assertThat(finder.getBadActions().keySet()).containsExactly(x, y, z, w);
+    assertThat(finder.getBadActions().get(z).getMessage()).doesNotContain("'out/x/y'");
+
+    removeValue("y");
+    update();
+    assertThat(finder.getBadActions().keySet()).containsExactly(x, z, w);
+  }
+
+  @Test
+  public void testClear() throws Exception {
+    Action prefix = action("in", "dir");
+    Action nested = action("in", "dir/file");
+    putValue("a", prefix);
+    putValue("b", nested);
+    update();
+    assertThat(finder.getBadActions().keySet()).containsExactly(prefix, nested);
+
+    finder.clear();
+    assertThat(finder.getBadActions()).isEmpty();
+    update();
+    assertThat(finder.getBadActions().keySet()).containsExactly(prefix, nested);
+  }
+
+  @Test
+  public void testChangedValue() throws Exception {
+    Action first = action("in", "dir/file");
+    putValue("a", first);
+    putValue("b", action("in", "other"));
+    update();
+    assertThat(finder.getBadActions()).isEmpty();
+
+    Action changed = action("in", "dir");
+    putValue("b", changed);
+    update();
+    assertThat(finder.getBadActions().keySet()).containsExactly(first, changed);
+
+    putValue("b", action("in", "other"));
+    update();
+    assertThat(finder.getBadActions()).isEmpty();
+  }
+
+  @Test
+  public void testOutputConflict() throws Exception {
+    Action first = action("in1", "file", "file2");
+    Action second = action("in2", "file2");
+    putValue("a", first);
+    putValue("b", second);
+    update();
+
+    assertThat(finder.getBadActions()).hasSize(1);
+    Action bad = finder.getBadActions().keySet().iterator().next();
+    try {
+      finder.getBadActions().get(bad).rethrowTyped();
+      fail();
+    } catch (ActionConflictException expected) {
+      // Expected.
+    }
+
+    // Once the action that was registered successfully is gone, the other one is fine.
+    removeValue(bad == first ? "b" : "a");
+    update();
+    assertThat(finder.getBadActions()).isEmpty();
+  }
+
+  @Test
+  public void testSharedActions() throws Exception {
+    putValue("a", action("in", "dir"));
+    putValue("b", action("in", "dir"));
+    update();
+    assertThat(finder.getBadActions()).isEmpty();
+
+    Action nested = action("in", "dir/file");
+    putValue("c", nested);
+    update();
+    assertThat(finder.getBadActions()).containsKey(nested);
+
+    // The prefix artifact is still generated by the remaining shared action.
+    removeValue("a");
+    update();
+    assertThat(finder.getBadActions()).containsKey(nested);
+
+    removeValue("b");
+    update();
+    assertThat(finder.getBadActions()).isEmpty();
+  }
+
+  @Test
+  public void testUnchangedValuesAreNotLookedUp() throws Exception {
+    Action prefix = action("in", "dir");
+    putValue("a", prefix);
+    putValue("b", action("in", "other"));
+    update();
+
+    // Only the changed key is passed; the update must not notice the value of an unchanged key.
+    values.put(new SkyKey(TEST_FUNCTION, "b"), new ActionLookupValue(action("in", "dir/file")));
+    Action nested = action("in", "dir/sub");
+    putValue("c", nested);
+    update();
+    assertThat(finder.getBadActions().keySet()).containsExactly(prefix, nested);
+  }
+
+  /**
+   * Adds enough values that a rebuild of the index registers them in parallel, and checks that
+   * the result is the same as when they are added one at a time.
+   */
+  @Test
+  public void testParallelRebuildMatchesIncrementalUpdates() throws Exception {
+    ArtifactConflictFinder incrementalFinder = new ArtifactConflictFinder();
+    List<Action> prefixActions = new ArrayList<>();
+    List<Action> nestedActions = new ArrayList<>();
+    for (int i = 0; i < ArtifactConflictFinder.MIN_VALUES_FOR_PARALLEL_REBUILD; i++) {
+      Action action;
+      if (i % 100 == 0) {
+        action = action("in", "prefix" + i);
+        prefixActions.add(action);
+      } else if (i % 100 == 50) {
+        action = action("in", "prefix" + (i - 50) + "/sub/file");
+        nestedActions.add(action);
+      } else if (i % 100 == 99) {
+        // Shared with the previous action.
+        action = action("in", "dir" + (i / 100) + "/file" + (i - 1));
+      } else {
+        action = action("in", "dir" + (i / 100) + "/file" + i);
+      }
+      putValue("k" + i, action);
+      incrementalFinder.update(changedKeys, values);
+      changedKeys.clear();
+    }
+    finder.update(values.keySet(), values);
+
+    Set<Action> expected = new HashSet<>(prefixActions);
+    expected.addAll(nestedActions);
+    assertThat(finder.getBadActions().keySet()).isEqualTo(expected);
+    assertThat(incrementalFinder.getBadActions().keySet()).isEqualTo(expected);
+    for (Action action : expected) {
+      assertThat(finder.getBadActions().get(action).getMessage())
+          .isEqualTo(incrementalFinder.getBadActions().get(action).getMessage());
+    }
+
+    // The parallel rebuild leaves an index that incremental updates can use.
+    removeValue("k0");
+    update();
+    expected.remove(prefixActions.get(0));
+    expected.remove(nestedActions.get(0));
+    assertThat(finder.getBadActions().keySet()).isEqualTo(expected);
+  }
+
+  @Test
+  public void testParallelRebuildFindsOutputConflict() throws Exception {
+    for (int i = 0; i < ArtifactConflictFinder.MIN_VALUES_FOR_PARALLEL_REBUILD; i++) {
+      putValue("k" + i, action("in" + i, "file" + i));
+    }
+    Action first = action("in1", "dup", "file-a");
+    Action second = action("in2", "dup", "file-b");
+    putValue("first", first);
+    putValue("second", second);
+    update();
+
+    assertThat(finder.getBadActions()).hasSize(1);
+    Action bad = finder.getBadActions().keySet().iterator().next();
+    assertThat(bad == first || bad == second).isTrue();
+    try {
+      finder.getBadActions().get(bad).rethrowTyped();
+      fail();
+    } catch (ActionConflictException expected) {
+      // Expected.
+    }
+
+    removeValue(bad == first ? "second" : "first");
+    update();
+    assertThat(finder.getBadActions()).isEmpty();
+  }
+}
@@ -30,6 +30,7 @@ public class TestConstants {
       "build_interface_so",
       "build-runfiles",
       "namespace-sandbox",
+      "process-launcher",
       "process-wrapper");
 
   /**
@@ -0,0 +1,104 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.util.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.devtools.build.lib.shell.Command;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A test for {@link FileOutErr}.
+ */
+@RunWith(JUnit4.class)
+public class FileOutErrTest {
+  private Path outFile;
+  private Path errFile;
+  private FileOutErr outErr;
+
+  @Before
+  public void setUp() throws Exception {
+    Path dir = new InMemoryFileSystem().getPath("/outerr");
+    FileSystemUtils.createDirectoryAndParents(dir);
+    outFile = dir.getRelative("out");
+    errFile = dir.getRelative("err");
+    outErr = new FileOutErr(outFile, errFile);
+  }
+
+  /** Simulates a subprocess appending to a file it got redirected to. */
+  private static void appendFromOutside(Path file, String content) throws Exception {
+    try (OutputStream out = file.getOutputStream(true)) {
+      out.write(content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+  }
+
+  @Test
+  public void testPrepareForRedirectionDeletesStaleOutput() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(outFile, "stale");
+
+    assertTrue(outErr.prepareForRedirection());
+
+    assertFalse(outFile.exists());
+  }
+
+  @Test
+  public void testPrepareForRedirectionKeepsRecordedOutput() throws Exception {
+    outErr.printOut("before ");
+    outErr.printErr("err ");
+
+    assertTrue(outErr.prepareForRedirection());
+    appendFromOutside(outFile, "during ");
+    appendFromOutside(errFile, "output");
+    outErr.printOut("after");
+
+    assertEquals("before during after", outErr.outAsLatin1());
+    assertEquals("err output", outErr.errAsLatin1());
+  }
+
+  @Test
+  public void testNullOutErrCannotBeRedirected() throws Exception {
+    assertFalse(new FileOutErr().prepareForRedirection());
+  }
+
+  @Test
+  public void testSubprocessWritesToRedirectedFiles() throws Exception {
+    Path dir = new JavaIoFileSystem().getPath(TestUtils.makeTempDir().getPath());
+    FileOutErr nativeOutErr = new FileOutErr(dir.getRelative("out"), dir.getRelative("err"));
+    nativeOutErr.printOut("before ");
+
+    assertTrue(nativeOutErr.prepareForRedirection());
+    new Command(new String[] {"/bin/sh", "-c", "printf during; printf output >&2"}).execute(
+        Command.NO_INPUT, Command.NO_OBSERVER,
+        nativeOutErr.getOutputFile().getPathFile(), nativeOutErr.getErrorFile().getPathFile(),
+        false);
+    nativeOutErr.printOut(" after");
+
+    assertEquals("before during after", nativeOutErr.outAsLatin1());
+    assertEquals("output", nativeOutErr.errAsLatin1());
+  }
+}
@@ -255,6 +255,18 @@ public class AndroidResourceProcessingAction {
         help = "Version code to stamp into the packaged manifest.")
     public int versionCode;
 
+    @Option(name = "experimentalResourceCache",
+        defaultValue = "null",
+        converter = PathConverter.class,
+        category = "experimental",
+        help = "Experimental: directory in which the merged resources are kept between"
+            + " invocations. If set, only the resource files that changed since the previous"
+            + " invocation with the same directory are merged. The directory is not an output of"
+            + " the action, so the result depends on state outside of the action's inputs; do not"
+            + " use it with sandboxed or remote execution. The directory must not be shared by"
+            + " concurrent invocations.")
+    public Path experimentalResourceCache;
+
     @Option(name = "assetsToIgnore",
         defaultValue = "",
         converter = CommaSeparatedOptionListConverter.class,
@@ -288,27 +300,54 @@ public class AndroidResourceProcessingAction {
 
     try {
 
-      Path expandedOut = Files.createTempDirectory("tmp-expanded");
-      expandedOut.toFile().deleteOnExit();
-      Path deduplicatedOut = Files.createTempDirectory("tmp-deduplicated");
-      deduplicatedOut.toFile().deleteOnExit();
+      Path expandedOut;
+      Path deduplicatedOut;
+      if (options.experimentalResourceCache != null) {
+        // The incremental merge requires the modified resources to be at the same paths in each
+        // invocation.
+        expandedOut = options.experimentalResourceCache.resolve("expanded");
+        deduplicatedOut = options.experimentalResourceCache.resolve("deduplicated");
+        IncrementalDataMerger.deleteRecursively(expandedOut);
+        IncrementalDataMerger.deleteRecursively(deduplicatedOut);
+        Files.createDirectories(expandedOut);
+        Files.createDirectories(deduplicatedOut);
+      } else {
+        expandedOut = Files.createTempDirectory("tmp-expanded");
+        expandedOut.toFile().deleteOnExit();
+        deduplicatedOut = Files.createTempDirectory("tmp-deduplicated");
+        deduplicatedOut.toFile().deleteOnExit();
+      }
       
       LOGGER.fine(String.format("Setup finished at %sms", timer.elapsed(TimeUnit.MILLISECONDS)));
 
       final ImmutableList<DirectoryModifier> modifiers = ImmutableList.of(
           new PackedResourceTarExpander(expandedOut, working),
-          new FileDeDuplicator(Hashing.murmur3_128(), deduplicatedOut, working));
+          // Copying every file again on each invocation would undo much of the incremental
+          // merge, so the experimental cache hard links the deduplicated files.
+          new FileDeDuplicator(Hashing.murmur3_128(), deduplicatedOut, working,
+              options.experimentalResourceCache != null));
 
       final AndroidBuilder builder = sdkTools.createAndroidBuilder();
 
-      final MergedAndroidData mergedData = resourceProcessor.mergeData(
-          options.primaryData,
-          options.data,
-          mergedResources,
-          mergedAssets,
-          modifiers,
-          useAaptCruncher() ? builder.getAaptCruncher() : null,
-          true);
+      final MergedAndroidData mergedData;
+      if (options.experimentalResourceCache != null) {
+        mergedData = resourceProcessor.mergeDataIncrementally(
+            options.primaryData,
+            options.data,
+            options.experimentalResourceCache,
+            modifiers,
+            useAaptCruncher() ? builder.getAaptCruncher() : null,
+            true);
+      } else {
+        mergedData = resourceProcessor.mergeData(
+            options.primaryData,
+            options.data,
+            mergedResources,
+            mergedAssets,
+            modifiers,
+            useAaptCruncher() ? builder.getAaptCruncher() : null,
+            true);
+      }
 
       LOGGER.fine(String.format("Merging finished at %sms", timer.elapsed(TimeUnit.MILLISECONDS)));
       final Path filteredResources = fileSystem.getPath("resources-filtered");
@@ -16,6 +16,7 @@ package com.google.devtools.build.android;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
 
 import com.android.annotations.Nullable;
 import com.android.builder.core.AndroidBuilder;
@@ -185,12 +186,7 @@ public class AndroidResourceProcessor {
 
     List<ResourceSet> resourceSets = new ArrayList<>();
     List<AssetSet> assetSets = new ArrayList<>();
-
-    if (strict) {
-      androidDataToStrictMergeSet(primary, secondary, modifiers, resourceSets, assetSets);
-    } else {
-      androidDataToRelaxedMergeSet(primary, secondary, modifiers, resourceSets, assetSets);
-    }
+    androidDataToMergeSets(primary, secondary, modifiers, strict, resourceSets, assetSets);
     ResourceMerger merger = new ResourceMerger();
     for (ResourceSet set : resourceSets) {
       set.loadFromFiles(stdLogger);
@@ -212,6 +208,38 @@ public class AndroidResourceProcessor {
     return new MergedAndroidData(resourcesOut, assetsOut, primary.getManifest());
   }
 
+  /**
+   * Merges all secondary resources with the primary resources, like {@link #mergeData}, but only
+   * merges the resource files that changed since the previous merge with the same
+   * {@code cacheDir}. The merged data is kept in the cache directory.
+   *
+   * <p>The modifiers must write the modified resources to the same paths in each merge, see
+   * {@link IncrementalDataMerger}.
+   */
+  public MergedAndroidData mergeDataIncrementally(
+      final UnvalidatedAndroidData primary,
+      final List<DependencyAndroidData> secondary,
+      final Path cacheDir,
+      final ImmutableList<DirectoryModifier> modifiers,
+      @Nullable final PngCruncher cruncher,
+      final boolean strict) throws MergingException, IOException {
+    List<ResourceSet> resourceSets = new ArrayList<>();
+    List<AssetSet> assetSets = new ArrayList<>();
+    androidDataToMergeSets(primary, secondary, modifiers, strict, resourceSets, assetSets);
+    return new IncrementalDataMerger(cacheDir, Hashing.murmur3_128(), stdLogger)
+        .merge(resourceSets, assetSets, primary.getManifest(), cruncher);
+  }
+
+  private void androidDataToMergeSets(UnvalidatedAndroidData primary,
+      List<DependencyAndroidData> secondary, ImmutableList<DirectoryModifier> modifiers,
+      boolean strict, List<ResourceSet> resourceSets, List<AssetSet> assetSets) {
+    if (strict) {
+      androidDataToStrictMergeSet(primary, secondary, modifiers, resourceSets, assetSets);
+    } else {
+      androidDataToRelaxedMergeSet(primary, secondary, modifiers, resourceSets, assetSets);
+    }
+  }
+
   private void androidDataToRelaxedMergeSet(UnvalidatedAndroidData primary,
       List<DependencyAndroidData> secondary, ImmutableList<DirectoryModifier> modifiers,
       List<ResourceSet> resourceSets, List<AssetSet> assetSets) {
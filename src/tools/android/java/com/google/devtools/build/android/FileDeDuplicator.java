@@ -26,6 +26,7 @@ import com.google.common.hash.Hasher;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -39,8 +40,8 @@ import java.util.logging.Logger;
  * <p>
  * This is necessary for the andorid_resources deprecation -- the old style of inheritance
  * required all relevant resources to be copied from each dependency. This means each resource is
- * duplicated for each resource set. This modifier creates a sym link forest for each unique file
- * on a first come, first serve basis. Which makes aapt and the merging code loads happier.
+ * duplicated for each resource set. This modifier creates a copy of each unique file on a first
+ * come, first serve basis. Which makes aapt and the merging code loads happier.
  */
 public class FileDeDuplicator implements DirectoryModifier {
   private static final Logger LOGGER = Logger.getLogger(FileDeDuplicator.class.getName());
@@ -50,13 +51,15 @@ public class FileDeDuplicator implements DirectoryModifier {
     private final Path workingDir;
     private Multimap<Path, HashCode> seen;
     private HashFunction hashFunction;
+    private final boolean linkFiles;
 
     private ConditionalCopyVisitor(Path newRoot, Path workingDir,
-        Multimap<Path, HashCode> seen, HashFunction hashFunction) {
+        Multimap<Path, HashCode> seen, HashFunction hashFunction, boolean linkFiles) {
       this.newRoot = newRoot;
       this.workingDir = workingDir;
       this.seen = seen;
       this.hashFunction = hashFunction;
+      this.linkFiles = linkFiles;
     }
 
     @Override
@@ -73,7 +76,11 @@ public class FileDeDuplicator implements DirectoryModifier {
       if (!seen.get(relativePath).contains(fileHash)) {
         seen.get(relativePath).add(fileHash);
         // TODO(bazel-team): Change to a symlink when the AOSP merge code supports symlinks.
-        Files.copy(file, newRoot.resolve(relativePath));
+        if (linkFiles) {
+          linkOrCopy(file, newRoot.resolve(relativePath));
+        } else {
+          Files.copy(file, newRoot.resolve(relativePath));
+        }
         // Files.createSymbolicLink(newRoot.resolve(workingDir.relativize(file)), file);
       } else {
         LOGGER.warning(String.format("Duplicated file %s [%s]", relativePath, file));
@@ -82,6 +89,24 @@ public class FileDeDuplicator implements DirectoryModifier {
     }
   }
 
+  /**
+   * Creates a hard link to the file, which the merge code treats like a copy. Falls back to
+   * copying the file if the file system doesn't support hard links (e.g. if the link would cross
+   * file systems). Anything that writes to the link in place writes to the input file.
+   *
+   * <p>The inputs are often symlinks, and a hard link to a symlink is another symlink, so the link
+   * is made to the file the symlink resolves to.
+   */
+  private static void linkOrCopy(Path file, Path target) throws IOException {
+    try {
+      Files.createLink(target, file.toRealPath());
+    } catch (FileAlreadyExistsException e) {
+      throw e;
+    } catch (UnsupportedOperationException | IOException e) {
+      Files.copy(file, target);
+    }
+  }
+
   private static HashCode hashPath(Path file, final Hasher hasher) throws IOException {
     byte[] tmpBuffer = new byte[512];
     final InputStream in = Files.newInputStream(file);
@@ -97,12 +122,24 @@ public class FileDeDuplicator implements DirectoryModifier {
   private final HashFunction hashFunction;
   private final Path out;
   private final Path workingDirectory;
+  private final boolean linkFiles;
 
   public FileDeDuplicator(HashFunction hashFunction, Path out, Path workingDirectory) {
+    this(hashFunction, out, workingDirectory, false);
+  }
+
+  /**
+   * @param linkFiles whether to hard link the unique files instead of copying them. The links
+   *     share their contents with the input files, which may be source files, so this is only safe
+   *     if nothing writes to the deduplicated files in place.
+   */
+  public FileDeDuplicator(HashFunction hashFunction, Path out, Path workingDirectory,
+      boolean linkFiles) {
     this.hashFunction = hashFunction;
     this.workingDirectory = workingDirectory;
     this.seen = HashMultimap.create();
     this.out = out;
+    this.linkFiles = linkFiles;
   }
 
   private ImmutableList<Path> conditionallyCopy(ImmutableList<Path> roots)
@@ -117,7 +154,7 @@ public class FileDeDuplicator implements DirectoryModifier {
         seen.put(root, null);
         final Path newRoot = out.resolve(workingDirectory.relativize(root));
         Files.walkFileTree(root, ImmutableSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
-            new ConditionalCopyVisitor(newRoot, root, seen, hashFunction));
+            new ConditionalCopyVisitor(newRoot, root, seen, hashFunction, linkFiles));
         builder.add(newRoot);
       } else {
         LOGGER.warning(String.format("Duplicated directory %s", root));
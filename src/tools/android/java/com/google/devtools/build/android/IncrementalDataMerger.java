@@ -0,0 +1,356 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.android;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+
+import com.android.annotations.Nullable;
+import com.android.ide.common.internal.PngCruncher;
+import com.android.ide.common.res2.AssetMerger;
+import com.android.ide.common.res2.AssetSet;
+import com.android.ide.common.res2.FileStatus;
+import com.android.ide.common.res2.FileValidity;
+import com.android.ide.common.res2.MergedAssetWriter;
+import com.android.ide.common.res2.MergedResourceWriter;
+import com.android.ide.common.res2.MergingException;
+import com.android.ide.common.res2.ResourceMerger;
+import com.android.ide.common.res2.ResourceSet;
+import com.android.utils.ILogger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Merges resources and assets, reusing the result of the previous merge kept in a cache
+ * directory.
+ *
+ * <p>The cache holds the merged resources and assets, the merger state of the AOSP merge code
+ * (which contains the parsed values of all resource sets), and a digest of each source directory
+ * of the merged sets. On the next merge, only the files of source directories whose digest
+ * changed are compared with the previous state, and only the new, changed and removed files are
+ * reparsed and merged again. All other resource values are taken from the merger state.
+ *
+ * <p>If the cache is missing or doesn't match the sets to merge (e.g. because a dependency was
+ * added), everything is merged from scratch, and the cache is replaced.
+ *
+ * <p>The source directories must have the same paths in each merge, so modifiers that write
+ * to temporary directories have to use stable directories inside the cache instead. A cache
+ * directory must not be used by concurrent merges.
+ */
+final class IncrementalDataMerger {
+  private static final Logger LOGGER = Logger.getLogger(IncrementalDataMerger.class.getName());
+
+  private static final String DIGESTS_FILE = "digests";
+
+  /** The contents of a source directory: the hash of each file, by relative path. */
+  private static final class DirectoryContents {
+    final HashCode digest;
+    final Map<String, HashCode> files;
+
+    DirectoryContents(HashCode digest, Map<String, HashCode> files) {
+      this.digest = digest;
+      this.files = files;
+    }
+  }
+
+  private final Path cacheDir;
+  private final HashFunction hashFunction;
+  private final ILogger logger;
+
+  public IncrementalDataMerger(Path cacheDir, HashFunction hashFunction, ILogger logger) {
+    this.cacheDir = cacheDir;
+    this.hashFunction = hashFunction;
+    this.logger = logger;
+  }
+
+  /**
+   * Merges the given resource and asset sets, which must not have been loaded yet.
+   *
+   * @return the merged data, in directories inside the cache directory
+   */
+  public MergedAndroidData merge(List<ResourceSet> resourceSets, List<AssetSet> assetSets,
+      Path manifest, @Nullable PngCruncher cruncher) throws IOException, MergingException {
+    Files.createDirectories(cacheDir);
+    Map<String, DirectoryContents> previousContents = readDigests();
+    Map<String, DirectoryContents> resourceContents = new LinkedHashMap<>();
+    for (ResourceSet set : resourceSets) {
+      hashDirectories(set.getSourceFiles(), resourceContents);
+    }
+    Map<String, DirectoryContents> assetContents = new LinkedHashMap<>();
+    for (AssetSet set : assetSets) {
+      hashDirectories(set.getSourceFiles(), assetContents);
+    }
+    Map<File, FileStatus> resourceChanges = getChanges(previousContents, resourceContents);
+    Map<File, FileStatus> assetChanges = getChanges(previousContents, assetContents);
+    // If the merge fails, the next one has to start from scratch.
+    Files.deleteIfExists(cacheDir.resolve(DIGESTS_FILE));
+
+    Path resourcesOut = cacheDir.resolve("merged_resources");
+    Path assetsOut = cacheDir.resolve("merged_assets");
+    mergeResources(resourceSets, resourceChanges, resourcesOut,
+        cacheDir.resolve("resource_merger"), cruncher);
+    mergeAssets(assetSets, assetChanges, assetsOut, cacheDir.resolve("asset_merger"));
+
+    Map<String, DirectoryContents> contents = new LinkedHashMap<>(resourceContents);
+    contents.putAll(assetContents);
+    writeDigests(contents);
+    return new MergedAndroidData(resourcesOut, assetsOut, manifest);
+  }
+
+  private void mergeResources(List<ResourceSet> resourceSets,
+      @Nullable Map<File, FileStatus> changes, Path out, Path blobDir,
+      @Nullable PngCruncher cruncher) throws IOException, MergingException {
+    ResourceMerger merger = new ResourceMerger();
+    boolean incremental;
+    try {
+      incremental = changes != null && Files.isDirectory(out)
+          && merger.loadFromBlob(blobDir.toFile(), true /* incrementalState */)
+          && merger.checkValidUpdate(resourceSets);
+    } catch (MergingException e) {
+      LOGGER.warning("Ignoring corrupted resource merge cache " + blobDir + ": " + e.getMessage());
+      incremental = false;
+    }
+    if (incremental) {
+      FileValidity<ResourceSet> validity = new FileValidity<>();
+      for (Map.Entry<File, FileStatus> change : changes.entrySet()) {
+        validity = merger.findDataSetContaining(change.getKey(), validity);
+        if (validity.getStatus() == FileValidity.FileStatus.UNKNOWN_FILE
+            || (validity.getStatus() == FileValidity.FileStatus.VALID_FILE
+                && !validity.getDataSet().updateWith(validity.getSourceFile(), change.getKey(),
+                    change.getValue(), logger))) {
+          incremental = false;
+          break;
+        }
+      }
+    }
+    if (incremental) {
+      LOGGER.fine(String.format("Merging %d changed resource files", changes.size()));
+    } else {
+      LOGGER.fine("Merging all resources");
+      deleteRecursively(out);
+      deleteRecursively(blobDir);
+      merger = new ResourceMerger();
+      for (ResourceSet set : resourceSets) {
+        set.loadFromFiles(logger);
+        merger.addDataSet(set);
+      }
+    }
+    MergedResourceWriter writer = new MergedResourceWriter(out.toFile(), cruncher);
+    merger.mergeData(writer, false /* doCleanUp */);
+    merger.writeBlobTo(blobDir.toFile(), writer);
+  }
+
+  private void mergeAssets(List<AssetSet> assetSets, @Nullable Map<File, FileStatus> changes,
+      Path out, Path blobDir) throws IOException, MergingException {
+    AssetMerger merger = new AssetMerger();
+    boolean incremental;
+    try {
+      incremental = changes != null && Files.isDirectory(out)
+          && merger.loadFromBlob(blobDir.toFile(), true /* incrementalState */)
+          && merger.checkValidUpdate(assetSets);
+    } catch (MergingException e) {
+      LOGGER.warning("Ignoring corrupted resource merge cache " + blobDir + ": " + e.getMessage());
+      incremental = false;
+    }
+    if (incremental) {
+      FileValidity<AssetSet> validity = new FileValidity<>();
+      for (Map.Entry<File, FileStatus> change : changes.entrySet()) {
+        validity = merger.findDataSetContaining(change.getKey(), validity);
+        if (validity.getStatus() == FileValidity.FileStatus.UNKNOWN_FILE
+            || (validity.getStatus() == FileValidity.FileStatus.VALID_FILE
+                && !validity.getDataSet().updateWith(validity.getSourceFile(), change.getKey(),
+                    change.getValue(), logger))) {
+          incremental = false;
+          break;
+        }
+      }
+    }
+    if (!incremental) {
+      deleteRecursively(out);
+      deleteRecursively(blobDir);
+      merger = new AssetMerger();
+      for (AssetSet set : assetSets) {
+        set.loadFromFiles(logger);
+        merger.addDataSet(set);
+      }
+    }
+    MergedAssetWriter writer = new MergedAssetWriter(out.toFile());
+    merger.mergeData(writer, false /* doCleanUp */);
+    merger.writeBlobTo(blobDir.toFile(), writer);
+  }
+
+  /**
+   * Returns the files that were added, changed or removed since the previous merge, or null if
+   * the changes can't be determined because a source directory wasn't part of it.
+   */
+  @Nullable
+  private static Map<File, FileStatus> getChanges(Map<String, DirectoryContents> previousContents,
+      Map<String, DirectoryContents> contents) {
+    Map<File, FileStatus> changes = new LinkedHashMap<>();
+    for (Map.Entry<String, DirectoryContents> entry : contents.entrySet()) {
+      DirectoryContents previous = previousContents.get(entry.getKey());
+      DirectoryContents current = entry.getValue();
+      if (previous == null) {
+        return null;
+      }
+      if (previous.digest.equals(current.digest)) {
+        continue;
+      }
+      File dir = new File(entry.getKey());
+      for (String path : Sets.union(previous.files.keySet(), current.files.keySet())) {
+        HashCode previousHash = previous.files.get(path);
+        HashCode currentHash = current.files.get(path);
+        if (previousHash == null) {
+          changes.put(new File(dir, path), FileStatus.NEW);
+        } else if (currentHash == null) {
+          changes.put(new File(dir, path), FileStatus.REMOVED);
+        } else if (!previousHash.equals(currentHash)) {
+          changes.put(new File(dir, path), FileStatus.CHANGED);
+        }
+      }
+    }
+    return changes;
+  }
+
+  private void hashDirectories(Collection<File> dirs, Map<String, DirectoryContents> contents)
+      throws IOException {
+    for (File dir : dirs) {
+      contents.put(dir.getPath(), hashDirectory(dir.toPath()));
+    }
+  }
+
+  /**
+   * Hashes all files of a directory. The digest of the directory covers the relative paths and
+   * the hashes of the files.
+   */
+  private DirectoryContents hashDirectory(final Path dir) throws IOException {
+    final Map<String, HashCode> files = new TreeMap<>();
+    if (Files.isDirectory(dir)) {
+      Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                throws IOException {
+              files.put(dir.relativize(file).toString(), hashFile(file));
+              return FileVisitResult.CONTINUE;
+            }
+          });
+    }
+    Hasher hasher = hashFunction.newHasher();
+    for (Map.Entry<String, HashCode> file : files.entrySet()) {
+      hasher.putString(file.getKey(), UTF_8).putBytes(file.getValue().asBytes());
+    }
+    return new DirectoryContents(hasher.hash(), files);
+  }
+
+  private HashCode hashFile(Path file) throws IOException {
+    Hasher hasher = hashFunction.newHasher();
+    byte[] buffer = new byte[8192];
+    try (InputStream in = Files.newInputStream(file)) {
+      for (int read = in.read(buffer); read > 0; read = in.read(buffer)) {
+        hasher.putBytes(buffer, 0, read);
+      }
+    }
+    return hasher.hash();
+  }
+
+  /**
+   * Reads the digests of the previous merge. The file has a line "D digest path" for each
+   * source directory, followed by a line "F hash relative-path" for each of its files.
+   */
+  private Map<String, DirectoryContents> readDigests() throws IOException {
+    Path digestsFile = cacheDir.resolve(DIGESTS_FILE);
+    if (!Files.exists(digestsFile)) {
+      return ImmutableMap.of();
+    }
+    Map<String, DirectoryContents> contents = new LinkedHashMap<>();
+    try (BufferedReader reader = Files.newBufferedReader(digestsFile, UTF_8)) {
+      Map<String, HashCode> files = null;
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        String[] fields = line.split(" ", 3);
+        if (fields.length != 3) {
+          LOGGER.warning("Ignoring corrupted resource merge cache " + digestsFile);
+          return ImmutableMap.of();
+        }
+        HashCode hash = HashCode.fromString(fields[1]);
+        if (fields[0].equals("D")) {
+          files = new TreeMap<>();
+          contents.put(fields[2], new DirectoryContents(hash, files));
+        } else if (files != null) {
+          files.put(fields[2], hash);
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      LOGGER.warning("Ignoring corrupted resource merge cache " + digestsFile);
+      return ImmutableMap.of();
+    }
+    return contents;
+  }
+
+  private void writeDigests(Map<String, DirectoryContents> contents) throws IOException {
+    try (BufferedWriter writer =
+        Files.newBufferedWriter(cacheDir.resolve(DIGESTS_FILE), UTF_8)) {
+      for (Map.Entry<String, DirectoryContents> dir : contents.entrySet()) {
+        writer.write("D " + dir.getValue().digest + " " + dir.getKey() + "\n");
+        for (Map.Entry<String, HashCode> file : dir.getValue().files.entrySet()) {
+          writer.write("F " + file.getValue() + " " + file.getKey() + "\n");
+        }
+      }
+    }
+  }
+
+  static void deleteRecursively(Path dir) throws IOException {
+    if (!Files.exists(dir)) {
+      return;
+    }
+    Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+        if (e != null) {
+          throw e;
+        }
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
@@ -35,6 +35,12 @@ import java.nio.channels.FileChannel;
  *
  * <p>Clients of this API should take care not to keep references to returned buffers indefinitely,
  * as this would prevent collection of buffers discarded by the {@code BufferedFile} object.
+ *
+ * <p>Alternatively, the readable region can be memory mapped at construction time (see
+ * {@link #BufferedFile(FileChannel, long, long, int, boolean)}). Buffers returned from a memory
+ * mapped {@code BufferedFile} are read-only slices of the mapping. No data is copied, and since
+ * the mapping is never changed, {@link #getBuffer(long, int)} can be called concurrently, without
+ * locking, and efficiently supports random access.
  */
 public class BufferedFile {
 
@@ -44,6 +50,7 @@ public class BufferedFile {
    private FileChannel channel;
    private ByteBuffer current;
    private long currOff;
+   private final ByteBuffer mapped;
 
   /**
    * Same as {@code BufferedFile(channel, 0, channel.size(), blockSize)}.
@@ -72,6 +79,26 @@ public class BufferedFile {
    * @throws IOException if thrown by the underlying file channel.
    */
   public BufferedFile(FileChannel channel, long off, long len, int blockSize) throws IOException {
+    this(channel, off, len, blockSize, false);
+  }
+
+  /**
+   * Allocates a buffered file, optionally memory mapping the readable region. Regions larger than
+   * {@link Integer#MAX_VALUE} bytes can't be mapped to a single buffer, and are read through an
+   * internal buffer regardless of {@code memoryMapped}.
+   *
+   * @param channel file channel opened for reading.
+   * @param off the first byte that can be read through this object.
+   * @param len the max number of bytes that can be read through this object.
+   * @param blockSize default max buffer allocation size is {@code Math.min(blockSize, len)}.
+   * @param memoryMapped whether to memory map the readable region.
+   * @throws NullPointerException if {@code channel} is {@code null}.
+   * @throws IllegalArgumentException if {@code blockSize}, {@code off}, or {@code len} are negative
+   * or if {@code off + len > channel.size()}.
+   * @throws IOException if thrown by the underlying file channel.
+   */
+  public BufferedFile(FileChannel channel, long off, long len, int blockSize, boolean memoryMapped)
+      throws IOException {
     Preconditions.checkNotNull(channel);
     Preconditions.checkArgument(blockSize >= 0);
     Preconditions.checkArgument(off >= 0);
@@ -83,6 +110,19 @@ public class BufferedFile {
     this.channel = channel;
     this.current = null;
     currOff = -1;
+    if (memoryMapped && len <= Integer.MAX_VALUE) {
+      this.mapped = channel.map(FileChannel.MapMode.READ_ONLY, off, len);
+    } else {
+      this.mapped = null;
+    }
+  }
+
+  /**
+   * Returns whether the readable region is memory mapped.
+   * @return {@code true} iff the readable region is memory mapped.
+   */
+  public boolean isMemoryMapped() {
+    return mapped != null;
   }
 
   /**
@@ -110,6 +150,9 @@ public class BufferedFile {
    *
    * @param off
    * @param len
+   * <p>If the readable region is memory mapped, a read-only slice of the mapping is returned
+   * instead, and no locking is performed.
+   *
    * @return a slice of the internal byte buffer containing the requested data. Except, if the
    * client request data beyond the readable region of the file, the {@code len} value is reduced
    * to the maximum number of bytes available from the given {@code off}.
@@ -117,7 +160,7 @@ public class BufferedFile {
    * readable region specified when constructing this object.
    * @throws IOException if thrown by the underlying file channel.
    */
-  public synchronized ByteBuffer getBuffer(long off, int len) throws IOException {
+  public ByteBuffer getBuffer(long off, int len) throws IOException {
     Preconditions.checkArgument(off >= offset);
     Preconditions.checkArgument(len >= 0);
     Preconditions.checkArgument(off < limit || (off == limit && len == 0));
@@ -125,6 +168,16 @@ public class BufferedFile {
       len = (int) (limit - off);
     }
     Preconditions.checkState(off + len <= limit);
+    if (mapped != null) {
+      // The duplicate has its own position and limit, so concurrent callers don't interfere.
+      ByteBuffer view = mapped.duplicate();
+      view.position((int) (off - offset));
+      return (ByteBuffer) view.slice().limit(len);
+    }
+    return getBufferedData(off, len);
+  }
+
+  private synchronized ByteBuffer getBufferedData(long off, int len) throws IOException {
     if (current == null || off < currOff || off + len > currOff + current.capacity()) {
       allocate(off, len);
       Preconditions.checkState(current != null && off == currOff
@@ -33,21 +33,33 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Extracts entries from a set of input archives, and copies them to N output archive of
  * approximately equal size, while attempting to split archives on package (directory) boundaries.
  * Optionally, accept a list of entries to be added to the first output archive, splitting
  * remaining entries by package boundaries.
+ *
+ * <p>If all inputs are memory mapped (see {@link ZipIn#isMemoryMapped()}), the entries of each
+ * output archive are copied by a separate task, so that the output archives are written
+ * concurrently. The entries are written to each output in the same order as when copying
+ * sequentially, so the output doesn't depend on the number of threads.
  */
 public class SplitZip implements EntryHandler {
   private boolean verbose = false;
@@ -58,6 +70,7 @@ public class SplitZip implements EntryHandler {
   private String resourceFile;
   private Date date;
   private DosTime dosTime;
+  private int copyThreads = Runtime.getRuntime().availableProcessors();
   // Internal state variables:
   private boolean finished = false;
   private Set<String> filter;
@@ -176,6 +189,27 @@ public class SplitZip implements EntryHandler {
     return date;
   }
 
+  /**
+   * Sets the maximum number of threads used to copy entries to the output archives. Entries are
+   * only copied concurrently if all inputs are memory mapped. The default is the number of
+   * available processors.
+   *
+   * @param threads maximum number of copying threads, at least 1.
+   * @return this object.
+   */
+  public SplitZip setCopyThreads(int threads) {
+    Preconditions.checkArgument(threads > 0);
+    this.copyThreads = threads;
+    return this;
+  }
+
+  /**
+   * Gets the maximum number of threads used to copy entries to the output archives.
+   */
+  public int getCopyThreads() {
+    return copyThreads;
+  }
+
   /**
    * Configures multiple input file locations.
    *
@@ -191,7 +225,8 @@ public class SplitZip implements EntryHandler {
   }
 
   /**
-   * Configures an input location. An input file must be a zip archive.
+   * Configures an input location. An input file must be a zip archive. The file is memory mapped,
+   * unless it's too big to be mapped to a single buffer.
    *
    * @param filename path for an input location.
    * @return this object
@@ -199,7 +234,7 @@ public class SplitZip implements EntryHandler {
    */
   public SplitZip addInput(String filename) throws IOException {
     if (filename != null) {
-      inputs.add(new ZipIn(new FileInputStream(filename).getChannel(), filename));
+      inputs.add(new ZipIn(new FileInputStream(filename).getChannel(), filename, true));
     }
     return this;
   }
@@ -274,12 +309,92 @@ public class SplitZip implements EntryHandler {
     // Assign input entries to output files
     split();
     // Copy entries to the assigned output files
-    for (ZipIn zip : inputs) {
-      zip.scanEntries(this);
+    if (copyThreads > 1 && zipOuts.length > 1 && allInputsMemoryMapped()) {
+      copyConcurrently();
+    } else {
+      for (ZipIn zip : inputs) {
+        zip.scanEntries(this);
+      }
     }
     return this;
   }
-  
+
+  private boolean allInputsMemoryMapped() throws IOException {
+    for (ZipIn zip : inputs) {
+      if (!zip.isMemoryMapped()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Copies the assigned entries to the output files, using one task per output file. Each task
+   * copies the entries assigned to its output in the order {@link #handle} would see them, that is,
+   * ordered by input, and by file offset within each input.
+   */
+  private void copyConcurrently() throws IOException {
+    final Map<ZipOut, List<ZipIn>> entryInputs = new LinkedHashMap<>();
+    final Map<ZipOut, List<DirectoryEntry>> entries = new LinkedHashMap<>();
+    for (ZipIn zip : inputs) {
+      for (DirectoryEntry dirEntry : zip.centralDirectory().mapByOffset().values()) {
+        // Only the first entry of a given name is copied, as in handle().
+        ZipOut out = assignments.remove(dirEntry.getFilename());
+        if (out == null) {
+          continue;
+        }
+        if (!entries.containsKey(out)) {
+          entryInputs.put(out, new ArrayList<ZipIn>());
+          entries.put(out, new ArrayList<DirectoryEntry>());
+        }
+        entryInputs.get(out).add(zip);
+        entries.get(out).add(dirEntry);
+      }
+    }
+    if (entries.isEmpty()) {
+      return;
+    }
+    ExecutorService executor =
+        Executors.newFixedThreadPool(Math.min(copyThreads, entries.size()));
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (final ZipOut out : entries.keySet()) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            copyEntries(out, entryInputs.get(out), entries.get(out));
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while copying entries");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void copyEntries(ZipOut out, List<ZipIn> entryInputs, List<DirectoryEntry> entries)
+      throws IOException {
+    for (int i = 0; i < entries.size(); i++) {
+      ZipIn.ZipEntry zipEntry = entryInputs.get(i).entryFor(entries.get(i));
+      if (zipEntry.getCode() != ZipIn.ZipEntry.Status.ENTRY_OK) {
+        throw new IOException(zipEntry.getCode().toString());
+      }
+      copyEntry(out, zipEntry.getHeader(), zipEntry.getDirEntry(), zipEntry.getContent());
+    }
+  }
+
+
   /**
    * Copies an entry to the assigned output files. Called for each entry in the input files. 
    * @param in
@@ -302,9 +417,18 @@ public class SplitZip implements EntryHandler {
       System.out.println("Warning: no directory entry");
       return;
     }
+    copyEntry(out, header, dirEntry, data);
+  }
+
+  private void copyEntry(ZipOut out, LocalFileHeader header, DirectoryEntry dirEntry,
+      ByteBuffer data) throws IOException {
     // Clone directory entry
     DirectoryEntry entryOut = out.nextEntry(dirEntry);
     if (dosTime != null) {
+      if (header.buffer.isReadOnly()) {
+        // Memory mapped input, copy the header before changing it.
+        header = header.copy(ByteBuffer.allocate(header.getSize()));
+      }
       // Overwrite time stamp
       header.set(LOCTIM, dosTime.time);
       entryOut.set(CENTIM, dosTime.time);
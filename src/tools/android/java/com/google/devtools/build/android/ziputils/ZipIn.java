@@ -60,6 +60,7 @@ public class ZipIn {
   private EndOfCentralDirectory eocd = null;
   private final boolean useDirectory;
   private final boolean ignoreDeleted;
+  private final boolean memoryMapped;
   private final boolean verbose = false;
 
   /**
@@ -69,10 +70,24 @@ public class ZipIn {
    * @param filename filename or nickname.
    */
   public ZipIn(FileChannel channel, String filename) {
+    this(channel, filename, false);
+  }
+
+  /**
+   * Creates a {@code ZipIn} view of a file, with a (nick)name, optionally memory mapping the
+   * file content. Entries of a memory mapped {@code ZipIn} can be read concurrently, once the
+   * central directory has been loaded, and their data is returned in read-only buffers.
+   *
+   * @param channel File channel open for reading.
+   * @param filename filename or nickname.
+   * @param memoryMapped whether to memory map the content of the file.
+   */
+  public ZipIn(FileChannel channel, String filename, boolean memoryMapped) {
     this.fileChannel = channel;
     this.filename = filename;
     this.useDirectory = true;
     this.ignoreDeleted = useDirectory;
+    this.memoryMapped = memoryMapped;
   }
 
   /**
@@ -83,6 +98,17 @@ public class ZipIn {
     return filename;
   }
 
+  /**
+   * Returns whether the content of this file is memory mapped. This may be {@code false} even if
+   * memory mapping was requested, if the content is too big to be mapped to a single buffer.
+   * @return {@code true} iff entry data is read from a memory mapping of the file.
+   * @throws IOException
+   */
+  public boolean isMemoryMapped() throws IOException {
+    endOfCentralDirectory();
+    return bufferedFile.isMemoryMapped();
+  }
+
   /**
    * Returns a view of the "end of central directory" record expected at (or towards) the end of a
    * zip file.
@@ -497,9 +523,10 @@ public class ZipIn {
 
     if (eocd != null) {
       bufferedFile = new BufferedFile(fileChannel, 0, eocd.get(ENDOFF),
-          READ_BLOCK_SIZE);
+          READ_BLOCK_SIZE, memoryMapped);
     } else {
-      bufferedFile = new BufferedFile(fileChannel, READ_BLOCK_SIZE);
+      bufferedFile = new BufferedFile(fileChannel, 0, fileChannel.size(), READ_BLOCK_SIZE,
+          memoryMapped);
     }
   }
 